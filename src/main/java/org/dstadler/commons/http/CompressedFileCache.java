@@ -0,0 +1,108 @@
+package org.dstadler.commons.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps compressed versions of small static files in memory, so files which are requested
+ * often are not compressed again for every request.
+ *
+ * Entries are valid as long as size and time of last modification of the file stay the same,
+ * the least recently used entries are removed when the configured number of bytes is exceeded.
+ */
+class CompressedFileCache {
+	/**
+	 * Larger files are compressed while they are sent instead.
+	 */
+	static final long MAX_FILE_SIZE = 256 * 1024;
+
+	private static final class Entry {
+		private final long length;
+		private final long lastModified;
+		private final byte[] data;
+
+		private Entry(long length, long lastModified, byte[] data) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.data = data;
+		}
+	}
+
+	private final long maxBytes;
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	/**
+	 * @param maxBytes How many bytes of compressed data are kept at most
+	 */
+	CompressedFileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param file The file to serve, at most {@link #MAX_FILE_SIZE} bytes
+	 * @param length The size of the file
+	 * @param lastModified The time of last modification of the file
+	 * @param encoding The content-coding, see {@link CompressingInputStream}
+	 * @return The compressed content of the file
+	 * @throws IOException If reading the file fails
+	 */
+	byte[] get(File file, long length, long lastModified, String encoding) throws IOException {
+		if (length > MAX_FILE_SIZE) {
+			throw new IllegalArgumentException("Cannot cache file " + file + " with " + length + " bytes");
+		}
+
+		String key = encoding + ':' + file.getAbsolutePath();
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+				return entry.data;
+			}
+		}
+
+		// compress outside the lock, concurrent requests for the same file at worst do it twice
+		byte[] content = Files.readAllBytes(file.toPath());
+		byte[] data = CompressingInputStream.compress(content, encoding);
+		if (content.length != length) {
+			// the file changed while reading it, do not keep the data with the old validators
+			return data;
+		}
+
+		synchronized (entries) {
+			Entry previous = entries.put(key, new Entry(length, lastModified, data));
+			if (previous != null) {
+				bytes -= previous.data.length;
+			}
+			bytes += data.length;
+
+			Iterator<Entry> it = entries.values().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				bytes -= it.next().data.length;
+				it.remove();
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * @return The number of files which are cached currently
+	 */
+	int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return The number of bytes of compressed data which are cached currently
+	 */
+	long getBytes() {
+		synchronized (entries) {
+			return bytes;
+		}
+	}
+}
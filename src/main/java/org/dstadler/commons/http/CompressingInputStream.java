@@ -0,0 +1,124 @@
+package org.dstadler.commons.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+/**
+ * Provides the data of another stream compressed with one of the content-codings of HTTP,
+ * i.e. "gzip" or "deflate" (zlib format).
+ *
+ * In contrast to {@link java.util.zip.GZIPOutputStream} the data is compressed while it is read,
+ * so it can be used as body of a {@link NanoHTTPD.Response} which is sent in chunks.
+ */
+class CompressingInputStream extends InputStream {
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	// magic number, compression method "deflate", no flags, no time, no extra flags, unknown OS
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final Deflater deflater;
+	private final CRC32 crc;
+	private final InputStream body;
+
+	private byte[] pending;
+	private int pendingPos;
+	private boolean bodyDone;
+
+	/**
+	 * @param in The data to compress, it is closed when this stream is closed
+	 * @param encoding Either {@link #GZIP} or {@link #DEFLATE}
+	 */
+	CompressingInputStream(InputStream in, String encoding) {
+		boolean gzip = GZIP.equals(encoding);
+		if (!gzip && !DEFLATE.equals(encoding)) {
+			throw new IllegalArgumentException("Unsupported content-coding: " + encoding);
+		}
+
+		// gzip wraps raw deflate data with its own header and trailer
+		deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+		if (gzip) {
+			crc = new CRC32();
+			in = new CheckedInputStream(in, crc);
+			pending = GZIP_HEADER.clone();
+		} else {
+			crc = null;
+		}
+		body = new DeflaterInputStream(in, deflater, 8192);
+	}
+
+	/**
+	 * @param data The data to compress
+	 * @param encoding Either {@link #GZIP} or {@link #DEFLATE}
+	 * @return The compressed data
+	 */
+	static byte[] compress(byte[] data, String encoding) throws IOException {
+		try (InputStream in = new CompressingInputStream(new ByteArrayInputStream(data), encoding)) {
+			return in.readAllBytes();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int read;
+		do {
+			read = read(b, 0, 1);
+		} while (read == 0);
+		return read == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		while (true) {
+			if (pending != null && pendingPos < pending.length) {
+				int count = Math.min(len, pending.length - pendingPos);
+				System.arraycopy(pending, pendingPos, b, off, count);
+				pendingPos += count;
+				return count;
+			}
+			if (bodyDone) {
+				return -1;
+			}
+
+			int read = body.read(b, off, len);
+			if (read >= 0) {
+				return read;
+			}
+
+			bodyDone = true;
+			if (crc != null) {
+				pending = trailer(crc.getValue(), deflater.getBytesRead());
+				pendingPos = 0;
+			}
+		}
+	}
+
+	private static byte[] trailer(long crc, long size) {
+		// both values are stored little-endian, the size modulo 2^32
+		byte[] trailer = new byte[8];
+		for (int i = 0; i < 4; i++) {
+			trailer[i] = (byte) (crc >>> (8 * i));
+			trailer[4 + i] = (byte) (size >>> (8 * i));
+		}
+		return trailer;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			body.close();
+		} finally {
+			deflater.end();
+		}
+	}
+}
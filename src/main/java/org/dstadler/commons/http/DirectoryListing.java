@@ -0,0 +1,378 @@
+package org.dstadler.commons.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lists directories for {@link NanoHTTPD#serveFile(String, java.util.Properties, java.util.Properties, File, boolean)}
+ * as HTML or JSON, sorted and split into pages.
+ *
+ * The entries of a directory are read with one call for the attributes of each file and are kept
+ * in memory as long as the time of last modification of the directory stays the same. As changing
+ * a file does not touch the directory, listings are read again after a maximum age as well.
+ */
+class DirectoryListing {
+	static final int DEFAULT_PAGE_SIZE = 1000;
+	static final int MAX_PAGE_SIZE = 10_000;
+
+	/**
+	 * How many entries of all directories are kept, the least recently used directories are removed first.
+	 */
+	static final int MAX_CACHED_ITEMS = 200_000;
+
+	enum Sort {
+		NAME, SIZE, MODIFIED;
+
+		/**
+		 * @return The sort order for the given parameter, null if it is unknown
+		 */
+		static Sort of(String name) {
+			for (Sort sort : values()) {
+				if (sort.name().equalsIgnoreCase(name)) {
+					return sort;
+				}
+			}
+			return null;
+		}
+	}
+
+	static final class Item {
+		private final String name;
+		private final boolean directory;
+		private final long size;
+		private final long lastModified;
+
+		Item(String name, boolean directory, long size, long lastModified) {
+			this.name = name;
+			this.directory = directory;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		boolean isDirectory() {
+			return directory;
+		}
+
+		/**
+		 * @return The size of a regular file, -1 for directories and other types of files
+		 */
+		long getSize() {
+			return size;
+		}
+
+		long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	private static final Comparator<Item> BY_NAME = Comparator.comparing(Item::getName, String.CASE_INSENSITIVE_ORDER)
+			.thenComparing(Item::getName);
+
+	private static final class Listing {
+		private final long modified;
+		private final long created;
+		private final List<Item> items;
+		private final Map<String, List<Item>> sorted = new ConcurrentHashMap<>();
+
+		private Listing(long modified, long created, List<Item> items) {
+			this.modified = modified;
+			this.created = created;
+			this.items = items;
+		}
+
+		private List<Item> getSorted(Sort sort, boolean descending) {
+			return sorted.computeIfAbsent(sort.name() + descending, key -> {
+				Comparator<Item> comparator = switch (sort) {
+					case NAME -> BY_NAME;
+					case SIZE -> Comparator.comparingLong(Item::getSize).thenComparing(BY_NAME);
+					case MODIFIED -> Comparator.comparingLong(Item::getLastModified).thenComparing(BY_NAME);
+				};
+				if (descending) {
+					comparator = comparator.reversed();
+				}
+
+				// directories are always listed first
+				List<Item> list = new ArrayList<>(items);
+				list.sort(Comparator.comparing((Item item) -> !item.isDirectory()).thenComparing(comparator));
+				return Collections.unmodifiableList(list);
+			});
+		}
+	}
+
+	private final long maxAge;
+	private final Map<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+	private long cachedItems;
+
+	/**
+	 * @param maxAge How many milliseconds a listing is used at most, even if the directory was not changed
+	 */
+	DirectoryListing(long maxAge) {
+		this.maxAge = TimeUnit.MILLISECONDS.toNanos(maxAge);
+	}
+
+	/**
+	 * @param dir The directory to list
+	 * @param sort How to sort the entries
+	 * @param descending If the order should be reversed
+	 * @return The entries of the directory, sub-directories first
+	 * @throws IOException If the directory cannot be read
+	 */
+	List<Item> list(File dir, Sort sort, boolean descending) throws IOException {
+		Path path = dir.toPath();
+		String key = dir.getAbsolutePath();
+		long modified = Files.getLastModifiedTime(path).toMillis();
+		long now = System.nanoTime();
+
+		Listing listing;
+		synchronized (listings) {
+			listing = listings.get(key);
+		}
+		if (listing == null || listing.modified != modified || now - listing.created > maxAge) {
+			listing = new Listing(modified, now, read(path));
+
+			synchronized (listings) {
+				Listing previous = listings.put(key, listing);
+				if (previous != null) {
+					cachedItems -= previous.items.size();
+				}
+				cachedItems += listing.items.size();
+
+				Iterator<Listing> it = listings.values().iterator();
+				while (cachedItems > MAX_CACHED_ITEMS && it.hasNext()) {
+					cachedItems -= it.next().items.size();
+					it.remove();
+				}
+			}
+		}
+
+		return listing.getSorted(sort, descending);
+	}
+
+	/**
+	 * @return The number of directories which are cached currently
+	 */
+	int size() {
+		synchronized (listings) {
+			return listings.size();
+		}
+	}
+
+	private static List<Item> read(Path dir) throws IOException {
+		List<Item> items = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (IOException e) {
+					// e.g. removed in the meantime or a broken symbolic link
+					continue;
+				}
+				items.add(new Item(path.getFileName().toString(), attributes.isDirectory(),
+						attributes.isRegularFile() ? attributes.size() : -1, attributes.lastModifiedTime().toMillis()));
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * @return The number of pages for the given number of entries, at least one
+	 */
+	static int getPages(int total, int pageSize) {
+		return Math.max(1, (total + pageSize - 1) / pageSize);
+	}
+
+	/**
+	 * @param uri The URI of the directory, ending with '/'
+	 * @param items The entries of the directory
+	 * @param page The page to show, starting at 1
+	 * @param pageSize How many entries are shown on one page
+	 * @return A HTML page which lists the entries of the given page
+	 */
+	static String toHtml(String uri, List<Item> items, Sort sort, boolean descending, int page, int pageSize) {
+		StringBuilder msg = new StringBuilder("<html><body><h1>Directory ").append(escapeHtml(uri)).append("</h1><br/>");
+
+		// clicking the current column reverses the order
+		msg.append("Sort by:");
+		for (Sort column : Sort.values()) {
+			msg.append(" <a href=\"").append(query(column, column == sort && !descending, 1, pageSize)).append("\">")
+					.append(column.name().toLowerCase()).append("</a>");
+		}
+		msg.append("<br/>");
+
+		if (uri.length() > 1) {
+			String u = uri.substring(0, uri.length() - 1);
+			int slash = u.lastIndexOf('/');
+			if (slash >= 0) {
+				msg.append("<b><a href=\"").append(encodeUri(uri.substring(0, slash + 1))).append("\">..</a></b><br/>");
+			}
+		}
+
+		int pages = getPages(items.size(), pageSize);
+		for (Item item : page(items, page, pageSize)) {
+			String name = item.isDirectory() ? item.getName() + '/' : item.getName();
+			if (item.isDirectory()) {
+				msg.append("<b>");
+			}
+			msg.append("<a href=\"").append(encodeUri(uri + name)).append("\">").append(escapeHtml(name)).append("</a>");
+
+			// Show file size
+			long len = item.getSize();
+			if (len >= 0) {
+				msg.append(" &nbsp;<font size=2>(");
+				if (len < 1024) {
+					msg.append(len).append(" bytes");
+				} else if (len < 1024 * 1024) {
+					msg.append(len / 1024).append(".").append(len % 1024 / 10 % 100).append(" KB");
+				} else {
+					msg.append(len / (1024 * 1024)).append(".").append(len % (1024 * 1024) / 10 % 100).append(" MB");
+				}
+				msg.append(")</font>");
+			}
+			msg.append("<br/>");
+			if (item.isDirectory()) {
+				msg.append("</b>");
+			}
+		}
+
+		if (pages > 1) {
+			msg.append("<br/>Page ").append(page).append(" of ").append(pages).append(" (").append(items.size()).append(" entries)");
+			if (page > 1) {
+				msg.append(" <a href=\"").append(query(sort, descending, page - 1, pageSize)).append("\">previous</a>");
+			}
+			if (page < pages) {
+				msg.append(" <a href=\"").append(query(sort, descending, page + 1, pageSize)).append("\">next</a>");
+			}
+			msg.append("<br/>");
+		}
+
+		return msg.append("</body></html>").toString();
+	}
+
+	/**
+	 * @param uri The URI of the directory, ending with '/'
+	 * @param items The entries of the directory
+	 * @param page The page to show, starting at 1
+	 * @param pageSize How many entries are shown on one page
+	 * @return A JSON object which lists the entries of the given page
+	 */
+	static String toJson(String uri, List<Item> items, int page, int pageSize) {
+		StringBuilder json = new StringBuilder("{\"path\":\"").append(escapeJson(uri)).append('"')
+				.append(",\"total\":").append(items.size())
+				.append(",\"page\":").append(page)
+				.append(",\"pages\":").append(getPages(items.size(), pageSize))
+				.append(",\"pageSize\":").append(pageSize)
+				.append(",\"entries\":[");
+
+		boolean first = true;
+		for (Item item : page(items, page, pageSize)) {
+			if (!first) {
+				json.append(',');
+			}
+			first = false;
+
+			json.append("{\"name\":\"").append(escapeJson(item.getName())).append('"')
+					.append(",\"directory\":").append(item.isDirectory());
+			if (item.getSize() >= 0) {
+				json.append(",\"size\":").append(item.getSize());
+			}
+			json.append(",\"lastModified\":").append(item.getLastModified()).append('}');
+		}
+
+		return json.append("]}").toString();
+	}
+
+	private static List<Item> page(List<Item> items, int page, int pageSize) {
+		int start = (int) Math.min(items.size(), (long) (page - 1) * pageSize);
+		return items.subList(start, Math.min(items.size(), start + pageSize));
+	}
+
+	private static String query(Sort sort, boolean descending, int page, int pageSize) {
+		StringBuilder query = new StringBuilder("?sort=").append(sort.name().toLowerCase());
+		if (descending) {
+			query.append("&amp;order=desc");
+		}
+		if (page > 1) {
+			query.append("&amp;page=").append(page);
+		}
+		if (pageSize != DEFAULT_PAGE_SIZE) {
+			query.append("&amp;size=").append(pageSize);
+		}
+		return query.toString();
+	}
+
+	/**
+	 * URL-encodes everything between '/'-characters.
+	 * Encodes spaces as '%20' instead of '+'.
+	 */
+	static String encodeUri(String uri) {
+		StringBuilder newUri = new StringBuilder();
+		StringTokenizer st = new StringTokenizer(uri, "/ ", true);
+		while (st.hasMoreTokens()) {
+			String tok = st.nextToken();
+			if (tok.equals("/")) {
+				newUri.append('/');
+			} else if (tok.equals(" ")) {
+				newUri.append("%20");
+			} else {
+				newUri.append(URLEncoder.encode(tok, StandardCharsets.UTF_8));
+			}
+		}
+		return newUri.toString();
+	}
+
+	private static String escapeHtml(String text) {
+		StringBuilder escaped = new StringBuilder(text.length());
+		for (char c : text.toCharArray()) {
+			switch (c) {
+				case '<' -> escaped.append("&lt;");
+				case '>' -> escaped.append("&gt;");
+				case '&' -> escaped.append("&amp;");
+				case '"' -> escaped.append("&quot;");
+				default -> escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	private static String escapeJson(String text) {
+		StringBuilder escaped = new StringBuilder(text.length());
+		for (char c : text.toCharArray()) {
+			switch (c) {
+				case '"' -> escaped.append("\\\"");
+				case '\\' -> escaped.append("\\\\");
+				case '\n' -> escaped.append("\\n");
+				case '\r' -> escaped.append("\\r");
+				case '\t' -> escaped.append("\\t");
+				default -> {
+					if (c < 0x20) {
+						escaped.append(String.format("\\u%04x", (int) c));
+					} else {
+						escaped.append(c);
+					}
+				}
+			}
+		}
+		return escaped.toString();
+	}
+}
@@ -0,0 +1,183 @@
+package org.dstadler.commons.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides one or more regions of a file, optionally with data in between, e.g. the
+ * headers of the parts of a "multipart/byteranges" response. The file is either read
+ * via a {@link FileChannel} or its content is already available in memory.
+ *
+ * The content can be read as normal stream or be sent to a channel via
+ * {@link #writeTo(WritableByteChannel)}, which uses {@link FileChannel#transferTo(long, long, WritableByteChannel)},
+ * so that the operating system can send the regions of the file without copying them through the heap.
+ *
+ * Reading and writing continue where the previous call stopped, the instance is not thread-safe.
+ */
+class FileRegionInputStream extends InputStream {
+	private static final class Part {
+		// null for regions of the channel
+		private final byte[] data;
+		private final long position;
+		private final long length;
+
+		private Part(byte[] data, long position, long length) {
+			this.data = data;
+			this.position = position;
+			this.length = length;
+		}
+	}
+
+	private final FileChannel channel;
+	private final byte[] content;
+	private final List<Part> parts = new ArrayList<>();
+	private long length;
+
+	private int index;
+	private long offset;
+
+	/**
+	 * @param channel The file to read from, it is closed when this stream is closed
+	 */
+	FileRegionInputStream(FileChannel channel) {
+		this.channel = channel;
+		this.content = null;
+	}
+
+	/**
+	 * @param content The content of the file, regions are copied from it
+	 */
+	FileRegionInputStream(byte[] content) {
+		this.channel = null;
+		this.content = content;
+	}
+
+	/**
+	 * Adds fixed data after the parts which were added before.
+	 */
+	void addData(byte[] data) {
+		if (data.length > 0) {
+			parts.add(new Part(data, 0, data.length));
+			length += data.length;
+		}
+	}
+
+	/**
+	 * Adds a region of the file after the parts which were added before.
+	 */
+	void addRegion(long position, long regionLength) {
+		if (regionLength > 0) {
+			parts.add(new Part(content, position, regionLength));
+			length += regionLength;
+		}
+	}
+
+	/**
+	 * @return The number of bytes of all parts
+	 */
+	long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return true if not all data was read or written yet
+	 */
+	boolean hasRemaining() {
+		return index < parts.size();
+	}
+
+	/**
+	 * Sends as much of the remaining data to the channel as it accepts without blocking, i.e.
+	 * everything for a channel in blocking mode.
+	 *
+	 * @param target The channel to write to
+	 * @return The number of bytes which were written
+	 * @throws IOException If reading or writing fails or the file was truncated in the meantime
+	 */
+	long writeTo(WritableByteChannel target) throws IOException {
+		long written = 0;
+		while (index < parts.size()) {
+			Part part = parts.get(index);
+			long remaining = part.length - offset;
+
+			long count;
+			if (part.data != null) {
+				count = target.write(ByteBuffer.wrap(part.data, (int) (part.position + offset), (int) remaining));
+			} else {
+				count = channel.transferTo(part.position + offset, remaining, target);
+				if (count == 0 && part.position + offset >= channel.size()) {
+					throw new EOFException("File is shorter than expected, could not read at position " + (part.position + offset));
+				}
+			}
+			if (count == 0) {
+				// the channel does not accept more data right now
+				break;
+			}
+
+			written += count;
+			advance(part, count);
+		}
+		return written;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int read = read(b, 0, 1);
+		return read == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (index >= parts.size()) {
+			return -1;
+		}
+
+		Part part = parts.get(index);
+		int count = (int) Math.min(len, part.length - offset);
+		if (part.data != null) {
+			System.arraycopy(part.data, (int) (part.position + offset), b, off, count);
+		} else {
+			count = channel.read(ByteBuffer.wrap(b, off, count), part.position + offset);
+			if (count < 0) {
+				throw new EOFException("File is shorter than expected, could not read at position " + (part.position + offset));
+			}
+		}
+
+		advance(part, count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		long remaining = 0;
+		for (int i = index; i < parts.size(); i++) {
+			remaining += parts.get(i).length;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, remaining - offset);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	private void advance(Part part, long count) {
+		offset += count;
+		if (offset == part.length) {
+			index++;
+			offset = 0;
+		}
+	}
+}
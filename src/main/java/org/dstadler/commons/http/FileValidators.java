@@ -0,0 +1,224 @@
+package org.dstadler.commons.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Computes the validators which allow clients to revalidate files that were served by
+ * {@link NanoHTTPD#serveFile(String, Properties, File, boolean)} instead of downloading them again
+ * and evaluates the conditional headers "If-None-Match", "If-Modified-Since" and "If-Range".
+ *
+ * By default the "ETag" is a weak validator built from the size and the time of last modification
+ * of the file. Strong validators are computed from a hash of the content, they are cached as long
+ * as size and time of last modification of the file stay the same.
+ */
+class FileValidators {
+	/**
+	 * How many hashes are kept, the least recently used ones are removed first.
+	 */
+	static final int MAX_CACHED_HASHES = 1024;
+
+	/**
+	 * Larger files always get a weak validator to not read them completely on a request.
+	 */
+	static final long MAX_HASH_SIZE = 64L * 1024 * 1024;
+
+	private static final class Hash {
+		private final long length;
+		private final long lastModified;
+		private final String etag;
+
+		private Hash(long length, long lastModified, String etag) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.etag = etag;
+		}
+	}
+
+	private final Map<String, Hash> hashes = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Hash> eldest) {
+			return size() > MAX_CACHED_HASHES;
+		}
+	};
+
+	private volatile boolean strong = false;
+
+	/**
+	 * @param strong If validators should be computed from the content of the files
+	 */
+	void setStrong(boolean strong) {
+		this.strong = strong;
+		if (!strong) {
+			synchronized (hashes) {
+				hashes.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return The number of files for which a hash of the content is cached currently
+	 */
+	int getCachedHashes() {
+		synchronized (hashes) {
+			return hashes.size();
+		}
+	}
+
+	/**
+	 * @param file The file which is served
+	 * @param length The size of the file
+	 * @param lastModified The time of last modification of the file
+	 * @return The value for the "ETag" header including quotes
+	 * @throws IOException If reading the file fails while computing a strong validator
+	 */
+	String getETag(File file, long length, long lastModified) throws IOException {
+		if (!strong || length > MAX_HASH_SIZE) {
+			return "W/\"" + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+		}
+
+		String key = file.getAbsolutePath();
+		Hash hash;
+		synchronized (hashes) {
+			hash = hashes.get(key);
+		}
+		if (hash != null && hash.length == length && hash.lastModified == lastModified) {
+			return hash.etag;
+		}
+
+		// hash outside the lock, concurrent requests for the same file at worst compute it twice
+		String etag = '"' + computeHash(file) + '"';
+		synchronized (hashes) {
+			hashes.put(key, new Hash(length, lastModified, etag));
+		}
+		return etag;
+	}
+
+	private static String computeHash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is always available", e);
+		}
+
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+
+		// half of the hash is enough to tell versions of a file apart
+		return HexFormat.of().formatHex(digest.digest(), 0, 16);
+	}
+
+	/**
+	 * Evaluates "If-None-Match" and, only if that is not sent, "If-Modified-Since".
+	 *
+	 * @param header The headers of the request with lowercase names, may be null
+	 * @param etag The current validator of the file
+	 * @param lastModified The time of last modification of the file
+	 * @return true if the client has the current version of the file already
+	 */
+	static boolean isNotModified(Properties header, String etag, long lastModified) {
+		if (header == null) {
+			return false;
+		}
+
+		String ifNoneMatch = header.getProperty("if-none-match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				// weak comparison is used for GET and HEAD, compressed versions are equivalent
+				if (tag.equals("*") || stripEncoding(stripWeak(tag)).equals(stripWeak(etag))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		long ifModifiedSince = parseDate(header.getProperty("if-modified-since"));
+		// HTTP dates have a resolution of seconds
+		return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	/**
+	 * Evaluates "If-Range", ranges are only sent if the client has a part of the current
+	 * version of the file.
+	 *
+	 * @param header The headers of the request with lowercase names, may be null
+	 * @param etag The current validator of the file
+	 * @param lastModified The time of last modification of the file
+	 * @return true if a "Range" header should be applied
+	 */
+	static boolean isRangeAllowed(Properties header, String etag, long lastModified) {
+		String ifRange = header == null ? null : header.getProperty("if-range");
+		if (ifRange == null) {
+			return true;
+		}
+
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			// requires strong comparison, weak validators never match
+			return !etag.startsWith("W/") && ifRange.equals(etag);
+		}
+
+		long date = parseDate(ifRange);
+		return date >= 0 && date / 1000 == lastModified / 1000;
+	}
+
+	/**
+	 * Compressed versions of a file are different representations, so they need a different
+	 * strong validator. Weak validators only tell that the content is equivalent and stay the same.
+	 *
+	 * @param etag The validator of the file
+	 * @param encoding The content-coding, e.g. "gzip"
+	 * @return The validator for the compressed file
+	 */
+	static String withEncoding(String etag, String encoding) {
+		if (etag.startsWith("W/") || !etag.endsWith("\"")) {
+			return etag;
+		}
+		return etag.substring(0, etag.length() - 1) + '-' + encoding + '"';
+	}
+
+	private static String stripEncoding(String tag) {
+		for (String encoding : new String[] { CompressingInputStream.GZIP, CompressingInputStream.DEFLATE }) {
+			if (tag.endsWith("-" + encoding + '"')) {
+				return tag.substring(0, tag.length() - encoding.length() - 2) + '"';
+			}
+		}
+		return tag;
+	}
+
+	private static String stripWeak(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+
+	/**
+	 * @return The time in milliseconds or -1 if the value is missing or cannot be parsed
+	 */
+	private static long parseDate(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+}
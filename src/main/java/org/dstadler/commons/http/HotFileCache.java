@@ -0,0 +1,253 @@
+package org.dstadler.commons.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the content of small files which are served via
+ * {@link NanoHTTPD#serveFile(String, java.util.Properties, File, boolean)} in memory together with
+ * the resolved file and its mime-type, so requests for them do not need to access the file system.
+ *
+ * An entry is checked against the size and the time of last modification of the file at most once
+ * per check-interval with a single call to read the attributes of the file. The least recently used
+ * entries are removed when the configured number of bytes is exceeded.
+ */
+class HotFileCache {
+	/**
+	 * Larger files are always read from disk.
+	 */
+	static final long MAX_FILE_SIZE = 256 * 1024;
+
+	static final class Entry {
+		private final String key;
+		private final File file;
+		private final String mime;
+		private final long length;
+		private final long lastModified;
+		private final byte[] content;
+		private final Map<String, byte[]> compressed = new HashMap<>();
+		private volatile long checked;
+
+		private Entry(String key, File file, String mime, long length, long lastModified, byte[] content, long checked) {
+			this.key = key;
+			this.file = file;
+			this.mime = mime;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.content = content;
+			this.checked = checked;
+		}
+
+		File getFile() {
+			return file;
+		}
+
+		String getMime() {
+			return mime;
+		}
+
+		long getLength() {
+			return length;
+		}
+
+		long getLastModified() {
+			return lastModified;
+		}
+
+		byte[] getContent() {
+			return content;
+		}
+
+		private int getSize() {
+			int size = content.length;
+			for (byte[] data : compressed.values()) {
+				size += data.length;
+			}
+			return size;
+		}
+	}
+
+	private final long maxBytes;
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param maxBytes How many bytes of file content are kept at most
+	 */
+	HotFileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * @param homeDir The directory from which files are served
+	 * @param uri The normalized URI of the request
+	 * @param checkInterval How many milliseconds an entry is used before checking the file again
+	 * @return The entry or null if the file is not cached or was changed
+	 */
+	Entry get(File homeDir, String uri, int checkInterval) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(key(homeDir, uri));
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		long now = System.nanoTime();
+		if (now - entry.checked >= TimeUnit.MILLISECONDS.toNanos(checkInterval)) {
+			if (!isUnchanged(entry)) {
+				remove(entry);
+				misses.incrementAndGet();
+				return null;
+			}
+			entry.checked = now;
+		}
+
+		hits.incrementAndGet();
+		return entry;
+	}
+
+	private static boolean isUnchanged(Entry entry) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(entry.file.toPath(), BasicFileAttributes.class);
+			return attributes.isRegularFile() && attributes.size() == entry.length &&
+					attributes.lastModifiedTime().toMillis() == entry.lastModified;
+		} catch (IOException e) {
+			// e.g. the file was removed
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the file into the cache.
+	 *
+	 * @param homeDir The directory from which files are served
+	 * @param uri The normalized URI of the request
+	 * @param file The file which is served for the URI
+	 * @param mime The mime-type of the file
+	 * @param length The size of the file
+	 * @param lastModified The time of last modification of the file
+	 * @return The new entry or null if the file is too large or changed while it was read
+	 * @throws IOException If reading the file fails
+	 */
+	Entry put(File homeDir, String uri, File file, String mime, long length, long lastModified) throws IOException {
+		if (length > MAX_FILE_SIZE || length > maxBytes) {
+			return null;
+		}
+
+		byte[] content = Files.readAllBytes(file.toPath());
+		if (content.length != length) {
+			return null;
+		}
+		Entry entry = new Entry(key(homeDir, uri), file, mime, length, lastModified, content, System.nanoTime());
+
+		// a precompressed sibling is kept as well, as it will not be looked at while the entry is used
+		File gz = new File(file.getPath() + ".gz");
+		if (gz.isFile() && gz.lastModified() >= lastModified && gz.length() <= MAX_FILE_SIZE) {
+			entry.compressed.put(CompressingInputStream.GZIP, Files.readAllBytes(gz.toPath()));
+		}
+
+		synchronized (entries) {
+			Entry previous = entries.put(entry.key, entry);
+			if (previous != null) {
+				bytes -= previous.getSize();
+			}
+			bytes += entry.getSize();
+			evict();
+		}
+		return entry;
+	}
+
+	/**
+	 * @return true if the compressed content is available already, e.g. from a precompressed sibling "file.gz"
+	 */
+	boolean hasCompressed(Entry entry, String encoding) {
+		synchronized (entries) {
+			return entry.compressed.containsKey(encoding);
+		}
+	}
+
+	/**
+	 * @param entry An entry returned from this cache
+	 * @param encoding The content-coding, see {@link CompressingInputStream}
+	 * @return The compressed content of the file, it is computed once and kept with the entry
+	 * @throws IOException If compressing fails
+	 */
+	byte[] getCompressed(Entry entry, String encoding) throws IOException {
+		synchronized (entries) {
+			byte[] data = entry.compressed.get(encoding);
+			if (data != null) {
+				return data;
+			}
+		}
+
+		byte[] data = CompressingInputStream.compress(entry.content, encoding);
+		synchronized (entries) {
+			byte[] previous = entry.compressed.put(encoding, data);
+			// only account for entries which are still in the cache
+			if (entries.get(entry.key) == entry) {
+				bytes += data.length - (previous == null ? 0 : previous.length);
+				evict();
+			}
+		}
+		return data;
+	}
+
+	private void evict() {
+		Iterator<Entry> it = entries.values().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			bytes -= it.next().getSize();
+			it.remove();
+		}
+	}
+
+	private void remove(Entry entry) {
+		synchronized (entries) {
+			if (entries.remove(entry.key, entry)) {
+				bytes -= entry.getSize();
+			}
+		}
+	}
+
+	private static String key(File homeDir, String uri) {
+		return homeDir.getPath() + '\n' + uri;
+	}
+
+	/**
+	 * @return The number of files which are cached currently
+	 */
+	int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return The number of bytes of file content which are cached currently
+	 */
+	long getBytes() {
+		synchronized (entries) {
+			return bytes;
+		}
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+}
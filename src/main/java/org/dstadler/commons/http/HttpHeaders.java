@@ -0,0 +1,226 @@
+package org.dstadler.commons.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Headers of a request or response, names are compared case-insensitively and
+ * can occur multiple times, e.g. for "Set-Cookie".
+ *
+ * Names and values are kept in arrays in the order in which they were added, lookups
+ * compare the names without converting them, which is faster than a map for the
+ * small number of headers of a typical request.
+ *
+ * Instances are not thread-safe.
+ */
+public class HttpHeaders {
+	private String[] names;
+	private String[] values;
+	private int size;
+
+	public HttpHeaders() {
+		this(16);
+	}
+
+	private HttpHeaders(int capacity) {
+		names = new String[capacity];
+		values = new String[capacity];
+	}
+
+	/**
+	 * @param properties Headers with one value per name
+	 * @return The same headers, the names are used unchanged
+	 */
+	public static HttpHeaders of(Properties properties) {
+		HttpHeaders headers = new HttpHeaders(properties == null ? 4 : Math.max(4, properties.size()));
+		if (properties != null) {
+			for (String name : properties.stringPropertyNames()) {
+				headers.add(name, properties.getProperty(name));
+			}
+		}
+		return headers;
+	}
+
+	/**
+	 * Adds a value, existing values with the same name are kept.
+	 */
+	public void add(String name, String value) {
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		names[size] = name;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Replaces all values of the header with the given one.
+	 */
+	public void set(String name, String value) {
+		remove(name);
+		add(name, value);
+	}
+
+	/**
+	 * @return The first value of the header, null if it is not set
+	 */
+	public String get(String name) {
+		for (int i = 0; i < size; i++) {
+			if (names[i].equalsIgnoreCase(name)) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The first value of the header or the default value if it is not set
+	 */
+	public String get(String name, String defaultValue) {
+		String value = get(name);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * @return All values of the header in the order they were added, empty if it is not set
+	 */
+	public List<String> getAll(String name) {
+		List<String> all = null;
+		for (int i = 0; i < size; i++) {
+			if (names[i].equalsIgnoreCase(name)) {
+				if (all == null) {
+					all = new ArrayList<>(2);
+				}
+				all.add(values[i]);
+			}
+		}
+		return all == null ? Collections.emptyList() : all;
+	}
+
+	public boolean contains(String name) {
+		return get(name) != null;
+	}
+
+	/**
+	 * Removes all values of the header.
+	 *
+	 * @return true if the header was set
+	 */
+	public boolean remove(String name) {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (!names[i].equalsIgnoreCase(name)) {
+				names[kept] = names[i];
+				values[kept] = values[i];
+				kept++;
+			}
+		}
+
+		boolean removed = kept < size;
+		Arrays.fill(names, kept, size, null);
+		Arrays.fill(values, kept, size, null);
+		size = kept;
+		return removed;
+	}
+
+	/**
+	 * @return The number of values
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param index Between 0 and size() - 1
+	 * @return The name of the header as it was added
+	 */
+	public String getName(int index) {
+		checkIndex(index);
+		return names[index];
+	}
+
+	/**
+	 * @param index Between 0 and size() - 1
+	 */
+	public String getValue(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " for " + size + " headers");
+		}
+	}
+
+	/**
+	 * Converts the headers for {@link NanoHTTPD#serve(String, String, Properties, Properties)}, names are
+	 * converted to lowercase and the last value of a repeated header is used.
+	 */
+	public Properties toProperties() {
+		Properties properties = new Properties();
+		for (int i = 0; i < size; i++) {
+			properties.put(names[i].toLowerCase(), values[i]);
+		}
+		return properties;
+	}
+
+	/**
+	 * Parses a line "Name: value" of the header of a request, bytes are converted as ISO-8859-1
+	 * and whitespace around the name and the value is removed.
+	 *
+	 * @param line The bytes of the line without the line-break
+	 * @param offset Where the line starts
+	 * @param length The number of bytes of the line
+	 * @return false if the line does not contain a ':'
+	 */
+	boolean addLine(byte[] line, int offset, int length) {
+		int end = offset + length;
+		int colon = offset;
+		while (colon < end && line[colon] != ':') {
+			colon++;
+		}
+		if (colon == end) {
+			return false;
+		}
+
+		add(trim(line, offset, colon), trim(line, colon + 1, end));
+		return true;
+	}
+
+	private static String trim(byte[] line, int start, int end) {
+		while (start < end && isWhitespace(line[start])) {
+			start++;
+		}
+		while (end > start && isWhitespace(line[end - 1])) {
+			end--;
+		}
+
+		char[] chars = new char[end - start];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = (char) (line[start + i] & 0xFF);
+		}
+		return new String(chars);
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			text.append(names[i]).append(": ").append(values[i]).append("\r\n");
+		}
+		return text.toString();
+	}
+}
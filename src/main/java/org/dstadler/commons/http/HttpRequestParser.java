@@ -0,0 +1,288 @@
+package org.dstadler.commons.http;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Incremental parser for HTTP requests, it is fed with the data as it arrives
+ * on a non-blocking connection and reports when a request is complete.
+ *
+ * Header lines are parsed from the received bytes into {@link HttpHeaders}, names keep
+ * their case and repeated headers keep all values. The body is collected in memory if the request
+ * specifies a "Content-Length" or is sent with "Transfer-Encoding: chunked".
+ *
+ * Instances are not thread-safe and are used for one request.
+ */
+class HttpRequestParser {
+	private final static Logger logger = Logger.getLogger(HttpRequestParser.class.getName());
+
+	static final int MAX_HEADER_SIZE = 64 * 1024;
+	static final int MAX_BODY_SIZE = 16 * 1024 * 1024;
+
+	private enum State {
+		HEADER, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILER, COMPLETE
+	}
+
+	private final long maxBodySize;
+	private State state = State.HEADER;
+
+	// the current line, reused for all lines of the request
+	private byte[] line = new byte[128];
+	private int lineLength;
+	private boolean lineComplete;
+	private int headerSize;
+
+	private ByteArrayOutputStream body;
+	private long remaining;
+
+	private String method;
+	private String uri;
+	private String version;
+	private final HttpHeaders header = new HttpHeaders();
+
+	HttpRequestParser() {
+		this(MAX_BODY_SIZE);
+	}
+
+	/**
+	 * @param maxBodySize How many bytes the body of the request may contain
+	 */
+	HttpRequestParser(long maxBodySize) {
+		this.maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Consumes data from the buffer until the request is complete, following
+	 * data is left in the buffer, e.g. the start of a pipelined request.
+	 *
+	 * @param buffer The data which was received
+	 * @return true if the request is complete
+	 * @throws ProtocolException If the data is not a valid request, the message can be reported to the client
+	 */
+	boolean parse(ByteBuffer buffer) throws ProtocolException {
+		while (state != State.COMPLETE && buffer.hasRemaining()) {
+			switch (state) {
+				case HEADER -> {
+					if (readLine(buffer)) {
+						handleHeaderLine();
+					}
+				}
+				case BODY, CHUNK_DATA -> {
+					int length = (int) Math.min(remaining, buffer.remaining());
+					body.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+					buffer.position(buffer.position() + length);
+					remaining -= length;
+					if (remaining == 0) {
+						state = state == State.BODY ? State.COMPLETE : State.CHUNK_END;
+					}
+				}
+				case CHUNK_SIZE -> {
+					if (readLine(buffer)) {
+						startChunk(lineText());
+					}
+				}
+				case CHUNK_END -> {
+					// line-break after the data of the chunk
+					if (readLine(buffer)) {
+						state = State.CHUNK_SIZE;
+					}
+				}
+				case TRAILER -> {
+					if (readLine(buffer) && lineLength == 0) {
+						state = State.COMPLETE;
+					} else if (lineComplete) {
+						logger.fine("Ignoring trailer " + lineText());
+					}
+				}
+				default -> throw new IllegalStateException("Unexpected state " + state);
+			}
+		}
+
+		return state == State.COMPLETE;
+	}
+
+	/**
+	 * @return true if nothing was received for this request yet
+	 */
+	boolean isEmpty() {
+		return method == null && lineLength == 0;
+	}
+
+	/**
+	 * @return true if the request-line or the headers are not complete yet
+	 */
+	boolean isReadingHeader() {
+		return state == State.HEADER;
+	}
+
+	/**
+	 * @return true if the headers are complete and the client waits
+	 * 		for "100 Continue" before sending the body
+	 */
+	boolean isExpectingContinue() {
+		return state != State.HEADER && state != State.COMPLETE &&
+				"100-continue".equalsIgnoreCase(header.get("expect"));
+	}
+
+	String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The URI as sent by the client, i.e. including parameters and not percent-decoded
+	 */
+	String getUri() {
+		return uri;
+	}
+
+	/**
+	 * @return The protocol version, e.g. "HTTP/1.1", null if the client did not send one
+	 */
+	String getVersion() {
+		return version;
+	}
+
+	HttpHeaders getHeader() {
+		return header;
+	}
+
+	byte[] getBody() {
+		return body == null ? new byte[0] : body.toByteArray();
+	}
+
+	/**
+	 * Collects the bytes of the current line.
+	 *
+	 * @return true if the line is complete, it is then available without the line-break
+	 * 		until the next call
+	 */
+	private boolean readLine(ByteBuffer buffer) throws ProtocolException {
+		if (lineComplete) {
+			lineLength = 0;
+			lineComplete = false;
+		}
+
+		while (buffer.hasRemaining()) {
+			byte b = buffer.get();
+			if (state == State.HEADER) {
+				headerSize++;
+			}
+			if (b == '\n') {
+				if (lineLength > 0 && line[lineLength - 1] == '\r') {
+					lineLength--;
+				}
+				lineComplete = true;
+				return true;
+			}
+			if (headerSize > MAX_HEADER_SIZE || lineLength >= MAX_HEADER_SIZE) {
+				throw new ProtocolException("BAD REQUEST: Request header is too large");
+			}
+			if (lineLength == line.length) {
+				line = Arrays.copyOf(line, lineLength * 2);
+			}
+			line[lineLength++] = b;
+		}
+		return false;
+	}
+
+	private String lineText() {
+		return new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+	}
+
+	private boolean isBlankLine() {
+		for (int i = 0; i < lineLength; i++) {
+			if (line[i] != ' ' && line[i] != '\t') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void handleHeaderLine() throws ProtocolException {
+		if (method == null) {
+			// ignore empty lines before the request
+			if (lineLength == 0) {
+				return;
+			}
+
+			String[] tokens = RequestHeadReader.parseRequestLine(line, lineLength);
+			if (tokens[0] == null) {
+				throw new ProtocolException("BAD REQUEST: Syntax error. Usage: GET /example/file.html");
+			}
+			if (tokens[1] == null) {
+				throw new ProtocolException("BAD REQUEST: Missing URI. Usage: GET /example/file.html");
+			}
+			method = tokens[0];
+			uri = tokens[1];
+
+			// without protocol version there are no headers
+			version = tokens[2];
+			if (version == null) {
+				startBody();
+			}
+			return;
+		}
+
+		if (isBlankLine()) {
+			startBody();
+			return;
+		}
+
+		if (!header.addLine(line, 0, lineLength)) {
+			logger.warning("Could not parse property " + lineText());
+		}
+	}
+
+	private void startBody() throws ProtocolException {
+		String transferEncoding = header.get("transfer-encoding");
+		if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+			body = new ByteArrayOutputStream();
+			state = State.CHUNK_SIZE;
+			return;
+		}
+
+		String contentLength = header.get("content-length");
+		if (contentLength != null) {
+			try {
+				remaining = Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				throw new ProtocolException("BAD REQUEST: Invalid Content-Length: " + contentLength);
+			}
+			if (remaining < 0) {
+				throw new ProtocolException("BAD REQUEST: Invalid Content-Length: " + contentLength);
+			}
+			if (remaining > maxBodySize) {
+				throw new RequestBodyInputStream.TooLargeException(maxBodySize);
+			}
+		}
+
+		if (remaining > 0) {
+			body = new ByteArrayOutputStream((int) remaining);
+			state = State.BODY;
+		} else {
+			state = State.COMPLETE;
+		}
+	}
+
+	private void startChunk(String text) throws ProtocolException {
+		// ignore chunk extensions
+		int semicolon = text.indexOf(';');
+		try {
+			remaining = Integer.parseInt((semicolon >= 0 ? text.substring(0, semicolon) : text).trim(), 16);
+		} catch (NumberFormatException e) {
+			throw new ProtocolException("BAD REQUEST: Invalid chunk size: " + text);
+		}
+		if (remaining < 0) {
+			throw new ProtocolException("BAD REQUEST: Invalid chunk size: " + text);
+		}
+		if (body.size() + remaining > maxBodySize) {
+			throw new RequestBodyInputStream.TooLargeException(maxBodySize);
+		}
+
+		state = remaining == 0 ? State.TRAILER : State.CHUNK_DATA;
+	}
+}
@@ -0,0 +1,285 @@
+package org.dstadler.commons.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Reads the parts of a "multipart/form-data" body one after the other, the data
+ * of each part is provided as stream, so large uploads are not kept in memory.
+ *
+ * <pre>
+ * MultipartParser parser = new MultipartParser(body, boundary);
+ * while (parser.next()) {
+ *     String name = parser.getName();
+ *     InputStream data = parser.getInputStream();
+ *     ...
+ * }
+ * </pre>
+ *
+ * Instances are not thread-safe.
+ */
+class MultipartParser {
+	static final int MAX_HEADER_SIZE = 16 * 1024;
+
+	private final InputStream in;
+	private final byte[] delimiter;
+	private final byte[] buf;
+	private int pos;
+	private int limit;
+	private boolean eof;
+	private boolean finished;
+
+	private final Properties headers = new Properties();
+	private PartInputStream part;
+
+	/**
+	 * @param in The body of the request
+	 * @param boundary The boundary as sent in the "Content-Type" of the request
+	 */
+	MultipartParser(InputStream in, String boundary) {
+		this.in = in;
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		this.buf = new byte[Math.max(8192, delimiter.length * 2)];
+
+		// the first delimiter does not follow a line-break, so the preamble is read like a part
+		buf[limit++] = '\r';
+		buf[limit++] = '\n';
+		part = new PartInputStream();
+	}
+
+	/**
+	 * Skips the rest of the current part and reads the headers of the next one.
+	 *
+	 * @return false if there are no more parts
+	 * @throws IOException If reading fails or the body is not a valid multipart body
+	 */
+	boolean next() throws IOException {
+		if (finished) {
+			return false;
+		}
+
+		byte[] skip = new byte[8192];
+		while (part.read(skip, 0, skip.length) >= 0) {
+			// skip the rest of the part
+		}
+
+		// the closing delimiter is followed by "--"
+		String line = readLine();
+		if (line == null) {
+			throw new EOFException("The multipart body is truncated");
+		}
+		if (line.startsWith("--")) {
+			finished = true;
+			return false;
+		}
+
+		headers.clear();
+		int size = 0;
+		while (true) {
+			line = readLine();
+			if (line == null) {
+				throw new EOFException("The multipart body is truncated");
+			}
+			if (line.isEmpty()) {
+				break;
+			}
+			size += line.length();
+			if (size > MAX_HEADER_SIZE) {
+				throw new ProtocolException("BAD REQUEST: Multipart header is too large");
+			}
+
+			int p = line.indexOf(':');
+			if (p > 0) {
+				headers.put(line.substring(0, p).trim().toLowerCase(), line.substring(p + 1).trim());
+			}
+		}
+
+		part = new PartInputStream();
+		return true;
+	}
+
+	/**
+	 * @return The headers of the current part, names are lowercase
+	 */
+	Properties getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * @return The name of the form field of the current part, null if it is not set
+	 */
+	String getName() {
+		return getParameter(headers.getProperty("content-disposition"), "name");
+	}
+
+	/**
+	 * @return The file name sent by the client for the current part, null if it is not a file
+	 */
+	String getFileName() {
+		return getParameter(headers.getProperty("content-disposition"), "filename");
+	}
+
+	/**
+	 * @return The data of the current part, it ends before the next delimiter
+	 */
+	InputStream getInputStream() {
+		return part;
+	}
+
+	/**
+	 * Looks up a parameter of a header value like "form-data; name=\"field\"" or
+	 * "multipart/form-data; boundary=abc".
+	 *
+	 * @return The unquoted value or null if the parameter is not found
+	 */
+	static String getParameter(String value, String name) {
+		if (value == null) {
+			return null;
+		}
+
+		int start = value.indexOf(';');
+		while (start >= 0 && start < value.length()) {
+			// find the end of the parameter, semicolons in quoted values do not count
+			int end = start + 1;
+			boolean quoted = false;
+			while (end < value.length() && (quoted || value.charAt(end) != ';')) {
+				char c = value.charAt(end);
+				if (c == '"') {
+					quoted = !quoted;
+				} else if (c == '\\' && quoted) {
+					end++;
+				}
+				end++;
+			}
+
+			String parameter = value.substring(start + 1, Math.min(end, value.length())).trim();
+			int equals = parameter.indexOf('=');
+			if (equals > 0 && parameter.substring(0, equals).trim().equalsIgnoreCase(name)) {
+				return unquote(parameter.substring(equals + 1).trim());
+			}
+			start = end;
+		}
+		return null;
+	}
+
+	private static String unquote(String value) {
+		if (value.length() < 2 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"') {
+			return value;
+		}
+
+		StringBuilder unquoted = new StringBuilder(value.length());
+		for (int i = 1; i < value.length() - 1; i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i < value.length() - 2) {
+				c = value.charAt(++i);
+			}
+			unquoted.append(c);
+		}
+		return unquoted.toString();
+	}
+
+	/**
+	 * Reads a line of the part headers, browsers send names of files as UTF-8.
+	 */
+	private String readLine() throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		while (true) {
+			while (pos < limit) {
+				byte b = buf[pos++];
+				if (b == '\n') {
+					String text = line.toString(StandardCharsets.UTF_8);
+					return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+				}
+				if (line.size() >= MAX_HEADER_SIZE) {
+					throw new ProtocolException("BAD REQUEST: Multipart header is too large");
+				}
+				line.write(b);
+			}
+			if (eof) {
+				return null;
+			}
+			fill();
+		}
+	}
+
+	private void fill() throws IOException {
+		if (pos > 0) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+
+		int read = in.read(buf, limit, buf.length - limit);
+		if (read < 0) {
+			eof = true;
+		} else {
+			limit += read;
+		}
+	}
+
+	private int indexOfDelimiter() {
+		for (int i = pos; i <= limit - delimiter.length; i++) {
+			int j = 0;
+			while (j < delimiter.length && buf[i + j] == delimiter[j]) {
+				j++;
+			}
+			if (j == delimiter.length) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Provides the data up to the next delimiter.
+	 */
+	private class PartInputStream extends InputStream {
+		private boolean done;
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (done) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+
+			while (limit - pos < delimiter.length && !eof) {
+				fill();
+			}
+
+			int index = indexOfDelimiter();
+			int available;
+			if (index >= 0) {
+				available = index - pos;
+				if (available == 0) {
+					pos += delimiter.length;
+					done = true;
+					return -1;
+				}
+			} else if (eof) {
+				throw new EOFException("The multipart body is truncated");
+			} else {
+				// the end of the buffer could be the start of the delimiter
+				available = limit - pos - delimiter.length + 1;
+			}
+
+			int count = Math.min(len, available);
+			System.arraycopy(buf, pos, b, off, count);
+			pos += count;
+			return count;
+		}
+	}
+}
@@ -1,36 +1,56 @@
 package org.dstadler.commons.http;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.URLEncoder;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
+import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinTask;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.time.FastDateFormat;
+import org.dstadler.commons.util.ExecutorUtil;
 import org.dstadler.commons.util.SuppressForbidden;
 
 /**
@@ -46,17 +66,27 @@ import org.dstadler.commons.util.SuppressForbidden;
  *    <li> Released as open source, Modified BSD licence </li>
  *    <li> No fixed config files, logging, authorization etc. (Implement yourself if you need them.) </li>
  *    <li> Supports parameter parsing of GET and POST methods </li>
+ *    <li> Request bodies can be read as stream, multipart uploads are stored in temporary files,
+ *         see {@link #serve(String, String, Properties, Properties, InputStream)} </li>
  *    <li> Supports both dynamic content and file serving </li>
- *    <li> Never caches anything </li>
- *    <li> Doesn't limit bandwidth, request time or simultaneous connections </li>
+ *    <li> Optional routing of requests to handlers by method and path, see {@link #setRouter(Router)} </li>
+ *    <li> Never caches anything, but files are served with validators for conditional requests, see {@link #setCacheControl(String)} </li>
+ *    <li> Doesn't limit bandwidth or request time </li>
+ *    <li> Sessions run on virtual threads by default, a bounded pool can limit simultaneous connections </li>
+ *    <li> Optional HTTP/1.1 persistent connections and pipelined requests, see {@link #setKeepAlive(boolean)} </li>
+ *    <li> Optional non-blocking engine for many concurrent connections, see {@link Engine#NIO} </li>
+ *    <li> Optional gzip/deflate compression of responses, see {@link #setCompression(boolean)} </li>
  *    <li> Default code serves files and shows all HTTP parameters and headers</li>
- *    <li> File server supports directory listing, index.html and index.htm </li>
+ *    <li> File server supports cached directory listing as HTML or JSON with sorting and paging, index.html and index.htm </li>
  *    <li> File server does the 301 redirection trick for directories without '/'</li>
  *    <li> File server supports simple skipping for files (continue download) </li>
  *    <li> File server uses current directory as a web root </li>
  *    <li> File server serves also very long files without memory overhead </li>
+ *    <li> Optional in-memory cache for small files, see {@link #setFileCacheSize(long)} </li>
  *    <li> Contains a built-in list of most common mime types </li>
- *    <li> All header names are converted lowercase so they don't vary between browsers/clients </li>
+ *    <li> Request headers are matched case-insensitively and keep repeated values, see
+ *         {@link #serve(String, String, HttpHeaders, Properties, InputStream)}, the older serve() methods
+ *         receive them with lowercase names so they don't vary between browsers/clients </li>
  *
  * </ul>
  *
@@ -119,7 +149,101 @@ public class NanoHTTPD
 								parms.getProperty( value ) + "'" );
 		}
 
-		return serveFile( uri, header, new File("."), true );
+		return serveFile( uri, header, parms, new File("."), true );
+	}
+
+	/**
+	 * Override this to read the body of requests as a stream, e.g. for large uploads.<p>
+	 *
+	 * By default, requests are served by the router if one is set via {@link #setRouter(Router)} and
+	 * it has a route for the path. Otherwise, the body of POST requests is decoded into the parameters and serve(uri, method, header, parms)
+	 * is called. URL-encoded bodies are read into memory. For "multipart/form-data", form fields
+	 * become parameters. Uploaded files are streamed to temporary files, which are removed after the
+	 * response was sent. The parameter then contains the absolute path of the temporary file and
+	 * "&lt;name&gt;.filename" contains the name of the file as sent by the client.
+	 *
+	 * @param uri	Percent-decoded URI without parameters, for example "/index.cgi"
+	 * @param method	"GET", "POST" etc.
+	 * @param header	Header entries, percent decoded
+	 * @param parms	Parsed, percent decoded parameters from URI
+	 * @param body	The body of the request, it is empty if the request does not have one and fails when
+	 *              reading more than allowed via {@link #setMaxRequestBodySize(long)}. It does not need to be closed.
+	 * @return HTTP response, see class Response for details
+	 * @throws IOException If reading the body fails
+	 */
+	public Response serve( String uri, String method, Properties header, Properties parms, InputStream body )
+			throws IOException
+	{
+		Router r = router;
+		if ( r != null ) {
+			Response response = r.route( uri, method, header, parms, body );
+			if ( response != null ) {
+				return response;
+			}
+		}
+
+		if ( method.equalsIgnoreCase( "POST" ))
+		{
+			String contentType = header.getProperty( "content-type", "" );
+			if ( contentType.toLowerCase().startsWith( "multipart/form-data" )) {
+				String boundary = MultipartParser.getParameter( contentType, "boundary" );
+				if ( boundary == null || boundary.isEmpty()) {
+					return new Response( HTTP_BADREQUEST, MIME_PLAINTEXT, "BAD REQUEST: Missing boundary for multipart/form-data." );
+				}
+				readMultipart( new MultipartParser( body, boundary ), body, parms );
+			} else if ( !decodeParameters( new String( body.readAllBytes(), Charset.defaultCharset()).trim(), parms )) {
+				return new Response( HTTP_BADREQUEST, MIME_PLAINTEXT, "BAD REQUEST: Bad percent-encoding." );
+			}
+		}
+
+		return serve( uri, method, header, parms );
+	}
+
+	/**
+	 * Override this to access the headers of requests without converting them to Properties, repeated
+	 * headers like "Cookie" keep all their values.<p>
+	 *
+	 * By default, the headers are converted with {@link HttpHeaders#toProperties()} and
+	 * serve(uri, method, header, parms, body) is called.
+	 *
+	 * @param uri	Percent-decoded URI without parameters, for example "/index.cgi"
+	 * @param method	"GET", "POST" etc.
+	 * @param headers	Header entries as sent by the client
+	 * @param parms	Parsed, percent decoded parameters from URI
+	 * @param body	The body of the request, see {@link #serve(String, String, Properties, Properties, InputStream)}
+	 * @return HTTP response, see class Response for details
+	 * @throws IOException If reading the body fails
+	 */
+	public Response serve( String uri, String method, HttpHeaders headers, Properties parms, InputStream body )
+			throws IOException
+	{
+		return serve( uri, method, headers.toProperties(), parms, body );
+	}
+
+	private void readMultipart( MultipartParser parser, InputStream body, Properties parms ) throws IOException
+	{
+		while ( parser.next())
+		{
+			String name = parser.getName();
+			if ( name == null ) {
+				continue;
+			}
+
+			String fileName = parser.getFileName();
+			if ( fileName == null ) {
+				String charset = MultipartParser.getParameter( parser.getHeaders().getProperty( "content-type" ), "charset" );
+				byte[] value = parser.getInputStream().readAllBytes();
+				parms.put( name, new String( value, charset == null || !Charset.isSupported( charset ) ?
+						StandardCharsets.UTF_8 : Charset.forName( charset )));
+			} else {
+				File file = body instanceof RequestBodyInputStream requestBody ?
+						requestBody.createTempFile( uploadDirectory ) :
+						File.createTempFile( "NanoHTTPD-upload", ".tmp", uploadDirectory );
+				Files.copy( parser.getInputStream(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+				parms.put( name, file.getAbsolutePath());
+				parms.put( name + ".filename", fileName );
+			}
+		}
 	}
 
 	/**
@@ -180,6 +304,29 @@ public class NanoHTTPD
 			header.put( name, value );
 		}
 
+		/**
+		 * Adds a value for a header which can be sent multiple times, e.g. "Set-Cookie". Values
+		 * set via {@link #addHeader(String, String)} are sent as well.
+		 *
+		 * @param name The name of the HTTP header
+		 * @param value The value of the HTTP header
+		 */
+		public void appendHeader( String name, String value )
+		{
+			if ( repeatedHeader == null ) {
+				repeatedHeader = new HttpHeaders();
+			}
+			repeatedHeader.add( name, value );
+		}
+
+		/**
+		 * @return The values added via {@link #appendHeader(String, String)}, null if there are none
+		 */
+		public HttpHeaders getRepeatedHeader()
+		{
+			return repeatedHeader;
+		}
+
 		/**
 		 * HTTP status code after processing, e.g. "200 OK", HTTP_OK
 		 */
@@ -200,6 +347,8 @@ public class NanoHTTPD
 		 * to add lines.
 		 */
 		public Properties header = new Properties();
+
+		private HttpHeaders repeatedHeader;
 	}
 
 	/**
@@ -207,12 +356,18 @@ public class NanoHTTPD
 	 */
 	public static final String
 		HTTP_OK = "200 OK",
+		HTTP_PARTIAL_CONTENT = "206 Partial Content",
 		HTTP_REDIRECT = "301 Moved Permanently",
+		HTTP_NOT_MODIFIED = "304 Not Modified",
 		HTTP_FORBIDDEN = "403 Forbidden",
 		HTTP_NOTFOUND = "404 Not Found",
+		HTTP_METHOD_NOT_ALLOWED = "405 Method Not Allowed",
 		HTTP_BADREQUEST = "400 Bad Request",
+		HTTP_ENTITY_TOO_LARGE = "413 Request Entity Too Large",
+		HTTP_RANGE_NOT_SATISFIABLE = "416 Range Not Satisfiable",
 		HTTP_INTERNALERROR = "500 Internal Server Error",
-		HTTP_NOTIMPLEMENTED = "501 Not Implemented";
+		HTTP_NOTIMPLEMENTED = "501 Not Implemented",
+		HTTP_SERVICE_UNAVAILABLE = "503 Service Unavailable";
 
 	/**
 	 * Common mime types for dynamic content
@@ -263,7 +418,84 @@ public class NanoHTTPD
 	 */
 	public NanoHTTPD( int port, InetAddress bindHost, final int sessionTimeout ) throws IOException
 	{
-		myServerSocket = new ServerSocket( port, 50, bindHost );
+		this(port, bindHost, sessionTimeout, null);
+	}
+
+	/**
+	 * Starts a HTTP server to given port and only binds on the given name if specifed non-null.<p>
+	 *
+	 * Each connection is handled as a separate task on the given executor. If the executor rejects
+	 * a connection, e.g. because a bounded queue is full, the client receives a
+	 * "503 Service Unavailable" response.
+	 *
+	 * @param port The port to listen for HTTP connections
+	 * @param bindHost If non-null, the hostanme/address to bind to.
+	 * @param sessionTimeout Timeout in milliseconds after which reading from the HTTP client side is terminated
+	 *                       with a timeout-error.
+	 * @param sessionExecutor The executor which handles the connections, if null a new virtual thread is
+	 *                       used for each connection. The executor is shut down when the server is stopped.
+	 *                       See {@link #newBoundedSessionExecutor(int, int)} for limiting the number of
+	 *                       concurrent connections.
+	 *
+	 * @throws IOException if the socket is already in use
+	 */
+	public NanoHTTPD( int port, InetAddress bindHost, final int sessionTimeout, ExecutorService sessionExecutor ) throws IOException
+	{
+		this(port, bindHost, sessionTimeout, sessionExecutor, Engine.BLOCKING);
+	}
+
+	/**
+	 * Starts a HTTP server to given port and only binds on the given name if specifed non-null.<p>
+	 *
+	 * With {@link Engine#NIO} all connections are handled by a few I/O threads and only
+	 * calls to serve() are run on the session executor. In this case the session metrics
+	 * report open connections as active sessions and requests which the session executor
+	 * rejected as rejected sessions.
+	 *
+	 * @param port The port to listen for HTTP connections
+	 * @param bindHost If non-null, the hostanme/address to bind to.
+	 * @param sessionTimeout Timeout in milliseconds after which reading from the HTTP client side is terminated
+	 *                       with a timeout-error.
+	 * @param sessionExecutor The executor which handles the connections or requests, if null a new virtual
+	 *                       thread is used for each. The executor is shut down when the server is stopped.
+	 * @param engine How connections are handled
+	 *
+	 * @throws IOException if the socket is already in use
+	 */
+	public NanoHTTPD( int port, InetAddress bindHost, final int sessionTimeout, ExecutorService sessionExecutor,
+					  Engine engine ) throws IOException
+	{
+		this.sessionExecutor = sessionExecutor != null ? sessionExecutor :
+				Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("NanoHTTPD Session Thread").factory());
+
+		if (engine == Engine.NIO) {
+			myServerSocket = null;
+			myThread = null;
+			try {
+				nioEngine = new NioEngine(this, port, bindHost, sessionTimeout, this.sessionExecutor, NIO_THREADS);
+			} catch (IOException | RuntimeException e) {
+				this.sessionExecutor.shutdownNow();
+				throw e;
+			}
+			return;
+		}
+
+		nioEngine = null;
+		try {
+			// a channel-based socket allows to send files via FileChannel.transferTo()
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			try {
+				serverChannel.bind( new InetSocketAddress( bindHost, port ), 50 );
+			} catch (IOException | RuntimeException e) {
+				serverChannel.close();
+				throw e;
+			}
+			myServerSocket = serverChannel.socket();
+		} catch (IOException | RuntimeException e) {
+			this.sessionExecutor.shutdownNow();
+			throw e;
+		}
+
 		myThread = new Thread("NanoHTTPD Micro Webserver Thread") {
 			@Override
 			public void run()
@@ -276,8 +508,7 @@ public class NanoHTTPD
 						if(sessionTimeout > 0) {
 							socket.setSoTimeout(sessionTimeout);
 						}
-						HTTPSession httpSession = new HTTPSession(socket);
-						httpSession.start();
+						startSession(socket);
 					}
 				}
 				catch ( IOException e ) {
@@ -294,183 +525,586 @@ public class NanoHTTPD
 	}
 
 	/**
-	 * Stops the server.
+	 * How connections are handled by the server
 	 */
-	public void stop()
-	{
-		try
-		{
-			stopping = true;
-			if (toClose != null) {
-				toClose.close();
+	public enum Engine {
+		/**
+		 * Each connection is read and answered with blocking I/O by one task on the session executor.
+		 */
+		BLOCKING,
+
+		/**
+		 * Connections are read and written with non-blocking I/O on a few threads, only complete
+		 * requests are handed to the session executor for calling serve(). Idle connections do
+		 * not occupy a thread, so many of them can be kept open at the same time.
+		 */
+		NIO
+	}
+
+	/**
+	 * Create an executor for {@link #NanoHTTPD(int, InetAddress, int, ExecutorService)} which handles
+	 * at most the given number of connections concurrently on platform threads and queues a limited
+	 * number of additional connections. Further connections are rejected with
+	 * "503 Service Unavailable".
+	 *
+	 * @param threads The maximum number of connections which are handled at the same time
+	 * @param queueSize How many accepted connections can wait for a free thread
+	 * @return A new executor, it is shut down when the server which uses it is stopped
+	 */
+	public static ExecutorService newBoundedSessionExecutor(int threads, int queueSize) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueSize), ExecutorUtil.createThreadFactory("NanoHTTPD Session Thread-%d"),
+				new ThreadPoolExecutor.AbortPolicy());
+		// do not keep idle threads around if the server is not used
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private void startSession(Socket socket) {
+		HTTPSession session = new HTTPSession(socket);
+		sessionSockets.add(socket);
+		queuedSessions.incrementAndGet();
+		try {
+			sessionExecutor.execute(session);
+		} catch (RejectedExecutionException e) {
+			queuedSessions.decrementAndGet();
+			rejectedSessions.incrementAndGet();
+			sessionSockets.remove(socket);
+
+			logger.fine("Rejecting connection from " + socket.getRemoteSocketAddress() + ": " + e);
+			try (socket) {
+				OutputStream out = socket.getOutputStream();
+				out.write(("HTTP/1.0 " + HTTP_SERVICE_UNAVAILABLE + " \r\n" +
+						"Content-Type: " + MIME_PLAINTEXT + "\r\n" +
+						"Retry-After: 1\r\n" +
+						"\r\n" +
+						"SERVICE UNAVAILABLE: Too many concurrent connections").getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+			} catch (IOException ioe) {
+				logger.log(Level.FINE, "Could not send rejection to " + socket.getRemoteSocketAddress(), ioe);
 			}
-			myServerSocket.close();
-			myThread.join();
-		}
-		catch ( IOException | InterruptedException e ) {
-			logger.log(Level.WARNING, "Had unexpected exception during stop", e);
 		}
 	}
 
+	void sessionOpened() {
+		activeSessions.incrementAndGet();
+	}
+
+	void sessionClosed() {
+		activeSessions.decrementAndGet();
+		completedSessions.incrementAndGet();
+	}
+
+	void sessionRejected() {
+		rejectedSessions.incrementAndGet();
+	}
+
 	/**
-	 * Starts as a standalone file server and waits for Enter.
+	 * @return The number of connections which are currently handled
+	 */
+	public int getActiveSessions() {
+		return activeSessions.get();
+	}
+
+	/**
+	 * @return The number of accepted connections which wait for being handled by the session executor
+	 */
+	public int getQueuedSessions() {
+		return queuedSessions.get();
+	}
+
+	/**
+	 * @return The number of connections which were handled completely since the server was started
+	 */
+	public long getCompletedSessions() {
+		return completedSessions.get();
+	}
+
+	/**
+	 * @return The number of connections which were rejected with "503 Service Unavailable"
+	 *  because the session executor did not accept more work
+	 */
+	public long getRejectedSessions() {
+		return rejectedSessions.get();
+	}
+
+	/**
+	 * Allows clients to send more than one request over a connection. By default each connection
+	 * is closed after one response has been sent with "HTTP/1.0".
 	 *
-	 * @param args The commandline arguments, e.g. for specifying the port
+	 * When enabled, requests with "HTTP/1.1" are answered with "HTTP/1.1" and the connection is
+	 * kept open unless the client sends "Connection: close", for "HTTP/1.0" requests only if the
+	 * client asks for it via "Connection: keep-alive". Responses on persistent connections are sent
+	 * with a "Content-Length" header if the length is known and with chunked transfer encoding otherwise.
+	 * Pipelined requests are answered in the order in which they were sent.
 	 *
-	 * @throws IOException If starting the web-server fails.
+	 * @param keepAlive If connections should be kept open after a response was sent
 	 */
-	@SuppressForbidden(reason = "Allow to exit the application with a return code here")
-	public static void main( String[] args ) throws IOException
-	{
-		System.out.println( """
-							NanoHTTPD 1.14 (C) 2001,2005-2010 Jarno Elonen
-							(Command line options: [port] [--licence])
-							""" );
+	public void setKeepAlive(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
 
-		// Show licence if requested
-		int lopt = -1;
-		for ( int i=0; i<args.length; ++i ) {
-			if ( args[i].toLowerCase().endsWith( "licence" ))
-			{
-				lopt = i;
-				System.out.println( LICENCE + "\n" );
-			}
+	/**
+	 * @param keepAliveTimeout How many milliseconds a persistent connection can be idle before it
+	 *                         is closed, 0 waits without timeout. The default is 5 seconds.
+	 */
+	public void setKeepAliveTimeout(int keepAliveTimeout) {
+		if (keepAliveTimeout < 0) {
+			throw new IllegalArgumentException("Need a non-negative timeout, but had: " + keepAliveTimeout);
 		}
+		this.keepAliveTimeout = keepAliveTimeout;
+	}
 
-		// Change port if requested
-		int port = 80;
-		if ( args.length > 0 && lopt != 0 ) {
-			port = Integer.parseInt( args[0] );
+	/**
+	 * @param maxKeepAliveRequests How many requests are handled on one connection before it is
+	 *                             closed. The default is 100.
+	 */
+	public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+		if (maxKeepAliveRequests <= 0) {
+			throw new IllegalArgumentException("Need a positive number of requests, but had: " + maxKeepAliveRequests);
 		}
+		this.maxKeepAliveRequests = maxKeepAliveRequests;
+	}
 
-		if ( args.length > 1 &&
-			 args[1].toLowerCase().endsWith( "licence" )) {
-			System.out.println( LICENCE + "\n" );
-		}
+	/**
+	 * Files are always served with "Last-Modified" and an "ETag", so clients can revalidate them
+	 * with "If-None-Match" or "If-Modified-Since" and get "304 Not Modified" if nothing changed.
+	 *
+	 * By default the "ETag" is computed from size and time of last modification of the file.
+	 *
+	 * @param strongETags If the "ETag" should be computed from a hash of the content instead, the hash is
+	 *                    cached until size or time of last modification of the file change
+	 */
+	public void setStrongETags(boolean strongETags) {
+		validators.setStrong(strongETags);
+	}
 
-		final NanoHTTPD nh;
-		try
-		{
-			nh = new NanoHTTPD( port );
+	/**
+	 * @param cacheControl The value of the "Cache-Control" header for files which do not match one
+	 *                     of the more specific settings, e.g. "no-cache" or "max-age=3600", null to
+	 *                     not send the header, which is the default.
+	 */
+	public void setCacheControl(String cacheControl) {
+		this.cacheControl = cacheControl;
+	}
+
+	/**
+	 * @param pathPrefix The start of the URI of files, the longest matching prefix is used,
+	 *                   e.g. "/static/"
+	 * @param cacheControl The value of the "Cache-Control" header for these files, null to remove the setting
+	 */
+	public void setCacheControlForPath(String pathPrefix, String cacheControl) {
+		if (cacheControl == null) {
+			cacheControlByPath.remove(pathPrefix);
+		} else {
+			cacheControlByPath.put(pathPrefix, cacheControl);
 		}
-		catch( IOException ioe )
-		{
-			System.err.println( "Couldn't start server:\n" + ioe );
-			System.exit( -1 );
-			return;
+	}
+
+	/**
+	 * Settings for paths take precedence over settings for mime-types.
+	 *
+	 * @param mimeType The mime-type of files, e.g. "image/png" or "image/*"
+	 * @param cacheControl The value of the "Cache-Control" header for these files, null to remove the setting
+	 */
+	public void setCacheControlForMimeType(String mimeType, String cacheControl) {
+		if (cacheControl == null) {
+			cacheControlByMimeType.remove(mimeType);
+		} else {
+			cacheControlByMimeType.put(mimeType, cacheControl);
 		}
+	}
 
-		System.out.println( "Now serving files in port " + port + " from \"" +
-							new File("").getAbsolutePath() + "\"" );
-		System.out.println( "Hit Enter to stop.\n" );
+	String getCacheControl(String uri, String mime) {
+		String prefix = null;
+		for (String candidate : cacheControlByPath.keySet()) {
+			if (uri.startsWith(candidate) && (prefix == null || candidate.length() > prefix.length())) {
+				prefix = candidate;
+			}
+		}
+		String value = prefix == null ? null : cacheControlByPath.get(prefix);
+		if (value != null) {
+			return value;
+		}
 
-		try {
-			System.in.read();
-		} finally {
-			nh.stop();
+		value = cacheControlByMimeType.get(mime);
+		if (value == null && mime.indexOf('/') > 0) {
+			value = cacheControlByMimeType.get(mime.substring(0, mime.indexOf('/')) + "/*");
 		}
+		return value != null ? value : cacheControl;
 	}
 
 	/**
-	 * Handles one session, i.e. parses the HTTP request
-	 * and returns the response.
+	 * Compresses responses with "gzip" or "deflate" if the client sends a matching "Accept-Encoding"
+	 * header. Only responses with status "200 OK", a mime-type from {@link #setCompressibleMimeTypes(String...)}
+	 * and at least {@link #setCompressionMinSize(int)} bytes are compressed. Responses which set
+	 * "Content-Encoding" themselves are sent unchanged.
+	 *
+	 * {@link #serveFile(String, Properties, File, boolean)} serves a precompressed sibling "file.gz" instead
+	 * of "file" if it is not older and keeps compressed versions of small files in memory.
+	 *
+	 * Disabled by default.
+	 *
+	 * @param compression If responses should be compressed
 	 */
-	private class HTTPSession implements Runnable
-	{
-		public HTTPSession(Socket s)
-		{
-			mySocket = s;
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * @param compressionMinSize Responses with fewer bytes are not compressed, smaller ones would not
+	 *                           get much smaller. The default is 1024. Responses with unknown
+	 *                           length are always compressed.
+	 */
+	public void setCompressionMinSize(int compressionMinSize) {
+		if (compressionMinSize < 0) {
+			throw new IllegalArgumentException("Need a non-negative size, but had: " + compressionMinSize);
 		}
+		this.compressionMinSize = compressionMinSize;
+	}
 
-		public void start() {
-			Thread t = new Thread( this, "NanoHTTPD Session Thread" );
-			t.setDaemon( true );
-			t.start();
+	/**
+	 * @param mimeTypes The mime-types which are compressed, e.g. "application/json" or "text/*". By default
+	 *                  text, JSON, JavaScript, XML and SVG are compressed.
+	 */
+	public void setCompressibleMimeTypes(String... mimeTypes) {
+		compressibleMimeTypes.clear();
+		for (String mimeType : mimeTypes) {
+			compressibleMimeTypes.add(mimeType.toLowerCase());
 		}
+	}
 
-		@Override
-		public void run()
-		{
-			try
-			{
-                InputStream is = mySocket.getInputStream();
-				if ( is == null) {
-					return;
-				}
-                BufferedReader in = new BufferedReader( new InputStreamReader( is ));       // NOSONAR - test class works only locally anyway
+	/**
+	 * Keeps the content of small files which are served via {@link #serveFile(String, Properties, File, boolean)}
+	 * in memory together with their mime-type, so often requested files are served without opening them
+	 * again. Files with up to 256 KB are cached, the least recently used ones are removed first.
+	 *
+	 * @param maxBytes How many bytes of file content are kept at most, 0 disables the cache, which is the default
+	 */
+	public void setFileCacheSize(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Need a non-negative size, but had: " + maxBytes);
+		}
+		fileCache = maxBytes == 0 ? null : new HotFileCache(maxBytes);
+	}
 
-				// Read the request line
-				String inLine = in.readLine();
-				try {
-					if (inLine == null) {
-						return;
-					}
-					StringTokenizer st = new StringTokenizer( inLine );
-					if ( !st.hasMoreTokens()) {
-						sendError( HTTP_BADREQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html" );
-					}
+	/**
+	 * @param checkInterval How many milliseconds cached files are served before checking again if the file
+	 *                      was changed, 0 checks on every request. The default is 1 second.
+	 */
+	public void setFileCacheCheckInterval(int checkInterval) {
+		if (checkInterval < 0) {
+			throw new IllegalArgumentException("Need a non-negative interval, but had: " + checkInterval);
+		}
+		this.fileCacheCheckInterval = checkInterval;
+	}
 
-					String method = st.nextToken();
+	/**
+	 * @param maxRequestBodySize How many bytes the body of a request may contain, larger requests are answered
+	 *                           with "413 Request Entity Too Large". By default, the size is not limited, but the
+	 *                           non-blocking engine keeps bodies in memory and allows at most 16 MB.
+	 */
+	public void setMaxRequestBodySize(long maxRequestBodySize) {
+		if (maxRequestBodySize < 0) {
+			throw new IllegalArgumentException("Need a non-negative size, but had: " + maxRequestBodySize);
+		}
+		this.maxRequestBodySize = maxRequestBodySize;
+	}
 
-					if ( !st.hasMoreTokens()) {
-						sendError( HTTP_BADREQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html" );
-					}
+	long getMaxRequestBodySize() {
+		return maxRequestBodySize;
+	}
 
-					String uri = st.nextToken();
+	/**
+	 * @param router Serves requests for the paths which it has routes for, other requests are
+	 *               handled by serve(uri, method, header, parms), null to not use a router
+	 */
+	public void setRouter(Router router) {
+		this.router = router;
+	}
 
-					// Decode parameters from the URI
-					Properties parms = new Properties();
-					int qmi = uri.indexOf( '?' );
-					if ( qmi >= 0 )
-					{
-						decodeParms( uri.substring( qmi+1 ), parms );
-						uri = decodePercent( uri.substring( 0, qmi ));
-					} else {
-						uri = decodePercent(uri);
-					}
+	/**
+	 * @param uploadDirectory Where files which are uploaded via "multipart/form-data" are stored
+	 *                        while the request is served, null for the default temporary directory
+	 */
+	public void setUploadDirectory(File uploadDirectory) {
+		this.uploadDirectory = uploadDirectory;
+	}
 
+	boolean isCompressible(String mime) {
+		if (mime == null) {
+			return false;
+		}
 
-					// If there's another token, it's protocol version,
-					// followed by HTTP headers. Ignore version but parse headers.
-					// NOTE: this now forces header names uppercase since they are
-					// case insensitive and vary by client.
-					Properties header = new Properties();
-					if ( st.hasMoreTokens())
-					{
-						readProperties(in, header);
-					}
+		// ignore parameters like "; charset=UTF-8"
+		int semicolon = mime.indexOf(';');
+		String type = (semicolon >= 0 ? mime.substring(0, semicolon) : mime).trim().toLowerCase();
+		int slash = type.indexOf('/');
+		return compressibleMimeTypes.contains(type) ||
+				(slash > 0 && compressibleMimeTypes.contains(type.substring(0, slash) + "/*"));
+	}
 
-					// If the method is POST, there may be parameters
-					// in data section, too, read it:
-					if ( method.equalsIgnoreCase( "POST" ))
-					{
-						handlePOST(in, parms, header);
-					}
+	/**
+	 * Chooses the content-coding from the "Accept-Encoding" header of a request, "gzip" is preferred
+	 * if the client accepts both equally.
+	 *
+	 * @return "gzip", "deflate" or null if the client does not accept one of them
+	 */
+	static String negotiateEncoding(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
 
-					// Ok, now do the serve()
-					Response r = serve( uri, method, header, parms );
-					if ( r == null ) {	// NOSONAR - server() can be overwritten and thus could return null!
-						sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response." );
-					} else {
-						sendResponse( r.status, r.mimeType, r.header, r.data );
+		String best = null;
+		double bestQuality = 0;
+		double wildcard = -1;
+		double gzip = -1;
+		double deflate = -1;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] params = coding.split(";");
+			String name = params[0].trim().toLowerCase();
+			double quality = 1;
+			for (int i = 1; i < params.length; i++) {
+				String param = params[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						quality = Double.parseDouble(param.substring(2));
+					} catch (NumberFormatException e) {
+						quality = 0;
 					}
-				} catch ( InterruptedException ie ) {
-					// Thrown by sendError, ignore and exit the thread.
-				} catch (Throwable e) {       // NOSONAR - test class works only locally anyway
-					logger.log(Level.WARNING, "Had Exception in HTTPSession handling thread", e);
+				}
+			}
 
-					String msg = "<html><body>Exception in HTTPSession handling thread, error: " + e.getMessage() + "</body></html>";
-					try
-					{
-						sendError( HTTP_INTERNALERROR, msg);
+			switch (name) {
+				case CompressingInputStream.GZIP, "x-gzip" -> gzip = quality;
+				case CompressingInputStream.DEFLATE -> deflate = quality;
+				case "*" -> wildcard = quality;
+				default -> {
+					// not supported
+				}
+			}
+		}
+
+		// codings which are not listed are covered by "*"
+		gzip = gzip < 0 ? wildcard : gzip;
+		deflate = deflate < 0 ? wildcard : deflate;
+		if (gzip > bestQuality) {
+			best = CompressingInputStream.GZIP;
+			bestQuality = gzip;
+		}
+		if (deflate > bestQuality) {
+			best = CompressingInputStream.DEFLATE;
+		}
+		return best;
+	}
+
+	/**
+	 * Compresses the body of the response if the client accepts it, see {@link #setCompression(boolean)}.
+	 *
+	 * @param acceptEncoding The "Accept-Encoding" header of the request, may be null
+	 * @param r The response which is adjusted
+	 */
+	void compressResponse( String acceptEncoding, Response r ) throws IOException
+	{
+		if ( !compression || !isCompressible( r.mimeType )) {
+			return;
+		}
+
+		// caches need to know that the response depends on the header
+		if ( getHeader( r.header, "Vary" ) == null ) {
+			r.addHeader( "Vary", "Accept-Encoding" );
+		}
+
+		if ( r.data == null || !HTTP_OK.equals( r.status ) || getHeader( r.header, "Content-Encoding" ) != null ) {
+			return;
+		}
+		String encoding = negotiateEncoding( acceptEncoding );
+		if ( encoding == null ) {
+			return;
+		}
+		long length = getContentLength( r.header, r.data );
+		if ( length >= 0 && length < compressionMinSize ) {
+			return;
+		}
+
+		if ( r.data instanceof ByteArrayInputStream ) {
+			// keep the length known for in-memory data
+			r.data = new ByteArrayInputStream( CompressingInputStream.compress( r.data.readAllBytes(), encoding ));
+		} else {
+			r.data = new CompressingInputStream( r.data, encoding );
+		}
+		removeHeader( r.header, "Content-Length" );
+		// ranges would refer to the uncompressed data
+		removeHeader( r.header, "Accept-Ranges" );
+		r.addHeader( "Content-Encoding", encoding );
+
+		String etag = getHeader( r.header, "ETag" );
+		if ( etag != null ) {
+			removeHeader( r.header, "ETag" );
+			r.addHeader( "ETag", FileValidators.withEncoding( etag, encoding ));
+		}
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	public void stop()
+	{
+		try
+		{
+			stopping = true;
+			if (nioEngine != null) {
+				nioEngine.stop();
+			} else {
+				myServerSocket.close();
+				myThread.join();
+			}
+
+			// let running requests finish, but do not wait for clients which do not send anything
+			sessionExecutor.shutdown();
+			if (!sessionExecutor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+				for (Socket socket : sessionSockets) {
+					try {
+						socket.close();
+					} catch (IOException e) {
+						logger.log(Level.FINE, "Could not close socket " + socket, e);
 					}
-					catch ( Throwable t ) { // NOPMD - imported code
-						// imported code
+				}
+				ExecutorUtil.shutdownAndAwaitTermination(sessionExecutor, 10_000);
+			}
+		}
+		catch ( IOException | InterruptedException e ) {
+			logger.log(Level.WARNING, "Had unexpected exception during stop", e);
+		}
+	}
+
+	/**
+	 * Starts as a standalone file server and waits for Enter.
+	 *
+	 * @param args The commandline arguments, e.g. for specifying the port
+	 *
+	 * @throws IOException If starting the web-server fails.
+	 */
+	@SuppressForbidden(reason = "Allow to exit the application with a return code here")
+	public static void main( String[] args ) throws IOException
+	{
+		System.out.println( """
+							NanoHTTPD 1.14 (C) 2001,2005-2010 Jarno Elonen
+							(Command line options: [port] [--licence])
+							""" );
+
+		// Show licence if requested
+		int lopt = -1;
+		for ( int i=0; i<args.length; ++i ) {
+			if ( args[i].toLowerCase().endsWith( "licence" ))
+			{
+				lopt = i;
+				System.out.println( LICENCE + "\n" );
+			}
+		}
+
+		// Change port if requested
+		int port = 80;
+		if ( args.length > 0 && lopt != 0 ) {
+			port = Integer.parseInt( args[0] );
+		}
+
+		if ( args.length > 1 &&
+			 args[1].toLowerCase().endsWith( "licence" )) {
+			System.out.println( LICENCE + "\n" );
+		}
+
+		final NanoHTTPD nh;
+		try
+		{
+			nh = new NanoHTTPD( port );
+		}
+		catch( IOException ioe )
+		{
+			System.err.println( "Couldn't start server:\n" + ioe );
+			System.exit( -1 );
+			return;
+		}
+
+		System.out.println( "Now serving files in port " + port + " from \"" +
+							new File("").getAbsolutePath() + "\"" );
+		System.out.println( "Hit Enter to stop.\n" );
+
+		try {
+			System.in.read();
+		} finally {
+			nh.stop();
+		}
+	}
+
+	/**
+	 * Handles one session, i.e. parses the HTTP request
+	 * and returns the response.
+	 */
+	private class HTTPSession implements Runnable
+	{
+		public HTTPSession(Socket s)
+		{
+			mySocket = s;
+		}
+
+		@Override
+		public void run()
+		{
+			queuedSessions.decrementAndGet();
+			activeSessions.incrementAndGet();
+			try {
+				handle();
+			} finally {
+				sessionSockets.remove(mySocket);
+				activeSessions.decrementAndGet();
+				completedSessions.incrementAndGet();
+			}
+		}
+
+		private void handle()
+		{
+			try
+			{
+                InputStream is = mySocket.getInputStream();
+				if ( is == null) {
+					return;
+				}
+				// headers are read byte by byte, so the body can be read from the same stream
+				InputStream in = new BufferedInputStream( is );
+				RequestHeadReader reader = new RequestHeadReader( in, mySocket );
+
+				// Read the request line
+				boolean received = reader.readRequestLine();
+				try {
+					int sessionTimeout = mySocket.getSoTimeout();
+					int requests = 0;
+					while (received && handleRequest(in, reader, ++requests)) {
+						// wait for the next request on a persistent connection, but not forever
+						mySocket.setSoTimeout(keepAliveTimeout);
+						try {
+							received = reader.readRequestLine();
+						} catch (SocketTimeoutException e) {
+							logger.fine("Closing idle connection " + mySocket + " after " + requests + " requests");
+							return;
+						} catch (IOException e) {
+							// the client or stop() closed the connection
+							logger.log(Level.FINE, "Connection " + mySocket + " was closed", e);
+							return;
+						}
+						mySocket.setSoTimeout(sessionTimeout);
 					}
 				} finally {
 					in.close();
 				}
 			}
+			catch ( ProtocolException e ) {
+				try {
+					sendError(HTTP_BADREQUEST, e.getMessage());
+				} catch (Throwable t) { // NOPMD - imported code
+					// imported code
+				}
+			}
 			catch ( IOException ioe ) {
 				try {
 					sendError(HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage());
@@ -480,139 +1114,153 @@ public class NanoHTTPD
 			}
 		}
 
-        private void readProperties(BufferedReader in, Properties header) throws IOException {
-			// if the InputStream does not provide full lines, we can get stuck reading more data
-			// and if the other party actually waits for our response, we can get "stuck" here
-			// waiting for the next line
+		/**
+		 * Handles one request and sends the response.
+		 *
+		 * @return true if the connection should be kept open for further requests
+		 */
+		private boolean handleRequest(InputStream in, RequestHeadReader reader, int requests)
+		{
+			try {
+				String method = reader.getMethod();
+				if ( method == null ) {
+					sendError( HTTP_BADREQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html" );
+				}
+
+				String uri = reader.getUri();
+				if ( uri == null ) {
+					sendError( HTTP_BADREQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html" );
+				}
 
-			// Thus we forcefully stop and interrupt the Socket-handling here by detecting
-			// that reading the properties took to long and thus we close the input of the socket
-			// forcefully to avoid a deadlock
+				// Decode parameters from the URI
+				Properties parms = new Properties();
+				int qmi = uri.indexOf( '?' );
+				if ( qmi >= 0 )
+				{
+					decodeParms( uri.substring( qmi+1 ), parms );
+					uri = decodePercent( uri.substring( 0, qmi ));
+				} else {
+					uri = decodePercent(uri);
+				}
 
-			Semaphore sem = new Semaphore(1);
-			sem.acquireUninterruptibly();
 
-			ForkJoinTask<?> task = ForkJoinPool.commonPool().submit(() -> {
-				try {
-					// wait 1 second for reading lines to finish, otherwise interrupt the thread
-					if (!sem.tryAcquire(3, TimeUnit.SECONDS)) {
-						logger.warning("Timeout reading input from socket " + mySocket + " while reading properties");
-						mySocket.shutdownInput();
-					}
-				} catch (InterruptedException | IOException e) {
-					throw new RuntimeException(e);
+				// If there's another token, it's protocol version,
+				// followed by HTTP headers. Parse the headers.
+				HttpHeaders header = new HttpHeaders();
+				String version = reader.getVersion();
+				if ( version != null )
+				{
+					reader.readHeaders( header, HEADER_TIMEOUT );
 				}
-			});
 
-			try {
-				while (true) {
-					String line = in.readLine();
-					if (line == null || line.trim().isBlank()) {
-						break;
+				String protocol = getResponseProtocol(version);
+				boolean persistent = isPersistent(version, header, requests);
+
+				// the body is read while serving the request
+				try (RequestBodyInputStream body = createRequestBody(in, method, header, persistent)) {
+					if ( "HTTP/1.1".equals(protocol) && "100-continue".equalsIgnoreCase(header.get("expect"))) {
+						OutputStream out = mySocket.getOutputStream();
+						out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+						out.flush();
 					}
 
-					int p = line.indexOf(':');
-					if (p == -1) {
-						logger.warning("Could not parse property " + line);
-					} else {
-						header.put(line.substring(0, p).trim().toLowerCase(), line.substring(p + 1).trim());
+					// Ok, now do the serve()
+					Response r = serve( uri, method, header, parms, body );
+					if ( r == null ) {	// NOSONAR - server() can be overwritten and thus could return null!
+						sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response." );
+						return false;
 					}
+					compressResponse( header.get( "accept-encoding" ), r );
+
+					// the next request can only be read after the rest of the body
+					return sendResponse( protocol, r.status, r.mimeType, r.header, r.getRepeatedHeader(), r.data,
+							method.equalsIgnoreCase("HEAD"), persistent ) && body.skipRemaining();
 				}
-			} finally {
-				// the task is not needed any more
-				task.cancel(true);
-				sem.release();
-			}
-        }
+			} catch ( InterruptedException ie ) {
+				// Thrown by sendError, ignore and exit the thread.
+				return false;
+			} catch ( RequestBodyInputStream.TooLargeException e ) {
+				try
+				{
+					sendError( HTTP_ENTITY_TOO_LARGE, e.getMessage());
+				}
+				catch ( Throwable t ) { // NOPMD - imported code
+					// imported code
+				}
+				return false;
+			} catch ( ProtocolException e ) {
+				try
+				{
+					sendError( HTTP_BADREQUEST, e.getMessage());
+				}
+				catch ( Throwable t ) { // NOPMD - imported code
+					// imported code
+				}
+				return false;
+			} catch (Throwable e) {       // NOSONAR - test class works only locally anyway
+				logger.log(Level.WARNING, "Had Exception in HTTPSession handling thread", e);
 
-        private void handlePOST(BufferedReader in, Properties parms, Properties header) throws IOException, InterruptedException {
-            long size = 0x7FFFFFFFFFFFFFFFL;
-            String contentLength = header.getProperty("content-length");
-            if (contentLength != null)
-            {
-            	try { size = Integer.parseInt(contentLength); }
-				catch (NumberFormatException ex) { // NOPMD - imported code
+				String msg = "<html><body>Exception in HTTPSession handling thread, error: " + e.getMessage() + "</body></html>";
+				try
+				{
+					sendError( HTTP_INTERNALERROR, msg);
+				}
+				catch ( Throwable t ) { // NOPMD - imported code
 					// imported code
 				}
-            }
-            StringBuilder postLine = new StringBuilder();
-			char[] buf = new char[512];
-			if (size > 0) {
-				int read = in.read(buf);
-				while (read >= 0 && size > 0 && !postLine.toString().endsWith("\r\n")) {
-					size -= read;
-					postLine.append(String.valueOf(buf, 0, read));
-					if (size > 0) {
-						read = in.read(buf);
-					}
+				return false;
+			}
+		}
+
+		/**
+		 * The body ends after "Content-Length" bytes or with the last chunk. Without either,
+		 * only a POST on a connection which is closed afterwards can have a body.
+		 */
+		private RequestBodyInputStream createRequestBody(InputStream in, String method, HttpHeaders header, boolean persistent)
+				throws RequestBodyInputStream.TooLargeException, InterruptedException {
+			String transferEncoding = header.get("transfer-encoding");
+			if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+				return new RequestBodyInputStream(in, -1, true, maxRequestBodySize);
+			}
+
+			String contentLength = header.get("content-length");
+			if (contentLength != null) {
+				long length = -1;
+				try {
+					length = Long.parseLong(contentLength.trim());
+				} catch (NumberFormatException e) {
+					// reported below
 				}
-				decodeParms(postLine.toString().trim(), parms);
+				if (length < 0) {
+					sendError(HTTP_BADREQUEST, "BAD REQUEST: Invalid Content-Length: " + contentLength);
+				}
+				return new RequestBodyInputStream(in, length, false, maxRequestBodySize);
 			}
-        }
+
+			return new RequestBodyInputStream(in, method.equalsIgnoreCase("POST") && !persistent ? -1 : 0,
+					false, maxRequestBodySize);
+		}
 
 		/**
-		 * Decodes the percent encoding scheme. <br/>
-		 * For example: "an+example%20string" -> "an example string"
+		 * Decodes the percent encoding scheme, sends "400 Bad Request" if this fails.
 		 */
 		private String decodePercent( String str ) throws InterruptedException
 		{
-			try
-			{
-				StringBuilder sb = new StringBuilder();
-				for( int i=0; i<str.length(); i++ )
-				{
-				    char c = str.charAt( i );
-				    switch ( c )
-					{
-				        case '+':
-				            sb.append( ' ' );
-				            break;
-				        case '%':
-			                sb.append((char)Integer.parseInt( str.substring(i+1,i+3), 16 ));
-				            i += 2;
-				            break;
-				        default:
-				            sb.append( c );
-				            break;
-				    }
-				}
-				return sb.toString();
-			}
-			catch( Exception e )
-			{
+			String decoded = decodePercentEncoding( str );
+			if ( decoded == null ) {
 				sendError( HTTP_BADREQUEST, "BAD REQUEST: Bad percent-encoding." );
-				return null;
 			}
+			return decoded;
 		}
 
 		/**
-		 * Decodes parameters in percent-encoded URI-format
-		 * ( e.g. "name=Jack%20Daniels&pass=Single%20Malt" ) and
-		 * adds them to given Properties. NOTE: this doesn't support multiple
-		 * identical keys due to the simplicity of Properties -- if you need multiples,
-		 * you might want to replace the Properties with a Hastable of Vectors or such.
+		 * Decodes parameters in percent-encoded URI-format, sends "400 Bad Request" if this fails.
 		 */
 		private void decodeParms( String parms, Properties p )
 			throws InterruptedException
 		{
-			if ( parms == null ) {
-				return;
-			}
-
-			StringTokenizer st = new StringTokenizer( parms, "&" );
-			while ( st.hasMoreTokens())
-			{
-				String e = st.nextToken();
-				int sep = e.indexOf( '=' );
-				if ( sep >= 0 ) {
-					String key = decodePercent(e.substring(0, sep));
-					String val = decodePercent(e.substring(sep+1));
-					if (key == null || val == null) {
-						// decoding failed (bad percent-encoding), skip this parameter
-						continue;
-					}
-					p.put(key.trim(), val);
-				}
+			if ( !decodeParameters( parms, p )) {
+				sendError( HTTP_BADREQUEST, "BAD REQUEST: Bad percent-encoding." );
 			}
 		}
 
@@ -627,9 +1275,20 @@ public class NanoHTTPD
 		}
 
 		/**
-		 * Sends given response to the socket.
+		 * Sends given response to the socket and closes the connection.
 		 */
 		private void sendResponse( String status, String mime, Properties header, InputStream data )
+		{
+			sendResponse( "HTTP/1.0", status, mime, header, null, data, false, false );
+		}
+
+		/**
+		 * Sends given response to the socket.
+		 *
+		 * @return true if the connection is kept open for further requests
+		 */
+		private boolean sendResponse( String protocol, String status, String mime, Properties header, HttpHeaders repeatedHeader,
+									  InputStream data, boolean head, boolean persistent )
 		{
 			try
 			{
@@ -638,42 +1297,50 @@ public class NanoHTTPD
 					throw new Error( "sendResponse(): Status can't be null." ); // NOPMD - imported code
 				}
 
-				try (OutputStream out = mySocket.getOutputStream()) {
-					try (PrintWriter pw = new PrintWriter( out )) {
-						pw.print("HTTP/1.0 " + status + " \r\n");
-
-						if ( mime != null ) {
-							pw.print("Content-Type: " + mime + "\r\n");
-						}
+				// persistent connections need to tell the client where the response ends
+				boolean chunked = false;
+				boolean bodiless = isBodiless( status );
+				long length = keepAlive && !bodiless ? getContentLength(header, data) : -1;
+				if ( persistent && length < 0 && !bodiless ) {
+					if ( "HTTP/1.1".equals(protocol) ) {
+						chunked = true;
+					} else {
+						persistent = false;
+					}
+				}
 
-						if ( header == null || header.getProperty( "Date" ) == null ) {
-							pw.print( "Date: " + gmtFrmt.format( new Date()) + "\r\n");
-						}
+				OutputStream out = mySocket.getOutputStream();
+				PrintWriter pw = new PrintWriter( out );
+				try {
+					pw.print(createResponseHeader( protocol, status, mime, header, repeatedHeader, length, chunked, persistent ));
+					pw.flush();
 
-						if ( header != null )
-						{
-							Enumeration<?> e = header.keys();
-							while ( e.hasMoreElements())
-							{
-								String key = (String)e.nextElement();
-								String value = header.getProperty( key );
-								pw.print( key + ": " + value + "\r\n");
+					// a body for HEAD would be read as the start of the next response
+					if ( data != null && !bodiless && !(head && persistent) )
+					{
+						if ( data instanceof FileRegionInputStream file && !chunked ) {
+							// let the operating system send the file directly
+							WritableByteChannel channel = mySocket.getChannel() != null ?
+									mySocket.getChannel() : Channels.newChannel(out);
+							while ( file.hasRemaining() ) {
+								file.writeTo(channel);
 							}
-						}
-
-						pw.print("\r\n");
-						pw.flush();
-
-						if ( data != null )
-						{
+						} else if ( chunked ) {
+							copyChunked(data, out);
+						} else {
 							IOUtils.copy(data, out);
 						}
-						out.flush();
+					}
+					out.flush();
+				} finally {
+					if ( !persistent ) {
+						pw.close();
 					}
 				}
 				if ( data != null ) {
 					data.close();
 				}
+				return persistent && !pw.checkError();
 			}
 			catch( IOException ioe )
 			{
@@ -683,6 +1350,15 @@ public class NanoHTTPD
 				} catch( Throwable t ) { // NOPMD - imported code
 					// imported code
 				}
+				// e.g. the channel of a file
+				if ( data != null ) {
+					try {
+						data.close();
+					} catch( IOException e ) {
+						logger.log(Level.FINE, "Could not close data of response", e);
+					}
+				}
+				return false;
 			}
 		}
 
@@ -690,36 +1366,323 @@ public class NanoHTTPD
 	}
 
 	/**
-	 * URL-encodes everything between '/'-characters.
-	 * Encodes spaces as '%20' instead of '+'.
+	 * Reads one line of the request head, bytes are converted as ISO-8859-1 and the line-break is removed.
+	 *
+	 * @return The line or null if the stream ended before it
+	 * @throws ProtocolException If the line is longer than allowed for the header of a request
+	 */
+	static String readLine( InputStream in ) throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ( ( b = in.read() ) != '\n' )
+		{
+			if ( b < 0 ) {
+				return line.length() == 0 ? null : line.toString();
+			}
+			if ( line.length() >= HttpRequestParser.MAX_HEADER_SIZE ) {
+				throw new ProtocolException( "BAD REQUEST: Request header is too large" );
+			}
+			line.append( (char) b );
+		}
+
+		int length = line.length();
+		return length > 0 && line.charAt( length - 1 ) == '\r' ? line.substring( 0, length - 1 ) : line.toString();
+	}
+
+	/**
+	 * Decodes the percent encoding scheme. <br/>
+	 * For example: "an+example%20string" -> "an example string"
+	 *
+	 * @return The decoded string or null if the encoding is invalid
+	 */
+	static String decodePercentEncoding( String str )
+	{
+		try
+		{
+			StringBuilder sb = new StringBuilder();
+			for( int i=0; i<str.length(); i++ )
+			{
+			    char c = str.charAt( i );
+			    switch ( c )
+				{
+			        case '+':
+			            sb.append( ' ' );
+			            break;
+			        case '%':
+		                sb.append((char)Integer.parseInt( str.substring(i+1,i+3), 16 ));
+			            i += 2;
+			            break;
+			        default:
+			            sb.append( c );
+			            break;
+			    }
+			}
+			return sb.toString();
+		}
+		catch( Exception e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Decodes parameters in percent-encoded URI-format
+	 * ( e.g. "name=Jack%20Daniels&pass=Single%20Malt" ) and
+	 * adds them to given Properties. NOTE: this doesn't support multiple
+	 * identical keys due to the simplicity of Properties -- if you need multiples,
+	 * you might want to replace the Properties with a Hastable of Vectors or such.
+	 *
+	 * @return false if a parameter has an invalid encoding
 	 */
-	private String encodeUri( String uri )
+	static boolean decodeParameters( String parms, Properties p )
 	{
-		StringBuilder newUri = new StringBuilder();
-		StringTokenizer st = new StringTokenizer( uri, "/ ", true );
+		if ( parms == null ) {
+			return true;
+		}
+
+		StringTokenizer st = new StringTokenizer( parms, "&" );
 		while ( st.hasMoreTokens())
 		{
-			String tok = st.nextToken();
-			if ( tok.equals( "/" )) {
-				newUri.append('/');
-			} else if ( tok.equals( " " )) {
-				newUri.append("%20");
-			} else {
-				try {
-					newUri.append(URLEncoder.encode( tok, "UTF-8" ));
-				} catch ( UnsupportedEncodingException uee ) { // NOPMD - imported code
-					// imported code
+			String e = st.nextToken();
+			int sep = e.indexOf( '=' );
+			if ( sep >= 0 ) {
+				String key = decodePercentEncoding(e.substring(0, sep));
+				String val = decodePercentEncoding(e.substring(sep+1));
+				if (key == null || val == null) {
+					return false;
 				}
+				p.put(key.trim(), val);
 			}
 		}
-		return newUri.toString();
+		return true;
+	}
+
+	/**
+	 * @return true if the connection should be kept open after the response to the given request
+	 */
+	boolean isPersistent(String version, HttpHeaders header, int requests) {
+		if (!keepAlive || version == null || requests >= maxKeepAliveRequests) {
+			return false;
+		}
+
+		String connection = header.get("connection", "").toLowerCase();
+		if ("HTTP/1.1".equals(version)) {
+			return !connection.contains("close");
+		}
+		return "HTTP/1.0".equals(version) && connection.contains("keep-alive");
+	}
+
+	/**
+	 * @return The protocol for the response to a request with the given version, HTTP/1.1
+	 * 		is only used if persistent connections are enabled
+	 */
+	String getResponseProtocol(String version) {
+		return keepAlive && "HTTP/1.1".equals(version) ? "HTTP/1.1" : "HTTP/1.0";
+	}
+
+	boolean isKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * @return The timeout for idle persistent connections
+	 */
+	int getKeepAliveTimeout() {
+		return keepAliveTimeout;
 	}
 
+	/**
+	 * Decodes the URI and the parameters of a request which was read completely and calls serve().
+	 * Errors are reported as response.
+	 */
+	Response serveRequest( String method, String rawUri, HttpHeaders header, InputStream body )
+	{
+		try {
+			Properties parms = new Properties();
+			String uri = rawUri;
+			int qmi = uri.indexOf( '?' );
+			if ( qmi >= 0 )
+			{
+				if ( !decodeParameters( uri.substring( qmi+1 ), parms )) {
+					return new Response( HTTP_BADREQUEST, MIME_PLAINTEXT, "BAD REQUEST: Bad percent-encoding." );
+				}
+				uri = uri.substring( 0, qmi );
+			}
+			uri = decodePercentEncoding( uri );
+			if ( uri == null ) {
+				return new Response( HTTP_BADREQUEST, MIME_PLAINTEXT, "BAD REQUEST: Bad percent-encoding." );
+			}
+
+			Response r = serve( uri, method, header, parms, body );
+			if ( r == null ) {	// NOSONAR - server() can be overwritten and thus could return null!
+				return new Response( HTTP_INTERNALERROR, MIME_PLAINTEXT, "SERVER INTERNAL ERROR: Serve() returned a null response." );
+			}
+			compressResponse( header.get( "accept-encoding" ), r );
+			return r;
+		} catch (Throwable e) {       // NOSONAR - test class works only locally anyway
+			logger.log(Level.WARNING, "Had Exception while serving request", e);
+
+			return new Response( HTTP_INTERNALERROR, MIME_PLAINTEXT,
+					"<html><body>Exception in HTTPSession handling thread, error: " + e.getMessage() + "</body></html>" );
+		}
+	}
+
+	/**
+	 * Builds the status-line and the headers of a response including the empty line which ends them.
+	 *
+	 * @param repeatedHeader Values added via {@link Response#appendHeader(String, String)}, may be null
+	 */
+	String createResponseHeader( String protocol, String status, String mime, Properties header, HttpHeaders repeatedHeader,
+								 long length, boolean chunked, boolean persistent )
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(protocol).append(' ').append(status).append(" \r\n");
+
+		if ( mime != null ) {
+			sb.append("Content-Type: ").append(mime).append("\r\n");
+		}
+
+		if ( header == null || header.getProperty( "Date" ) == null ) {
+			sb.append("Date: ").append(gmtFrmt.format(new Date())).append("\r\n");
+		}
+
+		if ( header != null )
+		{
+			Enumeration<?> e = header.keys();
+			while ( e.hasMoreElements())
+			{
+				String key = (String)e.nextElement();
+				String value = header.getProperty( key );
+				sb.append(key).append(": ").append(value).append("\r\n");
+			}
+		}
+
+		if ( repeatedHeader != null ) {
+			sb.append(repeatedHeader);
+		}
+
+		if ( length >= 0 && getHeader(header, "Content-Length") == null ) {
+			sb.append("Content-Length: ").append(length).append("\r\n");
+		}
+		if ( chunked ) {
+			sb.append("Transfer-Encoding: chunked\r\n");
+		}
+		if ( keepAlive ) {
+			if ( persistent && "HTTP/1.0".equals(protocol) ) {
+				sb.append("Connection: keep-alive\r\n");
+			} else if ( !persistent && "HTTP/1.1".equals(protocol) ) {
+				sb.append("Connection: close\r\n");
+			}
+		}
+
+		return sb.append("\r\n").toString();
+	}
+
+	/**
+	 * Responses with status 1xx, 204 and 304 end with the header, so they have neither
+	 * a body nor a computed "Content-Length".
+	 */
+	static boolean isBodiless(String status) {
+		return status != null && (status.startsWith("1") || status.startsWith("204") || status.startsWith("304"));
+	}
+
+	static long getContentLength(Properties header, InputStream data) throws IOException {
+		String contentLength = getHeader(header, "Content-Length");
+		if (contentLength != null) {
+			try {
+				return Long.parseLong(contentLength.trim());
+			} catch (NumberFormatException e) {
+				logger.log(Level.WARNING, "Could not parse Content-Length: " + contentLength, e);
+				return -1;
+			}
+		}
+
+		if (data == null) {
+			return 0;
+		}
+		// in-memory data provides the exact length
+		if (data instanceof ByteArrayInputStream) {
+			return data.available();
+		}
+		return -1;
+	}
+
+	/**
+	 * Header names of responses are not normalized, so look them up case-insensitively.
+	 */
+	private static String getHeader(Properties header, String name) {
+		if (header == null) {
+			return null;
+		}
+		for (String key : header.stringPropertyNames()) {
+			if (key.equalsIgnoreCase(name)) {
+				return header.getProperty(key);
+			}
+		}
+		return null;
+	}
+
+	private static void removeHeader(Properties header, String name) {
+		for (String key : header.stringPropertyNames()) {
+			if (key.equalsIgnoreCase(name)) {
+				header.remove(key);
+			}
+		}
+	}
+
+	private static void copyChunked(InputStream data, OutputStream out) throws IOException {
+		byte[] buf = new byte[8192];
+		int read;
+		while ((read = data.read(buf)) != -1) {
+			// an empty chunk would mark the end of the data
+			if (read > 0) {
+				out.write((Integer.toHexString(read) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+				out.write(buf, 0, read);
+				out.write(CRLF);
+			}
+		}
+		out.write(("0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private static final int MAX_RANGES = 16;
+
+	private static final int NIO_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+	// how long a client may take to send the headers of a request
+	static final int HEADER_TIMEOUT = 3_000;
+
 	private final ServerSocket myServerSocket;
 	private final Thread myThread;
+	private final NioEngine nioEngine;
+	private final ExecutorService sessionExecutor;
+	private final Set<Socket> sessionSockets = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger activeSessions = new AtomicInteger();
+	private final AtomicInteger queuedSessions = new AtomicInteger();
+	private final AtomicLong completedSessions = new AtomicLong();
+	private final AtomicLong rejectedSessions = new AtomicLong();
+	private volatile boolean keepAlive = false;
+	private volatile int keepAliveTimeout = 5_000;
+	private volatile int maxKeepAliveRequests = 100;
+	private final FileValidators validators = new FileValidators();
+	private volatile String cacheControl = null;
+	private volatile boolean compression = false;
+	private volatile int compressionMinSize = 1024;
+	private final Set<String> compressibleMimeTypes = new CopyOnWriteArraySet<>(List.of("text/*",
+			"application/json", "application/javascript", "application/xml", "image/svg+xml"));
+	private final CompressedFileCache compressedFiles = new CompressedFileCache(16 * 1024 * 1024);
+	private final DirectoryListing directoryListing = new DirectoryListing(10_000);
+	private volatile HotFileCache fileCache = null;
+	private volatile int fileCacheCheckInterval = 1_000;
+	private volatile long maxRequestBodySize = Long.MAX_VALUE;
+	private volatile File uploadDirectory = null;
+	private volatile Router router = null;
+	private final Map<String, String> cacheControlByPath = new ConcurrentHashMap<>();
+	private final Map<String, String> cacheControlByMimeType = new ConcurrentHashMap<>();
 	// helper to not log exceptions during shutdown
 	private volatile boolean stopping = false;
-	private InputStream toClose = null;
 
 	// ==================================================
 	// File server code
@@ -727,10 +1690,10 @@ public class NanoHTTPD
 
 	/**
 	 * Serves file from homeDir and its' subdirectories (only).
-	 * Uses only URI, ignores all headers and HTTP parameters.
+	 * Uses only URI and the headers for ranges and conditional requests, ignores HTTP parameters.
 	 *
 	 * @param uriIn Which file to serve
-	 * @param header HTTP headers, currently ignored
+	 * @param header HTTP headers of the request, may be null
 	 * @param homeDir The base-dir from where to server the file
 	 * @param allowDirectoryListing If contents of directories can be listed
 	 *
@@ -738,6 +1701,27 @@ public class NanoHTTPD
 	 */
 	public Response serveFile( String uriIn, Properties header, File homeDir,
 							   boolean allowDirectoryListing )
+	{
+		return serveFile( uriIn, header, null, homeDir, allowDirectoryListing );
+	}
+
+	/**
+	 * Serves file from homeDir and its' subdirectories (only).
+	 *
+	 * Directory listings support the parameters "sort" ("name", "size" or "modified"), "order" ("asc" or "desc"),
+	 * "page" (starting at 1) and "size" (entries per page, 1000 by default). They are sent as JSON
+	 * if the parameter "format" is "json" or the client accepts "application/json".
+	 *
+	 * @param uriIn Which file to serve
+	 * @param header HTTP headers of the request, may be null
+	 * @param parms HTTP parameters of the request, null to use the parameters in uriIn
+	 * @param homeDir The base-dir from where to server the file
+	 * @param allowDirectoryListing If contents of directories can be listed
+	 *
+	 * @return The resulting response-object.
+	 */
+	public Response serveFile( String uriIn, Properties header, Properties parms, File homeDir,
+							   boolean allowDirectoryListing )
 	{
 		// Make sure we won't die of an exception later
 		if ( !homeDir.isDirectory()) {
@@ -748,6 +1732,12 @@ public class NanoHTTPD
 		// Remove URL arguments
 		String uri = uriIn.trim().replace( File.separatorChar, '/' );
 		if ( uri.indexOf( '?' ) >= 0 ) {
+			if ( parms == null ) {
+				parms = new Properties();
+				if ( !decodeParameters( uri.substring( uri.indexOf( '?' ) + 1 ), parms )) {
+					parms.clear();
+				}
+			}
 			uri = uri.substring(0, uri.indexOf( '?' ));
 		}
 
@@ -757,6 +1747,18 @@ public class NanoHTTPD
 								 "FORBIDDEN: Won't serve ../ for security reasons." );
 		}
 
+		// Small files which are requested often are served without opening them again
+		HotFileCache cache = fileCache;
+		HotFileCache.Entry cached = cache == null ? null : cache.get( homeDir, uri, fileCacheCheckInterval );
+		if ( cached != null ) {
+			try {
+				return serveFileContent( uri, header, cached.getFile(), cached.getMime(),
+						cached.getLength(), cached.getLastModified(), cached );
+			} catch( IOException ioe ) {
+				return new Response( HTTP_FORBIDDEN, MIME_PLAINTEXT, "FORBIDDEN: Reading file failed." );
+			}
+		}
+
 		File f = new File( homeDir, uri );
 		if ( !f.exists()) {
 			return new Response( HTTP_NOTFOUND, MIME_PLAINTEXT,
@@ -785,8 +1787,7 @@ public class NanoHTTPD
 				f = new File( homeDir, uri + "/index.htm" );
 			} else if ( allowDirectoryListing )
 			{
-				String msg = createDirListing(uri, f);
-				return new Response( HTTP_OK, MIME_HTML, msg );
+				return serveDirectoryListing( uri, header, parms, f );
 			}
 			else
 			{
@@ -800,57 +1801,253 @@ public class NanoHTTPD
 			// Get MIME type from file name extension, if possible
 			String mime = getMIMEType(f);
 
-			// Support (simple) skipping:
-			long startFrom = getRange(header);
-
-			InputStream fis = null;
-			try {
-				fis = new FileInputStream( f );
-				if (toClose != null) {
-					toClose.close();
-				}
-				toClose = fis;
+			long length = f.length();
+			long lastModified = f.lastModified();
+			if ( cache != null ) {
+				cached = cache.put( homeDir, uri, f, mime, length, lastModified );
+			}
+			return serveFileContent( uri, header, f, mime, length, lastModified, cached );
+		}
+		catch( IOException ioe )
+		{
+			return new Response( HTTP_FORBIDDEN, MIME_PLAINTEXT, "FORBIDDEN: Reading file failed." );
+		}
+	}
 
-				if(fis.skip( startFrom ) != startFrom) {
-					logger.info("Skipped less bytes than expected: " + startFrom);
-				}
+	/**
+	 * Builds the response for a file, handles conditional requests, ranges and compression.
+	 *
+	 * @param cached The cached content of the file, null to read it from disk
+	 */
+	private Response serveFileContent( String uri, Properties header, File f, String mime, long length,
+									   long lastModified, HotFileCache.Entry cached ) throws IOException
+	{
+		String etag = validators.getETag( f, length, lastModified );
+		String cache = getCacheControl( uri, mime );
+		if ( FileValidators.isNotModified( header, etag, lastModified )) {
+			Response r = new Response( HTTP_NOT_MODIFIED, null, (InputStream) null );
+			addValidators( r, etag, lastModified, cache );
+			if ( compression && isCompressible( mime )) {
+				r.addHeader( "Vary", "Accept-Encoding" );
+			}
+			return r;
+		}
 
-				Response r = new Response( HTTP_OK, mime, fis );
-				r.addHeader( "Content-length", "" + (f.length() - startFrom));
-				r.addHeader( "Content-range", "" + startFrom + "-" +
-							(f.length()-1) + '/' + f.length());
+		// Support ranges, e.g. for continuing downloads, but only for the same version of the file
+		List<long[]> ranges = FileValidators.isRangeAllowed( header, etag, lastModified ) ?
+				getRanges( header, length ) : null;
+
+		// ranges refer to the uncompressed file, so only compress complete responses
+		String encoding = ranges == null && compression && isCompressible( mime ) && header != null ?
+				negotiateEncoding( header.getProperty( "accept-encoding" )) : null;
+		if ( encoding != null ) {
+			Response r = serveCompressedFile( f, mime, length, lastModified, encoding, cached );
+			if ( r != null ) {
+				addValidators( r, FileValidators.withEncoding( etag, encoding ), lastModified, cache );
 				return r;
-			} catch (IOException ioe) {
-				// If we failed after opening the stream, make sure to close it
-				if (fis != null) {
-					try { fis.close(); } catch (IOException ignored) { }
+			}
+		}
+		if ( ranges != null && ranges.isEmpty()) {
+			Response r = new Response( HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT,
+									   "RANGE NOT SATISFIABLE: The file has " + length + " bytes." );
+			r.addHeader( "Content-range", "bytes */" + length );
+			return r;
+		}
+
+		FileRegionInputStream data = cached != null ? new FileRegionInputStream( cached.getContent()) :
+				new FileRegionInputStream( FileChannel.open( f.toPath(), StandardOpenOption.READ ));
+		try {
+			// the data is closed when the response was sent
+			Response r;
+			if ( ranges == null ) {
+				data.addRegion( 0, length );
+				r = new Response( HTTP_OK, mime, data );
+				r.addHeader( "Accept-Ranges", "bytes" );
+			} else if ( ranges.size() == 1 ) {
+				long[] range = ranges.get(0);
+				data.addRegion( range[0], range[1] - range[0] + 1 );
+				r = new Response( HTTP_PARTIAL_CONTENT, mime, data );
+				r.addHeader( "Content-range", "bytes " + range[0] + "-" + range[1] + '/' + length );
+			} else {
+				// each range is sent as separate part
+				String boundary = "NANOHTTPD_" + Long.toHexString( ThreadLocalRandom.current().nextLong());
+				for ( long[] range : ranges ) {
+					data.addData(( "\r\n--" + boundary + "\r\n" +
+							"Content-Type: " + mime + "\r\n" +
+							"Content-Range: bytes " + range[0] + "-" + range[1] + '/' + length + "\r\n" +
+							"\r\n" ).getBytes( StandardCharsets.US_ASCII ));
+					data.addRegion( range[0], range[1] - range[0] + 1 );
 				}
-				throw ioe;
+				data.addData(( "\r\n--" + boundary + "--\r\n" ).getBytes( StandardCharsets.US_ASCII ));
+				r = new Response( HTTP_PARTIAL_CONTENT, "multipart/byteranges; boundary=" + boundary, data );
 			}
+			r.addHeader( "Content-length", "" + data.getLength());
+			addValidators( r, etag, lastModified, cache );
+			return r;
+		} catch (RuntimeException e) {
+			// If we failed after opening the file, make sure to close it
+			data.close();
+			throw e;
 		}
-		catch( IOException ioe )
-		{
-			return new Response( HTTP_FORBIDDEN, MIME_PLAINTEXT, "FORBIDDEN: Reading file failed." );
+	}
+
+	/**
+	 * @return A response with a precompressed sibling "file.gz" or the compressed content of a small
+	 * 		file, null if the file should be compressed while it is sent
+	 */
+	private Response serveCompressedFile( File f, String mime, long length, long lastModified, String encoding,
+										  HotFileCache.Entry cached ) throws IOException
+	{
+		Response r = null;
+		File gz = new File( f.getPath() + ".gz" );
+		if ( cached != null ) {
+			// also use a precompressed sibling which was read into the cache
+			HotFileCache cache = fileCache;
+			if ( cache != null && ( length >= compressionMinSize || cache.hasCompressed( cached, encoding ))) {
+				byte[] data = cache.getCompressed( cached, encoding );
+				r = new Response( HTTP_OK, mime, new ByteArrayInputStream( data ));
+				r.addHeader( "Content-length", "" + data.length );
+			}
+		} else if ( CompressingInputStream.GZIP.equals( encoding ) && gz.isFile() && gz.lastModified() >= lastModified ) {
+			FileChannel channel = FileChannel.open( gz.toPath(), StandardOpenOption.READ );
+			FileRegionInputStream data = new FileRegionInputStream( channel );
+			try {
+				data.addRegion( 0, channel.size());
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			r = new Response( HTTP_OK, mime, data );
+			r.addHeader( "Content-length", "" + data.getLength());
+		} else if ( length >= compressionMinSize && length <= CompressedFileCache.MAX_FILE_SIZE ) {
+			byte[] data = compressedFiles.get( f, length, lastModified, encoding );
+			r = new Response( HTTP_OK, mime, new ByteArrayInputStream( data ));
+			r.addHeader( "Content-length", "" + data.length );
+		}
+
+		if ( r != null ) {
+			r.addHeader( "Content-Encoding", encoding );
+			r.addHeader( "Vary", "Accept-Encoding" );
+		}
+		return r;
+	}
+
+	private Response serveDirectoryListing( String uri, Properties header, Properties parms, File dir )
+	{
+		if ( parms == null ) {
+			parms = new Properties();
+		}
+
+		// invalid parameters fall back to the defaults
+		DirectoryListing.Sort sort = DirectoryListing.Sort.of( parms.getProperty( "sort" ));
+		if ( sort == null ) {
+			sort = DirectoryListing.Sort.NAME;
 		}
+		boolean descending = "desc".equalsIgnoreCase( parms.getProperty( "order" ));
+		int pageSize = Math.min( DirectoryListing.MAX_PAGE_SIZE,
+				parsePositive( parms.getProperty( "size" ), DirectoryListing.DEFAULT_PAGE_SIZE ));
+		int page = parsePositive( parms.getProperty( "page" ), 1 );
+
+		String accept = header == null ? null : header.getProperty( "accept" );
+		boolean json = "json".equalsIgnoreCase( parms.getProperty( "format" )) ||
+				( accept != null && accept.contains( MIME_JSON ));
+
+		List<DirectoryListing.Item> items;
+		try {
+			items = directoryListing.list( dir, sort, descending );
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not list directory " + dir, e);
+			return new Response( HTTP_OK, MIME_HTML,
+					"<html><body><h1>Directory " + uri + "</h1><br/>Unable to list directory contents.</body></html>" );
+		}
+
+		page = Math.min( page, DirectoryListing.getPages( items.size(), pageSize ));
+		if ( json ) {
+			return new Response( HTTP_OK, MIME_JSON, DirectoryListing.toJson( uri, items, page, pageSize ));
+		}
+		return new Response( HTTP_OK, MIME_HTML, DirectoryListing.toHtml( uri, items, sort, descending, page, pageSize ));
 	}
 
-    private long getRange(Properties header) {
-        String range = header.getProperty( "range" );
-        if ( range != null && range.startsWith( "bytes=" )) {
-        	range = range.substring( "bytes=".length());
-        	int minus = range.indexOf( '-' );
-        	if ( minus >= 0 ) {
-        		range = range.substring( 0, minus );
+	private static int parsePositive( String value, int defaultValue ) {
+		if ( value == null ) {
+			return defaultValue;
+		}
+		try {
+			int number = Integer.parseInt( value.trim());
+			return number > 0 ? number : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	private static void addValidators( Response r, String etag, long lastModified, String cacheControl ) {
+		r.addHeader( "ETag", etag );
+		r.addHeader( "Last-Modified", gmtFrmt.format( lastModified ));
+		if ( cacheControl != null ) {
+			r.addHeader( "Cache-Control", cacheControl );
+		}
+	}
+
+	/**
+	 * Parses a header like "Range: bytes=0-99,200-,-100".
+	 *
+	 * @return null if the whole file should be sent, an empty list if none of the ranges
+	 * 		can be satisfied, otherwise the first and last position of each range
+	 */
+    private static List<long[]> getRanges(Properties header, long length) {
+        String range = header == null ? null : header.getProperty( "range" );
+        if ( range == null || !range.startsWith( "bytes=" )) {
+        	return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        for ( String spec : range.substring( "bytes=".length()).split( "," )) {
+        	spec = spec.trim();
+        	if ( spec.isEmpty()) {
+        		continue;
         	}
 
+        	int minus = spec.indexOf( '-' );
+        	if ( minus < 0 ) {
+        		logger.warning("Could not parse range specified in the headers: " + range);
+        		return null;
+        	}
+
+        	long start;
+        	long end;
         	try	{
-        		return Long.parseLong( range );
+        		if ( minus == 0 ) {
+        			// suffix-range: the last n bytes
+        			long suffix = Long.parseLong( spec.substring( 1 ));
+        			start = Math.max( 0, length - suffix );
+        			end = suffix == 0 ? -1 : length - 1;
+        		} else {
+        			start = Long.parseLong( spec.substring( 0, minus ));
+        			end = minus == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong( spec.substring( minus + 1 ));
+        		}
         	}
         	catch ( NumberFormatException nfe ) {
         	    logger.log(Level.WARNING, "Could not parse range specified in the headers: " + range, nfe);
+        	    return null;
+        	}
+
+        	if ( start < 0 || (minus > 0 && end < start) ) {
+        		logger.warning("Invalid range specified in the headers: " + range);
+        		return null;
+        	}
+        	end = Math.min( end, length - 1 );
+
+        	// ranges which start after the end of the file are ignored
+        	if ( start < length && start <= end ) {
+        		ranges.add( new long[] { start, end });
         	}
         }
-        return 0;
+
+        // do not let clients request many small pieces
+        if ( ranges.size() > MAX_RANGES ) {
+        	return null;
+        }
+        return ranges;
     }
 
     private String getMIMEType(File f) throws IOException {
@@ -865,57 +2062,6 @@ public class NanoHTTPD
         return mime;
     }
 
-    private String createDirListing(String uri, File f) {
-		String[] files = f.list();
-		if (files == null) {
-			return "<html><body><h1>Directory " + uri + "</h1><br/>Unable to list directory contents.</body></html>";
-		}
-		StringBuilder msg = new StringBuilder("<html><body><h1>Directory " + uri + "</h1><br/>");
-
-        if ( uri.length() > 1 )
-        {
-        	String u = uri.substring( 0, uri.length()-1 );
-        	int slash = u.lastIndexOf( '/' );
-        	if ( slash >= 0 && slash  < u.length()) {
-        		msg.append("<b><a href=\"").append(uri, 0, slash + 1).append("\">..</a></b><br/>");
-        	}
-        }
-
-        for ( int i=0; i<files.length; ++i )
-        {
-        	File curFile = new File( f, files[i] );
-        	boolean dir = curFile.isDirectory();
-        	if ( dir )
-        	{
-        		msg.append("<b>");
-        		files[i] += '/';
-        	}
-
-        	msg.append("<a href=\"").append(encodeUri(uri + files[i])).append("\">").append(files[i]).append("</a>");
-
-        	// Show file size
-        	if ( curFile.isFile())
-        	{
-        		long len = curFile.length();
-        		msg.append(" &nbsp;<font size=2>(");
-        		if ( len < 1024 ) {
-        			msg.append(curFile.length()).append(" bytes");
-        		} else if ( len < 1024 * 1024 ) {
-        			msg.append(curFile.length() / 1024).append(".").append(curFile.length() % 1024 / 10 % 100).append(" KB");
-        		} else {
-        			msg.append(curFile.length() / (1024 * 1024)).append(".").append(curFile.length() % (1024 * 1024) / 10 % 100).append(" MB");
-        		}
-
-        		msg.append(")</font>");
-        	}
-        	msg.append("<br/>");
-        	if ( dir ) {
-        		msg.append("</b>");
-        	}
-        }
-        return msg.toString();
-    }
-
 	/**
 	 * Hashtable mapping (String)FILENAME_EXTENSION -> (String)MIME_TYPE
 	 */
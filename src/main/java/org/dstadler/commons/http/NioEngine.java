@@ -0,0 +1,685 @@
+package org.dstadler.commons.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dstadler.commons.http.NanoHTTPD.Response;
+import org.dstadler.commons.thread.HashedTimerWheel;
+
+/**
+ * Non-blocking engine for {@link NanoHTTPD}, see {@link NanoHTTPD.Engine#NIO}.
+ *
+ * A few I/O threads handle all connections via a {@link Selector} each. Requests are
+ * parsed incrementally with {@link HttpRequestParser} and only complete requests are
+ * handed to the session executor, which calls serve() and reads the data of the response
+ * in chunks, so neither slow clients nor slow responses block an I/O thread.
+ *
+ * Each connection has one timeout in a {@link HashedTimerWheel}. When it expires, the I/O thread
+ * checks the connection and schedules the timeout again for the remaining time, so activity on a
+ * connection does not touch the timer and the cost does not depend on the number of connections.
+ */
+class NioEngine {
+	private final static Logger logger = Logger.getLogger(NioEngine.class.getName());
+
+	private static final int BACKLOG = 1024;
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	// how precise timeouts of connections are
+	private static final long TIMEOUT_TICK = 10;
+	// when connections without timeout are checked again, in case the state or the settings change
+	private static final long TIMEOUT_RECHECK_INTERVAL = 1_000;
+
+	private final NanoHTTPD server;
+	private final ServerSocketChannel serverChannel;
+	private final ExecutorService workers;
+	private final int sessionTimeout;
+	private final HashedTimerWheel timer;
+	private final IOLoop[] loops;
+	private final AtomicInteger nextLoop = new AtomicInteger();
+
+	private volatile boolean stopping = false;
+
+	NioEngine(NanoHTTPD server, int port, InetAddress bindHost, int sessionTimeout, ExecutorService workers, int ioThreads) throws IOException {
+		this.server = server;
+		this.workers = workers;
+		this.sessionTimeout = sessionTimeout;
+
+		serverChannel = ServerSocketChannel.open();
+		timer = new HashedTimerWheel("NanoHTTPD NIO Timer", TIMEOUT_TICK, TimeUnit.MILLISECONDS, 512);
+		loops = new IOLoop[ioThreads];
+		try {
+			serverChannel.bind(new InetSocketAddress(bindHost, port), BACKLOG);
+			serverChannel.configureBlocking(false);
+
+			for (int i = 0; i < ioThreads; i++) {
+				loops[i] = new IOLoop(i);
+			}
+
+			// the first thread also accepts new connections
+			serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException | RuntimeException e) {
+			for (IOLoop loop : loops) {
+				if (loop != null) {
+					loop.selector.close();
+				}
+			}
+			serverChannel.close();
+			timer.close();
+			throw e;
+		}
+
+		for (IOLoop loop : loops) {
+			loop.thread.start();
+		}
+	}
+
+	/**
+	 * Stops accepting connections, closes all open connections and waits for the I/O threads to finish.
+	 */
+	void stop() throws IOException, InterruptedException {
+		stopping = true;
+		serverChannel.close();
+		for (IOLoop loop : loops) {
+			loop.selector.wakeup();
+		}
+		for (IOLoop loop : loops) {
+			loop.thread.join();
+		}
+		timer.close();
+	}
+
+	private void accept() {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+				if (channel == null) {
+					return;
+				}
+			} catch (IOException e) {
+				// e.g. too many open files, try again with the next select
+				if (!stopping) {
+					logger.log(Level.WARNING, "Failed while accepting socket connections.", e);
+				}
+				return;
+			}
+
+			server.sessionOpened();
+			IOLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+			loop.execute(() -> loop.register(channel));
+		}
+	}
+
+	/**
+	 * One I/O thread with its selector, tasks from other threads are queued and
+	 * run by the thread itself, so connections are only changed by their I/O thread.
+	 */
+	private class IOLoop implements Runnable {
+		private final Selector selector;
+		private final Thread thread;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+		// set when the thread finished, tasks are then run by the thread which queues them
+		private volatile boolean done = false;
+
+		// shared by all connections of this thread, data is copied to the parser right away
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		private IOLoop(int index) throws IOException {
+			selector = Selector.open();
+			thread = new Thread(this, "NanoHTTPD NIO Thread-" + index);
+			thread.setDaemon(true);
+		}
+
+		private void execute(Runnable task) {
+			tasks.add(task);
+			if (done) {
+				// e.g. a worker finished a response after stop(), this releases its resources
+				runTasks();
+			} else {
+				selector.wakeup();
+			}
+		}
+
+		private void runTasks() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+
+		private void register(SocketChannel channel) {
+			Connection connection = new Connection(channel, this);
+			try {
+				channel.configureBlocking(false);
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+				connection.rescheduleTimeout(System.currentTimeMillis());
+			} catch (IOException | ClosedSelectorException e) {
+				logger.log(Level.FINE, "Could not register connection " + channel, e);
+				connection.close();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!stopping) {
+					selector.select();
+
+					runTasks();
+
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						handle(key);
+					}
+				}
+			} catch (IOException | ClosedSelectorException e) {
+				if (!stopping) {
+					logger.log(Level.WARNING, "Failed while handling connections", e);
+				}
+			} finally {
+				// register connections which were accepted in the meantime to close them as well
+				runTasks();
+				for (SelectionKey key : selector.keys()) {
+					if (key.attachment() instanceof Connection connection) {
+						connection.close();
+					}
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Could not close selector", e);
+				}
+
+				done = true;
+				runTasks();
+			}
+		}
+
+		private void handle(SelectionKey key) {
+			if (!key.isValid()) {
+				return;
+			}
+			if (key.isAcceptable()) {
+				accept();
+				return;
+			}
+
+			Connection connection = (Connection) key.attachment();
+			try {
+				if (key.isReadable()) {
+					connection.read();
+				}
+				if (key.isValid() && key.isWritable()) {
+					connection.write();
+				}
+			} catch (IOException | CancelledKeyException e) {
+				logger.log(Level.FINE, "Closing connection " + connection.channel, e);
+				connection.close();
+			}
+		}
+	}
+
+	private enum State {
+		// waiting for (more of) a request
+		READING,
+		// the request or the next part of the response is handled by the session executor
+		PROCESSING,
+		// sending data to the client
+		WRITING
+	}
+
+	/**
+	 * State of one connection, all fields are only accessed by the I/O thread of the connection, except
+	 * while it is in state {@link State#PROCESSING}, where only the session executor changes it.
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final IOLoop loop;
+		private SelectionKey key;
+
+		private State state = State.READING;
+		private long lastActivity = System.currentTimeMillis();
+		// when the first data of the current request was received
+		private long requestStart;
+		private HashedTimerWheel.Timeout timeout;
+		private int requests;
+		private boolean closed;
+
+		private HttpRequestParser parser;
+		private boolean continueSent;
+		// data of pipelined requests which was read together with the previous request
+		private ByteBuffer leftover;
+
+		private ByteBuffer output;
+		private InputStream body;
+		// removes files which were uploaded with the request when the response is done
+		private RequestBodyInputStream requestBody;
+		private boolean chunked;
+		private boolean persistent;
+		private byte[] chunk;
+
+		private Connection(SocketChannel channel, IOLoop loop) {
+			this.channel = channel;
+			this.loop = loop;
+		}
+
+		private void read() throws IOException {
+			ByteBuffer buffer = loop.readBuffer;
+			buffer.clear();
+			int read = channel.read(buffer);
+			if (read < 0) {
+				close();
+				return;
+			}
+
+			lastActivity = System.currentTimeMillis();
+			buffer.flip();
+			consume(buffer);
+		}
+
+		private void consume(ByteBuffer buffer) throws IOException {
+			if (parser == null) {
+				// bodies are kept in memory, so they are always limited
+				parser = new HttpRequestParser(Math.min(HttpRequestParser.MAX_BODY_SIZE, server.getMaxRequestBodySize()));
+				continueSent = false;
+				requestStart = System.currentTimeMillis();
+				// the header needs to arrive earlier than the other timeouts
+				rescheduleTimeout(requestStart);
+			}
+
+			boolean complete;
+			try {
+				complete = parser.parse(buffer);
+			} catch (RequestBodyInputStream.TooLargeException e) {
+				sendError(NanoHTTPD.HTTP_ENTITY_TOO_LARGE, e.getMessage());
+				return;
+			} catch (ProtocolException e) {
+				sendError(NanoHTTPD.HTTP_BADREQUEST, e.getMessage());
+				return;
+			}
+
+			if (!complete) {
+				if (parser.isExpectingContinue() && !continueSent &&
+						"HTTP/1.1".equals(server.getResponseProtocol(parser.getVersion()))) {
+					continueSent = true;
+					// small enough to always fit into the empty send-buffer
+					ByteBuffer reply = ByteBuffer.wrap("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					channel.write(reply);
+					if (reply.hasRemaining()) {
+						throw new IOException("Could not send 100 Continue");
+					}
+				}
+				return;
+			}
+
+			if (buffer.hasRemaining()) {
+				leftover = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+			}
+
+			HttpRequestParser request = parser;
+			parser = null;
+			requests++;
+			state = State.PROCESSING;
+			key.interestOps(0);
+
+			try {
+				workers.execute(() -> process(request));
+			} catch (RejectedExecutionException e) {
+				server.sessionRejected();
+				state = State.READING;
+				sendError(NanoHTTPD.HTTP_SERVICE_UNAVAILABLE, "SERVICE UNAVAILABLE: Too many concurrent requests");
+			}
+		}
+
+		/**
+		 * Runs on the session executor.
+		 */
+		private void process(HttpRequestParser request) {
+			Response r = null;
+			try {
+				requestBody = new RequestBodyInputStream(request.getBody());
+				r = server.serveRequest(request.getMethod(), request.getUri(), request.getHeader(), requestBody);
+
+				String protocol = server.getResponseProtocol(request.getVersion());
+				persistent = server.isPersistent(request.getVersion(), request.getHeader(), requests);
+
+				InputStream data = r.data;
+				boolean bodiless = NanoHTTPD.isBodiless(r.status);
+				long length = server.isKeepAlive() && !bodiless ? NanoHTTPD.getContentLength(r.header, data) : -1;
+				chunked = false;
+				if (persistent && length < 0 && !bodiless) {
+					if ("HTTP/1.1".equals(protocol)) {
+						chunked = true;
+					} else {
+						persistent = false;
+					}
+				}
+
+				String header = server.createResponseHeader(protocol, r.status, r.mimeType, r.header, r.getRepeatedHeader(),
+						length, chunked, persistent);
+				output = ByteBuffer.wrap(header.getBytes(StandardCharsets.ISO_8859_1));
+
+				// a body for HEAD would be read as the start of the next response
+				if (data != null && (bodiless || persistent && request.getMethod().equalsIgnoreCase("HEAD"))) {
+					data.close();
+					data = null;
+				}
+				body = data;
+			} catch (Throwable e) {       // NOSONAR - report any problem by closing the connection
+				logger.log(Level.WARNING, "Could not prepare response on connection " + channel, e);
+
+				// close() does not release them while processing
+				if (r != null && r.data != body) {
+					closeQuietly(r.data);
+				}
+				closeBody();
+				closeRequestBody();
+				loop.execute(this::close);
+				return;
+			}
+
+			loop.execute(this::startWriting);
+		}
+
+		/**
+		 * Runs on the session executor, reads the next part of the data of the response.
+		 */
+		private void fill() {
+			try {
+				readChunk();
+			} catch (IOException | RuntimeException e) {
+				logger.log(Level.FINE, "Could not read data of response on connection " + channel, e);
+
+				// close() does not release them while processing
+				closeBody();
+				closeRequestBody();
+				loop.execute(this::close);
+				return;
+			}
+
+			loop.execute(this::startWriting);
+		}
+
+		private void readChunk() throws IOException {
+			if (chunk == null) {
+				chunk = new byte[CHUNK_SIZE];
+			}
+
+			int read;
+			do {
+				read = body.read(chunk);
+			} while (read == 0);
+
+			if (read < 0) {
+				body.close();
+				body = null;
+				output = ByteBuffer.wrap(chunked ? "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII) : new byte[0]);
+			} else if (chunked) {
+				byte[] size = (Integer.toHexString(read) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+				output = ByteBuffer.allocate(size.length + read + 2).put(size).put(chunk, 0, read).
+						put((byte) '\r').put((byte) '\n').flip();
+			} else {
+				output = ByteBuffer.wrap(chunk, 0, read);
+			}
+		}
+
+		private void startWriting() {
+			if (closed) {
+				closeBody();
+				closeRequestBody();
+				return;
+			}
+
+			state = State.WRITING;
+			lastActivity = System.currentTimeMillis();
+			try {
+				write();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Closing connection " + channel, e);
+				close();
+			}
+		}
+
+		private void write() throws IOException {
+			while (state == State.WRITING) {
+				if (channel.write(output) > 0) {
+					lastActivity = System.currentTimeMillis();
+				}
+				if (output.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+
+				if (body == null) {
+					finishResponse();
+					return;
+				}
+
+				// files are sent by the operating system directly, as far as the socket accepts data
+				if (body instanceof FileRegionInputStream file && !chunked) {
+					if (file.writeTo(channel) > 0) {
+						lastActivity = System.currentTimeMillis();
+					}
+					if (file.hasRemaining()) {
+						key.interestOps(SelectionKey.OP_WRITE);
+						return;
+					}
+					closeBody();
+					continue;
+				}
+
+				// data in memory is read here directly, other data might block the I/O thread
+				if (!(body instanceof ByteArrayInputStream)) {
+					state = State.PROCESSING;
+					key.interestOps(0);
+					try {
+						workers.execute(this::fill);
+						return;
+					} catch (RejectedExecutionException e) {
+						logger.fine("Reading data of response on the I/O thread as the session executor is busy: " + e);
+						state = State.WRITING;
+					}
+				}
+				readChunk();
+			}
+		}
+
+		private void finishResponse() throws IOException {
+			closeRequestBody();
+			if (!persistent) {
+				close();
+				return;
+			}
+
+			state = State.READING;
+			key.interestOps(SelectionKey.OP_READ);
+			// the keep-alive timeout applies now
+			rescheduleTimeout(System.currentTimeMillis());
+			if (leftover != null) {
+				ByteBuffer buffer = leftover;
+				leftover = null;
+				consume(buffer);
+			}
+		}
+
+		/**
+		 * Sends an error response which is handled on the I/O thread directly and closes the connection afterwards.
+		 */
+		private void sendError(String status, String msg) throws IOException {
+			parser = null;
+			leftover = null;
+			body = null;
+			persistent = false;
+			chunked = false;
+			output = ByteBuffer.wrap((server.createResponseHeader("HTTP/1.0", status, NanoHTTPD.MIME_PLAINTEXT, null, null, -1, false, false) +
+					msg).getBytes(StandardCharsets.ISO_8859_1));
+			state = State.WRITING;
+			write();
+		}
+
+		/**
+		 * Replaces the timeout of this connection, the response can be finished by the session executor,
+		 * so this is synchronized to never have more than one timeout per connection.
+		 */
+		private synchronized void rescheduleTimeout(long now) {
+			cancelTimeout();
+			if (closed) {
+				return;
+			}
+			timeout = timer.schedule(() -> {
+				if (!stopping) {
+					loop.execute(this::onTimeout);
+				}
+			}, getTimeoutDelay(now), TimeUnit.MILLISECONDS);
+		}
+
+		private synchronized void cancelTimeout() {
+			if (timeout != null) {
+				timeout.cancel();
+				timeout = null;
+			}
+		}
+
+		/**
+		 * @return How long until the connection can time out at the earliest
+		 */
+		private long getTimeoutDelay(long now) {
+			long deadline = Long.MAX_VALUE;
+			if (state == State.READING) {
+				int timeout = isIdle() ? server.getKeepAliveTimeout() : sessionTimeout;
+				if (timeout > 0) {
+					deadline = lastActivity + timeout;
+				}
+				if (isReadingHeader()) {
+					deadline = Math.min(deadline, requestStart + NanoHTTPD.HEADER_TIMEOUT);
+				}
+			} else if (sessionTimeout > 0) {
+				// while processing, the state is changed by the session executor, so check it again later
+				deadline = (state == State.WRITING ? lastActivity : now) + sessionTimeout;
+			}
+
+			return deadline == Long.MAX_VALUE ? TIMEOUT_RECHECK_INTERVAL : Math.max(0, deadline - now);
+		}
+
+		private boolean isIdle() {
+			return requests > 0 && (parser == null || parser.isEmpty()) && leftover == null;
+		}
+
+		private boolean isReadingHeader() {
+			// the parser is created when the first data of a request arrives
+			return parser != null && parser.isReadingHeader();
+		}
+
+		/**
+		 * Runs on the I/O thread when the timeout of the connection expired.
+		 */
+		private void onTimeout() {
+			if (closed) {
+				return;
+			}
+
+			long now = System.currentTimeMillis();
+			checkTimeout(now);
+			rescheduleTimeout(now);
+		}
+
+		private void checkTimeout(long now) {
+			try {
+				if (state == State.READING) {
+					boolean idle = isIdle();
+					int timeout = idle ? server.getKeepAliveTimeout() : sessionTimeout;
+					if (timeout > 0 && now - lastActivity > timeout) {
+						if (idle) {
+							logger.fine("Closing idle connection " + channel + " after " + requests + " requests");
+							close();
+						} else {
+							sendError(NanoHTTPD.HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: IOException: Read timed out");
+						}
+					} else if (isReadingHeader() && now - requestStart >= NanoHTTPD.HEADER_TIMEOUT) {
+						sendError(NanoHTTPD.HTTP_INTERNALERROR,
+								"SERVER INTERNAL ERROR: IOException: Timeout while reading the header of the request");
+					}
+				} else if (state == State.WRITING && sessionTimeout > 0 && now - lastActivity > sessionTimeout) {
+					logger.fine("Closing connection " + channel + " as the client does not read the response");
+					close();
+				}
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Closing connection " + channel, e);
+				close();
+			}
+		}
+
+		private void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			if (key != null) {
+				key.cancel();
+			}
+			cancelTimeout();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Could not close connection " + channel, e);
+			}
+
+			// while processing, the session executor still uses it and closes it in startWriting() or on failure
+			if (state != State.PROCESSING) {
+				closeBody();
+				closeRequestBody();
+			}
+			server.sessionClosed();
+		}
+
+		private void closeRequestBody() {
+			if (requestBody != null) {
+				requestBody.close();
+				requestBody = null;
+			}
+		}
+
+		private void closeBody() {
+			closeQuietly(body);
+			body = null;
+		}
+
+		private void closeQuietly(InputStream data) {
+			if (data != null) {
+				try {
+					data.close();
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Could not close data of response", e);
+				}
+			}
+		}
+	}
+}
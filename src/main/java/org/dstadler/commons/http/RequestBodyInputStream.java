@@ -0,0 +1,216 @@
+package org.dstadler.commons.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The body of a request, which is read from the connection while the request is served.
+ *
+ * The body ends after the number of bytes given via "Content-Length", at the end of data sent
+ * with "Transfer-Encoding: chunked" or, if neither is sent, at the end of the connection.
+ * Reading beyond the configured maximum size fails with {@link TooLargeException}.
+ *
+ * Closing the stream does not close the connection, but removes the temporary files which were
+ * created for the request via {@link #createTempFile(File)}.
+ */
+class RequestBodyInputStream extends InputStream {
+	private final static Logger logger = Logger.getLogger(RequestBodyInputStream.class.getName());
+
+	/**
+	 * Thrown if the body of a request is larger than allowed.
+	 */
+	static class TooLargeException extends ProtocolException {
+		private static final long serialVersionUID = 1L;
+
+		TooLargeException(long maxSize) {
+			super("REQUEST ENTITY TOO LARGE: The body of the request exceeds " + maxSize + " bytes");
+		}
+	}
+
+	private final InputStream in;
+	private final boolean chunked;
+	private final long maxSize;
+
+	// bytes left in the body or in the current chunk, -1 if reading until the end of the stream
+	private long remaining;
+	private long total;
+	private boolean eof;
+
+	private final List<File> tempFiles = new ArrayList<>();
+
+	/**
+	 * @param in The stream of the connection, it is not closed
+	 * @param length The number of bytes in the body, -1 to read until the end of the stream
+	 * @param chunked If the body is sent with "Transfer-Encoding: chunked", the length is ignored in this case
+	 * @param maxSize How many bytes the body may contain at most
+	 * @throws TooLargeException If the length is larger than maxSize
+	 */
+	RequestBodyInputStream(InputStream in, long length, boolean chunked, long maxSize) throws TooLargeException {
+		this.in = in;
+		this.chunked = chunked;
+		this.maxSize = maxSize;
+
+		if (chunked) {
+			remaining = 0;
+		} else {
+			if (length > maxSize) {
+				throw new TooLargeException(maxSize);
+			}
+			remaining = length;
+			eof = length == 0;
+		}
+	}
+
+	/**
+	 * @param body A body which was read completely already
+	 */
+	RequestBodyInputStream(byte[] body) {
+		this.in = new ByteArrayInputStream(body);
+		this.chunked = false;
+		this.maxSize = body.length;
+		this.remaining = body.length;
+		this.eof = body.length == 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		int read;
+		do {
+			read = read(b, 0, 1);
+		} while (read == 0);
+		return read < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (eof) {
+			return -1;
+		}
+		if (chunked && remaining == 0) {
+			startChunk();
+			if (eof) {
+				return -1;
+			}
+		}
+
+		int read = in.read(b, off, remaining < 0 ? len : (int) Math.min(len, remaining));
+		if (read < 0) {
+			if (remaining < 0) {
+				eof = true;
+				return -1;
+			}
+			throw new EOFException("The body of the request ended after " + total + " bytes");
+		}
+
+		total += read;
+		if (total > maxSize) {
+			throw new TooLargeException(maxSize);
+		}
+		if (remaining > 0) {
+			remaining -= read;
+			if (remaining == 0) {
+				if (chunked) {
+					// line-break after the data of the chunk
+					NanoHTTPD.readLine(in);
+				} else {
+					eof = true;
+				}
+			}
+		}
+		return read;
+	}
+
+	private void startChunk() throws IOException {
+		String line = NanoHTTPD.readLine(in);
+		if (line == null) {
+			throw new EOFException("The body of the request ended after " + total + " bytes");
+		}
+
+		// ignore chunk extensions
+		int semicolon = line.indexOf(';');
+		long size;
+		try {
+			size = Long.parseLong((semicolon >= 0 ? line.substring(0, semicolon) : line).trim(), 16);
+		} catch (NumberFormatException e) {
+			throw new ProtocolException("BAD REQUEST: Invalid chunk size: " + line);
+		}
+		if (size < 0) {
+			throw new ProtocolException("BAD REQUEST: Invalid chunk size: " + line);
+		}
+		if (size > maxSize - total) {
+			throw new TooLargeException(maxSize);
+		}
+
+		if (size == 0) {
+			// skip trailers
+			while ((line = NanoHTTPD.readLine(in)) != null && !line.isEmpty()) {
+				logger.fine("Ignoring trailer " + line);
+			}
+			eof = true;
+		}
+		remaining = size;
+	}
+
+	/**
+	 * Reads the data which was not consumed while serving the request, so the next
+	 * request on the connection can be read.
+	 *
+	 * @return false if the rest of the body could not be read
+	 */
+	boolean skipRemaining() {
+		byte[] buf = new byte[8192];
+		try {
+			while (read(buf, 0, buf.length) >= 0) {
+				// just skip the data
+			}
+			return true;
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Could not read the remaining body of the request", e);
+			return false;
+		}
+	}
+
+	/**
+	 * @return The number of bytes of the body which were read
+	 */
+	long getBytesRead() {
+		return total;
+	}
+
+	/**
+	 * Creates a temporary file which is removed when this stream is closed.
+	 *
+	 * @param dir The directory for the file, null for the default temporary directory
+	 */
+	File createTempFile(File dir) throws IOException {
+		File file = File.createTempFile("NanoHTTPD-upload", ".tmp", dir);
+		synchronized (tempFiles) {
+			tempFiles.add(file);
+		}
+		return file;
+	}
+
+	@Override
+	public void close() {
+		synchronized (tempFiles) {
+			for (File file : tempFiles) {
+				if (file.exists() && !file.delete()) {
+					logger.warning("Could not delete temporary file " + file);
+				}
+			}
+			tempFiles.clear();
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package org.dstadler.commons.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Reads the request-line and the headers of requests on a blocking connection.
+ *
+ * Lines are collected as bytes in one buffer which is reused for all requests of the
+ * connection, header lines are parsed from it into {@link HttpHeaders} directly. The
+ * request-line and the headers of one request together may not be larger than
+ * {@link HttpRequestParser#MAX_HEADER_SIZE}.
+ *
+ * Reading the headers can be limited in time, the remaining time is applied as timeout
+ * of the socket before each read which can block, so a client which sends the headers
+ * very slowly cannot keep the connection busy.
+ *
+ * Instances are not thread-safe and are used for one connection.
+ */
+class RequestHeadReader {
+	private final static Logger logger = Logger.getLogger(RequestHeadReader.class.getName());
+
+	private final InputStream in;
+	private final Socket socket;
+
+	private byte[] line = new byte[256];
+	private int lineLength;
+	private int headSize;
+
+	// when reading the headers needs to be finished, only used if timed is set
+	private boolean timed;
+	private long deadline;
+	private int socketTimeout;
+
+	private String method;
+	private String uri;
+	private String version;
+
+	/**
+	 * @param in The stream of the connection, it is read byte by byte, so it should be buffered
+	 * @param socket The socket for applying the timeout for reading headers, null to not limit the time
+	 */
+	RequestHeadReader(InputStream in, Socket socket) {
+		this.in = in;
+		this.socket = socket;
+	}
+
+	/**
+	 * Reads the next request-line and splits it into method, URI and protocol version,
+	 * which are null if the line does not contain them.
+	 *
+	 * @return false if the stream ended before a request-line
+	 * @throws ProtocolException If the line is longer than allowed for the header of a request
+	 */
+	boolean readRequestLine() throws IOException {
+		headSize = 0;
+		method = null;
+		uri = null;
+		version = null;
+
+		if (!readLine()) {
+			return false;
+		}
+
+		String[] tokens = parseRequestLine(line, lineLength);
+		method = tokens[0];
+		uri = tokens[1];
+		version = tokens[2];
+		return true;
+	}
+
+	/**
+	 * Reads the header lines until the empty line which ends them or the end of the stream.
+	 *
+	 * @param headers Receives the headers
+	 * @param timeoutMillis How long reading the headers may take, 0 for no limit
+	 * @throws ProtocolException If the request-line and the headers are larger than allowed
+	 * @throws SocketTimeoutException If the headers were not received in time
+	 */
+	void readHeaders(HttpHeaders headers, int timeoutMillis) throws IOException {
+		if (socket != null && timeoutMillis > 0) {
+			timed = true;
+			deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			socketTimeout = socket.getSoTimeout();
+		}
+
+		try {
+			while (readLine() && !isBlankLine()) {
+				if (!headers.addLine(line, 0, lineLength)) {
+					logger.warning("Could not parse property " + new String(line, 0, lineLength, StandardCharsets.ISO_8859_1));
+				}
+			}
+		} finally {
+			if (timed) {
+				timed = false;
+				socket.setSoTimeout(socketTimeout);
+			}
+		}
+	}
+
+	String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The URI as sent by the client, i.e. including parameters and not percent-decoded
+	 */
+	String getUri() {
+		return uri;
+	}
+
+	/**
+	 * @return The protocol version, e.g. "HTTP/1.1", null if the client did not send one
+	 */
+	String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Splits a request-line like "GET /index.html HTTP/1.1" at spaces and tabs, further
+	 * tokens are ignored.
+	 *
+	 * @param line The bytes of the line without the line-break
+	 * @param length The number of bytes of the line
+	 * @return Method, URI and protocol version, each of them is null if the line does not contain it
+	 */
+	static String[] parseRequestLine(byte[] line, int length) {
+		String[] tokens = new String[3];
+		int pos = 0;
+		for (int i = 0; i < tokens.length; i++) {
+			while (pos < length && isWhitespace(line[pos])) {
+				pos++;
+			}
+			if (pos == length) {
+				break;
+			}
+
+			int start = pos;
+			while (pos < length && !isWhitespace(line[pos])) {
+				pos++;
+			}
+			tokens[i] = new String(line, start, pos - start, StandardCharsets.ISO_8859_1);
+		}
+		return tokens;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+	}
+
+	private boolean isBlankLine() {
+		for (int i = 0; i < lineLength; i++) {
+			if (!isWhitespace(line[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads one line into the buffer, the line-break is removed.
+	 *
+	 * @return false if the stream ended before any byte of the line
+	 */
+	private boolean readLine() throws IOException {
+		lineLength = 0;
+		int b;
+		while ((b = read()) != '\n') {
+			if (b < 0) {
+				return lineLength > 0;
+			}
+			if (++headSize > HttpRequestParser.MAX_HEADER_SIZE) {
+				throw new ProtocolException("BAD REQUEST: Request header is too large");
+			}
+			if (lineLength == line.length) {
+				line = Arrays.copyOf(line, lineLength * 2);
+			}
+			line[lineLength++] = (byte) b;
+		}
+
+		if (lineLength > 0 && line[lineLength - 1] == '\r') {
+			lineLength--;
+		}
+		return true;
+	}
+
+	private int read() throws IOException {
+		// only a read which needs to wait for data from the client can exceed the time
+		if (timed && in.available() == 0) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				throw new SocketTimeoutException("Timeout while reading the header of the request");
+			}
+
+			int timeout = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining));
+			socket.setSoTimeout(socketTimeout > 0 ? Math.min(socketTimeout, timeout) : timeout);
+		}
+		return in.read();
+	}
+}
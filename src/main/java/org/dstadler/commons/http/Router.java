@@ -0,0 +1,281 @@
+package org.dstadler.commons.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+import org.dstadler.commons.http.NanoHTTPD.Response;
+
+/**
+ * Dispatches requests to handlers which are registered for a method and a path pattern, use it
+ * via {@link NanoHTTPD#setRouter(Router)} or call {@link #route(String, String, Properties, Properties, InputStream)}
+ * from an overridden serve().
+ *
+ * <pre>
+ * Router router = new Router();
+ * router.add("GET", "/users/{id}", (uri, method, header, parms, body) -&gt;
+ *         new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, "User " + parms.getProperty("id")));
+ * router.add("GET", "/static/*", handler);
+ * router.add(null, "/report", slowHandler, reportExecutor);
+ * </pre>
+ *
+ * Patterns consist of segments separated by '/'. A segment "{name}" matches any single segment and
+ * adds it as parameter "name", a last segment "*" matches the rest of the path including further
+ * slashes and adds it as parameter "*". Literal segments take precedence over parameters, which take
+ * precedence over "*".
+ *
+ * The patterns are stored as a tree of segments, so a request is matched by looking up each segment
+ * of its path once, independent of the number of routes.
+ *
+ * Handlers can run on their own executor, so slow handlers can only use the threads of their executor.
+ * If it rejects a request, the client receives "503 Service Unavailable". The executors are not shut
+ * down by the router.
+ *
+ * Routes can be added while requests are served.
+ */
+public class Router {
+	private final static Logger logger = Logger.getLogger(Router.class.getName());
+
+	/**
+	 * Handles the requests for a route.
+	 */
+	public interface Handler {
+		/**
+		 * @param uri	Percent-decoded URI without parameters, for example "/users/123"
+		 * @param method	"GET", "POST" etc.
+		 * @param header	Header entries, percent decoded
+		 * @param parms	Parsed, percent decoded parameters from the URI and the parameters of the route
+		 * @param body	The body of the request, see {@link NanoHTTPD#serve(String, String, Properties, Properties, InputStream)}
+		 * @return HTTP response, see class Response for details
+		 * @throws IOException If reading the body fails
+		 */
+		Response serve(String uri, String method, Properties header, Properties parms, InputStream body) throws IOException;
+	}
+
+	private static final String ANY_METHOD = "*";
+	private static final String WILDCARD = "*";
+
+	private static final class Route {
+		private final String pattern;
+		private final Handler handler;
+		private final ExecutorService executor;
+
+		private Route(String pattern, Handler handler, ExecutorService executor) {
+			this.pattern = pattern;
+			this.handler = handler;
+			this.executor = executor;
+		}
+	}
+
+	private static final class Node {
+		private final Map<String, Node> children = new ConcurrentHashMap<>();
+		private volatile Node parameter;
+		private volatile String parameterName;
+		// routes by method for the path which ends at this node or for "*" below it
+		private final Map<String, Route> routes = new ConcurrentHashMap<>();
+		private final Map<String, Route> wildcardRoutes = new ConcurrentHashMap<>();
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * @param method The HTTP method, e.g. "GET", null to handle all methods. "HEAD" requests are
+	 *               handled by the route for "GET" if there is no route for "HEAD".
+	 * @param pattern The path, e.g. "/users/{id}/orders" or "/static/*"
+	 * @param handler Serves the requests
+	 * @throws IllegalArgumentException If the pattern is invalid or the route is registered already
+	 */
+	public void add(String method, String pattern, Handler handler) {
+		add(method, pattern, handler, null);
+	}
+
+	/**
+	 * @param method The HTTP method, e.g. "GET", null to handle all methods. "HEAD" requests are
+	 *               handled by the route for "GET" if there is no route for "HEAD".
+	 * @param pattern The path, e.g. "/users/{id}/orders" or "/static/*"
+	 * @param handler Serves the requests
+	 * @param executor Runs the handler, null to run it on the thread of the connection
+	 * @throws IllegalArgumentException If the pattern is invalid or the route is registered already
+	 */
+	public synchronized void add(String method, String pattern, Handler handler, ExecutorService executor) {
+		if (pattern == null || !pattern.startsWith("/")) {
+			throw new IllegalArgumentException("Pattern needs to start with '/', but had: " + pattern);
+		}
+		if (handler == null) {
+			throw new IllegalArgumentException("Need a handler for " + pattern);
+		}
+
+		Node node = root;
+		boolean wildcard = false;
+		String[] segments = pattern.substring(1).split("/", -1);
+		for (int i = 0; i < segments.length; i++) {
+			String segment = segments[i];
+			if (segment.equals(WILDCARD)) {
+				if (i != segments.length - 1) {
+					throw new IllegalArgumentException("'*' is only allowed as last segment, but had: " + pattern);
+				}
+				wildcard = true;
+			} else if (segment.startsWith("{") && segment.endsWith("}")) {
+				String name = segment.substring(1, segment.length() - 1);
+				if (name.isEmpty()) {
+					throw new IllegalArgumentException("Parameter needs a name in " + pattern);
+				}
+				if (node.parameter == null) {
+					node.parameterName = name;
+					node.parameter = new Node();
+				} else if (!node.parameterName.equals(name)) {
+					throw new IllegalArgumentException("Parameter {" + name + "} in " + pattern +
+							" conflicts with {" + node.parameterName + "} of another route");
+				}
+				node = node.parameter;
+			} else {
+				node = node.children.computeIfAbsent(segment, key -> new Node());
+			}
+		}
+
+		Map<String, Route> routes = wildcard ? node.wildcardRoutes : node.routes;
+		String key = method == null ? ANY_METHOD : method.toUpperCase();
+		if (routes.putIfAbsent(key, new Route(pattern, handler, executor)) != null) {
+			throw new IllegalArgumentException("Route " + key + " " + pattern + " is registered already");
+		}
+	}
+
+	/**
+	 * Serves the request with the matching route.
+	 *
+	 * @return The response of the handler, "405 Method Not Allowed" if routes exist for the path, but not for
+	 * 		the method, or null if no route matches the path
+	 * @throws IOException If the handler fails to read the body
+	 */
+	public Response route(String uri, String method, Properties header, Properties parms, InputStream body) throws IOException {
+		Match match = new Match();
+		if (!find(root, uri, uri.startsWith("/") ? 1 : 0, match)) {
+			return null;
+		}
+
+		Route route = match.routes.get(method.toUpperCase());
+		if (route == null && method.equalsIgnoreCase("HEAD")) {
+			route = match.routes.get("GET");
+		}
+		if (route == null) {
+			route = match.routes.get(ANY_METHOD);
+		}
+		if (route == null) {
+			Response r = new Response(NanoHTTPD.HTTP_METHOD_NOT_ALLOWED, NanoHTTPD.MIME_PLAINTEXT,
+					"METHOD NOT ALLOWED: " + method + " is not supported for " + uri);
+			r.addHeader("Allow", String.join(", ", new TreeSet<>(match.routes.keySet())));
+			return r;
+		}
+
+		// parameters of the route
+		for (int i = 0; i < match.count; i++) {
+			parms.put(match.names[i], match.values[i]);
+		}
+
+		if (route.executor == null) {
+			return route.handler.serve(uri, method, header, parms, body);
+		}
+		return serveOn(route, uri, method, header, parms, body);
+	}
+
+	private static Response serveOn(Route route, String uri, String method, Properties header, Properties parms, InputStream body)
+			throws IOException {
+		Future<Response> future;
+		try {
+			future = route.executor.submit(() -> route.handler.serve(uri, method, header, parms, body));
+		} catch (RejectedExecutionException e) {
+			logger.warning("Rejected request " + method + " " + uri + " for route " + route.pattern + ": " + e);
+			return new Response(NanoHTTPD.HTTP_SERVICE_UNAVAILABLE, NanoHTTPD.MIME_PLAINTEXT,
+					"SERVICE UNAVAILABLE: Too many concurrent requests for " + route.pattern);
+		}
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw (InterruptedIOException) new InterruptedIOException("Interrupted while serving " + uri).initCause(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException ioException) {
+				throw ioException;
+			}
+			if (cause instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			if (cause instanceof Error error) {
+				throw error;
+			}
+			throw new IOException("Failed to serve " + uri, cause);
+		}
+	}
+
+	/**
+	 * The routes and the parameters of the best match.
+	 */
+	private static final class Match {
+		private Map<String, Route> routes;
+		private String[] names = new String[4];
+		private String[] values = new String[4];
+		private int count;
+
+		private void push(String name, String value) {
+			if (count == names.length) {
+				names = Arrays.copyOf(names, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			names[count] = name;
+			values[count] = value;
+			count++;
+		}
+	}
+
+	private static boolean find(Node node, String path, int start, Match match) {
+		if (start > path.length()) {
+			// the path ended at the previous segment
+			if (!node.routes.isEmpty()) {
+				match.routes = node.routes;
+				return true;
+			}
+			return false;
+		}
+
+		int end = path.indexOf('/', start);
+		if (end < 0) {
+			end = path.length();
+		}
+		String segment = path.substring(start, end);
+
+		Node child = node.children.get(segment);
+		if (child != null && find(child, path, end + 1, match)) {
+			return true;
+		}
+
+		Node parameter = node.parameter;
+		if (parameter != null && !segment.isEmpty()) {
+			int count = match.count;
+			match.push(node.parameterName, segment);
+			if (find(parameter, path, end + 1, match)) {
+				return true;
+			}
+			match.count = count;
+		}
+
+		if (!node.wildcardRoutes.isEmpty()) {
+			match.routes = node.wildcardRoutes;
+			match.push(WILDCARD, path.substring(start));
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,310 @@
+package org.dstadler.commons.thread;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.dstadler.commons.logging.jdk.LoggerFactory;
+import org.dstadler.commons.util.ExecutorUtil;
+
+/**
+ * Runs tasks after a delay, intended for large numbers of timeouts which are
+ * usually cancelled before they expire, e.g. timeouts of network connections.
+ *
+ * Timeouts are kept in a ring of buckets, each bucket covers one tick. Scheduling and
+ * cancelling a timeout is O(1), a single ticker thread advances one bucket per tick and
+ * runs the tasks which expired. Thus tasks run up to one tick later than requested and
+ * should finish quickly, e.g. by handing the actual work to an executor, as they delay
+ * all other timeouts.
+ *
+ * <pre>
+ * HashedTimerWheel timer = new HashedTimerWheel("Timeouts-%d");
+ * HashedTimerWheel.Timeout timeout = timer.schedule(() -&gt; closeConnection(), 30, TimeUnit.SECONDS);
+ * ...
+ * timeout.cancel();
+ * ...
+ * timer.close();
+ * </pre>
+ */
+public class HashedTimerWheel implements AutoCloseable {
+    private final static Logger log = LoggerFactory.make();
+
+    // how many new timeouts are moved into the wheel per tick at most, so a burst does not delay expiring
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    /**
+     * A scheduled task, it can be cancelled until it expires.
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedTimerWheel timer;
+        private final Runnable task;
+        // nanoseconds since the start of the timer
+        private final long deadline;
+        private volatile int state = PENDING;
+
+        // only accessed by the ticker thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(HashedTimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Prevents the task from running.
+         *
+         * @return false if the task ran already or was cancelled before
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            timer.pending.decrementAndGet();
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * @return true if the task was started
+         */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            timer.pending.decrementAndGet();
+
+            try {
+                task.run();
+            } catch (Throwable e) { // NOPMD - one failing task should not stop the timer
+                log.log(Level.WARNING, "Task of timer " + timer.ticker.getName() + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Doubly-linked list of the timeouts of one tick.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        private Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.previous != null) {
+                timeout.previous.next = next;
+            } else {
+                head = next;
+            }
+            if (next != null) {
+                next.previous = timeout.previous;
+            } else {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Thread ticker;
+    private volatile boolean closed;
+
+    // only accessed by the ticker thread
+    private long tick;
+
+    /**
+     * Creates a timer with a tick of 10 milliseconds and 512 buckets.
+     *
+     * @param name The name of the ticker thread
+     */
+    public HashedTimerWheel(String name) {
+        this(name, 10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    /**
+     * @param name The name of the ticker thread
+     * @param tickDuration How often expired tasks are run, i.e. how precise the timeouts are
+     * @param unit The unit of the tick duration
+     * @param ticksPerWheel The number of buckets, rounded up to a power of two. Timeouts which are
+     *                      further away than one round of the wheel are checked once per round.
+     */
+    public HashedTimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("Need a positive tick duration, but had: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("Need between 1 and 2^30 ticks per wheel, but had: " + ticksPerWheel);
+        }
+
+        tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel);
+        if (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+
+        ticker = ExecutorUtil.createThreadFactory(name).newThread(this::run);
+        ticker.start();
+    }
+
+    /**
+     * Runs the task on the ticker thread after the given delay.
+     *
+     * @param task What to run, it should finish quickly
+     * @param delay How long to wait, negative values are handled like 0
+     * @param unit The unit of the delay
+     * @return The timeout for cancelling the task
+     * @throws RejectedExecutionException If the timer is closed
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("Need a task to schedule");
+        }
+        if (closed) {
+            throw new RejectedExecutionException("Timer " + ticker.getName() + " is closed");
+        }
+
+        long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+        // guard against overflow for very long delays
+        if (deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return The number of tasks which neither ran nor were cancelled
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the ticker thread, tasks which did not run yet are not run any more.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+
+        if (Thread.currentThread() != ticker) {
+            try {
+                ticker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.log(Level.WARNING, "Interrupted while waiting for timer " + ticker.getName() + " to stop", e);
+            }
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            long tickEnd = tickNanos * (tick + 1);
+            long sleep = tickEnd - (System.nanoTime() - startTime);
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+
+            removeCancelled();
+            transferAdded();
+            expire(wheel[(int) (tick & mask)], tickEnd);
+            tick++;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            // not in a bucket if it was cancelled before it was transferred
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state != Timeout.PENDING) {
+                continue;
+            }
+
+            long expiresAt = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (expiresAt - tick) / wheel.length;
+            // timeouts which should have expired already are run with the current tick
+            wheel[(int) (Math.max(expiresAt, tick) & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Bucket bucket, long tickEnd) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.remainingRounds <= 0 && timeout.deadline < tickEnd) {
+                Timeout next = bucket.remove(timeout);
+                timeout.expire();
+                timeout = next;
+            } else {
+                timeout.remainingRounds--;
+                timeout = timeout.next;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.dstadler.commons.zip;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only {@link SeekableByteChannel} on top of a {@link ByteBuffer},
+ * e.g. a wrapped byte-array or a memory-mapped region.
+ */
+final class ByteBufferChannel implements SeekableByteChannel {
+	private final ByteBuffer buffer;
+
+	private long position;
+	private volatile boolean open = true;
+
+	ByteBufferChannel(ByteBuffer buffer) {
+		// use our own view so position/limit of the caller are not affected
+		this.buffer = buffer.slice();
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws ClosedChannelException {
+		int read = read(dst, position);
+		if (read > 0) {
+			position += read;
+		}
+		return read;
+	}
+
+	/**
+	 * Read at the given position without changing the position of this channel.
+	 */
+	int read(ByteBuffer dst, long pos) throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		if (pos >= buffer.capacity()) {
+			return -1;
+		}
+
+		int length = (int) Math.min(dst.remaining(), buffer.capacity() - pos);
+		dst.put(buffer.slice((int) pos, length));
+		return length;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Position cannot be negative: " + newPosition);
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		return buffer.capacity();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+}
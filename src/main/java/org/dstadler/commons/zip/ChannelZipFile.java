@@ -0,0 +1,422 @@
+package org.dstadler.commons.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Random-access reader for Zip-files which works on any {@link SeekableByteChannel}
+ * instead of only on files like {@link java.util.zip.ZipFile}.
+ *
+ * This allows to open nested Zip-files directly from the containing archive via
+ * {@link #openNested(ZipEntry)}: entries which are stored uncompressed are read
+ * through a slice of the outer channel without copying any data, compressed
+ * entries are inflated into memory once. No temporary files are written in
+ * either case.
+ *
+ * Only the central directory is parsed when opening the archive, entry data
+ * is read on demand. Nested instances share the underlying channel with the
+ * outer instance, so they become unusable as soon as the outer instance is closed.
+ *
+ * Instances can be shared by multiple threads, reading entries does not
+ * modify the position of the underlying channel.
+ */
+public class ChannelZipFile implements Closeable {
+	private final String name;
+	private final SeekableByteChannel channel;
+	private final List<ZipEntry> entries;
+	private final Map<String, Entry> entriesByName;
+
+	/**
+	 * Open the given file via a read-only {@link FileChannel}.
+	 *
+	 * @param file The Zip-file to open
+	 * @throws IOException If the file cannot be read or is not a valid Zip-file
+	 */
+	public ChannelZipFile(File file) throws IOException {
+		this(file.getPath(), FileChannel.open(file.toPath(), StandardOpenOption.READ), true);
+	}
+
+	/**
+	 * Read a Zip-file which is fully available in memory.
+	 *
+	 * @param name The name of the archive, used in error messages and for {@link #getName()}
+	 * @param data The bytes of the Zip-file, the array is used directly and not copied
+	 * @throws IOException If the data is not a valid Zip-file
+	 */
+	public ChannelZipFile(String name, byte[] data) throws IOException {
+		this(name, new ByteBufferChannel(ByteBuffer.wrap(data)), false);
+	}
+
+	/**
+	 * Read a Zip-file from the given channel.
+	 *
+	 * The channel is closed when this instance is closed.
+	 *
+	 * @param name The name of the archive, used in error messages and for {@link #getName()}
+	 * @param channel The channel to read the data from
+	 * @throws IOException If the data is not a valid Zip-file or reading fails
+	 */
+	public ChannelZipFile(String name, SeekableByteChannel channel) throws IOException {
+		this(name, channel, false);
+	}
+
+	private ChannelZipFile(String name, SeekableByteChannel channel, boolean closeOnError) throws IOException {
+		this.name = name;
+		this.channel = channel;
+
+		try {
+			ZipFormat.Directory directory = ZipFormat.findDirectory(channel, name);
+			ByteBuffer cen = ZipFormat.readDirectory(channel, directory, name);
+
+			int count = (int) Math.min(directory.entries, Integer.MAX_VALUE);
+			List<ZipEntry> list = new ArrayList<>(count);
+			Map<String, Entry> map = new HashMap<>(count * 4 / 3 + 1);
+
+			int pos = 0;
+			while (pos + ZipFormat.CENHDR <= cen.limit()) {
+				if (cen.getInt(pos) != ZipFormat.CENSIG) {
+					throw new ZipException("Invalid central directory header at offset " + pos + " in zip file " + name);
+				}
+
+				Entry entry = readEntry(cen, pos);
+				entry.owner = this;
+				list.add(entry);
+				map.putIfAbsent(entry.getName(), entry);
+
+				pos += ZipFormat.CENHDR + ZipFormat.getUnsignedShort(cen, pos + 28) +
+						ZipFormat.getUnsignedShort(cen, pos + 30) + ZipFormat.getUnsignedShort(cen, pos + 32);
+			}
+
+			this.entries = Collections.unmodifiableList(list);
+			this.entriesByName = map;
+		} catch (IOException | RuntimeException e) {
+			if (closeOnError) {
+				channel.close();
+			}
+			throw e;
+		}
+	}
+
+	private static Entry readEntry(ByteBuffer cen, int pos) throws ZipException {
+		int flags = ZipFormat.getUnsignedShort(cen, pos + 8);
+		int method = ZipFormat.getUnsignedShort(cen, pos + 10);
+		int nameLength = ZipFormat.getUnsignedShort(cen, pos + 28);
+		int extraLength = ZipFormat.getUnsignedShort(cen, pos + 30);
+		int commentLength = ZipFormat.getUnsignedShort(cen, pos + 32);
+
+		byte[] nameBytes = new byte[nameLength];
+		cen.get(pos + ZipFormat.CENHDR, nameBytes);
+
+		Entry entry = new Entry(new String(nameBytes, StandardCharsets.UTF_8), flags);
+		entry.rawName = nameBytes;
+		entry.rawMethod = method;
+		entry.versionMadeBy = ZipFormat.getUnsignedShort(cen, pos + 4);
+		entry.versionNeeded = ZipFormat.getUnsignedShort(cen, pos + 6);
+		entry.dosTime = ZipFormat.getUnsignedShort(cen, pos + 12);
+		entry.dosDate = ZipFormat.getUnsignedShort(cen, pos + 14);
+		entry.internalAttributes = ZipFormat.getUnsignedShort(cen, pos + 36);
+		entry.externalAttributes = cen.getInt(pos + 38);
+		if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+			entry.setMethod(method);
+		}
+		entry.setCrc(ZipFormat.getUnsignedInt(cen, pos + 16));
+
+		long compressedSize = ZipFormat.getUnsignedInt(cen, pos + 20);
+		long size = ZipFormat.getUnsignedInt(cen, pos + 24);
+		long offset = ZipFormat.getUnsignedInt(cen, pos + 42);
+
+		// sizes and offset can be stored in the ZIP64 extra field
+		int extraStart = pos + ZipFormat.CENHDR + nameLength;
+		int extraPos = extraStart;
+		while (extraPos + 4 <= extraStart + extraLength) {
+			int id = ZipFormat.getUnsignedShort(cen, extraPos);
+			int length = ZipFormat.getUnsignedShort(cen, extraPos + 2);
+			if (id == ZipFormat.ZIP64_EXTID) {
+				int fieldPos = extraPos + 4;
+				if (size == ZipFormat.ZIP64_MAGICVAL) {
+					size = cen.getLong(fieldPos);
+					fieldPos += 8;
+				}
+				if (compressedSize == ZipFormat.ZIP64_MAGICVAL) {
+					compressedSize = cen.getLong(fieldPos);
+					fieldPos += 8;
+				}
+				if (offset == ZipFormat.ZIP64_MAGICVAL) {
+					offset = cen.getLong(fieldPos);
+				}
+				break;
+			}
+			extraPos += 4 + length;
+		}
+
+		entry.setSize(size);
+		entry.setCompressedSize(compressedSize);
+		entry.localHeaderOffset = offset;
+
+		entry.rawExtra = new byte[extraLength];
+		cen.get(extraStart, entry.rawExtra);
+
+		setDosTime(entry, ZipFormat.getUnsignedShort(cen, pos + 14), ZipFormat.getUnsignedShort(cen, pos + 12));
+
+		entry.rawComment = new byte[commentLength];
+		if (commentLength > 0) {
+			cen.get(extraStart + extraLength, entry.rawComment);
+			entry.setComment(new String(entry.rawComment, StandardCharsets.UTF_8));
+		}
+
+		return entry;
+	}
+
+	static void setDosTime(ZipEntry entry, int date, int time) {
+		try {
+			entry.setTimeLocal(LocalDateTime.of(((date >> 9) & 0x7f) + 1980, (date >> 5) & 0x0f, date & 0x1f,
+					(time >> 11) & 0x1f, (time >> 5) & 0x3f, (time << 1) & 0x3e));
+		} catch (DateTimeException e) {
+			// invalid timestamps are found in the wild, simply do not set a time in this case
+		}
+	}
+
+	/**
+	 * @return The name which was used when opening this archive, for nested
+	 * 		archives this is the full path using '!' as separator
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The number of entries in the central directory
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return All entries in the order of the central directory, the list cannot be modified
+	 */
+	public List<ZipEntry> entries() {
+		return entries;
+	}
+
+	/**
+	 * Look up an entry by name.
+	 *
+	 * @param entryName The full name of the entry inside the archive
+	 * @return The entry or null if there is no entry with this name
+	 */
+	public ZipEntry getEntry(String entryName) {
+		return entriesByName.get(entryName);
+	}
+
+	/**
+	 * Provides the uncompressed data of the given entry.
+	 *
+	 * @param entry An entry of this archive
+	 * @return A stream with the data of the entry
+	 * @throws IOException If the entry does not belong to this archive or reading fails
+	 */
+	public InputStream getInputStream(ZipEntry entry) throws IOException {
+		Entry e = lookup(entry);
+		InputStream raw = Channels.newInputStream(openRaw(e));
+		if (e.rawMethod == ZipEntry.STORED) {
+			return raw;
+		}
+
+		return new EntryInflaterInputStream(raw, (int) Math.max(512, Math.min(e.getCompressedSize(), 65536)));
+	}
+
+	/**
+	 * Open an entry which itself is a Zip-file.
+	 *
+	 * If the entry is stored uncompressed, the nested archive reads directly from
+	 * a slice of this archive, otherwise it is inflated into memory.
+	 *
+	 * The returned instance should be closed, but it does not hold any resources
+	 * besides the memory for the inflated data. It cannot be used any more
+	 * after this instance is closed.
+	 *
+	 * @param entry An entry of this archive which contains a Zip-file
+	 * @return A {@link ChannelZipFile} for the nested archive
+	 * @throws IOException If the entry does not belong to this archive, is too large
+	 * 		to be inflated into memory or is not a valid Zip-file
+	 */
+	public ChannelZipFile openNested(ZipEntry entry) throws IOException {
+		Entry e = lookup(entry);
+		String nestedName = name + '!' + e.getName();
+		if (e.rawMethod == ZipEntry.STORED) {
+			return new ChannelZipFile(nestedName, openRaw(e));
+		}
+
+		return new ChannelZipFile(nestedName, readFully(e));
+	}
+
+	/**
+	 * Read the full uncompressed content of the given entry into memory.
+	 *
+	 * @param entry An entry of this archive
+	 * @return The data of the entry
+	 * @throws IOException If the entry does not belong to this archive, is too large or reading fails
+	 */
+	public byte[] readFully(ZipEntry entry) throws IOException {
+		Entry e = lookup(entry);
+		if (e.getSize() > Integer.MAX_VALUE - 8) {
+			throw new IOException("Entry " + e.getName() + " in zip file " + name +
+					" is too large to be read into memory: " + e.getSize());
+		}
+
+		byte[] data = new byte[(int) e.getSize()];
+		try (InputStream stream = getInputStream(e)) {
+			IOUtils.readFully(stream, data);
+		} catch (EOFException ex) {
+			throw new ZipException("Entry " + e.getName() + " in zip file " + name +
+					" is shorter than expected: " + ex.getMessage());
+		}
+		return data;
+	}
+
+	/**
+	 * Channel for the stored bytes of the entry, i.e. still compressed
+	 * if the entry is compressed.
+	 */
+	SeekableByteChannel openRaw(Entry entry) throws IOException {
+		if ((entry.flags & ZipFormat.FLAG_ENCRYPTED) != 0) {
+			throw new ZipException("Entry " + entry.getName() + " in zip file " + name + " is encrypted");
+		}
+		if (entry.getMethod() == -1) {
+			throw new ZipException("Unsupported compression method " + entry.rawMethod + " for entry " +
+					entry.getName() + " in zip file " + name);
+		}
+
+		return openStored(entry);
+	}
+
+	/**
+	 * Channel for the stored bytes of the entry without any checks for
+	 * encryption or compression method, used for copying entries verbatim.
+	 */
+	SeekableByteChannel openStored(Entry entry) throws IOException {
+		return new SliceChannel(channel, dataOffset(entry), entry.getCompressedSize());
+	}
+
+	long dataOffset(Entry entry) throws IOException {
+		long offset = entry.dataOffset;
+		if (offset == -1) {
+			offset = ZipFormat.dataOffset(channel, entry.localHeaderOffset, name);
+			entry.dataOffset = offset;
+		}
+		return offset;
+	}
+
+	SeekableByteChannel channel() {
+		return channel;
+	}
+
+	Entry lookup(ZipEntry entry) throws ZipException {
+		// entries with duplicate names are only reachable via entries(), so accept our own instances directly
+		if (entry instanceof Entry && ((Entry) entry).owner == this) {
+			return (Entry) entry;
+		}
+
+		Entry e = entriesByName.get(entry.getName());
+		if (e == null) {
+			throw new ZipException("Entry " + entry.getName() + " not found in zip file " + name);
+		}
+		return e;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "ChannelZipFile{" + name + ", entries: " + entries.size() + '}';
+	}
+
+	/**
+	 * Entry with the additional information which is necessary to locate the data.
+	 */
+	static final class Entry extends ZipEntry {
+		final int flags;
+		private ChannelZipFile owner;
+		int rawMethod;
+		long localHeaderOffset;
+		private volatile long dataOffset = -1;
+
+		// fields of the central directory which are needed for copying the entry verbatim
+		byte[] rawName;
+		byte[] rawExtra;
+		byte[] rawComment;
+		int versionMadeBy;
+		int versionNeeded;
+		int dosTime;
+		int dosDate;
+		int internalAttributes;
+		int externalAttributes;
+
+		Entry(String name, int flags) {
+			super(name);
+			this.flags = flags;
+		}
+	}
+
+	/**
+	 * Inflates raw deflate data, ensures that the inflater is released on close and
+	 * provides the additional dummy byte which is needed in "nowrap" mode, similar
+	 * to the implementation in {@link java.util.zip.ZipFile}.
+	 */
+	private static final class EntryInflaterInputStream extends InflaterInputStream {
+		private boolean eof = false;
+		private boolean closed = false;
+
+		EntryInflaterInputStream(InputStream in, int size) {
+			super(in, new Inflater(true), size);
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if (eof) {
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				inf.end();
+				super.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,548 @@
+package org.dstadler.commons.zip;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Read-only access to a Zip-file which is memory-mapped, intended for serving
+ * many entries of large archives at a high rate.
+ *
+ * When opening, the central directory is parsed into a few primitive arrays
+ * and an open-addressing hash-table from the name of the entry to its index,
+ * no objects are created per entry. Looking up an entry compares the UTF-8
+ * bytes of the name directly with the central directory.
+ *
+ * Entries which are stored uncompressed are returned as read-only
+ * {@link ByteBuffer} slices of the mapped file without copying, compressed
+ * entries are inflated directly from the mapped region with pooled
+ * {@link Inflater}s.
+ *
+ * Archives larger than 2GB are mapped in multiple overlapping regions, single
+ * entries need to be smaller than 2GB.
+ *
+ * Instances can be shared by multiple threads. The file must not be modified
+ * while it is open, the mapping is released by the garbage collector after the
+ * instance is closed and not referenced any more.
+ */
+public class MappedZipFile implements Closeable {
+	// regions start every 1GB and are almost 2GB long, so that each entry of up to
+	// 1GB is fully contained in the region where it starts
+	private static final long REGION_STEP = 1L << 30;
+	private static final long REGION_SIZE = Integer.MAX_VALUE;
+
+	private static final int INFLATER_POOL_SIZE = 16;
+
+	private final String name;
+	private final FileChannel channel;
+	private final long length;
+	private final MappedByteBuffer[] regions;
+
+	// the central directory and the index into it
+	private final ByteBuffer cen;
+	private final int count;
+	private final int[] cenPositions;
+	private final int[] hashes;
+	private final long[] sizes;
+	private final long[] compressedSizes;
+	private final long[] localHeaderOffsets;
+	private final int[] table;
+
+	private final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(INFLATER_POOL_SIZE);
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Map the given file and read its central directory.
+	 *
+	 * @param file The Zip-file to open
+	 * @throws IOException If the file cannot be read or is not a valid Zip-file
+	 */
+	public MappedZipFile(File file) throws IOException {
+		this.name = file.getPath();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			this.length = channel.size();
+
+			ZipFormat.Directory directory = ZipFormat.findDirectory(channel, name);
+			this.cen = ZipFormat.readDirectory(channel, directory, name);
+			this.regions = map(channel, length);
+
+			int expected = (int) Math.min(directory.entries, Integer.MAX_VALUE);
+			int[] positions = new int[expected];
+			int[] entryHashes = new int[expected];
+			long[] entrySizes = new long[expected];
+			long[] entryCompressedSizes = new long[expected];
+			long[] entryOffsets = new long[expected];
+
+			int n = 0;
+			int pos = 0;
+			while (pos + ZipFormat.CENHDR <= cen.limit()) {
+				if (cen.getInt(pos) != ZipFormat.CENSIG) {
+					throw new ZipException("Invalid central directory header at offset " + pos + " in zip file " + name);
+				}
+
+				// the entry count in the end header can be wrong, e.g. when it overflowed without ZIP64
+				if (n == positions.length) {
+					int newLength = Math.max(16, positions.length * 2);
+					positions = Arrays.copyOf(positions, newLength);
+					entryHashes = Arrays.copyOf(entryHashes, newLength);
+					entrySizes = Arrays.copyOf(entrySizes, newLength);
+					entryCompressedSizes = Arrays.copyOf(entryCompressedSizes, newLength);
+					entryOffsets = Arrays.copyOf(entryOffsets, newLength);
+				}
+
+				int nameLength = ZipFormat.getUnsignedShort(cen, pos + 28);
+				int extraLength = ZipFormat.getUnsignedShort(cen, pos + 30);
+
+				positions[n] = pos;
+				entryHashes[n] = hash(cen, pos + ZipFormat.CENHDR, nameLength);
+				readSizes(cen, pos, nameLength, extraLength, n, entrySizes, entryCompressedSizes, entryOffsets);
+				n++;
+
+				pos += ZipFormat.CENHDR + nameLength + extraLength + ZipFormat.getUnsignedShort(cen, pos + 32);
+			}
+
+			this.count = n;
+			this.cenPositions = positions;
+			this.hashes = entryHashes;
+			this.sizes = entrySizes;
+			this.compressedSizes = entryCompressedSizes;
+			this.localHeaderOffsets = entryOffsets;
+			this.table = buildTable();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static MappedByteBuffer[] map(FileChannel channel, long length) throws IOException {
+		int regionCount = length <= REGION_SIZE ? 1 : (int) ((length - REGION_SIZE + REGION_STEP - 1) / REGION_STEP) + 1;
+		MappedByteBuffer[] regions = new MappedByteBuffer[regionCount];
+		for (int i = 0; i < regionCount; i++) {
+			long start = i * REGION_STEP;
+			regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, length - start));
+		}
+		return regions;
+	}
+
+	private static void readSizes(ByteBuffer cen, int pos, int nameLength, int extraLength, int n,
+			long[] sizes, long[] compressedSizes, long[] offsets) {
+		long compressedSize = ZipFormat.getUnsignedInt(cen, pos + 20);
+		long size = ZipFormat.getUnsignedInt(cen, pos + 24);
+		long offset = ZipFormat.getUnsignedInt(cen, pos + 42);
+
+		// sizes and offset can be stored in the ZIP64 extra field
+		int extraStart = pos + ZipFormat.CENHDR + nameLength;
+		int extraPos = extraStart;
+		while (extraPos + 4 <= extraStart + extraLength) {
+			int id = ZipFormat.getUnsignedShort(cen, extraPos);
+			int fieldLength = ZipFormat.getUnsignedShort(cen, extraPos + 2);
+			if (id == ZipFormat.ZIP64_EXTID) {
+				int fieldPos = extraPos + 4;
+				if (size == ZipFormat.ZIP64_MAGICVAL) {
+					size = cen.getLong(fieldPos);
+					fieldPos += 8;
+				}
+				if (compressedSize == ZipFormat.ZIP64_MAGICVAL) {
+					compressedSize = cen.getLong(fieldPos);
+					fieldPos += 8;
+				}
+				if (offset == ZipFormat.ZIP64_MAGICVAL) {
+					offset = cen.getLong(fieldPos);
+				}
+				break;
+			}
+			extraPos += 4 + fieldLength;
+		}
+
+		sizes[n] = size;
+		compressedSizes[n] = compressedSize;
+		offsets[n] = offset;
+	}
+
+	private int[] buildTable() {
+		// power of two with a load factor of at most 0.5, slots contain the entry index + 1
+		int[] slots = new int[Integer.highestOneBit(Math.max(count, 1) * 2) * 2];
+		int mask = slots.length - 1;
+		for (int i = 0; i < count; i++) {
+			int slot = hashes[i] & mask;
+			boolean duplicate = false;
+			while (slots[slot] != 0) {
+				int other = slots[slot] - 1;
+				if (hashes[other] == hashes[i] && nameEquals(other, i)) {
+					// the first entry wins for duplicate names, similar to ZipFile
+					duplicate = true;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if (!duplicate) {
+				slots[slot] = i + 1;
+			}
+		}
+		return slots;
+	}
+
+	private boolean nameEquals(int index1, int index2) {
+		int pos1 = cenPositions[index1];
+		int pos2 = cenPositions[index2];
+		int length = ZipFormat.getUnsignedShort(cen, pos1 + 28);
+		return length == ZipFormat.getUnsignedShort(cen, pos2 + 28) &&
+				cen.slice(pos1 + ZipFormat.CENHDR, length).equals(cen.slice(pos2 + ZipFormat.CENHDR, length));
+	}
+
+	private static int hash(ByteBuffer buffer, int pos, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + buffer.get(pos + i);
+		}
+		// spread the higher bits as only the lower bits are used for the table
+		return h ^ (h >>> 16);
+	}
+
+	private static int hash(byte[] bytes) {
+		int h = 0;
+		for (byte b : bytes) {
+			h = 31 * h + b;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * @return The index of the entry or -1 if there is no entry with this name
+	 */
+	private int indexOf(String entryName) {
+		byte[] bytes = entryName.getBytes(StandardCharsets.UTF_8);
+		int h = hash(bytes);
+		int mask = table.length - 1;
+		int slot = h & mask;
+		while (table[slot] != 0) {
+			int index = table[slot] - 1;
+			if (hashes[index] == h && nameEquals(index, bytes)) {
+				return index;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean nameEquals(int index, byte[] bytes) {
+		int pos = cenPositions[index];
+		if (ZipFormat.getUnsignedShort(cen, pos + 28) != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (cen.get(pos + ZipFormat.CENHDR + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The name of the file which was opened
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The number of entries in the central directory
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @param entryName The full name of the entry inside the archive
+	 * @return true if the archive contains an entry with this name
+	 */
+	public boolean contains(String entryName) {
+		return indexOf(entryName) != -1;
+	}
+
+	/**
+	 * Look up an entry by name, a new {@link ZipEntry} is created on each call.
+	 *
+	 * @param entryName The full name of the entry inside the archive
+	 * @return The entry or null if there is no entry with this name
+	 */
+	public ZipEntry getEntry(String entryName) {
+		int index = indexOf(entryName);
+		if (index == -1) {
+			return null;
+		}
+
+		int pos = cenPositions[index];
+		ZipEntry entry = new ZipEntry(entryName);
+		int method = ZipFormat.getUnsignedShort(cen, pos + 10);
+		if (method == ZipEntry.STORED || method == ZipEntry.DEFLATED) {
+			entry.setMethod(method);
+		}
+		entry.setCrc(ZipFormat.getUnsignedInt(cen, pos + 16));
+		entry.setSize(sizes[index]);
+		entry.setCompressedSize(compressedSizes[index]);
+		ChannelZipFile.setDosTime(entry, ZipFormat.getUnsignedShort(cen, pos + 14), ZipFormat.getUnsignedShort(cen, pos + 12));
+		return entry;
+	}
+
+	/**
+	 * Provides the uncompressed data of the given entry as {@link ByteBuffer}.
+	 *
+	 * For stored entries this is a read-only slice of the mapped file, compressed
+	 * entries are inflated into a newly allocated buffer.
+	 *
+	 * @param entryName The full name of the entry inside the archive
+	 * @return The data of the entry, or null if there is no entry with this name
+	 * @throws IOException If the entry cannot be read
+	 */
+	public ByteBuffer getData(String entryName) throws IOException {
+		int index = indexOf(entryName);
+		if (index == -1) {
+			return null;
+		}
+
+		ByteBuffer raw = openRaw(index, entryName);
+		if (ZipFormat.getUnsignedShort(cen, cenPositions[index] + 10) == ZipEntry.STORED) {
+			return raw;
+		}
+
+		if (sizes[index] > Integer.MAX_VALUE - 8) {
+			throw new ZipException("Entry " + entryName + " in zip file " + name +
+					" is too large to be read into memory: " + sizes[index]);
+		}
+
+		ByteBuffer data = ByteBuffer.allocate((int) sizes[index]);
+		Inflater inflater = borrowInflater();
+		try {
+			inflater.setInput(raw);
+			boolean dummyAdded = false;
+			while (data.hasRemaining() && !inflater.finished()) {
+				if (inflater.inflate(data) == 0) {
+					if (inflater.needsDictionary()) {
+						throw new ZipException("Entry " + entryName + " in zip file " + name + " needs a dictionary");
+					}
+					if (inflater.needsInput()) {
+						if (dummyAdded) {
+							throw new ZipException("Entry " + entryName + " in zip file " + name + " is shorter than expected");
+						}
+
+						// "nowrap" mode may need one additional byte at the end
+						dummyAdded = true;
+						inflater.setInput(new byte[1]);
+					}
+				}
+			}
+			if (data.hasRemaining()) {
+				throw new ZipException("Entry " + entryName + " in zip file " + name + " is shorter than expected: " +
+						data.position() + " of " + data.capacity() + " bytes");
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid compressed data for entry " + entryName + " in zip file " + name + ": " + e.getMessage());
+		} finally {
+			returnInflater(inflater);
+		}
+
+		return data.flip();
+	}
+
+	/**
+	 * Provides the uncompressed data of the given entry as stream, compressed
+	 * entries are inflated while reading from the stream.
+	 *
+	 * @param entryName The full name of the entry inside the archive
+	 * @return A stream with the data of the entry, or null if there is no entry with this name
+	 * @throws IOException If the entry cannot be read
+	 */
+	public InputStream getInputStream(String entryName) throws IOException {
+		int index = indexOf(entryName);
+		if (index == -1) {
+			return null;
+		}
+
+		ByteBuffer raw = openRaw(index, entryName);
+		if (ZipFormat.getUnsignedShort(cen, cenPositions[index] + 10) == ZipEntry.STORED) {
+			return new ByteBufferInputStream(raw);
+		}
+
+		return new MappedInflaterInputStream(raw, borrowInflater(), entryName);
+	}
+
+	/**
+	 * Slice of the stored bytes of the entry, i.e. still compressed
+	 * if the entry is compressed.
+	 */
+	private ByteBuffer openRaw(int index, String entryName) throws IOException {
+		ensureOpen();
+
+		int pos = cenPositions[index];
+		if ((ZipFormat.getUnsignedShort(cen, pos + 8) & ZipFormat.FLAG_ENCRYPTED) != 0) {
+			throw new ZipException("Entry " + entryName + " in zip file " + name + " is encrypted");
+		}
+		int method = ZipFormat.getUnsignedShort(cen, pos + 10);
+		if (method != ZipEntry.STORED && method != ZipEntry.DEFLATED) {
+			throw new ZipException("Unsupported compression method " + method + " for entry " +
+					entryName + " in zip file " + name);
+		}
+
+		long localHeaderOffset = localHeaderOffsets[index];
+		ByteBuffer header = region(localHeaderOffset, ZipFormat.LOCHDR);
+		if (header.getInt(0) != ZipFormat.LOCSIG) {
+			throw new ZipException("Invalid local file header at offset " + localHeaderOffset + " in zip file " + name);
+		}
+
+		long dataOffset = localHeaderOffset + ZipFormat.LOCHDR +
+				ZipFormat.getUnsignedShort(header, 26) + ZipFormat.getUnsignedShort(header, 28);
+		return region(dataOffset, compressedSizes[index]).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return A little-endian slice of the mapped file
+	 */
+	private ByteBuffer region(long offset, long size) throws IOException {
+		if (offset < 0 || size < 0 || offset + size > length) {
+			throw new ZipException("Invalid offset " + offset + " and size " + size +
+					" for zip file " + name + " of length " + length);
+		}
+
+		int index = (int) Math.min(offset / REGION_STEP, regions.length - 1);
+		long start = index * REGION_STEP;
+		if (offset + size <= start + regions[index].capacity()) {
+			return regions[index].slice((int) (offset - start), (int) size).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		// very large entries which cross the end of the region are mapped separately
+		if (size > Integer.MAX_VALUE) {
+			throw new ZipException("Entry at offset " + offset + " in zip file " + name +
+					" is too large for memory-mapping: " + size);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Zip file " + name + " is already closed");
+		}
+	}
+
+	private Inflater borrowInflater() {
+		Inflater inflater = inflaters.poll();
+		return inflater == null ? new Inflater(true) : inflater;
+	}
+
+	private void returnInflater(Inflater inflater) {
+		inflater.reset();
+		if (closed || !inflaters.offer(inflater)) {
+			inflater.end();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+
+		Inflater inflater;
+		while ((inflater = inflaters.poll()) != null) {
+			inflater.end();
+		}
+
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "MappedZipFile{" + name + ", entries: " + count + '}';
+	}
+
+	/**
+	 * Inflates directly from the mapped data, returns the inflater to the pool on close.
+	 */
+	private final class MappedInflaterInputStream extends InputStream {
+		private final Inflater inflater;
+		private final String entryName;
+		private boolean dummyAdded = false;
+		private boolean closed = false;
+
+		MappedInflaterInputStream(ByteBuffer raw, Inflater inflater, String entryName) {
+			this.inflater = inflater;
+			this.entryName = entryName;
+			inflater.setInput(raw);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			if (len == 0) {
+				return 0;
+			}
+
+			try {
+				while (true) {
+					if (inflater.finished()) {
+						return -1;
+					}
+
+					int read = inflater.inflate(b, off, len);
+					if (read > 0) {
+						return read;
+					}
+
+					if (inflater.needsDictionary()) {
+						throw new ZipException("Entry " + entryName + " in zip file " + name + " needs a dictionary");
+					}
+					if (inflater.needsInput()) {
+						if (dummyAdded) {
+							throw new EOFException("Unexpected end of ZLIB input stream for entry " + entryName +
+									" in zip file " + name);
+						}
+
+						// "nowrap" mode may need one additional byte at the end
+						dummyAdded = true;
+						inflater.setInput(new byte[1]);
+					}
+				}
+			} catch (DataFormatException e) {
+				throw new ZipException("Invalid compressed data for entry " + entryName + " in zip file " + name +
+						": " + e.getMessage());
+			}
+		}
+
+		@Override
+		public int available() {
+			return closed || inflater.finished() ? 0 : 1;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				returnInflater(inflater);
+			}
+		}
+	}
+}
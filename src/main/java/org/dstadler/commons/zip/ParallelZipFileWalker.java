@@ -0,0 +1,263 @@
+package org.dstadler.commons.zip;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+
+/**
+ * File Walker for Zip-Files which works like {@link ZipFileWalker}, but
+ * processes multiple Zip-files, chunks of entries and nested zip-files
+ * concurrently on a {@link ForkJoinPool}.
+ *
+ * Calls to the {@link OutputHandler} are serialized, so the handler does
+ * not need to be thread-safe, however the order in which files are reported
+ * is not defined. Entries up to 4 MB are uncompressed
+ * into memory concurrently before the handler is called, larger entries are
+ * uncompressed while the handler reads them and thus one after another.
+ *
+ * As soon as the handler returns true for one file, no more files are reported
+ * and outstanding work is skipped.
+ */
+public class ParallelZipFileWalker {
+	// how many entries of one archive are handled by a single task
+	private static final int CHUNK_SIZE = 128;
+
+	// entries up to this size are uncompressed before the OutputHandler is called
+	static final long MAX_BUFFERED_SIZE = 4 * 1024 * 1024;
+
+	private final List<File> zips;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Construct a walker which uses the common {@link ForkJoinPool}.
+	 *
+	 * @param files One or more Zip-files to walk
+	 */
+	public ParallelZipFileWalker(File... files) {
+		this(ForkJoinPool.commonPool(), files);
+	}
+
+	/**
+	 * Construct a walker which uses the given {@link ForkJoinPool}.
+	 *
+	 * @param pool The pool to run the tasks on
+	 * @param files One or more Zip-files to walk
+	 */
+	public ParallelZipFileWalker(ForkJoinPool pool, File... files) {
+		this.pool = pool;
+		this.zips = Arrays.asList(files);
+	}
+
+	/**
+	 * Run the ParallelZipFileWalker using the given OutputHandler
+	 *
+	 * @param outputHandler For every file that is found in the
+	 * 		Zip-files, the method found() in the {@link OutputHandler}
+	 * 		is invoked. Calls are never done concurrently.
+	 *
+	 * @return true if processing was stopped because of a found file,
+	 * 		false if no file was found or the {@link OutputHandler} did
+	 * 		not return true on the call to found().
+	 *
+	 * @throws IOException Thrown if an error occurs while handling the
+	 * 		Zip-files or while handling the call to found().
+	 * 		RuntimeExceptions thrown by found() also stop the walk and
+	 * 		are re-thrown.
+	 */
+	public boolean walk(final OutputHandler outputHandler) throws IOException {
+		final Object lock = new Object();
+		return walk((zipFile, entry, file, path) -> {
+			// uncompress outside the lock, so only the calls to the handler are serialized
+			try (InputStream content = entry.getSize() <= MAX_BUFFERED_SIZE ?
+					new ByteArrayInputStream(zipFile.readFully(entry)) :
+					zipFile.getInputStream(entry)) {
+				synchronized (lock) {
+					return outputHandler.found(file, content);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Walk all entries and invoke the visitor concurrently for each of them.
+	 */
+	boolean walk(EntryVisitor visitor) throws IOException {
+		Walk walk = new Walk(visitor);
+
+		List<ArchiveTask> tasks = new ArrayList<>(zips.size());
+		for (File zip : zips) {
+			tasks.add(new ArchiveTask(walk, zip, null, zip, zip.getPath()));
+		}
+		pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		Exception failure = walk.failure.get();
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		if (failure != null) {
+			throw (RuntimeException) failure;
+		}
+
+		return walk.found.get();
+	}
+
+	/**
+	 * Callback for each entry, may be invoked concurrently.
+	 */
+	interface EntryVisitor {
+		/**
+		 * @param zipFile The archive which contains the entry
+		 * @param entry The entry
+		 * @param file The entry as file below the archive, as reported by {@link ZipFileWalker}
+		 * @param path The entry in the '!' notation of {@link ZipUtils#getZipContentsRecursive(String)}
+		 *
+		 * @return true to stop the walk
+		 */
+		boolean visit(ChannelZipFile zipFile, ZipEntry entry, File file, String path) throws IOException;
+	}
+
+	/**
+	 * State which is shared by all tasks of one call to walk().
+	 */
+	private static final class Walk {
+		private final EntryVisitor visitor;
+		private final AtomicBoolean found = new AtomicBoolean();
+		private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+		private Walk(EntryVisitor visitor) {
+			this.visitor = visitor;
+		}
+
+		private boolean isStopped() {
+			return found.get() || failure.get() != null;
+		}
+
+		private void fail(Exception e) {
+			// only the first failure is reported, it stops all other tasks
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * Opens an archive if necessary and splits its entries into chunks.
+	 */
+	private static final class ArchiveTask extends RecursiveAction {
+		private final Walk walk;
+		private final File zip;
+		private final File base;
+		private final String path;
+		private ChannelZipFile zipFile;
+
+		private ArchiveTask(Walk walk, File zip, ChannelZipFile zipFile, File base, String path) {
+			this.walk = walk;
+			this.zip = zip;
+			this.zipFile = zipFile;
+			this.base = base;
+			this.path = path;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				if (walk.isStopped()) {
+					return;
+				}
+
+				if (zipFile == null) {
+					zipFile = new ChannelZipFile(zip);
+				}
+
+				List<ZipEntry> entries = zipFile.entries();
+				List<EntriesTask> tasks = new ArrayList<>();
+				for (int start = 0; start < entries.size(); start += CHUNK_SIZE) {
+					tasks.add(new EntriesTask(walk, zipFile, entries.subList(start, Math.min(entries.size(), start + CHUNK_SIZE)),
+							base, path));
+				}
+				invokeAll(tasks);
+			} catch (IOException | RuntimeException e) {
+				walk.fail(e);
+			} finally {
+				if (zipFile != null) {
+					try {
+						zipFile.close();
+					} catch (IOException e) {
+						walk.fail(e);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Visits a range of entries of one archive and forks tasks for nested archives.
+	 */
+	private static final class EntriesTask extends RecursiveAction {
+		private final Walk walk;
+		private final ChannelZipFile zipFile;
+		private final List<ZipEntry> entries;
+		private final File base;
+		private final String path;
+
+		private EntriesTask(Walk walk, ChannelZipFile zipFile, List<ZipEntry> entries, File base, String path) {
+			this.walk = walk;
+			this.zipFile = zipFile;
+			this.entries = entries;
+			this.base = base;
+			this.path = path;
+		}
+
+		@Override
+		protected void compute() {
+			// nested archives may be slices of this archive, so we need to wait for them before returning
+			List<ArchiveTask> nested = new ArrayList<>();
+			try {
+				for (ZipEntry entry : entries) {
+					if (walk.isStopped()) {
+						break;
+					}
+
+					File file = new File(base, entry.getName());
+					String entryPath = path + ZipUtils.ZIP_DELIMITER + entry.getName();
+					if (walk.visitor.visit(zipFile, entry, file, entryPath)) {
+						walk.found.set(true);
+						break;
+					}
+
+					// look at content of nested zip-files as well
+					if (ZipUtils.isZip(entry.getName())) {
+						final ChannelZipFile nestedZip;
+						try {
+							nestedZip = zipFile.openNested(entry);
+						} catch (IOException e) {
+							throw new IOException("While handling file: " + file, e);
+						}
+
+						ArchiveTask task = new ArchiveTask(walk, null, nestedZip, file, entryPath);
+						task.fork();
+						nested.add(task);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				walk.fail(e);
+			} finally {
+				for (ArchiveTask task : nested) {
+					task.join();
+				}
+			}
+		}
+	}
+}
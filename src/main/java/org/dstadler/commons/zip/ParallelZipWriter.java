@@ -0,0 +1,481 @@
+package org.dstadler.commons.zip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import org.dstadler.commons.util.ExecutorUtil;
+
+/**
+ * Creates Zip-files where entries are compressed concurrently on an
+ * {@link ExecutorService}.
+ *
+ * Data is split into chunks of 128KB which are deflated independently,
+ * using the last 32KB of the previous chunk as preset dictionary and
+ * flushing to a byte boundary at the end of each chunk, similar to "pigz".
+ * This allows to compress large files on multiple cores while still
+ * producing a single standard deflate-stream per entry. The CRC of the
+ * entry is combined from the CRCs of the chunks.
+ *
+ * Compressed chunks are written to the output in the order in which entries
+ * were added, the number of chunks which are compressed but not yet written
+ * is limited to keep memory usage bounded.
+ *
+ * This class is not thread-safe, entries need to be added from a single thread.
+ */
+public class ParallelZipWriter implements Closeable {
+	static final int CHUNK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int MAX_PENDING_CHUNKS = 64;
+
+	private final ZipRawWriter writer;
+	private final ExecutorService executor;
+	private final boolean ownExecutor;
+	private final int level;
+
+	private final Deque<PendingEntry> pending = new ArrayDeque<>();
+	private final Set<String> names = new HashSet<>();
+	private int pendingChunks = 0;
+	private boolean closed = false;
+	private boolean failed = false;
+
+	/**
+	 * Create a writer which uses its own pool with the given number of threads.
+	 *
+	 * @param target The Zip-file to create, an existing file is overwritten
+	 * @param threads How many threads to use for compressing
+	 * @throws IOException If the file cannot be created
+	 */
+	public ParallelZipWriter(File target, int threads) throws IOException {
+		this(target, Executors.newFixedThreadPool(threads, ExecutorUtil.createThreadFactory("ParallelZipWriter-%d")),
+				true, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Create a writer which uses the given executor, the executor is not shut
+	 * down when this writer is closed.
+	 *
+	 * @param target The Zip-file to create, an existing file is overwritten
+	 * @param executor The executor to run compression on
+	 * @param level The compression level, see {@link Deflater#setLevel(int)}
+	 * @throws IOException If the file cannot be created
+	 */
+	public ParallelZipWriter(File target, ExecutorService executor, int level) throws IOException {
+		this(target, executor, false, level);
+	}
+
+	private ParallelZipWriter(File target, ExecutorService executor, boolean ownExecutor, int level) throws IOException {
+		if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+
+		this.executor = executor;
+		this.ownExecutor = ownExecutor;
+		this.level = level;
+		try {
+			this.writer = new ZipRawWriter(target);
+		} catch (IOException e) {
+			if (ownExecutor) {
+				executor.shutdownNow();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Add the content of the given file, the modification time of the file is
+	 * used for the entry.
+	 *
+	 * @param name The name of the entry in the Zip-file
+	 * @param file The file to read
+	 * @throws IOException If the file cannot be read or writing previously added entries fails
+	 */
+	public void addFile(String name, File file) throws IOException {
+		ensureOpen(name);
+		if (!file.isFile()) {
+			throw new FileNotFoundException("Cannot add " + file + " as it is not a file");
+		}
+
+		long length = file.length();
+		PendingEntry entry = new PendingEntry(name, ZipEntry.DEFLATED, length, toLocalTime(file.lastModified()));
+		entry.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		pending.addLast(entry);
+
+		final FileChannel channel = entry.channel;
+		long offset = 0;
+		do {
+			final long chunkOffset = offset;
+			final int chunkLength = (int) Math.min(CHUNK_SIZE, length - offset);
+			final boolean last = offset + chunkLength >= length;
+			submit(entry, () -> {
+				int dictionaryLength = (int) Math.min(chunkOffset, DICTIONARY_SIZE);
+				byte[] data = new byte[dictionaryLength + chunkLength];
+				ByteBuffer buffer = ByteBuffer.wrap(data);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer, chunkOffset - dictionaryLength + buffer.position()) < 0) {
+						throw new IOException("File " + file + " was changed while adding it to the zip-file");
+					}
+				}
+
+				return deflate(data, 0, dictionaryLength, chunkLength, last);
+			});
+
+			offset += chunkLength;
+		} while (offset < length);
+
+		entry.submitted = true;
+	}
+
+	/**
+	 * Add an entry with the given data, the current time is used for the entry.
+	 *
+	 * @param name The name of the entry in the Zip-file
+	 * @param data The content of the entry, the array must not be changed until this writer is closed
+	 * @throws IOException If writing previously added entries fails
+	 */
+	public void addEntry(String name, byte[] data) throws IOException {
+		ensureOpen(name);
+
+		PendingEntry entry = new PendingEntry(name, ZipEntry.DEFLATED, data.length, LocalDateTime.now());
+		pending.addLast(entry);
+
+		int offset = 0;
+		do {
+			final int chunkOffset = offset;
+			final int chunkLength = Math.min(CHUNK_SIZE, data.length - offset);
+			final boolean last = offset + chunkLength >= data.length;
+			submit(entry, () -> {
+				int dictionaryLength = Math.min(chunkOffset, DICTIONARY_SIZE);
+				return deflate(data, chunkOffset - dictionaryLength, dictionaryLength, chunkLength, last);
+			});
+
+			offset += chunkLength;
+		} while (offset < data.length);
+
+		entry.submitted = true;
+	}
+
+	/**
+	 * Add an entry for a directory.
+	 *
+	 * @param name The name of the directory, a trailing slash is added if missing
+	 * @throws IOException If writing previously added entries fails
+	 */
+	public void addDirectory(String name) throws IOException {
+		String directory = name.endsWith("/") ? name : name + "/";
+		ensureOpen(directory);
+
+		PendingEntry entry = new PendingEntry(directory, ZipEntry.STORED, 0, LocalDateTime.now());
+		entry.submitted = true;
+		pending.addLast(entry);
+	}
+
+	private void ensureOpen(String name) throws IOException {
+		if (closed) {
+			throw new IOException("ParallelZipWriter was already closed");
+		}
+		if (failed) {
+			throw new IOException("ParallelZipWriter cannot be used any more after writing failed");
+		}
+		// report duplicates right away instead of when the entry is written
+		if (!names.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+	}
+
+	private void submit(PendingEntry entry, Callable<Chunk> task) throws IOException {
+		// write out compressed chunks in order until there is room for more work
+		while (pendingChunks >= MAX_PENDING_CHUNKS) {
+			writeNext();
+		}
+
+		entry.chunks.addLast(executor.submit(task));
+		pendingChunks++;
+	}
+
+	/**
+	 * Write the next chunk of the first pending entry, waits until it is compressed.
+	 */
+	private void writeNext() throws IOException {
+		try {
+			writeNextChunk();
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			throw e;
+		}
+	}
+
+	private void writeNextChunk() throws IOException {
+		PendingEntry entry = pending.getFirst();
+		if (!entry.started) {
+			writer.beginEntry(entry.name, entry.method, entry.size, entry.time);
+			entry.started = true;
+		}
+
+		if (!entry.chunks.isEmpty()) {
+			Chunk chunk = await(entry.chunks.removeFirst());
+			pendingChunks--;
+
+			writer.writeData(chunk.data, 0, chunk.length);
+			entry.crc = crc32Combine(entry.crc, chunk.crc, chunk.size);
+			entry.written += chunk.size;
+		}
+
+		if (entry.chunks.isEmpty()) {
+			if (!entry.submitted) {
+				throw new IllegalStateException("Entry " + entry.name + " is not fully submitted yet");
+			}
+
+			writer.endEntry(entry.crc, entry.written);
+			pending.removeFirst();
+			entry.close();
+		}
+	}
+
+	private static Chunk await(Future<Chunk> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for compression: " + e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Compressing data failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Deflate one chunk of data.
+	 *
+	 * @param data The buffer holding dictionary and data
+	 * @param dictionaryStart Where the dictionary starts in the buffer
+	 * @param dictionaryLength The length of the dictionary which is directly followed by the data
+	 * @param length The length of the data
+	 * @param last If this is the last chunk, otherwise the output is flushed to a byte boundary
+	 * 		so that the next chunk can be appended
+	 */
+	private Chunk deflate(byte[] data, int dictionaryStart, int dictionaryLength, int length, boolean last) {
+		int start = dictionaryStart + dictionaryLength;
+
+		CRC32 crc = new CRC32();
+		crc.update(data, start, length);
+
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionaryLength > 0) {
+				deflater.setDictionary(data, dictionaryStart, dictionaryLength);
+			}
+			deflater.setInput(data, start, length);
+
+			byte[] out = new byte[length + (length >> 8) + 64];
+			int pos = 0;
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					if (pos == out.length) {
+						out = Arrays.copyOf(out, out.length * 2);
+					}
+					pos += deflater.deflate(out, pos, out.length - pos);
+				}
+			} else {
+				// when the output buffer is filled completely, there can be more output
+				int written;
+				do {
+					if (pos == out.length) {
+						out = Arrays.copyOf(out, out.length * 2);
+					}
+					int available = out.length - pos;
+					written = deflater.deflate(out, pos, available, Deflater.SYNC_FLUSH);
+					pos += written;
+				} while (pos == out.length);
+			}
+
+			return new Chunk(out, pos, crc.getValue(), length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Combine the CRC-32 of two consecutive blocks of data into the CRC-32 of
+	 * the whole data, see crc32_combine() in zlib.
+	 *
+	 * @param crc1 CRC-32 of the first block
+	 * @param crc2 CRC-32 of the second block
+	 * @param length2 Length of the second block
+	 * @return The CRC-32 of both blocks
+	 */
+	static long crc32Combine(long crc1, long crc2, long length2) {
+		if (length2 <= 0) {
+			return crc1;
+		}
+
+		long[] even = new long[32];
+		long[] odd = new long[32];
+
+		// operator for one zero bit
+		odd[0] = 0xedb88320L;
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+
+		// operators for two and four zero bits
+		gf2MatrixSquare(even, odd);
+		gf2MatrixSquare(odd, even);
+
+		// apply length2 zeros to crc1, the first square puts the operator for one zero byte into even
+		long len = length2;
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((len & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			len >>= 1;
+			if (len == 0) {
+				break;
+			}
+
+			gf2MatrixSquare(odd, even);
+			if ((len & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			len >>= 1;
+		} while (len != 0);
+
+		return crc1 ^ crc2;
+	}
+
+	private static long gf2MatrixTimes(long[] matrix, long vector) {
+		long sum = 0;
+		int i = 0;
+		while (vector != 0) {
+			if ((vector & 1) != 0) {
+				sum ^= matrix[i];
+			}
+			vector >>= 1;
+			i++;
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] matrix) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(matrix, matrix[n]);
+		}
+	}
+
+	private static LocalDateTime toLocalTime(long millis) {
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+	}
+
+	/**
+	 * Writes all pending entries and the central directory.
+	 *
+	 * @throws IOException If compressing or writing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			if (!failed) {
+				while (!pending.isEmpty()) {
+					writeNext();
+				}
+				writer.finish();
+			}
+		} finally {
+			// discard work which is not needed any more after a failure
+			for (PendingEntry entry : pending) {
+				for (Future<Chunk> chunk : entry.chunks) {
+					chunk.cancel(true);
+				}
+				entry.close();
+			}
+
+			try {
+				writer.close();
+			} finally {
+				if (ownExecutor) {
+					ExecutorUtil.shutdownAndAwaitTermination(executor, 10_000);
+				}
+			}
+		}
+	}
+
+	/**
+	 * An entry whose chunks are compressed or waiting to be written.
+	 */
+	private static final class PendingEntry {
+		private final String name;
+		private final int method;
+		private final long size;
+		private final LocalDateTime time;
+		private final Deque<Future<Chunk>> chunks = new ArrayDeque<>();
+
+		private FileChannel channel;
+		private boolean submitted = false;
+		private boolean started = false;
+		private long crc = 0;
+		private long written = 0;
+
+		private PendingEntry(String name, int method, long size, LocalDateTime time) {
+			this.name = name;
+			this.method = method;
+			this.size = size;
+			this.time = time;
+		}
+
+		private void close() throws IOException {
+			if (channel != null) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Compressed data of one chunk.
+	 */
+	private static final class Chunk {
+		private final byte[] data;
+		private final int length;
+		private final long crc;
+		private final int size;
+
+		private Chunk(byte[] data, int length, long crc, int size) {
+			this.data = data;
+			this.length = length;
+			this.crc = crc;
+			this.size = size;
+		}
+	}
+}
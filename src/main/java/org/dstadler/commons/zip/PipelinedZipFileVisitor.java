@@ -0,0 +1,222 @@
+package org.dstadler.commons.zip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A walker similar to {@link ZipUtils.ZipFileVisitor} which decouples
+ * inflating the entries from processing them.
+ *
+ * The thread calling {@link #walk(InputStream)} reads and inflates the entries
+ * into pooled buffers while the entries which were read before are processed
+ * concurrently by {@link #visit(ZipEntry, ByteBuffer)} on the given
+ * {@link ExecutorService}. At most "prefetch" entries are buffered or
+ * processed at the same time, so memory usage is bounded by
+ * prefetch * maxBufferedSize.
+ *
+ * Entries which are larger than maxBufferedSize are passed to
+ * {@link #visitLarge(ZipEntry, InputStream)} on the reading thread instead.
+ *
+ * Note: {@link #visit(ZipEntry, ByteBuffer)} is called from multiple threads
+ * and in no particular order, so implementations need to be thread-safe.
+ *
+ * Usage:
+ *
+		new PipelinedZipFileVisitor(executor, 16, 1024*1024) {
+
+			{@literal @}Override
+			public void visit(ZipEntry entry, ByteBuffer data) throws IOException {
+				// process file data
+			}
+		}.walk(new ByteArrayInputStream(zip));
+ *
+ */
+public abstract class PipelinedZipFileVisitor {
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final ExecutorService executor;
+	private final int prefetch;
+	private final int maxBufferedSize;
+
+	/**
+	 * @param executor The executor which runs {@link #visit(ZipEntry, ByteBuffer)}, it is not shut down by the visitor
+	 * @param prefetch How many entries can be buffered or processed at the same time
+	 * @param maxBufferedSize The maximum size of entries which are buffered, larger ones
+	 * 		are handled via {@link #visitLarge(ZipEntry, InputStream)}
+	 */
+	public PipelinedZipFileVisitor(ExecutorService executor, int prefetch, int maxBufferedSize) {
+		if (prefetch <= 0) {
+			throw new IllegalArgumentException("Need a positive prefetch, but had: " + prefetch);
+		}
+		if (maxBufferedSize <= 0) {
+			throw new IllegalArgumentException("Need a positive maximum buffered size, but had: " + maxBufferedSize);
+		}
+
+		this.executor = executor;
+		this.prefetch = prefetch;
+		this.maxBufferedSize = maxBufferedSize;
+	}
+
+	/**
+	 * Visit all entries in the given stream, returns after all entries are processed.
+	 *
+	 * The stream will be closed after all entries are read.
+	 *
+	 * @param zipFile The stream providing the Zip-data
+	 * @throws IOException If reading fails or if processing any of the entries failed,
+	 * 		no more entries are read after the first failure
+	 */
+	public void walk(InputStream zipFile) throws IOException {
+		Semaphore permits = new Semaphore(prefetch);
+		BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(prefetch);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+
+		try {
+			try (ZipInputStream stream = new ZipInputStream(zipFile)) {
+				while (failure.get() == null) {
+					ZipEntry entry = stream.getNextEntry();
+					if (entry == null) {
+						break;
+					}
+
+					// wait until there is room for another buffered entry
+					permits.acquire();
+
+					boolean submitted = false;
+					try {
+						ByteBuffer buffer = read(stream, entry, pool.poll());
+						if (buffer != null) {
+							submit(entry, buffer, permits, pool, failure);
+							submitted = true;
+						}
+					} finally {
+						if (!submitted) {
+							permits.release();
+						}
+					}
+				}
+			} finally {
+				// wait for all submitted entries before returning
+				permits.acquireUninterruptibly(prefetch);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for entries to be processed: " + e);
+		}
+
+		Throwable e = failure.get();
+		if (e instanceof IOException) {
+			throw (IOException) e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException) e;
+		} else if (e instanceof Error) {
+			throw (Error) e;
+		}
+	}
+
+	/**
+	 * Read the entry into the buffer, or hand it to {@link #visitLarge(ZipEntry, InputStream)}
+	 * if it is too large.
+	 *
+	 * @return The filled buffer, or null if the entry was handled already
+	 */
+	private ByteBuffer read(ZipInputStream stream, ZipEntry entry, ByteBuffer buffer) throws IOException {
+		// the size is only known up-front if the entry does not use a data descriptor
+		long size = entry.getSize();
+		if (size > maxBufferedSize) {
+			visitLarge(entry, new ZipUtils.UnclosableInputStream(stream));
+			stream.closeEntry();
+			return null;
+		}
+
+		int capacity = size >= 0 ? (int) size : Math.min(INITIAL_BUFFER_SIZE, maxBufferedSize);
+		if (buffer == null || buffer.capacity() < capacity) {
+			buffer = ByteBuffer.allocate(capacity);
+		}
+		buffer.clear();
+
+		while (size < 0 || buffer.position() < size) {
+			if (!buffer.hasRemaining()) {
+				if (buffer.capacity() >= maxBufferedSize) {
+					// continue with a stream which first returns the data which was read already
+					buffer.flip();
+					visitLarge(entry, new SequenceInputStream(
+							new ByteBufferInputStream(buffer), new ZipUtils.UnclosableInputStream(stream)));
+					stream.closeEntry();
+					return null;
+				}
+
+				ByteBuffer larger = ByteBuffer.allocate((int) Math.min(maxBufferedSize, Math.max(INITIAL_BUFFER_SIZE, buffer.capacity() * 2L)));
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+
+			int read = stream.read(buffer.array(), buffer.position(), buffer.remaining());
+			if (read < 0) {
+				break;
+			}
+			buffer.position(buffer.position() + read);
+		}
+
+		buffer.flip();
+		return buffer;
+	}
+
+	private void submit(ZipEntry entry, ByteBuffer buffer, Semaphore permits, BlockingQueue<ByteBuffer> pool,
+			AtomicReference<Throwable> failure) {
+		executor.execute(() -> {
+			try {
+				// skip remaining entries after a failure
+				if (failure.get() == null) {
+					visit(entry, buffer);
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				buffer.clear();
+				pool.offer(buffer);
+				permits.release();
+			}
+		});
+	}
+
+	/**
+	 * This method is called for each entry which fits into the buffer, this
+	 * includes directories, use ZipEntry.isDirectory() to check which type of
+	 * entry you see.
+	 *
+	 * @param entry The current {@link ZipEntry}
+	 * @param data The uncompressed data of the entry, the buffer is re-used for other
+	 * 		entries after this method returns, so it should not be kept.
+	 * @throws IOException If processing the data fails.
+	 */
+	public abstract void visit(ZipEntry entry, ByteBuffer data) throws IOException;
+
+	/**
+	 * This method is called for entries which are larger than the maximum buffered size,
+	 * it is called on the thread which reads the Zip-data, so reading of
+	 * further entries is blocked while it runs.
+	 *
+	 * The default implementation reads the data into a separate buffer and calls
+	 * {@link #visit(ZipEntry, ByteBuffer)}, override it to process large entries
+	 * in a streaming fashion.
+	 *
+	 * @param entry The current {@link ZipEntry}
+	 * @param data The InputStream which can be used to read the entry-data.
+	 * @throws IOException If processing the data fails.
+	 */
+	protected void visitLarge(ZipEntry entry, InputStream data) throws IOException {
+		visit(entry, ByteBuffer.wrap(data.readAllBytes()));
+	}
+}
@@ -0,0 +1,118 @@
+package org.dstadler.commons.zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Read-only view on a range of bytes of another {@link SeekableByteChannel}.
+ *
+ * No data is copied, reads are forwarded to the parent channel with
+ * adjusted positions. Closing the slice does not close the parent.
+ */
+final class SliceChannel implements SeekableByteChannel {
+	private final SeekableByteChannel parent;
+	private final long offset;
+	private final long size;
+
+	private long position;
+	private volatile boolean open = true;
+
+	SliceChannel(SeekableByteChannel parent, long offset, long size) {
+		this.parent = parent;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		int read = read(dst, position);
+		if (read > 0) {
+			position += read;
+		}
+		return read;
+	}
+
+	/**
+	 * Read at the given position without changing the position of this channel.
+	 */
+	int read(ByteBuffer dst, long pos) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		if (pos >= size) {
+			return -1;
+		}
+
+		// restrict the read to the end of the slice
+		long remaining = size - pos;
+		if (dst.remaining() <= remaining) {
+			return ZipFormat.read(parent, dst, offset + pos);
+		}
+
+		ByteBuffer limited = dst.slice().limit((int) remaining);
+		int read = ZipFormat.read(parent, limited, offset + pos);
+		if (read > 0) {
+			dst.position(dst.position() + read);
+		}
+		return read;
+	}
+
+	SeekableByteChannel parent() {
+		return parent;
+	}
+
+	long offset() {
+		return offset;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("Position cannot be negative: " + newPosition);
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open && parent.isOpen();
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+}
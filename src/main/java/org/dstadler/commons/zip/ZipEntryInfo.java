@@ -0,0 +1,95 @@
+package org.dstadler.commons.zip;
+
+import java.util.zip.ZipEntry;
+
+/**
+ * Information about one entry of a potentially nested Zip-file as it is
+ * available from the central directory, i.e. without reading any data
+ * of the entry.
+ */
+public final class ZipEntryInfo {
+	private final String path;
+	private final String name;
+	private final long size;
+	private final long compressedSize;
+	private final long crc;
+	private final int method;
+	private final long time;
+
+	ZipEntryInfo(String path, ZipEntry entry) {
+		this(path, entry.getName(), entry.getSize(), entry.getCompressedSize(), entry.getCrc(),
+				entry.getMethod(), entry.getTime());
+	}
+
+	ZipEntryInfo(String path, String name, long size, long compressedSize, long crc, int method, long time) {
+		this.path = path;
+		this.name = name;
+		this.size = size;
+		this.compressedSize = compressedSize;
+		this.crc = crc;
+		this.method = method;
+		this.time = time;
+	}
+
+	/**
+	 * @return The full path of the entry in the '!' notation of
+	 * 		{@link ZipUtils#getZipContentsRecursive(String)}
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return The name of the entry inside the archive which directly contains it
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The uncompressed size of the entry
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The size of the stored data of the entry
+	 */
+	public long getCompressedSize() {
+		return compressedSize;
+	}
+
+	/**
+	 * @return The CRC-32 of the uncompressed data of the entry
+	 */
+	public long getCrc() {
+		return crc;
+	}
+
+	/**
+	 * @return The compression method, see {@link ZipEntry#getMethod()}
+	 */
+	public int getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The last modification time in milliseconds, see {@link ZipEntry#getTime()}
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return true if the entry denotes a directory
+	 */
+	public boolean isDirectory() {
+		return name.endsWith("/");
+	}
+
+	@Override
+	public String toString() {
+		return path + " (" + size + " bytes, crc: " + Long.toHexString(crc) + ")";
+	}
+}
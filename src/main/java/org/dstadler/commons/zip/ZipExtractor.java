@@ -0,0 +1,252 @@
+package org.dstadler.commons.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts Zip-files to a directory with a few tunable settings which
+ * make a difference for archives with large entries or many files.
+ *
+ * <ul>
+ *     <li>Data is copied via large buffers and written via {@link FileChannel}. The buffers
+ *     are pooled across entries and across calls on the same instance</li>
+ *     <li>When extracting from a file, the directories can be created concurrently on
+ *     an {@link ExecutorService} before the entries are extracted</li>
+ * </ul>
+ *
+ * The settings should not be changed while extractions are running, otherwise
+ * an instance can be used concurrently by multiple threads, so it can be shared
+ * to reuse the buffers.
+ *
+ * Note: nested ZIP files are not extracted here.
+ */
+public class ZipExtractor {
+	private final static Logger logger = Logger.getLogger(ZipExtractor.class.getName());
+
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private static final int POOL_SIZE = 8;
+
+	private final BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(POOL_SIZE);
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private ExecutorService directoryExecutor;
+
+	/**
+	 * @param bufferSize The size of the buffers used for copying data, default is {@link #DEFAULT_BUFFER_SIZE}
+	 * @return This instance to allow chaining calls
+	 */
+	public ZipExtractor setBufferSize(int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Need a positive buffer size, but had: " + bufferSize);
+		}
+
+		this.bufferSize = bufferSize;
+		buffers.clear();
+		return this;
+	}
+
+	/**
+	 * @param directoryExecutor If not null, directories are created concurrently on this
+	 * 		executor when extracting from a file, default is null. The executor is not shut down
+	 * 		by this class.
+	 * @return This instance to allow chaining calls
+	 */
+	public ZipExtractor setDirectoryExecutor(ExecutorService directoryExecutor) {
+		this.directoryExecutor = directoryExecutor;
+		return this;
+	}
+
+	/**
+	 * Extracts all files in the ZIP file passed as InputStream and stores them in the
+	 * denoted directory. The directory needs to exist before running this method.
+	 *
+	 * The stream will be closed after all entries are extracted.
+	 *
+	 * @param zip An {@link InputStream} to read zipped files from
+	 * @param toDir Target directory, should already exist.
+	 *
+	 * @throws IOException Thrown if files can not be read or written
+	 */
+	public void extract(InputStream zip, File toDir) throws IOException {
+		checkTarget(toDir);
+
+		// remember directories which exist already to avoid checking them for each entry
+		Set<File> directories = new HashSet<>();
+		directories.add(toDir);
+
+		try (ZipInputStream stream = new ZipInputStream(zip)) {
+			while (true) {
+				ZipEntry entry = stream.getNextEntry();
+				if (entry == null) {
+					break;
+				}
+
+				File target = resolve(toDir, entry);
+				if (entry.isDirectory()) {
+					createDirectory(target, directories);
+					continue;
+				}
+
+				// zips can contain nested files in sub-dirs without separate entries for the directories
+				createDirectory(target.getParentFile(), directories);
+				write(stream, target);
+			}
+		}
+	}
+
+	/**
+	 * Extracts all files in the ZIP file and stores them in the denoted directory.
+	 * The directory needs to exist before running this method.
+	 *
+	 * All directories are created before any file is extracted, concurrently if
+	 * an executor is set via {@link #setDirectoryExecutor(ExecutorService)}.
+	 *
+	 * @param zip The zip-file to process
+	 * @param toDir Target directory, should already exist.
+	 *
+	 * @throws IOException Thrown if files can not be read or written
+	 */
+	public void extract(File zip, File toDir) throws IOException {
+		checkTarget(toDir);
+
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			// the central directory allows to create all directories up-front
+			Set<File> directories = new HashSet<>();
+			List<ZipEntry> files = new ArrayList<>();
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				File target = resolve(toDir, entry);
+				if (entry.isDirectory()) {
+					directories.add(target);
+				} else {
+					directories.add(target.getParentFile());
+					files.add(entry);
+				}
+			}
+			createDirectories(directories);
+
+			for (ZipEntry entry : files) {
+				try (InputStream stream = zipFile.getInputStream(entry)) {
+					write(stream, resolve(toDir, entry));
+				}
+			}
+		}
+	}
+
+	private static void checkTarget(File toDir) throws IOException {
+		if (!toDir.exists()) {
+			throw new IOException("Directory '" + toDir + "' does not exist.");
+		}
+	}
+
+	private static File resolve(File toDir, ZipEntry entry) throws IOException {
+		File target = new File(toDir, entry.getName());
+
+		// do not allow entries like "../file" to write outside of the target directory
+		Path dir = toDir.toPath().toAbsolutePath().normalize();
+		if (!target.toPath().toAbsolutePath().normalize().startsWith(dir)) {
+			throw new IOException("Entry " + entry.getName() + " would be extracted outside of " + toDir);
+		}
+		return target;
+	}
+
+	private static void createDirectory(File dir, Set<File> directories) {
+		if (directories.add(dir)) {
+			mkdirs(dir);
+		}
+	}
+
+	private static void mkdirs(File dir) {
+		// mkdirs() fails if another thread creates a parent at the same time, so check again afterwards
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+			logger.warning("Could not create directory " + dir);
+		}
+	}
+
+	private void createDirectories(Set<File> directories) throws IOException {
+		ExecutorService executor = directoryExecutor;
+		if (executor == null) {
+			for (File dir : directories) {
+				mkdirs(dir);
+			}
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<>(directories.size());
+		for (File dir : directories) {
+			futures.add(executor.submit(() -> mkdirs(dir)));
+		}
+
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while creating directories: " + e);
+		} catch (ExecutionException e) {
+			throw new IOException("Creating directories failed", e.getCause());
+		}
+	}
+
+	private void write(InputStream stream, File target) throws IOException {
+		ByteBuffer buffer = borrow();
+		try (FileChannel channel = FileChannel.open(target.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			byte[] array = buffer.array();
+			long written = 0;
+			while (true) {
+				// fill the buffer completely to issue few large writes
+				int length = 0;
+				int read;
+				while (length < array.length && (read = stream.read(array, length, array.length - length)) != -1) {
+					length += read;
+				}
+				if (length == 0) {
+					break;
+				}
+
+				ByteBuffer data = ByteBuffer.wrap(array, 0, length);
+				while (data.hasRemaining()) {
+					written += channel.write(data, written);
+				}
+
+				if (length < array.length) {
+					break;
+				}
+			}
+		} finally {
+			buffers.offer(buffer);
+		}
+	}
+
+	private ByteBuffer borrow() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null || buffer.capacity() != bufferSize) {
+			buffer = ByteBuffer.allocate(bufferSize);
+		}
+		return buffer;
+	}
+}
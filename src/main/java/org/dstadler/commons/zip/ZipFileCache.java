@@ -0,0 +1,407 @@
+package org.dstadler.commons.zip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Bounded cache of opened Zip-files for repeatedly reading entries from the same
+ * archives via the '!' notation of {@link ZipUtils#getZipContentsRecursive(String)}.
+ *
+ * Top-level archives are kept open as {@link ZipFile}, so the central directory
+ * is parsed only once and looking up entries is a hash-lookup afterwards. Nested
+ * archives are inflated into memory once and kept as {@link ChannelZipFile}.
+ *
+ * Archives are keyed by their path and are re-opened automatically when the
+ * modification time or the size of the file on disk changes.
+ *
+ * When the cache is full, the least recently used archive is evicted. Archives
+ * are reference-counted, so an evicted archive is only closed after all streams
+ * which were returned for it are closed.
+ *
+ * This class is thread-safe.
+ */
+public class ZipFileCache implements Closeable {
+	private final static Logger logger = Logger.getLogger(ZipFileCache.class.getName());
+
+	private static final long DEFAULT_MAX_NESTED_BYTES = 64 * 1024 * 1024;
+
+	private final int maxArchives;
+	private final long maxNestedBytes;
+
+	// access-ordered, so iteration starts with the least recently used archive
+	private final LinkedHashMap<String, CachedArchive> archives = new LinkedHashMap<>(16, 0.75f, true);
+	private long nestedBytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private boolean closed = false;
+
+	/**
+	 * Create a cache which keeps at most the given number of archives open and
+	 * uses at most 64MB for nested archives.
+	 *
+	 * @param maxArchives The maximum number of top-level and nested archives to keep
+	 */
+	public ZipFileCache(int maxArchives) {
+		this(maxArchives, DEFAULT_MAX_NESTED_BYTES);
+	}
+
+	/**
+	 * Create a cache with the given limits.
+	 *
+	 * @param maxArchives The maximum number of top-level and nested archives to keep
+	 * @param maxNestedBytes The maximum number of bytes to use for keeping nested archives in memory
+	 */
+	public ZipFileCache(int maxArchives, long maxNestedBytes) {
+		if (maxArchives <= 0) {
+			throw new IllegalArgumentException("Need to allow at least one archive, but had: " + maxArchives);
+		}
+		if (maxNestedBytes < 0) {
+			throw new IllegalArgumentException("Cannot use a negative size for nested archives, but had: " + maxNestedBytes);
+		}
+
+		this.maxArchives = maxArchives;
+		this.maxNestedBytes = maxNestedBytes;
+	}
+
+	/**
+	 * Same as {@link ZipUtils#getZipContentsRecursive(String)}, but uses cached
+	 * archives where possible.
+	 *
+	 * The archive stays referenced until the returned stream is closed.
+	 *
+	 * @param file The name of the file to read, files inside zip files are denoted with '!'.
+	 *
+	 * @return A stream that points to the file inside the ZIP file.
+	 *
+	 * @throws IOException If the file cannot be found or an error occurs while opening the file.
+	 */
+	public InputStream getZipContentsRecursive(final String file) throws IOException {
+		int pos = file.indexOf('!');
+		if (pos == -1) {
+			// nothing to cache for plain files
+			return ZipUtils.getZipContentsRecursive(file);
+		}
+
+		String zip = file.substring(0, pos);
+		String subfile = file.substring(pos + 1);
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Trying to read cached zipfile: " + zip + " subfile: " + subfile);
+		}
+
+		CachedArchive archive = acquireFile(zip);
+		try {
+			while ((pos = subfile.indexOf('!')) != -1) {
+				CachedArchive nested = acquireNested(archive, subfile.substring(0, pos));
+
+				// nested archives are independent of the outer one, so we do not need to keep it
+				release(archive);
+				archive = nested;
+
+				subfile = subfile.substring(pos + 1);
+			}
+
+			final CachedArchive result = archive;
+			return new ZipFileCloseInputStream(archive.getInputStream(subfile), () -> release(result));
+		} catch (IOException | RuntimeException e) {
+			release(archive);
+			throw e;
+		}
+	}
+
+	/**
+	 * Same as {@link ZipUtils#getZipStringContentsRecursive(String)}, but uses cached
+	 * archives where possible.
+	 *
+	 * @param file The name of the file to read, files inside zip files are denoted with '!'.
+	 *
+	 * @return The text-contents of the file
+	 *
+	 * @throws IOException If the file cannot be found or an error occurs while opening the file.
+	 */
+	public String getZipStringContentsRecursive(final String file) throws IOException {
+		if (file.indexOf('!') == -1) {
+			return ZipUtils.getZipStringContentsRecursive(file);
+		}
+
+		try (InputStream str = getZipContentsRecursive(file)) {
+			return IOUtils.toString(str, StandardCharsets.UTF_8);
+		}
+	}
+
+	private CachedArchive acquireFile(String zip) throws IOException {
+		File file = new File(zip);
+
+		// a single call to get all attributes instead of separate calls for exists/isFile/length
+		final BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			throw new IOException("ZIP file: " + zip + " does not exist or is empty or not a readable file.", e);
+		}
+		if (!attributes.isRegularFile() || attributes.size() == 0) {
+			throw new IOException("ZIP file: " + zip + " does not exist or is empty or not a readable file.");
+		}
+
+		String key = file.getAbsolutePath();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+		long size = attributes.size();
+
+		CachedArchive archive = lookup(key, lastModified, size);
+		if (archive != null) {
+			return archive;
+		}
+
+		return insert(new CachedArchive(key, lastModified, size, new ZipFile(file), null, 0));
+	}
+
+	private CachedArchive acquireNested(CachedArchive parent, String zipInner) throws IOException {
+		String key = parent.key + '!' + zipInner;
+
+		// nested archives are invalidated together with the top-level file
+		CachedArchive archive = lookup(key, parent.lastModified, parent.size);
+		if (archive != null) {
+			return archive;
+		}
+
+		byte[] data = parent.readFully(zipInner);
+		return insert(new CachedArchive(key, parent.lastModified, parent.size, null,
+				new ChannelZipFile(key, data), data.length));
+	}
+
+	private CachedArchive lookup(String key, long lastModified, long size) throws IOException {
+		List<CachedArchive> toClose = new ArrayList<>();
+		try {
+			synchronized (this) {
+				ensureOpen();
+
+				CachedArchive archive = archives.get(key);
+				if (archive != null) {
+					if (archive.lastModified == lastModified && archive.size == size) {
+						hits++;
+						archive.refCount++;
+						return archive;
+					}
+
+					// file was changed on disk
+					evict(archive, toClose);
+				}
+
+				misses++;
+				return null;
+			}
+		} finally {
+			closeAll(toClose);
+		}
+	}
+
+	private CachedArchive insert(CachedArchive created) throws IOException {
+		List<CachedArchive> toClose = new ArrayList<>();
+		try {
+			synchronized (this) {
+				if (closed) {
+					toClose.add(created);
+					ensureOpen();
+				}
+
+				// another thread might have opened the same archive in the meantime
+				CachedArchive existing = archives.get(created.key);
+				if (existing != null) {
+					if (existing.lastModified == created.lastModified && existing.size == created.size) {
+						toClose.add(created);
+						existing.refCount++;
+						return existing;
+					}
+
+					evict(existing, toClose);
+				}
+
+				created.refCount = 1;
+				archives.put(created.key, created);
+				nestedBytes += created.memory;
+
+				// remove least recently used archives until we are within the limits again
+				Iterator<CachedArchive> it = archives.values().iterator();
+				while (it.hasNext() && (archives.size() > maxArchives || nestedBytes > maxNestedBytes)) {
+					CachedArchive eldest = it.next();
+
+					// only nested archives use memory, so there is no need to close top-level files for it
+					if (archives.size() <= maxArchives && eldest.memory == 0) {
+						continue;
+					}
+
+					it.remove();
+					nestedBytes -= eldest.memory;
+					eldest.evicted = true;
+					if (eldest.refCount == 0) {
+						toClose.add(eldest);
+					}
+				}
+
+				return created;
+			}
+		} finally {
+			closeAll(toClose);
+		}
+	}
+
+	private void evict(CachedArchive archive, List<CachedArchive> toClose) {
+		archives.remove(archive.key);
+		nestedBytes -= archive.memory;
+		archive.evicted = true;
+		if (archive.refCount == 0) {
+			toClose.add(archive);
+		}
+	}
+
+	private void release(CachedArchive archive) {
+		synchronized (this) {
+			archive.refCount--;
+			if (!archive.evicted || archive.refCount > 0) {
+				return;
+			}
+		}
+
+		archive.close();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("ZipFileCache was already closed");
+		}
+	}
+
+	private static void closeAll(List<CachedArchive> archives) {
+		for (CachedArchive archive : archives) {
+			archive.close();
+		}
+	}
+
+	/**
+	 * @return The number of archives which are currently cached
+	 */
+	public synchronized int size() {
+		return archives.size();
+	}
+
+	/**
+	 * @return How often a cached archive could be used
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return How often an archive needed to be opened
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Evicts all archives and prevents further usage of the cache. Archives
+	 * which are still in use are closed as soon as the last stream is closed.
+	 */
+	@Override
+	public void close() {
+		List<CachedArchive> toClose = new ArrayList<>();
+		synchronized (this) {
+			closed = true;
+			for (CachedArchive archive : new ArrayList<>(archives.values())) {
+				evict(archive, toClose);
+			}
+		}
+
+		closeAll(toClose);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ZipFileCache{archives: " + archives.size() + ", nestedBytes: " + nestedBytes +
+				", hits: " + hits + ", misses: " + misses + '}';
+	}
+
+	/**
+	 * A top-level or nested archive together with the information to detect
+	 * changes of the file and the number of current users.
+	 */
+	private static final class CachedArchive {
+		private final String key;
+		private final long lastModified;
+		private final long size;
+		private final ZipFile zipFile;
+		private final ChannelZipFile nested;
+		private final long memory;
+
+		// guarded by the lock of the cache
+		private int refCount = 0;
+		private boolean evicted = false;
+
+		private CachedArchive(String key, long lastModified, long size, ZipFile zipFile, ChannelZipFile nested, long memory) {
+			this.key = key;
+			this.lastModified = lastModified;
+			this.size = size;
+			this.zipFile = zipFile;
+			this.nested = nested;
+			this.memory = memory;
+		}
+
+		private InputStream getInputStream(String name) throws IOException {
+			ZipEntry entry = getEntry(name);
+			if (entry == null) {
+				throw new FileNotFoundException("Could not find file: '" + name + "' in ZIP file '" + key + "'");
+			}
+
+			return zipFile != null ? zipFile.getInputStream(entry) : nested.getInputStream(entry);
+		}
+
+		private byte[] readFully(String zipInner) throws IOException {
+			ZipEntry entry = getEntry(zipInner);
+			if (entry == null) {
+				throw new IOException("Could not read inner ZIP file: '" + zipInner + "' from ZIP file '" + key + "'");
+			}
+
+			if (nested != null) {
+				return nested.readFully(entry);
+			}
+
+			try (InputStream stream = zipFile.getInputStream(entry)) {
+				return entry.getSize() >= 0 && entry.getSize() <= Integer.MAX_VALUE - 8 ?
+						IOUtils.toByteArray(stream, entry.getSize()) :
+						IOUtils.toByteArray(stream);
+			}
+		}
+
+		private ZipEntry getEntry(String name) {
+			return zipFile != null ? zipFile.getEntry(name) : nested.getEntry(name);
+		}
+
+		private void close() {
+			try {
+				if (zipFile != null) {
+					zipFile.close();
+				} else {
+					nested.close();
+				}
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not close cached ZIP file " + key, e);
+			}
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.dstadler.commons.zip;
 
+import java.io.Closeable;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -8,11 +9,25 @@ import java.util.zip.ZipFile;
 /**
  * Small wrapper InputStream which closes the underlying zip-file as soon
  * as the InputStream is closed.
+ *
+ * Closing the stream more than once closes the zip-file only once.
  */
 public class ZipFileCloseInputStream extends FilterInputStream {
-	private final ZipFile zipFile;
+	private final Closeable zipFile;
+	private boolean closed;
 
 	public ZipFileCloseInputStream(InputStream stream, ZipFile second) {
+		this(stream, (Closeable) second);
+	}
+
+	/**
+	 * Allows to use this stream also for other types of archives,
+	 * e.g. a {@link ChannelZipFile}.
+	 *
+	 * @param stream The stream to read from
+	 * @param second The archive which is closed together with the stream
+	 */
+	public ZipFileCloseInputStream(InputStream stream, Closeable second) {
 		super(stream);
 		if(stream == null) {
 			throw new NullPointerException("Delegate stream was passed null");	// NOPMD - fail early here with NullPointerException to show where the null value is coming from
@@ -22,6 +37,11 @@ public class ZipFileCloseInputStream extends FilterInputStream {
 
 	@Override
 	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
 		super.close();
 
 		zipFile.close();
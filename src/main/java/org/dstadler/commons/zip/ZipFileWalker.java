@@ -13,6 +13,8 @@ import org.apache.commons.io.input.CloseShieldInputStream;
 /**
  * File Walker for Zip-Files which can step down into nested zip-files while
  * looking for matches.
+ *
+ * @see ParallelZipFileWalker
  */
 public class ZipFileWalker {
 	private final File zip;
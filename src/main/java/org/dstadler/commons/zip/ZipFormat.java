@@ -0,0 +1,192 @@
+package org.dstadler.commons.zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.zip.ZipException;
+
+/**
+ * Constants and low-level helpers for the on-disk layout of Zip-files as
+ * described in the PKWARE APPNOTE.
+ *
+ * This is shared by the classes in this package which access archives
+ * directly instead of going through {@link java.util.zip.ZipFile}.
+ */
+final class ZipFormat {
+	// header signatures
+	static final int LOCSIG = 0x04034b50;
+	static final int CENSIG = 0x02014b50;
+	static final int ENDSIG = 0x06054b50;
+	static final int ZIP64_ENDSIG = 0x06064b50;
+	static final int ZIP64_LOCSIG = 0x07064b50;
+	static final int EXTSIG = 0x08074b50;
+
+	// fixed header sizes
+	static final int LOCHDR = 30;
+	static final int CENHDR = 46;
+	static final int ENDHDR = 22;
+	static final int ZIP64_ENDHDR = 56;
+	static final int ZIP64_LOCHDR = 20;
+
+	// general purpose flags
+	static final int FLAG_ENCRYPTED = 0x01;
+	static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	static final int FLAG_UTF8 = 0x800;
+
+	static final int ZIP64_EXTID = 0x0001;
+	static final long ZIP64_MAGICVAL = 0xFFFFFFFFL;
+	static final int ZIP64_MAGICCOUNT = 0xFFFF;
+
+	private ZipFormat() {
+	}
+
+	/**
+	 * Location of the central directory as read from the end-of-central-directory
+	 * record, including the ZIP64 variant.
+	 */
+	static final class Directory {
+		final long offset;
+		final long size;
+		final long entries;
+
+		Directory(long offset, long size, long entries) {
+			this.offset = offset;
+			this.size = size;
+			this.entries = entries;
+		}
+	}
+
+	/**
+	 * Locate the central directory by searching the end-of-central-directory
+	 * record at the end of the given channel.
+	 *
+	 * @param channel The channel to read from, only positional reads are used
+	 * @param name Name of the archive, used for error messages
+	 * @return The location and size of the central directory
+	 * @throws IOException If the data is not a valid zip-file or reading fails
+	 */
+	static Directory findDirectory(SeekableByteChannel channel, String name) throws IOException {
+		long length = channel.size();
+		if (length < ENDHDR) {
+			throw new ZipException("Zip file " + name + " is too short to be a valid zip-file: " + length);
+		}
+
+		// the comment at the end can be at most 64k
+		int tailLength = (int) Math.min(length, ENDHDR + 0xFFFF);
+		long tailStart = length - tailLength;
+		ByteBuffer tail = readFully(channel, tailStart, tailLength);
+
+		for (int pos = tailLength - ENDHDR; pos >= 0; pos--) {
+			if (tail.getInt(pos) != ENDSIG ||
+					// comment needs to end exactly at the end of the file
+					pos + ENDHDR + getUnsignedShort(tail, pos + 20) != tailLength) {
+				continue;
+			}
+
+			long entries = getUnsignedShort(tail, pos + 10);
+			long size = getUnsignedInt(tail, pos + 12);
+			long offset = getUnsignedInt(tail, pos + 16);
+
+			// check for a ZIP64 locator directly in front of the record
+			long endPos = tailStart + pos;
+			if (endPos >= ZIP64_LOCHDR) {
+				ByteBuffer locator = readFully(channel, endPos - ZIP64_LOCHDR, ZIP64_LOCHDR);
+				if (locator.getInt(0) == ZIP64_LOCSIG) {
+					long zip64EndPos = locator.getLong(8);
+					ByteBuffer zip64End = readFully(channel, zip64EndPos, ZIP64_ENDHDR);
+					if (zip64End.getInt(0) != ZIP64_ENDSIG) {
+						throw new ZipException("Invalid ZIP64 end header in zip file " + name);
+					}
+
+					entries = zip64End.getLong(32);
+					size = zip64End.getLong(40);
+					offset = zip64End.getLong(48);
+				}
+			}
+
+			if (offset + size > length) {
+				throw new ZipException("Invalid central directory offset " + offset + " and size " + size +
+						" for zip file " + name + " of length " + length);
+			}
+
+			return new Directory(offset, size, entries);
+		}
+
+		throw new ZipException("Zip END header not found in zip file " + name);
+	}
+
+	/**
+	 * Reads the complete central directory described by the given {@link Directory}.
+	 */
+	static ByteBuffer readDirectory(SeekableByteChannel channel, Directory directory, String name) throws IOException {
+		if (directory.size > Integer.MAX_VALUE) {
+			throw new ZipException("Central directory of zip file " + name + " is too large: " + directory.size);
+		}
+
+		return readFully(channel, directory.offset, (int) directory.size);
+	}
+
+	/**
+	 * Compute the offset of the actual data of an entry by looking at the
+	 * local file header which can have different name and extra-field
+	 * lengths than the central directory.
+	 */
+	static long dataOffset(SeekableByteChannel channel, long localHeaderOffset, String name) throws IOException {
+		ByteBuffer header = readFully(channel, localHeaderOffset, LOCHDR);
+		if (header.getInt(0) != LOCSIG) {
+			throw new ZipException("Invalid local file header at offset " + localHeaderOffset + " in zip file " + name);
+		}
+
+		return localHeaderOffset + LOCHDR + getUnsignedShort(header, 26) + getUnsignedShort(header, 28);
+	}
+
+	/**
+	 * Reads exactly the given number of bytes at the given position via
+	 * {@link #read(SeekableByteChannel, ByteBuffer, long)}.
+	 *
+	 * @return A little-endian buffer positioned at zero
+	 */
+	static ByteBuffer readFully(SeekableByteChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			int read = read(channel, buffer, position + buffer.position());
+			if (read < 0) {
+				throw new ZipException("Unexpected end of data at position " + (position + buffer.position()));
+			}
+		}
+
+		return buffer.flip();
+	}
+
+	/**
+	 * Reads from the given position without relying on the current position of the
+	 * channel where possible, so that multiple readers can share one channel.
+	 */
+	static int read(SeekableByteChannel channel, ByteBuffer dst, long position) throws IOException {
+		if (channel instanceof FileChannel) {
+			return ((FileChannel) channel).read(dst, position);
+		}
+		if (channel instanceof SliceChannel) {
+			return ((SliceChannel) channel).read(dst, position);
+		}
+		if (channel instanceof ByteBufferChannel) {
+			return ((ByteBufferChannel) channel).read(dst, position);
+		}
+
+		// unknown implementation, we need to serialize position and read
+		synchronized (channel) {
+			channel.position(position);
+			return channel.read(dst);
+		}
+	}
+
+	static int getUnsignedShort(ByteBuffer buffer, int pos) {
+		return buffer.getShort(pos) & 0xFFFF;
+	}
+
+	static long getUnsignedInt(ByteBuffer buffer, int pos) {
+		return buffer.getInt(pos) & 0xFFFFFFFFL;
+	}
+}
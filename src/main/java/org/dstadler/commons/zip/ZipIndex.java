@@ -0,0 +1,661 @@
+package org.dstadler.commons.zip;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipException;
+
+/**
+ * Persistent index of the entries of a set of Zip-files, including nested
+ * Zip-files, which allows to search for file names and content without
+ * opening the archives again.
+ *
+ * For each entry the path in the '!' notation of {@link ZipUtils#getZipContentsRecursive(String)},
+ * the sizes and the CRC are recorded. Optionally a trigram index of the content
+ * of text files is built, which allows to quickly find candidates for files
+ * which contain a given text.
+ *
+ * The index is stored in a single file which is memory-mapped for answering
+ * queries. Use {@link #update(File, Collection, boolean)} to create or update
+ * the index, archives which did not change in size and modification time
+ * since the last update are not read again.
+ *
+ * Instances are immutable and can be used by multiple threads.
+ *
+ * Note: The JDK does not release the memory-mapping of the index file when an instance
+ * is closed, only when it is garbage-collected. On Windows a mapped file cannot be
+ * replaced, so {@link #update(File, Collection, boolean)} can fail there while instances
+ * for the same index file were opened recently.
+ */
+public class ZipIndex implements Closeable {
+	private final static Logger logger = Logger.getLogger(ZipIndex.class.getName());
+
+	// "ZIDX"
+	private static final int MAGIC = 0x5a494458;
+	// 2: the name of each entry is stored separately
+	private static final int VERSION = 2;
+
+	// only content of text files up to this size is indexed
+	private static final int MAX_CONTENT_SIZE = 1024 * 1024;
+
+	// files with a zero-byte in this many first bytes are treated as binary
+	private static final int BINARY_CHECK_LENGTH = 8000;
+
+	private static final byte FLAG_CONTENT = 1;
+
+	// flags, size, compressedSize, crc, time, method, length of path; followed by the path, the length of the name and the name
+	private static final int ENTRY_HEADER = 1 + 8 + 8 + 8 + 8 + 4 + 4;
+
+	// trigram, start in postings, number of postings
+	private static final int TRIGRAM_RECORD = 4 + 4 + 4;
+
+	private final File file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final boolean contentIndexed;
+	private final List<Archive> archives;
+	private final int[] entryOffsets;
+	private final int trigramCount;
+	private final int trigramsOffset;
+	private final int postingsOffset;
+
+	/**
+	 * @param channel The channel of the mapped file, null if the buffer is not mapped
+	 */
+	private ZipIndex(File file, FileChannel channel, ByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.channel = channel;
+		this.buffer = buffer;
+		try {
+			if (buffer.limit() < 21 || buffer.getInt(0) != MAGIC) {
+				throw new IOException("File " + file + " is not a valid index file");
+			}
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException("Index file " + file + " has unsupported version " + buffer.getInt(4));
+			}
+
+			contentIndexed = buffer.get(8) == 1;
+			int archiveCount = buffer.getInt(9);
+			int entryCount = buffer.getInt(13);
+			trigramCount = buffer.getInt(17);
+
+			int pos = 21;
+			List<Archive> list = new ArrayList<>(archiveCount);
+			int firstEntry = 0;
+			for (int i = 0; i < archiveCount; i++) {
+				String path = readString(pos);
+				pos += 4 + buffer.getInt(pos);
+
+				Archive archive = new Archive(path, buffer.getLong(pos), buffer.getLong(pos + 8), firstEntry, buffer.getInt(pos + 16));
+				list.add(archive);
+
+				firstEntry += archive.entryCount;
+				pos += 20;
+			}
+			archives = Collections.unmodifiableList(list);
+
+			entryOffsets = new int[entryCount];
+			for (int i = 0; i < entryCount; i++) {
+				entryOffsets[i] = pos;
+				// path and name
+				pos += ENTRY_HEADER + buffer.getInt(pos + ENTRY_HEADER - 4);
+				pos += 4 + buffer.getInt(pos);
+			}
+
+			trigramsOffset = pos;
+			postingsOffset = pos + trigramCount * TRIGRAM_RECORD;
+		} catch (IOException | RuntimeException e) {
+			if (channel != null) {
+				channel.close();
+			}
+			if (e instanceof IndexOutOfBoundsException) {
+				throw new IOException("Index file " + file + " is corrupted", e);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Open an existing index for querying.
+	 *
+	 * @param indexFile The file which was written by {@link #update(File, Collection, boolean)}
+	 * @return The index, needs to be closed after use
+	 * @throws IOException If the file cannot be read or is not a valid index file
+	 */
+	public static ZipIndex open(File indexFile) throws IOException {
+		FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+		final ByteBuffer buffer;
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Index file " + indexFile + " is too large: " + channel.size());
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		return new ZipIndex(indexFile, channel, buffer);
+	}
+
+	/**
+	 * Create or update the index in the given file so that it covers exactly
+	 * the given archives.
+	 *
+	 * Archives which are already contained in the existing index with the same
+	 * size and modification time are not read again. The new index is written
+	 * to a temporary file first and then moved into place. The existing index is
+	 * read into memory instead of being mapped, so it does not prevent replacing
+	 * the file.
+	 *
+	 * @param indexFile The file to store the index in, an existing file is updated
+	 * @param zips The Zip-files to index
+	 * @param indexContent If a trigram index of the content of text files should be built,
+	 * 		if this differs from the existing index, all archives are read again
+	 * @return The updated index, needs to be closed after use
+	 * @throws IOException If one of the archives cannot be read or the index cannot be written
+	 */
+	public static ZipIndex update(File indexFile, Collection<File> zips, boolean indexContent) throws IOException {
+		Map<String, IndexedArchive> result = new LinkedHashMap<>();
+
+		ZipIndex existing = null;
+		if (indexFile.exists()) {
+			try {
+				existing = new ZipIndex(indexFile, null, ByteBuffer.wrap(Files.readAllBytes(indexFile.toPath())));
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not read existing index " + indexFile + ", rebuilding it", e);
+			}
+		}
+
+		try {
+			Map<String, Archive> previous = new HashMap<>();
+			int[][] previousTrigrams = null;
+			if (existing != null && existing.contentIndexed == indexContent) {
+				for (Archive archive : existing.archives) {
+					previous.put(archive.path, archive);
+				}
+			}
+
+			for (File zip : zips) {
+				String path = zip.getAbsolutePath();
+				if (result.containsKey(path)) {
+					continue;
+				}
+
+				BasicFileAttributes attributes = Files.readAttributes(zip.toPath(), BasicFileAttributes.class);
+				long size = attributes.size();
+				long lastModified = attributes.lastModifiedTime().toMillis();
+
+				Archive archive = previous.get(path);
+				if (archive != null && archive.size == size && archive.lastModified == lastModified) {
+					if (indexContent && previousTrigrams == null) {
+						previousTrigrams = existing.invertPostings();
+					}
+					result.put(path, existing.readArchive(archive, previousTrigrams));
+				} else {
+					if (logger.isLoggable(Level.FINE)) {
+						logger.fine("Indexing " + path);
+					}
+					result.put(path, indexArchive(new File(path), size, lastModified, indexContent));
+				}
+			}
+		} finally {
+			if (existing != null) {
+				existing.close();
+			}
+		}
+
+		File parent = indexFile.getAbsoluteFile().getParentFile();
+		File tempFile = File.createTempFile(indexFile.getName(), ".tmp", parent);
+		try {
+			write(tempFile, result.values(), indexContent);
+			ZipUtils.moveInto(tempFile, indexFile);
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+
+		return open(indexFile);
+	}
+
+	private static IndexedArchive indexArchive(File zip, long size, long lastModified, boolean indexContent) throws IOException {
+		final List<IndexedEntry> entries = Collections.synchronizedList(new ArrayList<>());
+		new ParallelZipFileWalker(zip).walk((zipFile, entry, file, path) -> {
+			int[] trigrams = null;
+			if (indexContent && !entry.isDirectory() && entry.getSize() >= 0 && entry.getSize() <= MAX_CONTENT_SIZE &&
+					!ZipUtils.isZip(entry.getName())) {
+				try {
+					byte[] data = zipFile.readFully(entry);
+					if (isText(data)) {
+						trigrams = trigrams(data);
+					}
+				} catch (ZipException e) {
+					// e.g. encrypted or unsupported compression, we can still index the name
+					logger.log(Level.FINE, "Could not read content of " + path, e);
+				}
+			}
+
+			entries.add(new IndexedEntry(new ZipEntryInfo(path, entry), trigrams));
+			return false;
+		});
+
+		// entries are reported concurrently, use a stable order
+		List<IndexedEntry> sorted = new ArrayList<>(entries);
+		sorted.sort(Comparator.comparing(e -> e.info.getPath()));
+
+		return new IndexedArchive(zip.getAbsolutePath(), size, lastModified, sorted);
+	}
+
+	private static void write(File tempFile, Collection<IndexedArchive> archives, boolean indexContent) throws IOException {
+		int entryCount = 0;
+		Map<Integer, PostingList> postings = new HashMap<>();
+		for (IndexedArchive archive : archives) {
+			for (IndexedEntry entry : archive.entries) {
+				if (entry.trigrams != null) {
+					for (int trigram : entry.trigrams) {
+						postings.computeIfAbsent(trigram, k -> new PostingList()).add(entryCount);
+					}
+				}
+				entryCount++;
+			}
+		}
+
+		int[] trigrams = new int[postings.size()];
+		int i = 0;
+		for (Integer trigram : postings.keySet()) {
+			trigrams[i++] = trigram;
+		}
+		Arrays.sort(trigrams);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 65536))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeByte(indexContent ? 1 : 0);
+			out.writeInt(archives.size());
+			out.writeInt(entryCount);
+			out.writeInt(trigrams.length);
+
+			for (IndexedArchive archive : archives) {
+				writeString(out, archive.path);
+				out.writeLong(archive.size);
+				out.writeLong(archive.lastModified);
+				out.writeInt(archive.entries.size());
+			}
+
+			for (IndexedArchive archive : archives) {
+				for (IndexedEntry entry : archive.entries) {
+					ZipEntryInfo info = entry.info;
+					out.writeByte(entry.trigrams != null ? FLAG_CONTENT : 0);
+					out.writeLong(info.getSize());
+					out.writeLong(info.getCompressedSize());
+					out.writeLong(info.getCrc());
+					out.writeLong(info.getTime());
+					out.writeInt(info.getMethod());
+					writeString(out, info.getPath());
+					// entry names can contain the delimiter, so the name cannot be derived from the path
+					writeString(out, info.getName());
+				}
+			}
+
+			int start = 0;
+			for (int trigram : trigrams) {
+				int count = postings.get(trigram).size;
+				out.writeInt(trigram);
+				out.writeInt(start);
+				out.writeInt(count);
+				start += count;
+			}
+
+			for (int trigram : trigrams) {
+				PostingList list = postings.get(trigram);
+				for (int j = 0; j < list.size; j++) {
+					out.writeInt(list.entries[j]);
+				}
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private String readString(int pos) {
+		byte[] bytes = new byte[buffer.getInt(pos)];
+		buffer.get(pos + 4, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private ZipEntryInfo readEntry(int index) {
+		int pos = entryOffsets[index];
+		String path = readString(pos + ENTRY_HEADER - 4);
+		String name = readString(pos + ENTRY_HEADER + buffer.getInt(pos + ENTRY_HEADER - 4));
+		return new ZipEntryInfo(path, name,
+				buffer.getLong(pos + 1), buffer.getLong(pos + 9), buffer.getLong(pos + 17),
+				buffer.getInt(pos + 33), buffer.getLong(pos + 25));
+	}
+
+	private boolean hasContent(int index) {
+		return (buffer.get(entryOffsets[index]) & FLAG_CONTENT) != 0;
+	}
+
+	private IndexedArchive readArchive(Archive archive, int[][] trigrams) {
+		List<IndexedEntry> entries = new ArrayList<>(archive.entryCount);
+		for (int i = archive.firstEntry; i < archive.firstEntry + archive.entryCount; i++) {
+			entries.add(new IndexedEntry(readEntry(i), trigrams != null && hasContent(i) ? trigrams[i] : null));
+		}
+		return new IndexedArchive(archive.path, archive.size, archive.lastModified, entries);
+	}
+
+	/**
+	 * Re-create the trigrams for each entry from the posting lists.
+	 */
+	private int[][] invertPostings() {
+		int[] counts = new int[entryOffsets.length];
+		for (int i = 0; i < trigramCount; i++) {
+			int start = buffer.getInt(trigramsOffset + i * TRIGRAM_RECORD + 4);
+			int count = buffer.getInt(trigramsOffset + i * TRIGRAM_RECORD + 8);
+			for (int j = start; j < start + count; j++) {
+				counts[buffer.getInt(postingsOffset + j * 4)]++;
+			}
+		}
+
+		int[][] trigrams = new int[entryOffsets.length][];
+		for (int i = 0; i < counts.length; i++) {
+			trigrams[i] = new int[counts[i]];
+			counts[i] = 0;
+		}
+
+		// trigrams are sorted in the index, so the resulting arrays are sorted as well
+		for (int i = 0; i < trigramCount; i++) {
+			int trigram = buffer.getInt(trigramsOffset + i * TRIGRAM_RECORD);
+			int start = buffer.getInt(trigramsOffset + i * TRIGRAM_RECORD + 4);
+			int count = buffer.getInt(trigramsOffset + i * TRIGRAM_RECORD + 8);
+			for (int j = start; j < start + count; j++) {
+				int entry = buffer.getInt(postingsOffset + j * 4);
+				trigrams[entry][counts[entry]++] = trigram;
+			}
+		}
+
+		return trigrams;
+	}
+
+	private static boolean isText(byte[] data) {
+		for (int i = 0; i < Math.min(data.length, BINARY_CHECK_LENGTH); i++) {
+			if (data[i] == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The sorted, distinct trigrams of the given bytes
+	 */
+	private static int[] trigrams(byte[] data) {
+		if (data.length < 3) {
+			return new int[0];
+		}
+
+		int[] trigrams = new int[data.length - 2];
+		for (int i = 0; i < trigrams.length; i++) {
+			trigrams[i] = ((data[i] & 0xff) << 16) | ((data[i + 1] & 0xff) << 8) | (data[i + 2] & 0xff);
+		}
+		Arrays.sort(trigrams);
+
+		int count = 0;
+		for (int i = 0; i < trigrams.length; i++) {
+			if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+				trigrams[count++] = trigrams[i];
+			}
+		}
+		return Arrays.copyOf(trigrams, count);
+	}
+
+	/**
+	 * @return The absolute paths of all indexed archives
+	 */
+	public List<String> getArchives() {
+		List<String> paths = new ArrayList<>(archives.size());
+		for (Archive archive : archives) {
+			paths.add(archive.path);
+		}
+		return paths;
+	}
+
+	/**
+	 * @return The number of entries in the index
+	 */
+	public int size() {
+		return entryOffsets.length;
+	}
+
+	/**
+	 * @return true if the content of text files was indexed
+	 */
+	public boolean isContentIndexed() {
+		return contentIndexed;
+	}
+
+	/**
+	 * Look for entries with matching names, similar to {@link ZipUtils#findZip(String, java.io.InputStream, FileFilter, List)}.
+	 *
+	 * @param searchFilter A {@link FileFilter} which is invoked with the name of the entry
+	 * @return All matching entries
+	 */
+	public List<ZipEntryInfo> find(FileFilter searchFilter) {
+		List<ZipEntryInfo> results = new ArrayList<>();
+		for (int i = 0; i < entryOffsets.length; i++) {
+			ZipEntryInfo entry = readEntry(i);
+			if (searchFilter.accept(new File(entry.getName()))) {
+				results.add(entry);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Look for text files which may contain the given text.
+	 *
+	 * The trigram index can report false positives, so the content of the
+	 * returned entries needs to be checked, e.g. via {@link ZipUtils#getZipStringContentsRecursive(String)}.
+	 * Texts shorter than three bytes match all text files.
+	 *
+	 * @param text The text to look for, the comparison is done on the UTF-8 bytes
+	 * @return The candidates which contain all trigrams of the text
+	 * @throws IllegalStateException If the index was built without indexing content
+	 */
+	public List<ZipEntryInfo> findContentCandidates(String text) {
+		if (!contentIndexed) {
+			throw new IllegalStateException("Index " + file + " was created without indexing content");
+		}
+
+		List<ZipEntryInfo> results = new ArrayList<>();
+		int[] trigrams = trigrams(text.getBytes(StandardCharsets.UTF_8));
+		if (trigrams.length == 0) {
+			for (int i = 0; i < entryOffsets.length; i++) {
+				if (hasContent(i)) {
+					results.add(readEntry(i));
+				}
+			}
+			return results;
+		}
+
+		// start with the shortest list of postings to keep the intersection small
+		int[] records = new int[trigrams.length];
+		for (int i = 0; i < trigrams.length; i++) {
+			records[i] = findTrigram(trigrams[i]);
+			if (records[i] == -1) {
+				return results;
+			}
+		}
+		Integer[] order = new Integer[records.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingInt(i -> postingCount(records[i])));
+
+		int[] candidates = postings(records[order[0]]);
+		for (int i = 1; i < order.length && candidates.length > 0; i++) {
+			candidates = intersect(candidates, records[order[i]]);
+		}
+
+		for (int candidate : candidates) {
+			results.add(readEntry(candidate));
+		}
+		return results;
+	}
+
+	private int findTrigram(int trigram) {
+		int low = 0;
+		int high = trigramCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int value = buffer.getInt(trigramsOffset + mid * TRIGRAM_RECORD);
+			if (value < trigram) {
+				low = mid + 1;
+			} else if (value > trigram) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int postingCount(int record) {
+		return buffer.getInt(trigramsOffset + record * TRIGRAM_RECORD + 8);
+	}
+
+	private int[] postings(int record) {
+		int start = buffer.getInt(trigramsOffset + record * TRIGRAM_RECORD + 4);
+		int[] result = new int[postingCount(record)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = buffer.getInt(postingsOffset + (start + i) * 4);
+		}
+		return result;
+	}
+
+	private int[] intersect(int[] candidates, int record) {
+		int start = buffer.getInt(trigramsOffset + record * TRIGRAM_RECORD + 4);
+		int count = postingCount(record);
+
+		// both lists are sorted by entry
+		int[] result = new int[Math.min(candidates.length, count)];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < candidates.length && j < count) {
+			int posting = buffer.getInt(postingsOffset + (start + j) * 4);
+			if (candidates[i] < posting) {
+				i++;
+			} else if (candidates[i] > posting) {
+				j++;
+			} else {
+				result[size++] = posting;
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ZipIndex{" + file + ", archives: " + archives.size() + ", entries: " + entryOffsets.length +
+				", trigrams: " + trigramCount + '}';
+	}
+
+	/**
+	 * An archive as stored in the index.
+	 */
+	private static final class Archive {
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final int firstEntry;
+		private final int entryCount;
+
+		private Archive(String path, long size, long lastModified, int firstEntry, int entryCount) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.firstEntry = firstEntry;
+			this.entryCount = entryCount;
+		}
+	}
+
+	/**
+	 * An archive while building the index.
+	 */
+	private static final class IndexedArchive {
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final List<IndexedEntry> entries;
+
+		private IndexedArchive(String path, long size, long lastModified, List<IndexedEntry> entries) {
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.entries = entries;
+		}
+	}
+
+	/**
+	 * An entry while building the index.
+	 */
+	private static final class IndexedEntry {
+		private final ZipEntryInfo info;
+		// null if the content was not indexed
+		private final int[] trigrams;
+
+		private IndexedEntry(ZipEntryInfo info, int[] trigrams) {
+			this.info = info;
+			this.trigrams = trigrams;
+		}
+	}
+
+	/**
+	 * Growable list of entry numbers for one trigram.
+	 */
+	private static final class PostingList {
+		private int[] entries = new int[4];
+		private int size = 0;
+
+		private void add(int entry) {
+			if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size * 2);
+			}
+			entries[size++] = entry;
+		}
+	}
+}
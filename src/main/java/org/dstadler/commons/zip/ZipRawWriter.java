@@ -0,0 +1,486 @@
+package org.dstadler.commons.zip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes Zip-files where entries of existing archives are copied verbatim,
+ * i.e. without inflating and deflating them again. New entries are compressed
+ * while writing.
+ *
+ * This is the engine for replacing, merging and filtering entries of archives
+ * in {@link ZipUtils}.
+ *
+ * Call {@link #finish()} to write the central directory, {@link #close()} only
+ * releases the file.
+ */
+final class ZipRawWriter implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final int VERSION_DEFAULT = 20;
+	private static final int VERSION_ZIP64 = 45;
+
+	// leave room for deflate expanding incompressible data when deciding about ZIP64 sizes
+	private static final long ZIP64_THRESHOLD = ZipFormat.ZIP64_MAGICVAL - (ZipFormat.ZIP64_MAGICVAL >> 8);
+
+	private final File file;
+	private final FileChannel out;
+	private final List<CentralRecord> records = new ArrayList<>();
+	private final Set<String> names = new HashSet<>();
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+	private long position = 0;
+	private boolean finished = false;
+
+	// entry which was started via beginEntry()
+	private CentralRecord current;
+
+	ZipRawWriter(File file) throws IOException {
+		this.file = file;
+		this.out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Copy the given entry of the source archive verbatim, i.e. local header,
+	 * stored data and central directory information like attributes, extra
+	 * fields and comments are carried over as-is.
+	 *
+	 * If the source is backed by a file, the data is transferred via
+	 * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+	 */
+	void copy(ChannelZipFile source, ZipEntry sourceEntry) throws IOException {
+		if (current != null) {
+			throw new IllegalStateException("Entry " + current.nameString + " was not finished yet");
+		}
+
+		ChannelZipFile.Entry entry = source.lookup(sourceEntry);
+		checkName(entry.getName());
+
+		CentralRecord record = new CentralRecord(entry.rawName, position);
+		record.versionMadeBy = entry.versionMadeBy;
+		record.versionNeeded = entry.versionNeeded;
+		record.flags = entry.flags;
+		record.method = entry.rawMethod;
+		record.dosTime = entry.dosTime;
+		record.dosDate = entry.dosDate;
+		record.crc = entry.getCrc();
+		record.size = entry.getSize();
+		record.compressedSize = entry.getCompressedSize();
+		record.internalAttributes = entry.internalAttributes;
+		record.externalAttributes = entry.externalAttributes;
+		record.extra = removeZip64Extra(entry.rawExtra);
+		record.comment = entry.rawComment;
+		record.nameString = entry.getName();
+
+		long dataEnd = source.dataOffset(entry) + entry.getCompressedSize();
+		transfer(source.channel(), entry.localHeaderOffset, dataEnd - entry.localHeaderOffset);
+
+		if ((entry.flags & ZipFormat.FLAG_DATA_DESCRIPTOR) != 0) {
+			// the descriptor of the source has one of several possible layouts, so we write a normalized one
+			writeDataDescriptor(record, hasZip64Extra(source.channel(), entry.localHeaderOffset));
+		}
+
+		records.add(record);
+	}
+
+	private void transfer(SeekableByteChannel channel, long start, long count) throws IOException {
+		// slices for nested archives which are stored uncompressed can be resolved to the underlying file
+		while (channel instanceof SliceChannel) {
+			SliceChannel slice = (SliceChannel) channel;
+			start += slice.offset();
+			channel = slice.parent();
+		}
+
+		long done = 0;
+		if (channel instanceof FileChannel) {
+			FileChannel fileChannel = (FileChannel) channel;
+			while (done < count) {
+				long transferred = fileChannel.transferTo(start + done, count - done, out);
+				if (transferred <= 0) {
+					throw new ZipException("Unexpected end of data at position " + (start + done) + " while writing " + file);
+				}
+				done += transferred;
+				position += transferred;
+			}
+			return;
+		}
+
+		while (done < count) {
+			buffer.clear().limit((int) Math.min(buffer.capacity(), count - done));
+			int read = ZipFormat.read(channel, buffer, start + done);
+			if (read < 0) {
+				throw new ZipException("Unexpected end of data at position " + (start + done) + " while writing " + file);
+			}
+			buffer.flip();
+			write(buffer);
+			done += read;
+		}
+	}
+
+	private static boolean hasZip64Extra(SeekableByteChannel channel, long localHeaderOffset) throws IOException {
+		ByteBuffer header = ZipFormat.readFully(channel, localHeaderOffset, ZipFormat.LOCHDR);
+		int nameLength = ZipFormat.getUnsignedShort(header, 26);
+		int extraLength = ZipFormat.getUnsignedShort(header, 28);
+
+		ByteBuffer extra = ZipFormat.readFully(channel, localHeaderOffset + ZipFormat.LOCHDR + nameLength, extraLength);
+		int pos = 0;
+		while (pos + 4 <= extraLength) {
+			if (ZipFormat.getUnsignedShort(extra, pos) == ZipFormat.ZIP64_EXTID) {
+				return true;
+			}
+			pos += 4 + ZipFormat.getUnsignedShort(extra, pos + 2);
+		}
+		return false;
+	}
+
+	/**
+	 * Write a new, compressed entry with the data from the given stream.
+	 *
+	 * The data is streamed, CRC and sizes are written in a data descriptor
+	 * after the data.
+	 */
+	void write(String name, InputStream data) throws IOException {
+		beginEntry(name, ZipEntry.DEFLATED, -1, LocalDateTime.now());
+
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			byte[] input = new byte[BUFFER_SIZE];
+			long size = 0;
+			int read;
+			while ((read = data.read(input)) != -1) {
+				crc.update(input, 0, read);
+				size += read;
+
+				deflater.setInput(input, 0, read);
+				while (!deflater.needsInput()) {
+					deflate(deflater);
+				}
+			}
+
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate(deflater);
+			}
+
+			endEntry(crc.getValue(), size);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void deflate(Deflater deflater) throws IOException {
+		buffer.clear();
+		int length = deflater.deflate(buffer.array(), 0, buffer.capacity());
+		buffer.limit(length);
+		write(buffer);
+	}
+
+	/**
+	 * Start a new entry, the data which is passed to {@link #writeData(byte[], int, int)}
+	 * needs to be compressed already if the method is {@link ZipEntry#DEFLATED}.
+	 *
+	 * Only empty entries, e.g. directories, can use {@link ZipEntry#STORED}.
+	 *
+	 * @param knownSize The uncompressed size if known in advance or -1, this is used
+	 * 		to decide if ZIP64 sizes are needed
+	 */
+	void beginEntry(String name, int method, long knownSize, LocalDateTime time) throws IOException {
+		if (current != null) {
+			throw new IllegalStateException("Entry " + current.nameString + " was not finished yet");
+		}
+		checkName(name);
+
+		CentralRecord record = new CentralRecord(name.getBytes(StandardCharsets.UTF_8), position);
+		record.nameString = name;
+		record.method = method;
+		record.zip64 = knownSize >= ZIP64_THRESHOLD;
+		record.versionMadeBy = record.zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+		record.versionNeeded = record.versionMadeBy;
+		record.flags = ZipFormat.FLAG_UTF8 | (method == ZipEntry.DEFLATED ? ZipFormat.FLAG_DATA_DESCRIPTOR : 0);
+		setDosTime(record, time);
+
+		writeLocalHeader(record);
+
+		current = record;
+	}
+
+	/**
+	 * Write data of the entry which was started via {@link #beginEntry(String, int, long, LocalDateTime)}.
+	 */
+	void writeData(byte[] data, int offset, int length) throws IOException {
+		write(ByteBuffer.wrap(data, offset, length));
+	}
+
+	/**
+	 * Finish the current entry.
+	 *
+	 * @param crc The CRC-32 of the uncompressed data
+	 * @param size The size of the uncompressed data
+	 */
+	void endEntry(long crc, long size) throws IOException {
+		CentralRecord record = current;
+		current = null;
+
+		record.crc = crc;
+		record.size = size;
+		record.compressedSize = position - record.offset - ZipFormat.LOCHDR - record.name.length - (record.zip64 ? 20 : 0);
+
+		if (record.method == ZipEntry.STORED && (size != 0 || record.compressedSize != 0)) {
+			throw new ZipException("Only empty entries can be stored without compression, but had " + size +
+					" bytes for entry " + record.nameString);
+		}
+		if (!record.zip64 && (record.size >= ZipFormat.ZIP64_MAGICVAL || record.compressedSize >= ZipFormat.ZIP64_MAGICVAL)) {
+			throw new ZipException("Entry " + record.nameString + " is too large for writing into zip file " + file + ": " + record.size);
+		}
+
+		if ((record.flags & ZipFormat.FLAG_DATA_DESCRIPTOR) != 0) {
+			writeDataDescriptor(record, record.zip64);
+		}
+
+		records.add(record);
+	}
+
+	private void checkName(String name) throws ZipException {
+		if (!names.add(name)) {
+			throw new ZipException("duplicate entry: " + name);
+		}
+	}
+
+	private void writeLocalHeader(CentralRecord record) throws IOException {
+		ByteBuffer header = headerBuffer(ZipFormat.LOCHDR + record.name.length + (record.zip64 ? 20 : 0));
+		header.putInt(ZipFormat.LOCSIG);
+		header.putShort((short) record.versionNeeded);
+		header.putShort((short) record.flags);
+		header.putShort((short) record.method);
+		header.putShort((short) record.dosTime);
+		header.putShort((short) record.dosDate);
+
+		// CRC and sizes follow in the data descriptor or are zero for empty entries
+		header.putInt(0);
+		header.putInt(record.zip64 ? (int) ZipFormat.ZIP64_MAGICVAL : 0);
+		header.putInt(record.zip64 ? (int) ZipFormat.ZIP64_MAGICVAL : 0);
+
+		header.putShort((short) record.name.length);
+		header.putShort((short) (record.zip64 ? 20 : 0));
+		header.put(record.name);
+		if (record.zip64) {
+			// tells readers that the data descriptor uses 8-byte sizes
+			header.putShort((short) ZipFormat.ZIP64_EXTID);
+			header.putShort((short) 16);
+			header.putLong(0);
+			header.putLong(0);
+		}
+		header.flip();
+		write(header);
+	}
+
+	private void writeDataDescriptor(CentralRecord record, boolean zip64) throws IOException {
+		buffer.clear();
+		buffer.putInt(ZipFormat.EXTSIG);
+		buffer.putInt((int) record.crc);
+		if (zip64) {
+			buffer.putLong(record.compressedSize);
+			buffer.putLong(record.size);
+		} else {
+			buffer.putInt((int) record.compressedSize);
+			buffer.putInt((int) record.size);
+		}
+		buffer.flip();
+		write(buffer);
+	}
+
+	/**
+	 * Write the central directory and the end records.
+	 */
+	void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		if (current != null) {
+			throw new IllegalStateException("Entry " + current.nameString + " was not finished yet");
+		}
+		finished = true;
+
+		long directoryOffset = position;
+		for (CentralRecord record : records) {
+			writeCentralRecord(record);
+		}
+		long directorySize = position - directoryOffset;
+
+		boolean zip64 = records.size() >= ZipFormat.ZIP64_MAGICCOUNT ||
+				directoryOffset >= ZipFormat.ZIP64_MAGICVAL || directorySize >= ZipFormat.ZIP64_MAGICVAL;
+
+		buffer.clear();
+		if (zip64) {
+			long zip64EndOffset = position;
+			buffer.putInt(ZipFormat.ZIP64_ENDSIG);
+			buffer.putLong(ZipFormat.ZIP64_ENDHDR - 12);
+			buffer.putShort((short) VERSION_ZIP64);
+			buffer.putShort((short) VERSION_ZIP64);
+			buffer.putInt(0);
+			buffer.putInt(0);
+			buffer.putLong(records.size());
+			buffer.putLong(records.size());
+			buffer.putLong(directorySize);
+			buffer.putLong(directoryOffset);
+
+			buffer.putInt(ZipFormat.ZIP64_LOCSIG);
+			buffer.putInt(0);
+			buffer.putLong(zip64EndOffset);
+			buffer.putInt(1);
+		}
+
+		buffer.putInt(ZipFormat.ENDSIG);
+		buffer.putShort((short) 0);
+		buffer.putShort((short) 0);
+		buffer.putShort((short) Math.min(records.size(), ZipFormat.ZIP64_MAGICCOUNT));
+		buffer.putShort((short) Math.min(records.size(), ZipFormat.ZIP64_MAGICCOUNT));
+		buffer.putInt((int) Math.min(directorySize, ZipFormat.ZIP64_MAGICVAL));
+		buffer.putInt((int) Math.min(directoryOffset, ZipFormat.ZIP64_MAGICVAL));
+		buffer.putShort((short) 0);
+		buffer.flip();
+		write(buffer);
+	}
+
+	private void writeCentralRecord(CentralRecord record) throws IOException {
+		boolean sizeZip64 = record.size >= ZipFormat.ZIP64_MAGICVAL;
+		boolean compressedZip64 = record.compressedSize >= ZipFormat.ZIP64_MAGICVAL;
+		boolean offsetZip64 = record.offset >= ZipFormat.ZIP64_MAGICVAL;
+		int zip64Length = (sizeZip64 ? 8 : 0) + (compressedZip64 ? 8 : 0) + (offsetZip64 ? 8 : 0);
+		int extraLength = (zip64Length > 0 ? 4 + zip64Length : 0) + record.extra.length;
+
+		ByteBuffer header = headerBuffer(ZipFormat.CENHDR + record.name.length + extraLength + record.comment.length);
+
+		header.putInt(ZipFormat.CENSIG);
+		header.putShort((short) record.versionMadeBy);
+		header.putShort((short) (zip64Length > 0 ? Math.max(VERSION_ZIP64, record.versionNeeded) : record.versionNeeded));
+		header.putShort((short) record.flags);
+		header.putShort((short) record.method);
+		header.putShort((short) record.dosTime);
+		header.putShort((short) record.dosDate);
+		header.putInt((int) record.crc);
+		header.putInt((int) Math.min(record.compressedSize, ZipFormat.ZIP64_MAGICVAL));
+		header.putInt((int) Math.min(record.size, ZipFormat.ZIP64_MAGICVAL));
+		header.putShort((short) record.name.length);
+		header.putShort((short) extraLength);
+		header.putShort((short) record.comment.length);
+		header.putShort((short) 0);
+		header.putShort((short) record.internalAttributes);
+		header.putInt(record.externalAttributes);
+		header.putInt((int) Math.min(record.offset, ZipFormat.ZIP64_MAGICVAL));
+		header.put(record.name);
+		if (zip64Length > 0) {
+			header.putShort((short) ZipFormat.ZIP64_EXTID);
+			header.putShort((short) zip64Length);
+			if (sizeZip64) {
+				header.putLong(record.size);
+			}
+			if (compressedZip64) {
+				header.putLong(record.compressedSize);
+			}
+			if (offsetZip64) {
+				header.putLong(record.offset);
+			}
+		}
+		header.put(record.extra);
+		header.put(record.comment);
+		header.flip();
+		write(header);
+	}
+
+	/**
+	 * Names, extra fields and comments can make headers larger than the shared buffer.
+	 */
+	private ByteBuffer headerBuffer(int length) {
+		return length <= buffer.capacity() ?
+				buffer.clear() :
+				ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private void write(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			position += out.write(data);
+		}
+	}
+
+	/**
+	 * The ZIP64 extra field is re-created when writing as offsets and sizes may change.
+	 */
+	private static byte[] removeZip64Extra(byte[] extra) {
+		ByteBuffer in = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer result = ByteBuffer.allocate(extra.length);
+		int pos = 0;
+		while (pos + 4 <= extra.length) {
+			int id = ZipFormat.getUnsignedShort(in, pos);
+			int length = Math.min(ZipFormat.getUnsignedShort(in, pos + 2), extra.length - pos - 4);
+			if (id != ZipFormat.ZIP64_EXTID) {
+				result.put(extra, pos, 4 + length);
+			}
+			pos += 4 + length;
+		}
+		return result.position() == extra.length ? extra : Arrays.copyOf(result.array(), result.position());
+	}
+
+	private static void setDosTime(CentralRecord record, LocalDateTime time) {
+		if (time.getYear() < 1980) {
+			record.dosDate = (1 << 5) | 1;
+			record.dosTime = 0;
+		} else {
+			record.dosDate = ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+			record.dosTime = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Information for the central directory entry of one written entry.
+	 */
+	private static final class CentralRecord {
+		private final byte[] name;
+		private final long offset;
+		private String nameString;
+		private boolean zip64;
+		private int versionMadeBy;
+		private int versionNeeded;
+		private int flags;
+		private int method;
+		private int dosTime;
+		private int dosDate;
+		private long crc;
+		private long size;
+		private long compressedSize;
+		private int internalAttributes;
+		private int externalAttributes;
+		private byte[] extra = new byte[0];
+		private byte[] comment = new byte[0];
+
+		private CentralRecord(byte[] name, long offset) {
+			this.name = name;
+			this.offset = offset;
+		}
+	}
+}
@@ -10,20 +10,30 @@ import java.io.FileOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.function.IOConsumer;
+import org.apache.commons.io.function.IOSupplier;
 import org.dstadler.commons.io.DeleteOnCloseInputStream;
 
 
@@ -33,7 +43,10 @@ import org.dstadler.commons.io.DeleteOnCloseInputStream;
 public class ZipUtils {
     private final static Logger logger = Logger.getLogger(ZipUtils.class.getName());
 
-	private static final char ZIP_DELIMITER = '!';
+	static final char ZIP_DELIMITER = '!';
+
+	// shared to reuse its buffers for all extractions, the settings are never changed
+	private static final ZipExtractor EXTRACTOR = new ZipExtractor();
 
 	/**
 	 * Extensions for known ZIP files, need to be in lowercase to match below!
@@ -130,6 +143,91 @@ public class ZipUtils {
 		}
 	}
 
+	/**
+	 * Looks in the given ZIP file for files matching the provided file-filter, recursing
+	 * into sub-ZIP files. Chunks of entries and sub-ZIP files are searched concurrently
+	 * on the given pool, so the filter needs to be thread-safe.
+	 *
+	 * @param zip The ZIP file to search, its path is used for building the resulting pointers into the zip-file
+	 * @param searchFilter A {@link FileFilter} which determines if files in the zip-file are matched
+	 * @param pool The {@link ForkJoinPool} to run the search on
+	 *
+	 * @return The found matches in no particular order, in the same format as
+	 * 		returned by {@link #findZip(String, InputStream, FileFilter, List)}
+	 *
+	 * @throws IOException
+	 *         If the ZIP file cannot be read, e.g. if it is corrupted.
+	 */
+	public static List<String> findZip(File zip, FileFilter searchFilter, ForkJoinPool pool) throws IOException {
+		final List<String> results = Collections.synchronizedList(new ArrayList<>());
+		new ParallelZipFileWalker(pool, zip).walk((zipFile, entry, file, path) -> {
+			if (searchFilter.accept(new File(entry.getName()))) {
+				results.add(path);
+			}
+			return false;
+		});
+		return results;
+	}
+
+	/**
+	 * Lists all entries of the given ZIP file, recursing into sub-ZIP files.
+	 *
+	 * In contrast to {@link #findZip(String, InputStream, FileFilter, List)} only the
+	 * central directories are parsed, entry data is not read at all. Sub-ZIP files
+	 * which are stored uncompressed are read directly from the outer file, compressed
+	 * ones are inflated into memory once to read their central directory.
+	 *
+	 * @param zip The ZIP file to list, its path is used for building the paths of the entries
+	 *
+	 * @return All entries in the order of the central directories, entries of sub-ZIP
+	 * 		files follow the entry of the sub-ZIP file itself
+	 *
+	 * @throws IOException
+	 *         If the ZIP file or one of the sub-ZIP files cannot be read, e.g. if it is corrupted.
+	 */
+	public static List<ZipEntryInfo> listZipRecursive(File zip) throws IOException {
+		try (ChannelZipFile zipFile = new ChannelZipFile(zip)) {
+			List<ZipEntryInfo> results = new ArrayList<>();
+			listZipRecursive(zipFile, results);
+			return results;
+		}
+	}
+
+	/**
+	 * Same as {@link #listZipRecursive(File)}, but for a ZIP file which is already
+	 * available in memory.
+	 *
+	 * @param zipName Name of the ZIP file, used for building the paths of the entries
+	 * @param data The bytes of the ZIP file
+	 *
+	 * @return All entries in the order of the central directories, entries of sub-ZIP
+	 * 		files follow the entry of the sub-ZIP file itself
+	 *
+	 * @throws IOException
+	 *         If the ZIP file or one of the sub-ZIP files cannot be read, e.g. if it is corrupted.
+	 */
+	public static List<ZipEntryInfo> listZipRecursive(String zipName, byte[] data) throws IOException {
+		try (ChannelZipFile zipFile = new ChannelZipFile(zipName, data)) {
+			List<ZipEntryInfo> results = new ArrayList<>();
+			listZipRecursive(zipFile, results);
+			return results;
+		}
+	}
+
+	private static void listZipRecursive(ChannelZipFile zipFile, List<ZipEntryInfo> results) throws IOException {
+		for (ZipEntry entry : zipFile.entries()) {
+			results.add(new ZipEntryInfo(zipFile.getName() + ZIP_DELIMITER + entry.getName(), entry));
+
+			if (isZip(entry.getName())) {
+				try (ChannelZipFile nested = zipFile.openNested(entry)) {
+					listZipRecursive(nested, results);
+				} catch (IOException e) {
+					throw new IOException("While handling file " + zipFile.getName() + ZIP_DELIMITER + entry.getName(), e);
+				}
+			}
+		}
+	}
+
 	/**
 	 * Get a stream of the noted file which potentially resides inside ZIP files. An exclamation mark '!'
 	 * denotes a zip-entry. ZIP files can be nested inside one another.
@@ -179,9 +277,7 @@ public class ZipUtils {
 		}
 
 		// open original zip
-		if (!new File(zip).exists() || !new File(zip).isFile() || !new File(zip).canRead() || new File(zip).length() == 0) {
-			throw new IOException("ZIP file: " + zip + " does not exist or is empty or not a readable file.");
-		}
+		checkZipFile(zip);
 
 		ZipFile zipfile = new ZipFile(zip);
 		// is the target file in yet another ZIP file?
@@ -214,6 +310,94 @@ public class ZipUtils {
 		return new ZipFileCloseInputStream(zipfile.getInputStream(entry), zipfile);
 	}
 
+	private static void checkZipFile(String zip) throws IOException {
+		File zipFile = new File(zip);
+		if (!zipFile.exists() || !zipFile.isFile() || !zipFile.canRead() || zipFile.length() == 0) {
+			throw new IOException("ZIP file: " + zip + " does not exist or is empty or not a readable file.");
+		}
+	}
+
+	/**
+	 * Same as {@link #getZipContentsRecursive(String)}, but nested ZIP files are not
+	 * extracted to temporary files.
+	 *
+	 * Instead, nested ZIP files are accessed directly via {@link ChannelZipFile}: if the
+	 * inner ZIP file is stored uncompressed, it is read through a slice of the outer file
+	 * without copying any data, otherwise it is inflated into memory.
+	 *
+	 * Thus this avoids any disk writes when reading deeply nested archives, but requires
+	 * enough memory to hold compressed nested ZIP files.
+	 *
+	 * @param file The name of the file to read, files inside zip files are denoted with '!'.
+	 *
+	 * @return A stream that points to the file inside the ZIP file.
+	 *
+	 * @throws IOException If the file cannot be found or an error occurs while opening the file.
+	 */
+	public static InputStream getZipContentsRecursiveInMemory(final String file) throws IOException {
+		int pos = file.indexOf(ZIP_DELIMITER);
+		if (pos == -1) {
+			return getZipContentsRecursive(file);
+		}
+
+		String zip = file.substring(0, pos);
+		String subfile = file.substring(pos + 1);
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Trying to read zipfile in memory: " + zip + " subfile: " + subfile);
+		}
+
+		checkZipFile(zip);
+
+		ChannelZipFile zipfile = new ChannelZipFile(new File(zip));
+		try {
+			// nested archives share the channel of the outer file,
+			// so closing the outer one is enough to release all resources
+			ChannelZipFile current = zipfile;
+			while ((pos = subfile.indexOf(ZIP_DELIMITER)) != -1) {
+				String zipInner = subfile.substring(0, pos);
+				ZipEntry entry = current.getEntry(zipInner);
+				if (entry == null) {
+					throw new IOException("Could not read inner ZIP file: '" + zipInner + "' from ZIP file '" + current.getName() + "'");
+				}
+
+				current = current.openNested(entry);
+				subfile = subfile.substring(pos + 1);
+			}
+
+			ZipEntry entry = current.getEntry(subfile);
+			if (entry == null) {
+				throw new FileNotFoundException("Could not find file: '" + subfile + "' in ZIP file '" + current.getName() + "'");
+			}
+
+			return new ZipFileCloseInputStream(current.getInputStream(entry), zipfile);
+		} catch (IOException | RuntimeException e) {
+			zipfile.close();
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Same as {@link #getZipStringContentsRecursive(String)}, but nested ZIP files are not
+	 * extracted to temporary files, see {@link #getZipContentsRecursiveInMemory(String)}
+	 * for details.
+	 *
+	 * @param file The name of the file to read, files inside zip files are denoted with '!'.
+	 *
+	 * @return The text-contents of the file
+	 *
+	 * @throws IOException If the file cannot be found or an error occurs while opening the file.
+	 */
+	public static String getZipStringContentsRecursiveInMemory(final String file) throws IOException {
+		if (file.indexOf(ZIP_DELIMITER) == -1) {
+			return getZipStringContentsRecursive(file);
+		}
+
+		try (InputStream str = getZipContentsRecursiveInMemory(file)) {
+			return IOUtils.toString(str, StandardCharsets.UTF_8);
+		}
+	}
+
 	private static void readToTemporaryFile(int pos, String zip, String subfile, ZipFile zipfile, File subzipfile)
 			throws IOException {
 		// open the inner-zip
@@ -289,9 +473,7 @@ public class ZipUtils {
 		}
 
 		// open original zip
-		if (!new File(zip).exists() || !new File(zip).isFile() || !new File(zip).canRead() || new File(zip).length() == 0) {
-			throw new IOException("ZIP file: " + zip + " does not exist or is empty or not a readable file.");
-		}
+		checkZipFile(zip);
 
 		try (ZipFile zipfile = new ZipFile(zip)) {
 			// is the target file in yet another ZIP file?
@@ -393,37 +575,7 @@ public class ZipUtils {
 			throw new IOException("Directory '" + toDir + "' does not exist.");
 		}
 
-		// Use the ZipFileVisitor to walk all the entries in the Zip-Stream and create
-		// directories and files accordingly
-		new ZipFileVisitor() {
-			@Override
-			public void visit(ZipEntry entry, InputStream data) throws IOException {
-				File target = new File(toDir, entry.getName());
-				if (entry.isDirectory()) {
-					// Assume directories are stored parents first then children.
-					//logger.info("Extracting directory: " + entry.getName() + " to " + target);
-					// This is not robust, just for demonstration purposes.
-					if(!target.mkdirs()) {
-						logger.warning("Could not create directory " + target);
-					}
-					return;
-				}
-
-				// zips can contain nested files in sub-dirs without separate entries for the directories
-				if(!target.getParentFile().exists() && !target.getParentFile().mkdirs()) {
-					logger.warning("Could not create directory " + target.getParentFile());
-				}
-
-				// it seems we cannot use IOUtils/FileUtils to copy as they close the stream
-				int size;
-				byte[] buffer = new byte[2048];
-				try (OutputStream fout = new BufferedOutputStream(new FileOutputStream(target), buffer.length)) {
-	                while ((size = data.read(buffer, 0, buffer.length)) != -1) {
-	                    fout.write(buffer, 0, size);
-	                }
-				}
-			}
-		}.walk(zip);
+		EXTRACTOR.extract(zip, toDir);
 	}
 
 	/**
@@ -460,52 +612,145 @@ public class ZipUtils {
 	 * @throws IOException Thrown if files can not be read or any other error occurs while handling the Zip-files
 	 */
 	public static void replaceInZip(File zip, String file, String data, String encoding) throws IOException {
-		// open the output side
-		File zipOutFile = File.createTempFile("ZipReplace", ".zip");
-		try {
-			FileOutputStream fos = new FileOutputStream(zipOutFile);
-			try (ZipOutputStream zos = new ZipOutputStream(fos)) {
-				// open the input side
-				try (ZipFile zipFile = new ZipFile(zip)) {
-					boolean found = false;
-
-					// walk all entries and copy them into the new file
-					Enumeration<? extends ZipEntry> entries = zipFile.entries();
-					while (entries.hasMoreElements()) {
-						ZipEntry entry = entries.nextElement();
-
-						try {
-							if (entry.getName().equals(file)) {
-								zos.putNextEntry(new ZipEntry(entry.getName()));
-								IOUtils.write(data, zos, encoding);
-								found = true;
-							} else {
-								zos.putNextEntry(entry);
-								IOUtils.copy(zipFile.getInputStream(entry), zos);
-							}
-						} finally {
-							zos.closeEntry();
+		replaceInZip(zip, Collections.singletonMap(file, data), encoding);
+	}
+
+	/**
+	 * Replaces multiple files in the provided ZIP file with the provided
+	 * string-content in a single pass.
+	 *
+	 * @param zip The zip-file to process
+	 * @param data The new content by name of the file, files which do not exist yet are added
+	 * @param encoding The encoding that should be used when writing the string data to the files
+	 * @throws IOException Thrown if files can not be read or any other error occurs while handling the Zip-files
+	 * @see #replaceInZip(File, Map)
+	 */
+	public static void replaceInZip(File zip, Map<String, String> data, String encoding) throws IOException {
+		Map<String, IOSupplier<InputStream>> replacements = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : data.entrySet()) {
+			replacements.put(entry.getKey(), () -> IOUtils.toInputStream(entry.getValue(), encoding));
+		}
+
+		replaceInZip(zip, replacements);
+	}
+
+	/**
+	 * Replaces multiple files in the provided ZIP file in a single pass.
+	 *
+	 * Entries which are not replaced are copied with their compressed data
+	 * as-is, i.e. they are not inflated and deflated again. The new archive
+	 * is written to a temporary file next to the given one which is then
+	 * moved into place atomically if the file system supports it.
+	 *
+	 * @param zip The zip-file to process
+	 * @param replacements Suppliers for the new content by name of the file, files
+	 * 		which do not exist yet are added at the end in the iteration order of the map.
+	 * 		Each supplier is called once and the returned stream is closed after reading it.
+	 * @throws IOException Thrown if files can not be read or any other error occurs while handling the Zip-files
+	 */
+	public static void replaceInZip(File zip, Map<String, ? extends IOSupplier<? extends InputStream>> replacements)
+			throws IOException {
+		rewriteZip(zip, writer -> {
+			try (ChannelZipFile zipFile = new ChannelZipFile(zip)) {
+				Set<String> replaced = new HashSet<>();
+				for (ZipEntry entry : zipFile.entries()) {
+					IOSupplier<? extends InputStream> supplier = replacements.get(entry.getName());
+					if (supplier == null) {
+						writer.copy(zipFile, entry);
+					} else {
+						replaced.add(entry.getName());
+						try (InputStream stream = supplier.get()) {
+							writer.write(entry.getName(), stream);
 						}
 					}
+				}
 
-					if(!found) {
-						zos.putNextEntry(new ZipEntry(file));
-						try {
-							IOUtils.write(data, zos, "UTF-8");
-						} finally {
-							zos.closeEntry();
+				for (Map.Entry<String, ? extends IOSupplier<? extends InputStream>> entry : replacements.entrySet()) {
+					if (!replaced.contains(entry.getKey())) {
+						try (InputStream stream = entry.getValue().get()) {
+							writer.write(entry.getKey(), stream);
 						}
 					}
 				}
 			}
+		});
+	}
 
-			// copy over the data
-			FileUtils.copyFile(zipOutFile, zip);
-		} finally {
-			if(!zipOutFile.delete()) {
-				//noinspection ThrowFromFinallyBlock
-				throw new IOException("Error deleting file: " + zipOutFile);
+	/**
+	 * Merges the entries of the given ZIP files into one ZIP file.
+	 *
+	 * Entries are copied with their compressed data as-is. If multiple files
+	 * contain an entry with the same name, the one from the first file is used.
+	 *
+	 * @param target The resulting zip-file, it can also be one of the sources
+	 * @param sources The zip-files to merge in the order in which entries should be written
+	 * @throws IOException Thrown if files can not be read or any other error occurs while handling the Zip-files
+	 */
+	public static void mergeZips(File target, List<File> sources) throws IOException {
+		rewriteZip(target, writer -> {
+			Set<String> names = new HashSet<>();
+			for (File source : sources) {
+				try (ChannelZipFile zipFile = new ChannelZipFile(source)) {
+					for (ZipEntry entry : zipFile.entries()) {
+						if (names.add(entry.getName())) {
+							writer.copy(zipFile, entry);
+						}
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Copies the entries of a ZIP file which match the provided file-filter
+	 * into a new ZIP file.
+	 *
+	 * Entries are copied with their compressed data as-is.
+	 *
+	 * @param source The zip-file to read
+	 * @param target The resulting zip-file, it can be the same as the source
+	 * @param searchFilter A {@link FileFilter} which determines if entries are kept, it is
+	 * 		called with the name of the entry
+	 * @throws IOException Thrown if files can not be read or any other error occurs while handling the Zip-files
+	 */
+	public static void filterZip(File source, File target, FileFilter searchFilter) throws IOException {
+		rewriteZip(target, writer -> {
+			try (ChannelZipFile zipFile = new ChannelZipFile(source)) {
+				for (ZipEntry entry : zipFile.entries()) {
+					if (searchFilter.accept(new File(entry.getName()))) {
+						writer.copy(zipFile, entry);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Write a new zip-file via {@link ZipRawWriter} into a temporary file next to
+	 * the target and move it into place when done.
+	 */
+	private static void rewriteZip(File target, IOConsumer<ZipRawWriter> action) throws IOException {
+		File zipOutFile = File.createTempFile("ZipReplace", ".zip", target.getAbsoluteFile().getParentFile());
+		try {
+			try (ZipRawWriter writer = new ZipRawWriter(zipOutFile)) {
+				action.accept(writer);
+				writer.finish();
 			}
+
+			moveInto(zipOutFile, target);
+		} finally {
+			Files.deleteIfExists(zipOutFile.toPath());
+		}
+	}
+
+	/**
+	 * Replace the target file with the source file, atomically if supported by the file system.
+	 */
+	static void moveInto(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 
@@ -524,6 +769,7 @@ public class ZipUtils {
 			}
 		}.walk(new ByteArrayInputStream(zip));
 	 *
+	 * @see PipelinedZipFileVisitor
 	 */
 	public static abstract class ZipFileVisitor {
 		public void walk(InputStream zipFile) throws IOException {
@@ -556,7 +802,7 @@ public class ZipUtils {
 		public abstract void visit(ZipEntry entry, InputStream data) throws IOException;
 	}
 
-	private static final class UnclosableInputStream extends FilterInputStream {
+	static final class UnclosableInputStream extends FilterInputStream {
 		UnclosableInputStream(InputStream in) {
 			super(in);
 		}
@@ -0,0 +1,98 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CompressedFileCacheTest {
+	private File dir;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("CompressedFileCacheTest").toFile();
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(dir, name);
+		FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+		return file;
+	}
+
+	@Test
+	public void testGet() throws IOException {
+		CompressedFileCache cache = new CompressedFileCache(1024 * 1024);
+		File file = write("file.txt", "abc".repeat(1000));
+
+		byte[] data = cache.get(file, file.length(), 1000, CompressingInputStream.GZIP);
+		assertEquals("abc".repeat(1000), new String(new GZIPInputStream(new ByteArrayInputStream(data)).readAllBytes(), StandardCharsets.UTF_8));
+		assertEquals(1, cache.size());
+		assertEquals(data.length, cache.getBytes());
+
+		// the cached data is used as long as size and time are the same
+		assertSame(data, cache.get(file, file.length(), 1000, CompressingInputStream.GZIP));
+
+		// each encoding is cached separately
+		assertNotSame(data, cache.get(file, file.length(), 1000, CompressingInputStream.DEFLATE));
+		assertEquals(2, cache.size());
+
+		// a changed file is read again
+		write("file.txt", "xyz".repeat(1000));
+		byte[] changed = cache.get(file, file.length(), 2000, CompressingInputStream.GZIP);
+		assertEquals("xyz".repeat(1000), new String(new GZIPInputStream(new ByteArrayInputStream(changed)).readAllBytes(), StandardCharsets.UTF_8));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		// room for two files
+		CompressedFileCache cache = new CompressedFileCache(50);
+		File file1 = write("file1.txt", "a");
+		File file2 = write("file2.txt", "b");
+		File file3 = write("file3.txt", "c");
+
+		byte[] data1 = cache.get(file1, 1, 0, CompressingInputStream.GZIP);
+		byte[] data2 = cache.get(file2, 1, 0, CompressingInputStream.GZIP);
+		assertEquals(2, cache.size());
+		assertEquals(data1.length + data2.length, cache.getBytes());
+
+		// file1 is used more recently, so file2 is removed
+		assertSame(data1, cache.get(file1, 1, 0, CompressingInputStream.GZIP));
+		cache.get(file3, 1, 0, CompressingInputStream.GZIP);
+		assertEquals(2, cache.size());
+		assertTrue(cache.getBytes() <= 50);
+		assertSame(data1, cache.get(file1, 1, 0, CompressingInputStream.GZIP));
+		assertNotSame(data2, cache.get(file2, 1, 0, CompressingInputStream.GZIP));
+	}
+
+	@Test
+	public void testChangedWhileReading() throws IOException {
+		CompressedFileCache cache = new CompressedFileCache(1024 * 1024);
+		File file = write("file.txt", "abc");
+
+		// the size does not match, so the data is not cached
+		assertNotNull(cache.get(file, 5, 0, CompressingInputStream.GZIP));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testTooLarge() {
+		CompressedFileCache cache = new CompressedFileCache(1024 * 1024);
+		assertThrows(IllegalArgumentException.class,
+				() -> cache.get(new File(dir, "large"), CompressedFileCache.MAX_FILE_SIZE + 1, 0, CompressingInputStream.GZIP));
+	}
+}
@@ -0,0 +1,94 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+public class CompressingInputStreamTest {
+	private static byte[] data(int size) {
+		// compressible, but not trivially
+		byte[] data = new byte[size];
+		Random random = new Random(42);
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		for (int size : new int[] { 0, 1, 1000, 1_000_000 }) {
+			byte[] data = data(size);
+			byte[] compressed = CompressingInputStream.compress(data, CompressingInputStream.GZIP);
+			assertArrayEquals(data, new GZIPInputStream(new ByteArrayInputStream(compressed)).readAllBytes(), "Size " + size);
+			if (size > 1000) {
+				assertTrue(compressed.length < size / 2, "Had: " + compressed.length);
+			}
+		}
+	}
+
+	@Test
+	public void testDeflate() throws IOException {
+		for (int size : new int[] { 0, 1, 1000, 1_000_000 }) {
+			byte[] data = data(size);
+			byte[] compressed = CompressingInputStream.compress(data, CompressingInputStream.DEFLATE);
+			assertArrayEquals(data, new InflaterInputStream(new ByteArrayInputStream(compressed)).readAllBytes(), "Size " + size);
+		}
+	}
+
+	@Test
+	public void testReadSingleBytes() throws IOException {
+		byte[] data = "some text which is compressed some text which is compressed".getBytes(StandardCharsets.US_ASCII);
+		try (InputStream in = new CompressingInputStream(new ByteArrayInputStream(data), CompressingInputStream.GZIP)) {
+			// BufferedInputStream is not used on purpose to call read() directly
+			byte[] compressed = new byte[1000];
+			int count = 0;
+			int b;
+			while ((b = in.read()) != -1) {
+				compressed[count++] = (byte) b;
+			}
+			assertEquals(0, in.read(new byte[10], 0, 0));
+			assertEquals(-1, in.read(new byte[10], 0, 10));
+
+			assertArrayEquals(data, new GZIPInputStream(new ByteArrayInputStream(compressed, 0, count)).readAllBytes());
+		}
+	}
+
+	@Test
+	public void testStream() throws IOException {
+		byte[] data = data(300_000);
+		try (InputStream in = new CompressingInputStream(new BufferedInputStream(new ByteArrayInputStream(data)), CompressingInputStream.GZIP)) {
+			assertArrayEquals(data, IOUtils.toByteArray(new GZIPInputStream(in)));
+		}
+	}
+
+	@Test
+	public void testClose() throws IOException {
+		AtomicBoolean closed = new AtomicBoolean();
+		InputStream in = new ByteArrayInputStream(new byte[10]) {
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		new CompressingInputStream(in, CompressingInputStream.DEFLATE).close();
+		assertTrue(closed.get());
+	}
+
+	@Test
+	public void testInvalidEncoding() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new CompressingInputStream(new ByteArrayInputStream(new byte[0]), "br"));
+	}
+}
@@ -0,0 +1,180 @@
+package org.dstadler.commons.http;
+
+import static org.dstadler.commons.testing.TestHelpers.assertContains;
+import static org.dstadler.commons.testing.TestHelpers.assertNotContains;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DirectoryListingTest {
+	private File dir;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("DirectoryListingTest").toFile();
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private File write(String name, String content, long lastModified) throws IOException {
+		File file = new File(dir, name);
+		FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+		assertTrue(file.setLastModified(lastModified));
+		return file;
+	}
+
+	private static List<String> names(List<DirectoryListing.Item> items) {
+		List<String> names = new ArrayList<>();
+		for (DirectoryListing.Item item : items) {
+			names.add(item.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void testList() throws IOException {
+		write("b.txt", "12345", 1_000_000_000_000L);
+		write("A.txt", "1", 1_000_000_002_000L);
+		write("c.txt", "123", 1_000_000_001_000L);
+		assertTrue(new File(dir, "sub").mkdir());
+
+		DirectoryListing listing = new DirectoryListing(60_000);
+		List<DirectoryListing.Item> items = listing.list(dir, DirectoryListing.Sort.NAME, false);
+		assertEquals("[sub, A.txt, b.txt, c.txt]", names(items).toString());
+
+		DirectoryListing.Item sub = items.get(0);
+		assertTrue(sub.isDirectory());
+		assertEquals(-1, sub.getSize());
+		DirectoryListing.Item b = items.get(2);
+		assertFalse(b.isDirectory());
+		assertEquals(5, b.getSize());
+		assertEquals(1_000_000_000_000L, b.getLastModified());
+
+		// directories stay first for all orders
+		assertEquals("[sub, c.txt, b.txt, A.txt]", names(listing.list(dir, DirectoryListing.Sort.NAME, true)).toString());
+		assertEquals("[sub, A.txt, c.txt, b.txt]", names(listing.list(dir, DirectoryListing.Sort.SIZE, false)).toString());
+		assertEquals("[sub, b.txt, c.txt, A.txt]", names(listing.list(dir, DirectoryListing.Sort.SIZE, true)).toString());
+		assertEquals("[sub, b.txt, c.txt, A.txt]", names(listing.list(dir, DirectoryListing.Sort.MODIFIED, false)).toString());
+		assertEquals("[sub, A.txt, c.txt, b.txt]", names(listing.list(dir, DirectoryListing.Sort.MODIFIED, true)).toString());
+	}
+
+	@Test
+	public void testCaching() throws IOException {
+		long dirModified = 1_000_000_000_000L;
+		write("a.txt", "a", dirModified);
+		assertTrue(dir.setLastModified(dirModified));
+
+		DirectoryListing listing = new DirectoryListing(60_000);
+		List<DirectoryListing.Item> items = listing.list(dir, DirectoryListing.Sort.NAME, false);
+		assertEquals(1, items.size());
+		assertEquals(1, listing.size());
+
+		// the same sorted list is returned while the directory is unchanged
+		assertSame(items, listing.list(dir, DirectoryListing.Sort.NAME, false));
+
+		// a new file is only seen when the time of the directory changes
+		write("b.txt", "b", dirModified);
+		assertTrue(dir.setLastModified(dirModified));
+		assertEquals(1, listing.list(dir, DirectoryListing.Sort.NAME, false).size());
+
+		assertTrue(dir.setLastModified(dirModified + 1000));
+		assertEquals(2, listing.list(dir, DirectoryListing.Sort.NAME, false).size());
+		assertEquals(1, listing.size());
+	}
+
+	@Test
+	public void testMaxAge() throws IOException {
+		write("a.txt", "a", 1_000_000_000_000L);
+		assertTrue(dir.setLastModified(1_000_000_000_000L));
+
+		// listings are read again every time
+		DirectoryListing listing = new DirectoryListing(-1);
+		List<DirectoryListing.Item> items = listing.list(dir, DirectoryListing.Sort.NAME, false);
+		assertNotSame(items, listing.list(dir, DirectoryListing.Sort.NAME, false));
+	}
+
+	@Test
+	public void testMissingDirectory() {
+		DirectoryListing listing = new DirectoryListing(60_000);
+		assertThrows(IOException.class, () -> listing.list(new File(dir, "missing"), DirectoryListing.Sort.NAME, false));
+		assertEquals(0, listing.size());
+	}
+
+	@Test
+	public void testSort() {
+		assertEquals(DirectoryListing.Sort.NAME, DirectoryListing.Sort.of("name"));
+		assertEquals(DirectoryListing.Sort.SIZE, DirectoryListing.Sort.of("Size"));
+		assertEquals(DirectoryListing.Sort.MODIFIED, DirectoryListing.Sort.of("MODIFIED"));
+		assertNull(DirectoryListing.Sort.of("other"));
+		assertNull(DirectoryListing.Sort.of(null));
+	}
+
+	@Test
+	public void testGetPages() {
+		assertEquals(1, DirectoryListing.getPages(0, 10));
+		assertEquals(1, DirectoryListing.getPages(10, 10));
+		assertEquals(2, DirectoryListing.getPages(11, 10));
+		assertEquals(3, DirectoryListing.getPages(21, 10));
+	}
+
+	@Test
+	public void testToHtml() {
+		List<DirectoryListing.Item> items = List.of(
+				new DirectoryListing.Item("sub dir", true, -1, 0),
+				new DirectoryListing.Item("<a&b>.txt", false, 2048, 0),
+				new DirectoryListing.Item("c.txt", false, 10, 0));
+
+		String html = DirectoryListing.toHtml("/dir/", items, DirectoryListing.Sort.NAME, false, 1, 1000);
+		assertContains(html, "<h1>Directory /dir/</h1>");
+		assertContains(html, "<a href=\"/\">..</a>");
+		assertContains(html, "<b><a href=\"/dir/sub%20dir/\">sub dir/</a><br/></b>");
+		assertContains(html, "&lt;a&amp;b&gt;.txt</a> &nbsp;<font size=2>(2.0 KB)</font>");
+		assertContains(html, "c.txt</a> &nbsp;<font size=2>(10 bytes)</font>");
+		assertContains(html, "<a href=\"?sort=name&amp;order=desc\">name</a>");
+		assertContains(html, "<a href=\"?sort=size\">size</a>");
+		assertNotContains(html, "Page ");
+
+		// second page of three
+		html = DirectoryListing.toHtml("/", items, DirectoryListing.Sort.SIZE, true, 2, 1);
+		assertNotContains(html, "..</a>");
+		assertNotContains(html, "sub dir");
+		assertContains(html, "&lt;a&amp;b&gt;.txt");
+		assertNotContains(html, "c.txt");
+		assertContains(html, "Page 2 of 3 (3 entries)");
+		assertContains(html, "<a href=\"?sort=size&amp;order=desc&amp;size=1\">previous</a>");
+		assertContains(html, "<a href=\"?sort=size&amp;order=desc&amp;page=3&amp;size=1\">next</a>");
+	}
+
+	@Test
+	public void testToJson() {
+		List<DirectoryListing.Item> items = List.of(
+				new DirectoryListing.Item("sub", true, -1, 1000),
+				new DirectoryListing.Item("a\"b\\c\u0001.txt", false, 20, 2000));
+
+		assertEquals("{\"path\":\"/dir/\",\"total\":2,\"page\":1,\"pages\":1,\"pageSize\":1000,\"entries\":[" +
+				"{\"name\":\"sub\",\"directory\":true,\"lastModified\":1000}," +
+				"{\"name\":\"a\\\"b\\\\c\\u0001.txt\",\"directory\":false,\"size\":20,\"lastModified\":2000}]}",
+				DirectoryListing.toJson("/dir/", items, 1, 1000));
+
+		assertEquals("{\"path\":\"/\",\"total\":2,\"page\":3,\"pages\":2,\"pageSize\":1,\"entries\":[]}",
+				DirectoryListing.toJson("/", items, 3, 1));
+	}
+
+	@Test
+	public void testEncodeUri() {
+		assertEquals("/a%20b/c%26d/%C3%A4", DirectoryListing.encodeUri("/a b/c&d/ä"));
+	}
+}
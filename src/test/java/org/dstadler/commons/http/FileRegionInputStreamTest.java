@@ -0,0 +1,122 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FileRegionInputStreamTest {
+	private File file;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		file = File.createTempFile("FileRegionInputStreamTest", ".txt");
+		FileUtils.writeStringToFile(file, "0123456789abcdefghij", StandardCharsets.US_ASCII);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		assertTrue(!file.exists() || file.delete());
+	}
+
+	private FileRegionInputStream create() throws IOException {
+		FileRegionInputStream stream = new FileRegionInputStream(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+		stream.addData("[".getBytes(StandardCharsets.US_ASCII));
+		stream.addRegion(2, 3);
+		stream.addData(new byte[0]);
+		stream.addData("|".getBytes(StandardCharsets.US_ASCII));
+		stream.addRegion(15, 5);
+		stream.addRegion(0, 0);
+		stream.addData("]".getBytes(StandardCharsets.US_ASCII));
+		return stream;
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		try (FileRegionInputStream stream = create()) {
+			assertEquals(11, stream.getLength());
+			assertEquals(11, stream.available());
+			assertTrue(stream.hasRemaining());
+
+			assertEquals('[', stream.read());
+			assertEquals(10, stream.available());
+			assertEquals("234|fghij]", IOUtils.toString(stream, StandardCharsets.US_ASCII));
+
+			assertFalse(stream.hasRemaining());
+			assertEquals(0, stream.available());
+			assertEquals(-1, stream.read());
+			assertEquals(0, stream.read(new byte[10], 0, 0));
+		}
+	}
+
+	@Test
+	public void testWriteTo() throws IOException {
+		try (FileRegionInputStream stream = create()) {
+			// read a part and send the rest to the channel
+			assertEquals("[23", new String(stream.readNBytes(3), StandardCharsets.US_ASCII));
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(8, stream.writeTo(Channels.newChannel(out)));
+			assertEquals("4|fghij]", out.toString(StandardCharsets.US_ASCII));
+
+			assertFalse(stream.hasRemaining());
+			assertEquals(0, stream.writeTo(Channels.newChannel(out)));
+		}
+	}
+
+	@Test
+	public void testContentInMemory() throws IOException {
+		try (FileRegionInputStream stream = new FileRegionInputStream("0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII))) {
+			stream.addData("[".getBytes(StandardCharsets.US_ASCII));
+			stream.addRegion(2, 3);
+			stream.addData("]".getBytes(StandardCharsets.US_ASCII));
+			stream.addRegion(15, 5);
+			assertEquals(10, stream.getLength());
+
+			assertEquals("[2", new String(stream.readNBytes(2), StandardCharsets.US_ASCII));
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(8, stream.writeTo(Channels.newChannel(out)));
+			assertEquals("34]fghij", out.toString(StandardCharsets.US_ASCII));
+		}
+	}
+
+	@Test
+	public void testTruncatedFile() throws IOException {
+		try (FileRegionInputStream stream = create()) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(10);
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertThrows(EOFException.class, () -> stream.writeTo(Channels.newChannel(out)));
+			assertEquals("[234|", out.toString(StandardCharsets.US_ASCII));
+		}
+
+		try (FileRegionInputStream stream = create()) {
+			assertThrows(EOFException.class, () -> IOUtils.toByteArray(stream));
+		}
+	}
+
+	@Test
+	public void testCloseClosesChannel() throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		new FileRegionInputStream(channel).close();
+		assertFalse(channel.isOpen());
+
+		assertTrue(Files.deleteIfExists(file.toPath()));
+	}
+}
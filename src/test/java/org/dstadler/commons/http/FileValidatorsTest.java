@@ -0,0 +1,129 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FileValidatorsTest {
+	// Sun, 06 Nov 1994 08:49:37 GMT
+	private static final long LAST_MODIFIED = 784111777_000L;
+
+	private File file;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		file = File.createTempFile("FileValidatorsTest", ".txt");
+		FileUtils.writeStringToFile(file, "some content", StandardCharsets.UTF_8);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		assertTrue(!file.exists() || file.delete());
+	}
+
+	@Test
+	public void testWeakETag() throws IOException {
+		FileValidators validators = new FileValidators();
+		assertEquals("W/\"c-1234\"", validators.getETag(file, 12, 0x1234));
+		assertNotEquals(validators.getETag(file, 12, 0x1234), validators.getETag(file, 12, 0x1235));
+		assertEquals(0, validators.getCachedHashes());
+	}
+
+	@Test
+	public void testStrongETag() throws IOException {
+		FileValidators validators = new FileValidators();
+		validators.setStrong(true);
+
+		String etag = validators.getETag(file, 12, 1000);
+		assertTrue(etag.matches("\"[0-9a-f]{32}\""), "Had: " + etag);
+		assertEquals(1, validators.getCachedHashes());
+
+		// the cached hash is used as long as size and time do not change
+		FileUtils.writeStringToFile(file, "other content", StandardCharsets.UTF_8);
+		assertEquals(etag, validators.getETag(file, 12, 1000));
+		assertNotEquals(etag, validators.getETag(file, 13, 2000));
+		assertEquals(1, validators.getCachedHashes());
+
+		// same content, same validator
+		FileUtils.writeStringToFile(file, "some content", StandardCharsets.UTF_8);
+		assertEquals(etag, validators.getETag(file, 12, 3000));
+
+		validators.setStrong(false);
+		assertEquals(0, validators.getCachedHashes());
+		assertTrue(validators.getETag(file, file.length(), file.lastModified()).startsWith("W/"));
+	}
+
+	@Test
+	public void testStrongETagLargeFile() throws IOException {
+		FileValidators validators = new FileValidators();
+		validators.setStrong(true);
+
+		assertTrue(validators.getETag(file, FileValidators.MAX_HASH_SIZE + 1, 0).startsWith("W/"));
+		assertEquals(0, validators.getCachedHashes());
+	}
+
+	@Test
+	public void testIsNotModified() {
+		String etag = "\"abc\"";
+		assertFalse(FileValidators.isNotModified(null, etag, LAST_MODIFIED));
+		assertFalse(FileValidators.isNotModified(new Properties(), etag, LAST_MODIFIED));
+
+		assertTrue(FileValidators.isNotModified(header("if-none-match", "\"abc\""), etag, LAST_MODIFIED));
+		assertTrue(FileValidators.isNotModified(header("if-none-match", "\"xyz\", W/\"abc\""), etag, LAST_MODIFIED));
+		assertTrue(FileValidators.isNotModified(header("if-none-match", "*"), etag, LAST_MODIFIED));
+		assertTrue(FileValidators.isNotModified(header("if-none-match", "\"abc\""), "W/\"abc\"", LAST_MODIFIED));
+		assertFalse(FileValidators.isNotModified(header("if-none-match", "\"xyz\""), etag, LAST_MODIFIED));
+
+		assertTrue(FileValidators.isNotModified(header("if-modified-since", "Sun, 06 Nov 1994 08:49:37 GMT"), etag, LAST_MODIFIED));
+		assertTrue(FileValidators.isNotModified(header("if-modified-since", "Sun, 06 Nov 1994 08:49:37 GMT"), etag, LAST_MODIFIED + 999));
+		assertTrue(FileValidators.isNotModified(header("if-modified-since", "Mon, 7 Nov 1994 08:49:37 GMT"), etag, LAST_MODIFIED));
+		assertFalse(FileValidators.isNotModified(header("if-modified-since", "Sun, 06 Nov 1994 08:49:36 GMT"), etag, LAST_MODIFIED));
+		assertFalse(FileValidators.isNotModified(header("if-modified-since", "invalid"), etag, LAST_MODIFIED));
+
+		// If-None-Match takes precedence
+		Properties header = header("if-none-match", "\"xyz\"");
+		header.setProperty("if-modified-since", "Sun, 06 Nov 1994 08:49:37 GMT");
+		assertFalse(FileValidators.isNotModified(header, etag, LAST_MODIFIED));
+	}
+
+	@Test
+	public void testWithEncoding() {
+		assertEquals("\"abc-gzip\"", FileValidators.withEncoding("\"abc\"", "gzip"));
+		assertEquals("W/\"abc\"", FileValidators.withEncoding("W/\"abc\"", "gzip"));
+
+		// the compressed version is revalidated with the validator of the file
+		assertTrue(FileValidators.isNotModified(header("if-none-match", "\"abc-gzip\""), "\"abc\"", LAST_MODIFIED));
+		assertTrue(FileValidators.isNotModified(header("if-none-match", "\"abc-deflate\""), "\"abc\"", LAST_MODIFIED));
+		assertFalse(FileValidators.isNotModified(header("if-none-match", "\"abc-br\""), "\"abc\"", LAST_MODIFIED));
+	}
+
+	@Test
+	public void testIsRangeAllowed() {
+		String etag = "\"abc\"";
+		assertTrue(FileValidators.isRangeAllowed(null, etag, LAST_MODIFIED));
+		assertTrue(FileValidators.isRangeAllowed(new Properties(), etag, LAST_MODIFIED));
+
+		assertTrue(FileValidators.isRangeAllowed(header("if-range", "\"abc\""), etag, LAST_MODIFIED));
+		assertFalse(FileValidators.isRangeAllowed(header("if-range", "\"xyz\""), etag, LAST_MODIFIED));
+		// weak validators cannot be used for ranges
+		assertFalse(FileValidators.isRangeAllowed(header("if-range", "W/\"abc\""), "W/\"abc\"", LAST_MODIFIED));
+
+		assertTrue(FileValidators.isRangeAllowed(header("if-range", "Sun, 06 Nov 1994 08:49:37 GMT"), etag, LAST_MODIFIED));
+		assertFalse(FileValidators.isRangeAllowed(header("if-range", "Sun, 06 Nov 1994 08:49:36 GMT"), etag, LAST_MODIFIED));
+		assertFalse(FileValidators.isRangeAllowed(header("if-range", "invalid"), etag, LAST_MODIFIED));
+	}
+
+	private static Properties header(String name, String value) {
+		Properties header = new Properties();
+		header.setProperty(name, value);
+		return header;
+	}
+}
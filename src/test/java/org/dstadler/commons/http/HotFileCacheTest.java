@@ -0,0 +1,149 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class HotFileCacheTest {
+	private File dir;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("HotFileCacheTest").toFile();
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = new File(dir, name);
+		FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private static HotFileCache.Entry put(HotFileCache cache, String uri, File file) throws IOException {
+		return cache.put(file.getParentFile(), uri, file, "text/plain", file.length(), file.lastModified());
+	}
+
+	@Test
+	public void testGetAndPut() throws IOException {
+		HotFileCache cache = new HotFileCache(1024);
+		File file = write("file.txt", "content");
+
+		assertNull(cache.get(dir, "/file.txt", 0));
+		assertEquals(1, cache.getMisses());
+
+		HotFileCache.Entry entry = put(cache, "/file.txt", file);
+		assertNotNull(entry);
+		assertEquals(file, entry.getFile());
+		assertEquals("text/plain", entry.getMime());
+		assertEquals(7, entry.getLength());
+		assertEquals(file.lastModified(), entry.getLastModified());
+		assertEquals("content", new String(entry.getContent(), StandardCharsets.UTF_8));
+		assertEquals(1, cache.size());
+		assertEquals(7, cache.getBytes());
+
+		assertSame(entry, cache.get(dir, "/file.txt", 0));
+		assertEquals(1, cache.getHits());
+
+		// other URIs or directories are separate entries
+		assertNull(cache.get(dir, "file.txt", 0));
+		assertNull(cache.get(new File(dir, "sub"), "/file.txt", 0));
+	}
+
+	@Test
+	public void testInvalidation() throws IOException {
+		HotFileCache cache = new HotFileCache(1024);
+		File file = write("file.txt", "content");
+		HotFileCache.Entry entry = put(cache, "/file.txt", file);
+
+		// not checked again within the interval
+		assertTrue(file.setLastModified(file.lastModified() - 10_000));
+		assertSame(entry, cache.get(dir, "/file.txt", 60_000));
+
+		// the changed time is detected when checking
+		assertNull(cache.get(dir, "/file.txt", 0));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBytes());
+
+		// also a changed size or a removed file
+		entry = put(cache, "/file.txt", file);
+		assertSame(entry, cache.get(dir, "/file.txt", 0));
+		long lastModified = file.lastModified();
+		write("file.txt", "other content");
+		assertTrue(file.setLastModified(lastModified));
+		assertNull(cache.get(dir, "/file.txt", 0));
+
+		put(cache, "/file.txt", file);
+		assertTrue(file.delete());
+		assertNull(cache.get(dir, "/file.txt", 0));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		HotFileCache cache = new HotFileCache(20);
+		File file1 = write("file1.txt", "1234567890");
+		File file2 = write("file2.txt", "1234567890");
+		File file3 = write("file3.txt", "1234567890");
+
+		put(cache, "/1", file1);
+		put(cache, "/2", file2);
+		assertEquals(2, cache.size());
+
+		// file1 is used more recently, so file2 is removed
+		assertNotNull(cache.get(dir, "/1", 0));
+		put(cache, "/3", file3);
+		assertEquals(2, cache.size());
+		assertEquals(20, cache.getBytes());
+		assertNotNull(cache.get(dir, "/1", 0));
+		assertNull(cache.get(dir, "/2", 0));
+		assertNotNull(cache.get(dir, "/3", 0));
+
+		// too large files are not cached
+		assertNull(put(cache, "/large", write("large.txt", "123456789012345678901")));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testCompressed() throws IOException {
+		HotFileCache cache = new HotFileCache(100_000);
+		String content = "abc".repeat(1000);
+		HotFileCache.Entry entry = put(cache, "/file.txt", write("file.txt", content));
+
+		assertFalse(cache.hasCompressed(entry, CompressingInputStream.GZIP));
+		byte[] compressed = cache.getCompressed(entry, CompressingInputStream.GZIP);
+		assertTrue(cache.hasCompressed(entry, CompressingInputStream.GZIP));
+		assertSame(compressed, cache.getCompressed(entry, CompressingInputStream.GZIP));
+		assertEquals(content, new String(new GZIPInputStream(new ByteArrayInputStream(compressed)).readAllBytes(), StandardCharsets.UTF_8));
+
+		// compressed data is counted as well
+		assertEquals(content.length() + compressed.length, cache.getBytes());
+	}
+
+	@Test
+	public void testPrecompressed() throws IOException {
+		HotFileCache cache = new HotFileCache(100_000);
+		File file = write("file.txt", "content");
+		File gz = new File(dir, "file.txt.gz");
+		FileUtils.writeByteArrayToFile(gz, new byte[] { 1, 2, 3 });
+		assertTrue(gz.setLastModified(file.lastModified() + 1000));
+
+		HotFileCache.Entry entry = put(cache, "/file.txt", file);
+		assertTrue(cache.hasCompressed(entry, CompressingInputStream.GZIP));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, cache.getCompressed(entry, CompressingInputStream.GZIP));
+		assertEquals(10, cache.getBytes());
+	}
+}
@@ -0,0 +1,109 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+
+public class HttpHeadersTest {
+	@Test
+	public void testAddAndGet() {
+		HttpHeaders headers = new HttpHeaders();
+		assertTrue(headers.isEmpty());
+		assertNull(headers.get("Host"));
+		assertEquals("default", headers.get("Host", "default"));
+		assertEquals(List.of(), headers.getAll("Host"));
+
+		headers.add("Host", "localhost");
+		headers.add("Cookie", "a=1");
+		headers.add("COOKIE", "b=2");
+
+		assertFalse(headers.isEmpty());
+		assertEquals(3, headers.size());
+		assertEquals("localhost", headers.get("host"));
+		assertEquals("a=1", headers.get("cookie"));
+		assertEquals(List.of("a=1", "b=2"), headers.getAll("Cookie"));
+		assertTrue(headers.contains("HOST"));
+		assertFalse(headers.contains("Accept"));
+
+		// names keep their case
+		assertEquals("Host", headers.getName(0));
+		assertEquals("COOKIE", headers.getName(2));
+		assertEquals("b=2", headers.getValue(2));
+		assertThrows(IndexOutOfBoundsException.class, () -> headers.getName(3));
+		assertThrows(IndexOutOfBoundsException.class, () -> headers.getValue(-1));
+
+		assertEquals("Host: localhost\r\nCookie: a=1\r\nCOOKIE: b=2\r\n", headers.toString());
+	}
+
+	@Test
+	public void testSetAndRemove() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.add("Cookie", "a=1");
+		headers.add("Accept", "*/*");
+		headers.add("cookie", "b=2");
+
+		headers.set("COOKIE", "c=3");
+		assertEquals(List.of("c=3"), headers.getAll("cookie"));
+		assertEquals("Accept", headers.getName(0));
+		assertEquals(2, headers.size());
+
+		assertTrue(headers.remove("accept"));
+		assertFalse(headers.remove("accept"));
+		assertEquals(1, headers.size());
+		assertEquals("COOKIE", headers.getName(0));
+	}
+
+	@Test
+	public void testGrow() {
+		HttpHeaders headers = new HttpHeaders();
+		for (int i = 0; i < 100; i++) {
+			headers.add("X-Header-" + i, Integer.toString(i));
+		}
+		assertEquals(100, headers.size());
+		assertEquals("99", headers.get("x-header-99"));
+	}
+
+	@Test
+	public void testProperties() {
+		HttpHeaders headers = new HttpHeaders();
+		headers.add("Host", "localhost");
+		headers.add("Cookie", "a=1");
+		headers.add("cookie", "b=2");
+
+		// names are lowercase and the last value is used as before
+		Properties properties = headers.toProperties();
+		assertEquals(2, properties.size());
+		assertEquals("localhost", properties.getProperty("host"));
+		assertEquals("b=2", properties.getProperty("cookie"));
+
+		HttpHeaders converted = HttpHeaders.of(properties);
+		assertEquals(2, converted.size());
+		assertEquals("b=2", converted.get("Cookie"));
+
+		assertTrue(HttpHeaders.of(null).isEmpty());
+	}
+
+	@Test
+	public void testAddLine() {
+		HttpHeaders headers = new HttpHeaders();
+		byte[] line = "xxHost:  localhost \tyy".getBytes(StandardCharsets.ISO_8859_1);
+		assertTrue(headers.addLine(line, 2, line.length - 4));
+		assertEquals("localhost", headers.get("host"));
+
+		line = "X-Empty:".getBytes(StandardCharsets.ISO_8859_1);
+		assertTrue(headers.addLine(line, 0, line.length));
+		assertEquals("", headers.get("x-empty"));
+
+		line = "X-Value: a:bä".getBytes(StandardCharsets.ISO_8859_1);
+		assertTrue(headers.addLine(line, 0, line.length));
+		assertEquals("a:bä", headers.get("x-value"));
+
+		line = "no colon".getBytes(StandardCharsets.ISO_8859_1);
+		assertFalse(headers.addLine(line, 0, line.length));
+		assertEquals(3, headers.size());
+	}
+}
@@ -0,0 +1,99 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.Test;
+
+public class HttpRequestParserTest {
+	@Test
+	public void testParse() throws ProtocolException {
+		HttpRequestParser parser = new HttpRequestParser();
+		assertTrue(parser.isEmpty());
+
+		ByteBuffer buffer = buffer("GET /test?a=1 HTTP/1.1\r\nHost: localhost\r\nX-Test:  value \r\nCookie: a=1\r\ncookie: b=2\r\n\r\n");
+		assertTrue(parser.parse(buffer));
+		assertFalse(buffer.hasRemaining());
+
+		assertFalse(parser.isEmpty());
+		assertEquals("GET", parser.getMethod());
+		assertEquals("/test?a=1", parser.getUri());
+		assertEquals("HTTP/1.1", parser.getVersion());
+		assertEquals("localhost", parser.getHeader().get("Host"));
+		assertEquals("value", parser.getHeader().get("x-test"));
+		assertEquals("[a=1, b=2]", parser.getHeader().getAll("Cookie").toString());
+		assertEquals(0, parser.getBody().length);
+	}
+
+	@Test
+	public void testParseIncremental() throws ProtocolException {
+		byte[] request = "\r\nPOST /post HTTP/1.0\nContent-Length: 7\n\nabc=def".getBytes(StandardCharsets.US_ASCII);
+
+		// feed the request byte by byte
+		HttpRequestParser parser = new HttpRequestParser();
+		for (int i = 0; i < request.length - 1; i++) {
+			assertFalse(parser.parse(ByteBuffer.wrap(request, i, 1)), "Failed at " + i);
+		}
+		assertTrue(parser.parse(ByteBuffer.wrap(request, request.length - 1, 1)));
+
+		assertEquals("POST", parser.getMethod());
+		assertEquals("HTTP/1.0", parser.getVersion());
+		assertEquals("abc=def", new String(parser.getBody(), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testChunked() throws ProtocolException {
+		HttpRequestParser parser = new HttpRequestParser();
+		assertFalse(parser.parse(buffer("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nExpect: 100-continue\r\n\r\n")));
+		assertTrue(parser.isExpectingContinue());
+
+		ByteBuffer buffer = buffer("3;ext=1\r\nabc\r\n2\r\nde\r\n0\r\nTrailer: value\r\n\r\nGET /next HTTP/1.1\r\n\r\n");
+		assertTrue(parser.parse(buffer));
+		assertFalse(parser.isExpectingContinue());
+		assertEquals("abcde", new String(parser.getBody(), StandardCharsets.US_ASCII));
+
+		// the pipelined request is left in the buffer
+		HttpRequestParser next = new HttpRequestParser();
+		assertTrue(next.parse(buffer));
+		assertEquals("/next", next.getUri());
+	}
+
+	@Test
+	public void testWithoutVersion() throws ProtocolException {
+		// a request without protocol version has no headers
+		HttpRequestParser parser = new HttpRequestParser();
+		assertTrue(parser.parse(buffer("GET /\r\n")));
+		assertNull(parser.getVersion());
+		assertTrue(parser.getHeader().isEmpty());
+	}
+
+	@Test
+	public void testInvalid() {
+		TestHelpers.assertContains(assertThrows(ProtocolException.class,
+				() -> new HttpRequestParser().parse(buffer("GET\r\n"))), "Missing URI");
+		TestHelpers.assertContains(assertThrows(ProtocolException.class,
+				() -> new HttpRequestParser().parse(buffer("  \r\n"))), "Syntax error");
+		TestHelpers.assertContains(assertThrows(ProtocolException.class,
+				() -> new HttpRequestParser().parse(buffer("POST / HTTP/1.1\r\nContent-Length: abc\r\n\r\n"))), "Content-Length");
+		TestHelpers.assertContains(assertThrows(RequestBodyInputStream.TooLargeException.class,
+				() -> new HttpRequestParser().parse(buffer("POST / HTTP/1.1\r\nContent-Length: " +
+						(HttpRequestParser.MAX_BODY_SIZE + 1) + "\r\n\r\n"))), "TOO LARGE");
+		TestHelpers.assertContains(assertThrows(RequestBodyInputStream.TooLargeException.class,
+				() -> new HttpRequestParser(5).parse(buffer("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" +
+						"3\r\nabc\r\n3\r\n"))), "5 bytes");
+		TestHelpers.assertContains(assertThrows(ProtocolException.class,
+				() -> new HttpRequestParser().parse(buffer("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\nxyz\r\n"))), "chunk size");
+
+		String large = "GET / HTTP/1.1\r\nX-Large: " + "a".repeat(HttpRequestParser.MAX_HEADER_SIZE) + "\r\n\r\n";
+		TestHelpers.assertContains(assertThrows(ProtocolException.class,
+				() -> new HttpRequestParser().parse(buffer(large))), "too large");
+	}
+
+	private static ByteBuffer buffer(String data) {
+		return ByteBuffer.wrap(data.getBytes(StandardCharsets.US_ASCII));
+	}
+}
@@ -0,0 +1,121 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class MultipartParserTest {
+	private static final String BODY = """
+			preamble\r
+			--XyZ\r
+			Content-Disposition: form-data; name="field"\r
+			\r
+			value\r
+			--XyZ\r
+			Content-Disposition: form-data; name="file"; filename="a;b \\"c\\".txt"\r
+			Content-Type: text/plain\r
+			\r
+			line1\r
+			--XyNot a delimiter\r
+			--XyZ\r
+			Content-Disposition: form-data; name="empty"\r
+			\r
+			\r
+			--XyZ--\r
+			epilogue""";
+
+	private static InputStream stream(String data) {
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(MultipartParser parser) throws IOException {
+		return new String(parser.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+	}
+
+	private static void assertParts(InputStream in) throws IOException {
+		MultipartParser parser = new MultipartParser(in, "XyZ");
+
+		assertTrue(parser.next());
+		assertEquals("field", parser.getName());
+		assertNull(parser.getFileName());
+		assertEquals("value", read(parser));
+
+		assertTrue(parser.next());
+		assertEquals("file", parser.getName());
+		assertEquals("a;b \"c\".txt", parser.getFileName());
+		assertEquals("text/plain", parser.getHeaders().getProperty("content-type"));
+		assertEquals("line1\r\n--XyNot a delimiter", read(parser));
+
+		assertTrue(parser.next());
+		assertEquals("empty", parser.getName());
+		assertEquals("", read(parser));
+
+		assertFalse(parser.next());
+		assertFalse(parser.next());
+	}
+
+	@Test
+	public void testParts() throws IOException {
+		assertParts(stream(BODY));
+	}
+
+	@Test
+	public void testSingleBytes() throws IOException {
+		// the delimiter is split across reads
+		assertParts(new FilterInputStream(stream(BODY)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return super.read(b, off, Math.min(len, 1));
+			}
+		});
+	}
+
+	@Test
+	public void testSkipParts() throws IOException {
+		MultipartParser parser = new MultipartParser(stream(BODY), "XyZ");
+		assertTrue(parser.next());
+		assertTrue(parser.next());
+		assertTrue(parser.next());
+		assertEquals("empty", parser.getName());
+		assertFalse(parser.next());
+	}
+
+	@Test
+	public void testLargePart() throws IOException {
+		String data = "0123456789".repeat(100_000);
+		MultipartParser parser = new MultipartParser(stream("--b\r\nContent-Disposition: form-data; name=\"large\"\r\n\r\n" +
+				data + "\r\n--b--\r\n"), "b");
+		assertTrue(parser.next());
+		assertEquals(data, read(parser));
+		assertFalse(parser.next());
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		MultipartParser parser = new MultipartParser(stream("--b\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\ndata"), "b");
+		assertTrue(parser.next());
+		assertThrows(EOFException.class, () -> read(parser));
+
+		assertThrows(EOFException.class, () -> new MultipartParser(stream("no delimiter"), "b").next());
+		assertThrows(EOFException.class, () -> new MultipartParser(stream("--b\r\nContent-Disposition: form-data"), "b").next());
+	}
+
+	@Test
+	public void testGetParameter() {
+		assertEquals("abc", MultipartParser.getParameter("multipart/form-data; boundary=abc", "boundary"));
+		assertEquals("a b", MultipartParser.getParameter("multipart/form-data;BOUNDARY=\"a b\"", "boundary"));
+		assertEquals("x", MultipartParser.getParameter("form-data; filename=\"x\"; name=y", "filename"));
+		assertEquals("y", MultipartParser.getParameter("form-data; filename=\"x\"; name=y", "name"));
+		assertEquals("UTF-8", MultipartParser.getParameter("text/plain; charset=UTF-8", "charset"));
+		assertNull(MultipartParser.getParameter("form-data; filename=\"x\"", "name"));
+		assertNull(MultipartParser.getParameter("text/plain", "charset"));
+		assertNull(MultipartParser.getParameter(null, "name"));
+	}
+}
@@ -0,0 +1,426 @@
+package org.dstadler.commons.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.FileUtils;
+import org.dstadler.commons.http5.HttpClientWrapper5;
+import org.dstadler.commons.net.SocketUtils;
+import org.dstadler.commons.util.ExecutorUtil;
+
+/**
+ * Load generator for comparing configurations of {@link NanoHTTPD} locally.
+ *
+ * Starts the server on the loopback interface and sends requests via {@link HttpClientWrapper5},
+ * each client thread uses its own client. Afterwards throughput, latency percentiles and the
+ * allocation rate are reported for each scenario.
+ *
+ * <ul>
+ *     <li>In the closed loop, each client sends the next request as soon as the previous one is
+ *     answered, so the load adapts to the speed of the server.</li>
+ *     <li>In the open loop, requests are started at a fixed rate, independent of how fast the server
+ *     answers. The latency is measured from the time when a request should have been started, so a
+ *     server which falls behind is not hidden by clients which wait for it. The concurrency limits
+ *     the number of outstanding requests.</li>
+ * </ul>
+ *
+ * The allocation rate is summed up from the allocation counters of the platform threads of the JVM, i.e.
+ * it covers clients and server, as both run in the same process. The JVM does not count allocations of
+ * virtual threads there, so the server handles sessions on a pool of platform threads instead of the
+ * default virtual threads. Threads which end during the measurement are not included.
+ *
+ * Run it from the test classpath with arguments "key=value", e.g.
+ * <pre>
+ * java -cp ... org.dstadler.commons.http.NanoHTTPDBenchmark engine=NIO keepAlive=true mode=open rate=5000 concurrency=32
+ * </pre>
+ * see {@link Config} for the available settings.
+ */
+public class NanoHTTPDBenchmark {
+	private static final int TIMEOUT = 10_000;
+
+	public enum Scenario {
+		/** A file served via serveFile() */
+		STATIC("/static/index.html"),
+		/** A small response created by serve() */
+		DYNAMIC("/dynamic?name=benchmark"),
+		/** A form which is posted as body of the request */
+		POST("/post");
+
+		private final String path;
+
+		Scenario(String path) {
+			this.path = path;
+		}
+	}
+
+	public enum Mode {
+		CLOSED, OPEN
+	}
+
+	/**
+	 * The settings of a run, all of them can be set via arguments of {@link #main(String[])}
+	 * with the name of the field as key.
+	 */
+	public static class Config {
+		public NanoHTTPD.Engine engine = NanoHTTPD.Engine.BLOCKING;
+		public boolean keepAlive = true;
+		public boolean compression = false;
+		public Mode mode = Mode.CLOSED;
+		/** Number of client threads */
+		public int concurrency = 16;
+		/** Requests per second in the open loop */
+		public int rate = 2_000;
+		public long warmupMillis = 2_000;
+		public long durationMillis = 10_000;
+		/** Size of the static file in bytes */
+		public int fileSize = 16 * 1024;
+		/** Size of the value which is posted in bytes */
+		public int postSize = 1024;
+		public List<Scenario> scenarios = List.of(Scenario.values());
+
+		/**
+		 * @param args Settings like "engine=NIO" or "scenarios=STATIC,POST"
+		 * @return The configuration with defaults for settings which are not specified
+		 * @throws IllegalArgumentException If an argument cannot be parsed
+		 */
+		public static Config parse(String... args) {
+			Config config = new Config();
+			for (String arg : args) {
+				int pos = arg.indexOf('=');
+				if (pos <= 0) {
+					throw new IllegalArgumentException("Expected arguments like key=value, but had: " + arg);
+				}
+				String value = arg.substring(pos + 1).trim();
+				switch (arg.substring(0, pos).trim()) {
+					case "engine" -> config.engine = NanoHTTPD.Engine.valueOf(value.toUpperCase(Locale.ROOT));
+					case "keepAlive" -> config.keepAlive = Boolean.parseBoolean(value);
+					case "compression" -> config.compression = Boolean.parseBoolean(value);
+					case "mode" -> config.mode = Mode.valueOf(value.toUpperCase(Locale.ROOT));
+					case "concurrency" -> config.concurrency = Integer.parseInt(value);
+					case "rate" -> config.rate = Integer.parseInt(value);
+					case "warmup" -> config.warmupMillis = Long.parseLong(value);
+					case "duration" -> config.durationMillis = Long.parseLong(value);
+					case "fileSize" -> config.fileSize = Integer.parseInt(value);
+					case "postSize" -> config.postSize = Integer.parseInt(value);
+					case "scenarios" -> {
+						List<Scenario> scenarios = new ArrayList<>();
+						for (String name : value.split(",")) {
+							scenarios.add(Scenario.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+						}
+						config.scenarios = scenarios;
+					}
+					default -> throw new IllegalArgumentException("Unknown setting " + arg.substring(0, pos) + " in " + arg);
+				}
+			}
+
+			if (config.concurrency <= 0 || config.rate <= 0 || config.durationMillis <= 0 || config.warmupMillis < 0) {
+				throw new IllegalArgumentException("Concurrency, rate and duration need to be positive");
+			}
+			return config;
+		}
+
+		@Override
+		public String toString() {
+			return "engine=" + engine + ", keepAlive=" + keepAlive + ", compression=" + compression +
+					", mode=" + mode + ", concurrency=" + concurrency + (mode == Mode.OPEN ? ", rate=" + rate : "") +
+					", warmup=" + warmupMillis + "ms, duration=" + durationMillis + "ms";
+		}
+	}
+
+	/**
+	 * The measurements of one scenario.
+	 */
+	public static class Result {
+		private final Scenario scenario;
+		private final long requests;
+		private final long errors;
+		private final long durationNanos;
+		private final long[] latencies;
+		private final long allocatedBytes;
+
+		private Result(Scenario scenario, long errors, long durationNanos, long[] latencies, long allocatedBytes) {
+			this.scenario = scenario;
+			this.requests = latencies.length;
+			this.errors = errors;
+			this.durationNanos = durationNanos;
+			this.latencies = latencies;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		public Scenario getScenario() {
+			return scenario;
+		}
+
+		/**
+		 * @return The number of successful requests in the measured period
+		 */
+		public long getRequests() {
+			return requests;
+		}
+
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * @return Successful requests per second
+		 */
+		public double getThroughput() {
+			return requests * 1_000_000_000d / durationNanos;
+		}
+
+		/**
+		 * @param percentile Between 0 and 100, e.g. 99.9
+		 * @return The latency in milliseconds which the given percentage of requests did not exceed
+		 */
+		public double getLatencyMillis(double percentile) {
+			if (latencies.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(latencies.length - 1, index))] / 1_000_000d;
+		}
+
+		/**
+		 * @return Bytes allocated per second by the platform threads of the JVM, -1 if the JVM does not support measuring it
+		 */
+		public double getAllocationRate() {
+			return allocatedBytes < 0 ? -1 : allocatedBytes * 1_000_000_000d / durationNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%-8s requests=%d errors=%d throughput=%.1f/s " +
+							"p50=%.3fms p90=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms allocation=%.1fMB/s",
+					scenario, requests, errors, getThroughput(),
+					getLatencyMillis(50), getLatencyMillis(90), getLatencyMillis(99), getLatencyMillis(99.9),
+					getLatencyMillis(100), getAllocationRate() / (1024 * 1024));
+		}
+	}
+
+	/**
+	 * Collects the latencies of one client thread.
+	 */
+	private static final class Recorder {
+		private long[] latencies = new long[4096];
+		private int count;
+		private long errors;
+
+		private void record(long nanos) {
+			if (count == latencies.length) {
+				latencies = Arrays.copyOf(latencies, count * 2);
+			}
+			latencies[count++] = nanos;
+		}
+	}
+
+	private static final class Server extends NanoHTTPD {
+		private final File dir;
+
+		private Server(int port, NanoHTTPD.Engine engine, int threads, File dir) throws IOException {
+			// platform threads, so that their allocations are measured
+			super(port, InetAddress.getLoopbackAddress(), TIMEOUT, newBoundedSessionExecutor(threads, threads), engine);
+			this.dir = dir;
+		}
+
+		@Override
+		public Response serve(String uri, String method, Properties header, Properties parms) {
+			if (uri.startsWith("/static/")) {
+				return serveFile(uri.substring("/static".length()), header, dir, false);
+			}
+			if (uri.equals("/post")) {
+				return new Response(HTTP_OK, MIME_PLAINTEXT, "Received " + parms.getProperty("data", "").length() + " bytes");
+			}
+			return new Response(HTTP_OK, MIME_PLAINTEXT, "Hello " + parms.getProperty("name", "World"));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config config = Config.parse(args);
+		System.out.println("Running benchmark with " + config);
+		for (Result result : run(config)) {
+			System.out.println(result);
+		}
+	}
+
+	/**
+	 * Starts the server and runs the configured scenarios one after another.
+	 */
+	public static List<Result> run(Config config) throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("NanoHTTPDBenchmark").toFile();
+		try {
+			byte[] file = new byte[config.fileSize];
+			for (int i = 0; i < file.length; i++) {
+				file[i] = (byte) ('a' + i % 26);
+			}
+			FileUtils.writeByteArrayToFile(new File(dir, "index.html"), file);
+
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			// each client keeps at most one connection open
+			Server server = new Server(port, config.engine, config.concurrency, dir);
+			try {
+				server.setKeepAlive(config.keepAlive);
+				server.setCompression(config.compression);
+
+				List<Result> results = new ArrayList<>();
+				for (Scenario scenario : config.scenarios) {
+					results.add(run(config, scenario, "http://localhost:" + port + scenario.path));
+				}
+				return results;
+			} finally {
+				server.stop();
+			}
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	private static Result run(Config config, Scenario scenario, String url) throws InterruptedException {
+		String postBody = "data=" + "x".repeat(config.postSize);
+		long start = System.nanoTime();
+		long measureStart = start + TimeUnit.MILLISECONDS.toNanos(config.warmupMillis);
+		long end = measureStart + TimeUnit.MILLISECONDS.toNanos(config.durationMillis);
+		long interval = 1_000_000_000L / config.rate;
+		AtomicLong sequence = new AtomicLong();
+
+		ExecutorService clients = Executors.newFixedThreadPool(config.concurrency,
+				ExecutorUtil.createThreadFactory("NanoHTTPDBenchmark-client-%d"));
+		try {
+			List<Future<Recorder>> futures = new ArrayList<>();
+			for (int i = 0; i < config.concurrency; i++) {
+				futures.add(clients.submit(() -> {
+					Recorder recorder = new Recorder();
+					try (HttpClientWrapper5 client = new HttpClientWrapper5(TIMEOUT)) {
+						while (true) {
+							long intended;
+							if (config.mode == Mode.OPEN) {
+								intended = start + sequence.getAndIncrement() * interval;
+								if (intended >= end) {
+									break;
+								}
+								long wait;
+								while ((wait = intended - System.nanoTime()) > 0) {
+									LockSupport.parkNanos(wait);
+								}
+							} else {
+								intended = System.nanoTime();
+								if (intended >= end) {
+									break;
+								}
+							}
+
+							boolean success = send(client, scenario, url, postBody);
+							if (intended >= measureStart) {
+								if (success) {
+									recorder.record(System.nanoTime() - intended);
+								} else {
+									recorder.errors++;
+								}
+							}
+						}
+					}
+					return recorder;
+				}));
+			}
+
+			// allocations are only counted while measuring
+			LockSupport.parkNanos(measureStart - System.nanoTime());
+			Map<Long, Long> allocatedStart = getAllocatedBytes();
+			LockSupport.parkNanos(end - System.nanoTime());
+			long allocated = getAllocatedBytesSince(allocatedStart);
+
+			long errors = 0;
+			long[] latencies = new long[0];
+			for (Future<Recorder> future : futures) {
+				Recorder recorder;
+				try {
+					recorder = future.get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Client failed", e.getCause());
+				}
+				int offset = latencies.length;
+				latencies = Arrays.copyOf(latencies, offset + recorder.count);
+				System.arraycopy(recorder.latencies, 0, latencies, offset, recorder.count);
+				errors += recorder.errors;
+			}
+			Arrays.sort(latencies);
+
+			return new Result(scenario, errors, end - measureStart, latencies, allocated);
+		} finally {
+			ExecutorUtil.shutdownAndAwaitTermination(clients, TIMEOUT);
+		}
+	}
+
+	private static boolean send(HttpClientWrapper5 client, Scenario scenario, String url, String postBody) {
+		try {
+			if (scenario == Scenario.POST) {
+				client.simplePost(url, postBody);
+			} else {
+				client.simpleGet(url, in -> in.transferTo(OutputStream.nullOutputStream()));
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return The bytes allocated so far by each live platform thread by id, null if the JVM does not support measuring it
+	 */
+	private static Map<Long, Long> getAllocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean threads) ||
+				!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+			return null;
+		}
+
+		long[] ids = threads.getAllThreadIds();
+		long[] bytes = threads.getThreadAllocatedBytes(ids);
+		Map<Long, Long> allocated = new HashMap<>();
+		for (int i = 0; i < ids.length; i++) {
+			// -1 for threads which ended in the meantime
+			if (bytes[i] >= 0) {
+				allocated.put(ids[i], bytes[i]);
+			}
+		}
+		return allocated;
+	}
+
+	/**
+	 * Threads which end in the meantime are not included, the threads of the server and the
+	 * clients are pooled, so they usually live during the whole measurement.
+	 *
+	 * @return The bytes allocated by the live threads since the given snapshot, -1 if not supported
+	 */
+	private static long getAllocatedBytesSince(Map<Long, Long> start) {
+		Map<Long, Long> now = getAllocatedBytes();
+		if (start == null || now == null) {
+			return -1;
+		}
+
+		long allocated = 0;
+		for (Map.Entry<Long, Long> entry : now.entrySet()) {
+			allocated += entry.getValue() - start.getOrDefault(entry.getKey(), 0L);
+		}
+		return allocated;
+	}
+}
@@ -0,0 +1,73 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.dstadler.commons.testing.TestHelpers;
+import org.dstadler.commons.testing.ThreadTestHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class NanoHTTPDBenchmarkTest {
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		// also covers the client threads of the benchmark
+		ThreadTestHelper.waitForThreadToFinishSubstring("NanoHTTP", 10_000);
+
+		ThreadTestHelper.assertNoThreadLeft("NanoHTTP still had threads running", "NanoHTTP");
+	}
+
+	@Test
+	public void testParse() {
+		NanoHTTPDBenchmark.Config config = NanoHTTPDBenchmark.Config.parse();
+		assertEquals(NanoHTTPD.Engine.BLOCKING, config.engine);
+		assertEquals(NanoHTTPDBenchmark.Mode.CLOSED, config.mode);
+		assertEquals(List.of(NanoHTTPDBenchmark.Scenario.values()), config.scenarios);
+
+		config = NanoHTTPDBenchmark.Config.parse("engine=nio", "keepAlive=false", "compression=true", "mode=open",
+				"concurrency=4", "rate=100", "warmup=0", "duration=500", "fileSize=10", "postSize=20", "scenarios=static, post");
+		assertEquals(NanoHTTPD.Engine.NIO, config.engine);
+		assertFalse(config.keepAlive);
+		assertTrue(config.compression);
+		assertEquals(NanoHTTPDBenchmark.Mode.OPEN, config.mode);
+		assertEquals(4, config.concurrency);
+		assertEquals(100, config.rate);
+		assertEquals(0, config.warmupMillis);
+		assertEquals(500, config.durationMillis);
+		assertEquals(10, config.fileSize);
+		assertEquals(20, config.postSize);
+		assertEquals(List.of(NanoHTTPDBenchmark.Scenario.STATIC, NanoHTTPDBenchmark.Scenario.POST), config.scenarios);
+		TestHelpers.assertContains(config.toString(), "NIO", "rate=100");
+
+		TestHelpers.assertContains(assertThrows(IllegalArgumentException.class,
+				() -> NanoHTTPDBenchmark.Config.parse("unknown=1")), "unknown");
+		assertThrows(IllegalArgumentException.class, () -> NanoHTTPDBenchmark.Config.parse("engine"));
+		assertThrows(IllegalArgumentException.class, () -> NanoHTTPDBenchmark.Config.parse("engine=none"));
+		assertThrows(IllegalArgumentException.class, () -> NanoHTTPDBenchmark.Config.parse("concurrency=0"));
+	}
+
+	@Test
+	public void testRun() throws IOException, InterruptedException {
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			for (NanoHTTPDBenchmark.Mode mode : NanoHTTPDBenchmark.Mode.values()) {
+				NanoHTTPDBenchmark.Config config = NanoHTTPDBenchmark.Config.parse("engine=" + engine, "mode=" + mode,
+						"concurrency=2", "rate=200", "warmup=100", "duration=300", "fileSize=1000", "postSize=100");
+
+				List<NanoHTTPDBenchmark.Result> results = NanoHTTPDBenchmark.run(config);
+				assertEquals(NanoHTTPDBenchmark.Scenario.values().length, results.size());
+				for (NanoHTTPDBenchmark.Result result : results) {
+					String message = config + ": " + result;
+					assertTrue(result.getRequests() > 0, message);
+					assertEquals(0, result.getErrors(), message);
+					assertTrue(result.getThroughput() > 0, message);
+					assertTrue(result.getLatencyMillis(50) > 0, message);
+					assertTrue(result.getLatencyMillis(50) <= result.getLatencyMillis(99.9), message);
+					assertTrue(result.getLatencyMillis(99.9) <= result.getLatencyMillis(100), message);
+					TestHelpers.assertContains(result.toString(), result.getScenario().name(), "p99.9=", "allocation=");
+				}
+			}
+		}
+	}
+}
@@ -18,11 +18,14 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import javax.net.ssl.SSLException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.BindException;
 import java.net.HttpURLConnection;
@@ -35,10 +38,19 @@ import java.net.URLConnection;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -188,15 +200,16 @@ class NanoHTTPDTest {
                     NanoHTTPD.HTTP_OK, httpd.serveFile("build.gradle?param=1", header, new File("."), true).status,
                     "File is found");
 
+            // ranges larger than the file are shortened
             header.put("range", "bytes=-121234");
             assertEquals(
-                    NanoHTTPD.HTTP_OK,
+                    NanoHTTPD.HTTP_PARTIAL_CONTENT,
                     httpd.serveFile("build.gradle?param=1", header, new File("."), true).status,
                     "File is found");
 
             header.put("range", "bytes=123-121234");
             assertEquals(
-                    NanoHTTPD.HTTP_OK,
+                    NanoHTTPD.HTTP_PARTIAL_CONTENT,
                     httpd.serveFile("build.gradle?param=1", header, new File("."), true).status,
                     "File is found");
 
@@ -523,7 +536,8 @@ class NanoHTTPDTest {
                 header.setProperty("range", "bytes=10-");
                 NanoHTTPD.Response r = nh.serveFile("greet.txt", header, tempDir, false);
                 assertNotNull(r);
-                assertEquals(NanoHTTPD.HTTP_OK, r.status);
+                assertEquals(NanoHTTPD.HTTP_PARTIAL_CONTENT, r.status);
+                assertEquals("bytes 10-26/27", r.header.getProperty("Content-range"));
                 assertNotNull(r.data);
 
                 byte[] got = IOUtils.toByteArray(r.data);
@@ -572,6 +586,60 @@ class NanoHTTPDTest {
         }
     }
 
+    @Test
+    public void testDirListingSortPageAndJson() throws Exception {
+        File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+        try {
+            File sub = new File(tempDir, "subdir");
+            assertTrue(sub.mkdirs());
+            for (String name : new String[] { "a.txt", "b.txt", "c.txt" }) {
+                FileUtils.writeStringToFile(new File(sub, name), name.substring(0, 1).repeat(name.charAt(0) - 'a' + 1), StandardCharsets.UTF_8);
+            }
+
+            NanoHTTPD nh = new NanoHTTPD(0);
+            try {
+                Properties parms = new Properties();
+                parms.setProperty("sort", "size");
+                parms.setProperty("order", "desc");
+                parms.setProperty("size", "2");
+                NanoHTTPD.Response r = nh.serveFile("subdir/", new Properties(), parms, tempDir, true);
+                assertEquals(NanoHTTPD.HTTP_OK, r.status);
+                assertEquals(NanoHTTPD.MIME_HTML, r.mimeType);
+                String html = new String(IOUtils.toByteArray(r.data), StandardCharsets.UTF_8);
+                TestHelpers.assertContains(html, "c.txt");
+                TestHelpers.assertContains(html, "b.txt");
+                TestHelpers.assertNotContains(html, "a.txt");
+                TestHelpers.assertContains(html, "Page 1 of 2 (3 entries)");
+                assertTrue(html.indexOf("c.txt") < html.indexOf("b.txt"), html);
+
+                // parameters in the URI, a page after the last one shows the last page
+                r = nh.serveFile("subdir/?sort=size&order=desc&size=2&page=5&format=json", new Properties(), tempDir, true);
+                assertEquals(NanoHTTPD.MIME_JSON, r.mimeType);
+                String json = new String(IOUtils.toByteArray(r.data), StandardCharsets.UTF_8);
+                TestHelpers.assertContains(json, "\"path\":\"subdir/\",\"total\":3,\"page\":2,\"pages\":2,\"pageSize\":2");
+                TestHelpers.assertContains(json, "{\"name\":\"a.txt\",\"directory\":false,\"size\":1,");
+                TestHelpers.assertNotContains(json, "b.txt");
+
+                // JSON via the Accept header, invalid parameters use the defaults
+                Properties header = new Properties();
+                header.setProperty("accept", "application/json");
+                parms = new Properties();
+                parms.setProperty("sort", "invalid");
+                parms.setProperty("page", "abc");
+                parms.setProperty("size", "-1");
+                r = nh.serveFile("subdir/", header, parms, tempDir, true);
+                assertEquals(NanoHTTPD.MIME_JSON, r.mimeType);
+                json = new String(IOUtils.toByteArray(r.data), StandardCharsets.UTF_8);
+                TestHelpers.assertContains(json, "\"page\":1,\"pages\":1,\"pageSize\":1000");
+                assertTrue(json.indexOf("a.txt") < json.indexOf("c.txt"), json);
+            } finally {
+                nh.stop();
+            }
+        } finally {
+            deleteRecursively(tempDir);
+        }
+    }
+
     private static void deleteRecursively(File f) {
         if (f == null || !f.exists()) return;
         if (f.isDirectory()) {
@@ -705,4 +773,1204 @@ class NanoHTTPDTest {
             deleteRecursively(tempDir);
         }
     }
+
+	@Test
+	void testSessionsRunOnVirtualThreads() throws Exception {
+		final AtomicReference<Thread> thread = new AtomicReference<>();
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 0, null) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				thread.set(Thread.currentThread());
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, "Ok");
+			}
+		};
+		try {
+			assertTrue(Utils.getURL("http://localhost:" + port, new AtomicInteger(1), 1));
+
+			assertTrue(thread.get().isVirtual());
+			assertEquals("NanoHTTPD Session Thread", thread.get().getName());
+		} finally {
+			httpd.stop();
+		}
+	}
+
+	@Test
+	void testBoundedSessionExecutor() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, NanoHTTPD.newBoundedSessionExecutor(1, 1)) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				started.countDown();
+				try {
+					assertTrue(release.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, "Ok");
+			}
+		};
+
+		try (Socket active = new Socket(InetAddress.getLoopbackAddress(), port);
+			 Socket queued = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			active.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			// wait until the second connection is accepted and queued
+			for (int i = 0; i < 100 && httpd.getQueuedSessions() == 0; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, httpd.getActiveSessions());
+			assertEquals(1, httpd.getQueuedSessions());
+
+			// the third connection is rejected
+			try (Socket rejected = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				String reply = IOUtils.toString(rejected.getInputStream(), StandardCharsets.UTF_8);
+				assertTrue(reply.startsWith("HTTP/1.0 " + NanoHTTPD.HTTP_SERVICE_UNAVAILABLE), "Had: " + reply);
+			}
+			assertEquals(1, httpd.getRejectedSessions());
+
+			release.countDown();
+			queued.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+			TestHelpers.assertContains(IOUtils.toString(active.getInputStream(), StandardCharsets.UTF_8), "200 OK", "Ok");
+			TestHelpers.assertContains(IOUtils.toString(queued.getInputStream(), StandardCharsets.UTF_8), "200 OK", "Ok");
+		} finally {
+			release.countDown();
+			httpd.stop();
+		}
+
+		assertEquals(0, httpd.getActiveSessions());
+		assertEquals(0, httpd.getQueuedSessions());
+		assertEquals(2, httpd.getCompletedSessions());
+	}
+
+	@Test
+	void testStopClosesIdleConnections() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 0, NanoHTTPD.newBoundedSessionExecutor(2, 10));
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			for (int i = 0; i < 100 && httpd.getActiveSessions() == 0; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, httpd.getActiveSessions());
+
+			// the client never sends a request, stopping should still not wait for it
+			httpd.stop();
+			assertEquals(0, httpd.getActiveSessions());
+			assertTrue(socket.isConnected());
+		}
+	}
+
+	@Test
+	void testKeepAlive() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				if (uri.equals("/stream")) {
+					// unknown length is sent chunked
+					return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT,
+							new BufferedInputStream(new ByteArrayInputStream("streamed".getBytes(StandardCharsets.UTF_8))));
+				}
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, uri + parms.getProperty("a", ""));
+			}
+		};
+		httpd.setKeepAlive(true);
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			OutputStream out = socket.getOutputStream();
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+
+			out.write("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			String response = readResponse(in);
+			TestHelpers.assertContains(response, "HTTP/1.1 200 OK", "Content-Length: 6");
+			assertTrue(response.endsWith("/first"), "Had: " + response);
+
+			out.write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			response = readResponse(in);
+			TestHelpers.assertContains(response, "HTTP/1.1 200 OK", "Transfer-Encoding: chunked");
+			assertTrue(response.endsWith("streamed"), "Had: " + response);
+
+			// POST bodies with length and chunked encoding
+			out.write(("POST /post HTTP/1.1\r\nContent-Length: 3\r\n\r\na=1" +
+					"POST /chunked HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n2\r\na=\r\n1\r\n2\r\n0\r\n\r\n").
+					getBytes(StandardCharsets.US_ASCII));
+			assertTrue(readResponse(in).endsWith("/post1"));
+			assertTrue(readResponse(in).endsWith("/chunked2"));
+
+			// HEAD does not send a body
+			out.write("HEAD /head HTTP/1.1\r\n\r\nGET /after HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			TestHelpers.assertContains(readHeaders(in), "Content-Length: 5");
+			assertTrue(readResponse(in).endsWith("/after"));
+
+			// the client can close the connection
+			out.write("GET /last HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			TestHelpers.assertContains(readResponse(in), "Connection: close", "/last");
+			assertEquals(-1, in.read());
+		} finally {
+			httpd.stop();
+		}
+
+		assertEquals(1, httpd.getCompletedSessions());
+	}
+
+	@Test
+	void testKeepAlivePipelined() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, uri);
+			}
+		};
+		httpd.setKeepAlive(true);
+		httpd.setMaxKeepAliveRequests(3);
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			StringBuilder requests = new StringBuilder();
+			for (int i = 0; i < 4; i++) {
+				requests.append("GET /request").append(i).append(" HTTP/1.1\r\n\r\n");
+			}
+			socket.getOutputStream().write(requests.toString().getBytes(StandardCharsets.US_ASCII));
+
+			// responses are sent in order, the connection is closed after the maximum number of requests
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			assertTrue(readResponse(in).endsWith("/request0"));
+			assertTrue(readResponse(in).endsWith("/request1"));
+			String response = readResponse(in);
+			TestHelpers.assertContains(response, "Connection: close");
+			assertTrue(response.endsWith("/request2"));
+			assertEquals(-1, in.read());
+		} finally {
+			httpd.stop();
+		}
+	}
+
+	@Test
+	void testKeepAliveHTTP10AndTimeout() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, uri);
+			}
+		};
+		httpd.setKeepAlive(true);
+		httpd.setKeepAliveTimeout(200);
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.getOutputStream().write("GET /test HTTP/1.0\r\nConnection: keep-alive\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			String response = readResponse(in);
+			TestHelpers.assertContains(response, "HTTP/1.0 200 OK", "Connection: keep-alive", "/test");
+
+			// the idle connection is closed by the server
+			long start = System.currentTimeMillis();
+			assertEquals(-1, in.read());
+			assertTrue(System.currentTimeMillis() - start < 5_000);
+		} finally {
+			httpd.stop();
+		}
+
+		assertThrows(IllegalArgumentException.class, () -> httpd.setKeepAliveTimeout(-1));
+		assertThrows(IllegalArgumentException.class, () -> httpd.setMaxKeepAliveRequests(0));
+	}
+
+	@Test
+	void testKeepAliveDisabledByDefault() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, uri);
+			}
+		};
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.getOutputStream().write("GET /test HTTP/1.1\r\n\r\nGET /second HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+			String response = IOUtils.toString(socket.getInputStream(), StandardCharsets.UTF_8);
+			assertTrue(response.startsWith("HTTP/1.0 200 OK "), "Had: " + response);
+			assertFalse(response.contains("Connection:"), "Had: " + response);
+			assertFalse(response.contains("/second"), "Had: " + response);
+		} finally {
+			httpd.stop();
+		}
+	}
+
+	@Test
+	void testServeFileRanges() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			String content = "0123456789ABCDEFGHIJKLMNOPQ";
+			FileUtils.writeStringToFile(new File(tempDir, "ranges.txt"), content, StandardCharsets.UTF_8);
+
+			NanoHTTPD nh = new NanoHTTPD(0);
+			try {
+				Properties header = new Properties();
+
+				// suffix range
+				header.setProperty("range", "bytes=-5");
+				Response r = nh.serveFile("ranges.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_PARTIAL_CONTENT, r.status);
+				assertEquals("bytes 22-26/27", r.header.getProperty("Content-range"));
+				assertEquals("MNOPQ", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+
+				header.setProperty("range", "bytes=2-4");
+				r = nh.serveFile("ranges.txt", header, tempDir, false);
+				assertEquals("bytes 2-4/27", r.header.getProperty("Content-range"));
+				assertEquals("3", r.header.getProperty("Content-length"));
+				assertEquals("234", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+
+				// multiple ranges, ranges outside of the file are skipped
+				header.setProperty("range", "bytes=0-1, 20-,-2, 100-200");
+				r = nh.serveFile("ranges.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_PARTIAL_CONTENT, r.status);
+				assertTrue(r.mimeType.startsWith("multipart/byteranges; boundary="), "Had: " + r.mimeType);
+				String boundary = StringUtils.substringAfter(r.mimeType, "boundary=");
+				String body = IOUtils.toString(r.data, StandardCharsets.UTF_8);
+				assertEquals(Integer.parseInt(r.header.getProperty("Content-length")), body.length());
+				assertEquals("\r\n--" + boundary + "\r\n" +
+						"Content-Type: text/plain\r\n" +
+						"Content-Range: bytes 0-1/27\r\n" +
+						"\r\n" +
+						"01" +
+						"\r\n--" + boundary + "\r\n" +
+						"Content-Type: text/plain\r\n" +
+						"Content-Range: bytes 20-26/27\r\n" +
+						"\r\n" +
+						"KLMNOPQ" +
+						"\r\n--" + boundary + "\r\n" +
+						"Content-Type: text/plain\r\n" +
+						"Content-Range: bytes 25-26/27\r\n" +
+						"\r\n" +
+						"PQ" +
+						"\r\n--" + boundary + "--\r\n", body);
+
+				// not satisfiable
+				header.setProperty("range", "bytes=27-");
+				r = nh.serveFile("ranges.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_RANGE_NOT_SATISFIABLE, r.status);
+				assertEquals("bytes */27", r.header.getProperty("Content-range"));
+
+				// invalid ranges are ignored
+				header.setProperty("range", "bytes=5-2");
+				r = nh.serveFile("ranges.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_OK, r.status);
+				assertEquals("bytes", r.header.getProperty("Accept-Ranges"));
+				assertEquals(content, IOUtils.toString(r.data, StandardCharsets.UTF_8));
+				r.data.close();
+			} finally {
+				nh.stop();
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testServeFileConditional() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			File file = new File(tempDir, "cached.txt");
+			FileUtils.writeStringToFile(file, "0123456789", StandardCharsets.UTF_8);
+
+			NanoHTTPD nh = new NanoHTTPD(0);
+			try {
+				Response r = nh.serveFile("cached.txt", null, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_OK, r.status);
+				String etag = r.header.getProperty("ETag");
+				assertNotNull(etag);
+				String lastModified = r.header.getProperty("Last-Modified");
+				assertNotNull(lastModified);
+				assertNull(r.header.getProperty("Cache-Control"));
+				r.data.close();
+
+				Properties header = new Properties();
+				header.setProperty("if-none-match", etag);
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_NOT_MODIFIED, r.status);
+				assertNull(r.data);
+				assertEquals(etag, r.header.getProperty("ETag"));
+
+				header = new Properties();
+				header.setProperty("if-modified-since", lastModified);
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_NOT_MODIFIED, r.status);
+
+				// a changed file is sent again
+				assertTrue(file.setLastModified(file.lastModified() + 10_000));
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_OK, r.status);
+				assertNotEquals(etag, r.header.getProperty("ETag"));
+				r.data.close();
+
+				// ranges are only applied for the same version of the file
+				header = new Properties();
+				header.setProperty("range", "bytes=5-");
+				header.setProperty("if-range", lastModified);
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_OK, r.status);
+				assertEquals("0123456789", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+
+				nh.setStrongETags(true);
+				r = nh.serveFile("cached.txt", null, tempDir, false);
+				etag = r.header.getProperty("ETag");
+				assertTrue(etag.startsWith("\""), "Had: " + etag);
+				r.data.close();
+				header.setProperty("if-range", etag);
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_PARTIAL_CONTENT, r.status);
+				assertEquals("56789", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+
+				// Cache-Control
+				nh.setCacheControl("no-cache");
+				nh.setCacheControlForMimeType("text/*", "max-age=60");
+				nh.setCacheControlForPath("/static/", "max-age=3600");
+				nh.setCacheControlForPath("/static/private/", "private");
+				assertEquals("no-cache", nh.getCacheControl("/index.html", "application/octet-stream"));
+				assertEquals("max-age=60", nh.getCacheControl("/index.html", "text/html"));
+				assertEquals("max-age=3600", nh.getCacheControl("/static/file.txt", "text/plain"));
+				assertEquals("private", nh.getCacheControl("/static/private/file.txt", "text/plain"));
+				nh.setCacheControlForMimeType("text/plain", "max-age=120");
+				assertEquals("max-age=120", nh.getCacheControl("/index.txt", "text/plain"));
+
+				header = new Properties();
+				header.setProperty("if-none-match", etag);
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_NOT_MODIFIED, r.status);
+				assertEquals("max-age=120", r.header.getProperty("Cache-Control"));
+
+				nh.setCacheControlForMimeType("text/plain", null);
+				nh.setCacheControlForPath("/static/", null);
+				assertEquals("max-age=60", nh.getCacheControl("/static/file.txt", "text/plain"));
+			} finally {
+				nh.stop();
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testServeFileNotModifiedViaSocket() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			FileUtils.writeStringToFile(new File(tempDir, "cached.txt"), "0123456789", StandardCharsets.UTF_8);
+
+			for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+				int port = SocketUtils.getNextFreePort(9000, 9010);
+				NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+					@Override
+					public Response serve(String uri, String method, Properties header, Properties parms) {
+						return serveFile(uri, header, tempDir, false);
+					}
+				};
+				httpd.setKeepAlive(true);
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					OutputStream out = socket.getOutputStream();
+					InputStream in = new BufferedInputStream(socket.getInputStream());
+
+					out.write("GET /cached.txt HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					String headers = readHeaders(in);
+					TestHelpers.assertContains(headers, "200 OK", "ETag: ", "Last-Modified: ");
+					assertEquals("0123456789", new String(in.readNBytes(10), StandardCharsets.US_ASCII));
+					String etag = StringUtils.substringBetween(headers, "ETag: ", "\n");
+
+					// the 304 has no body, so the next response follows directly
+					out.write(("GET /cached.txt HTTP/1.1\r\nIf-None-Match: " + etag + "\r\n\r\n" +
+							"GET /cached.txt HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+					String notModified = readHeaders(in);
+					TestHelpers.assertContains(notModified, "304 Not Modified", "ETag: " + etag);
+					assertFalse(notModified.toLowerCase(Locale.ROOT).contains("content-length"), "Had: " + notModified);
+					TestHelpers.assertContains(readHeaders(in), "200 OK");
+					assertEquals("0123456789", new String(in.readNBytes(10), StandardCharsets.US_ASCII));
+				} finally {
+					httpd.stop();
+				}
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testConcurrentFileDownloads() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			byte[] content = new byte[10_000_000];
+			for (int i = 0; i < content.length; i++) {
+				content[i] = (byte) ('a' + i % 26);
+			}
+			FileUtils.writeByteArrayToFile(new File(tempDir, "large.bin"), content);
+
+			for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+				int port = SocketUtils.getNextFreePort(9000, 9010);
+				NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+					@Override
+					public Response serve(String uri, String method, Properties header, Properties parms) {
+						return serveFile(uri, header, tempDir, false);
+					}
+				};
+				try (Socket first = new Socket(InetAddress.getLoopbackAddress(), port);
+					 Socket second = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					first.getOutputStream().write("GET /large.bin HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					InputStream firstIn = new BufferedInputStream(first.getInputStream());
+					TestHelpers.assertContains(readHeaders(firstIn), "200 OK");
+
+					// serving the file again while the first download is still running does not affect it
+					second.getOutputStream().write("GET /large.bin HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					InputStream secondIn = new BufferedInputStream(second.getInputStream());
+					TestHelpers.assertContains(readHeaders(secondIn), "200 OK");
+
+					assertArrayEquals(content, firstIn.readAllBytes());
+					assertArrayEquals(content, secondIn.readAllBytes());
+				} finally {
+					httpd.stop();
+				}
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testConcurrentPrecompressedDownloads() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			// the server sends the precompressed file as it is, so it does not need to be valid here
+			byte[] compressed = new byte[10_000_000];
+			for (int i = 0; i < compressed.length; i++) {
+				compressed[i] = (byte) ('a' + i % 26);
+			}
+			File file = new File(tempDir, "large.txt");
+			FileUtils.writeStringToFile(file, "uncompressed", StandardCharsets.UTF_8);
+			File gz = new File(tempDir, "large.txt.gz");
+			FileUtils.writeByteArrayToFile(gz, compressed);
+			assertTrue(gz.setLastModified(file.lastModified() + 10_000));
+
+			String request = "GET /large.txt HTTP/1.0\r\nAccept-Encoding: gzip\r\n\r\n";
+			for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+				int port = SocketUtils.getNextFreePort(9000, 9010);
+				NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+					@Override
+					public Response serve(String uri, String method, Properties header, Properties parms) {
+						return serveFile(uri, header, tempDir, false);
+					}
+				};
+				httpd.setCompression(true);
+				try (Socket first = new Socket(InetAddress.getLoopbackAddress(), port);
+					 Socket second = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					first.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+					InputStream firstIn = new BufferedInputStream(first.getInputStream());
+					TestHelpers.assertContains(readHeaders(firstIn), "200 OK", "Content-Encoding: gzip");
+
+					second.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+					InputStream secondIn = new BufferedInputStream(second.getInputStream());
+					TestHelpers.assertContains(readHeaders(secondIn), "200 OK", "Content-Encoding: gzip");
+
+					assertArrayEquals(compressed, firstIn.readAllBytes());
+					assertArrayEquals(compressed, secondIn.readAllBytes());
+				} finally {
+					httpd.stop();
+				}
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testBodilessStatusViaSocket() throws Exception {
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+				@Override
+				public Response serve(String uri, String method, Properties header, Properties parms) {
+					if (uri.equals("/empty")) {
+						// the data is not sent for "204 No Content"
+						return new Response("204 No Content", MIME_PLAINTEXT, "ignored");
+					}
+					return new Response(HTTP_OK, MIME_PLAINTEXT, "ok");
+				}
+			};
+			httpd.setKeepAlive(true);
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				OutputStream out = socket.getOutputStream();
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+
+				out.write("GET /empty HTTP/1.1\r\n\r\nGET /other HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				String headers = readHeaders(in);
+				TestHelpers.assertContains(headers, "204 No Content");
+				assertFalse(headers.toLowerCase(Locale.ROOT).contains("content-length"), "Had: " + headers);
+				assertFalse(headers.toLowerCase(Locale.ROOT).contains("transfer-encoding"), "Had: " + headers);
+
+				TestHelpers.assertContains(readHeaders(in), "200 OK", "Content-Length: 2");
+				assertEquals("ok", new String(in.readNBytes(2), StandardCharsets.US_ASCII));
+			} finally {
+				httpd.stop();
+			}
+		}
+	}
+
+	@Test
+	void testNegotiateEncoding() {
+		assertNull(NanoHTTPD.negotiateEncoding(null));
+		assertNull(NanoHTTPD.negotiateEncoding(""));
+		assertNull(NanoHTTPD.negotiateEncoding("identity, br"));
+		assertEquals("gzip", NanoHTTPD.negotiateEncoding("gzip"));
+		assertEquals("gzip", NanoHTTPD.negotiateEncoding("deflate, gzip, br"));
+		assertEquals("gzip", NanoHTTPD.negotiateEncoding("x-gzip"));
+		assertEquals("gzip", NanoHTTPD.negotiateEncoding("*"));
+		assertEquals("deflate", NanoHTTPD.negotiateEncoding("deflate"));
+		assertEquals("deflate", NanoHTTPD.negotiateEncoding("gzip;q=0.5, deflate;q=0.8"));
+		assertEquals("deflate", NanoHTTPD.negotiateEncoding("*, gzip;q=0"));
+		assertNull(NanoHTTPD.negotiateEncoding("gzip;q=0, deflate;q=0"));
+		assertNull(NanoHTTPD.negotiateEncoding("gzip;q=invalid"));
+	}
+
+	@Test
+	void testCompressResponse() throws Exception {
+		NanoHTTPD nh = new NanoHTTPD(0);
+		try {
+			String text = "{\"some\": \"json\"}".repeat(100);
+			Properties header = new Properties();
+			header.setProperty("accept-encoding", "gzip, deflate");
+
+			// disabled by default
+			Response r = new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_JSON, text);
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertNull(r.header.getProperty("Content-Encoding"));
+			assertNull(r.header.getProperty("Vary"));
+
+			nh.setCompression(true);
+			r = new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_JSON + "; charset=UTF-8", text);
+			r.addHeader("ETag", "\"abc\"");
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertEquals("gzip", r.header.getProperty("Content-Encoding"));
+			assertEquals("Accept-Encoding", r.header.getProperty("Vary"));
+			assertEquals("\"abc-gzip\"", r.header.getProperty("ETag"));
+			assertTrue(r.data instanceof ByteArrayInputStream, "Length should stay known");
+			assertEquals(text, IOUtils.toString(new GZIPInputStream(r.data), StandardCharsets.UTF_8));
+
+			// streams are compressed while they are sent, the length is not known any more
+			r = new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_HTML,
+					new BufferedInputStream(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))));
+			r.addHeader("Content-length", "" + text.length());
+			r.addHeader("Accept-Ranges", "bytes");
+			header.setProperty("accept-encoding", "deflate");
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertEquals("deflate", r.header.getProperty("Content-Encoding"));
+			assertNull(r.header.getProperty("Content-length"));
+			assertNull(r.header.getProperty("Accept-Ranges"));
+			assertEquals(text, IOUtils.toString(new InflaterInputStream(r.data), StandardCharsets.UTF_8));
+
+			// not accepted by the client
+			header.setProperty("accept-encoding", "br");
+			r = new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_JSON, text);
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertNull(r.header.getProperty("Content-Encoding"));
+			assertEquals("Accept-Encoding", r.header.getProperty("Vary"));
+
+			// too small, wrong status, wrong mime-type or already encoded
+			header.setProperty("accept-encoding", "gzip");
+			r = new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_JSON, "{}");
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertNull(r.header.getProperty("Content-Encoding"));
+
+			r = new Response(NanoHTTPD.HTTP_NOTFOUND, NanoHTTPD.MIME_PLAINTEXT, text);
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertNull(r.header.getProperty("Content-Encoding"));
+
+			r = new Response(NanoHTTPD.HTTP_OK, "image/png", text);
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertNull(r.header.getProperty("Content-Encoding"));
+			assertNull(r.header.getProperty("Vary"));
+
+			r = new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, text);
+			r.addHeader("Content-Encoding", "br");
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertEquals("br", r.header.getProperty("Content-Encoding"));
+
+			// configured limits
+			nh.setCompressionMinSize(0);
+			nh.setCompressibleMimeTypes("image/*");
+			r = new Response(NanoHTTPD.HTTP_OK, "image/png", "{}");
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertEquals("gzip", r.header.getProperty("Content-Encoding"));
+			r = new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_JSON, text);
+			nh.compressResponse(header.getProperty("accept-encoding"), r);
+			assertNull(r.header.getProperty("Content-Encoding"));
+
+			assertThrows(IllegalArgumentException.class, () -> nh.setCompressionMinSize(-1));
+		} finally {
+			nh.stop();
+		}
+	}
+
+	@Test
+	void testServeFileCompressed() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			String content = "<html><body>some html</body></html>\n".repeat(100);
+			File file = new File(tempDir, "index.html");
+			FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8);
+
+			NanoHTTPD nh = new NanoHTTPD(0);
+			nh.setCompression(true);
+			try {
+				Properties header = new Properties();
+				header.setProperty("accept-encoding", "gzip");
+
+				// small files are compressed and cached
+				Response r = nh.serveFile("index.html", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_OK, r.status);
+				assertEquals("gzip", r.header.getProperty("Content-Encoding"));
+				assertEquals("Accept-Encoding", r.header.getProperty("Vary"));
+				byte[] compressed = r.data.readAllBytes();
+				assertEquals(Integer.parseInt(r.header.getProperty("Content-length")), compressed.length);
+				assertEquals(content, IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(compressed)), StandardCharsets.UTF_8));
+
+				// ranges are served uncompressed
+				header.setProperty("range", "bytes=0-5");
+				r = nh.serveFile("index.html", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_PARTIAL_CONTENT, r.status);
+				assertNull(r.header.getProperty("Content-Encoding"));
+				assertEquals("<html>", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+				header.remove("range");
+
+				// a precompressed sibling is preferred
+				byte[] precompressed = CompressingInputStream.compress("precompressed".getBytes(StandardCharsets.UTF_8), "gzip");
+				File gz = new File(tempDir, "index.html.gz");
+				FileUtils.writeByteArrayToFile(gz, precompressed);
+				assertTrue(gz.setLastModified(file.lastModified() + 1000));
+				r = nh.serveFile("index.html", header, tempDir, false);
+				assertEquals("gzip", r.header.getProperty("Content-Encoding"));
+				assertEquals(NanoHTTPD.MIME_HTML, r.mimeType);
+				assertEquals("" + precompressed.length, r.header.getProperty("Content-length"));
+				assertArrayEquals(precompressed, r.data.readAllBytes());
+				r.data.close();
+
+				// ... but not if it is older than the file
+				assertTrue(gz.setLastModified(file.lastModified() - 10_000));
+				r = nh.serveFile("index.html", header, tempDir, false);
+				assertEquals(content, IOUtils.toString(new GZIPInputStream(r.data), StandardCharsets.UTF_8));
+
+				// clients without support for compression get the file itself
+				r = nh.serveFile("index.html", new Properties(), tempDir, false);
+				assertNull(r.header.getProperty("Content-Encoding"));
+				assertEquals(content, IOUtils.toString(r.data, StandardCharsets.UTF_8));
+				assertEquals("bytes", r.header.getProperty("Accept-Ranges"));
+
+				// large files are compressed while they are sent, ranges of them are not supported then
+				String large = content.repeat((int) (CompressedFileCache.MAX_FILE_SIZE / content.length() + 1));
+				FileUtils.writeStringToFile(new File(tempDir, "large.html"), large, StandardCharsets.UTF_8);
+				r = nh.serveFile("large.html", header, tempDir, false);
+				assertNull(r.header.getProperty("Content-Encoding"));
+				nh.compressResponse(header.getProperty("accept-encoding"), r);
+				assertEquals("gzip", r.header.getProperty("Content-Encoding"));
+				assertNull(r.header.getProperty("Content-length"));
+				assertNull(r.header.getProperty("Accept-Ranges"));
+				assertEquals(large, IOUtils.toString(new GZIPInputStream(r.data), StandardCharsets.UTF_8));
+
+				// the compressed version is validated with the same strong validator
+				nh.setStrongETags(true);
+				r = nh.serveFile("index.html", header, tempDir, false);
+				String etag = r.header.getProperty("ETag");
+				assertTrue(etag.endsWith("-gzip\""), "Had: " + etag);
+				header.setProperty("if-none-match", etag);
+				r = nh.serveFile("index.html", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_NOT_MODIFIED, r.status);
+				assertEquals("Accept-Encoding", r.header.getProperty("Vary"));
+			} finally {
+				nh.stop();
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testCompressionViaSocket() throws Exception {
+		byte[] large = ("{\"some\": \"json\"}\n".repeat(100_000)).getBytes(StandardCharsets.UTF_8);
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+				@Override
+				public Response serve(String uri, String method, Properties header, Properties parms) {
+					// unknown length
+					return new Response(HTTP_OK, MIME_JSON, new BufferedInputStream(new ByteArrayInputStream(large)));
+				}
+			};
+			httpd.setKeepAlive(true);
+			httpd.setCompression(true);
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				OutputStream out = socket.getOutputStream();
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+
+				out.write("GET /json HTTP/1.1\r\nAccept-Encoding: gzip\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				TestHelpers.assertContains(readHeaders(in), "200 OK", "Content-Encoding: gzip", "Transfer-Encoding: chunked");
+				byte[] compressed = readChunked(in);
+				assertTrue(compressed.length < large.length / 10, "Engine " + engine + ", had: " + compressed.length);
+				assertArrayEquals(large, new GZIPInputStream(new ByteArrayInputStream(compressed)).readAllBytes(), "Engine " + engine);
+
+				// the connection is still usable
+				out.write("GET /json HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				String headers = readHeaders(in);
+				TestHelpers.assertContains(headers, "200 OK", "Vary: Accept-Encoding");
+				TestHelpers.assertNotContains(headers, "Content-Encoding");
+				assertArrayEquals(large, in.readAllBytes(), "Engine " + engine);
+			} finally {
+				httpd.stop();
+			}
+		}
+	}
+
+	@Test
+	void testServeFileFromCache() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			File file = new File(tempDir, "cached.txt");
+			FileUtils.writeStringToFile(file, "0123456789", StandardCharsets.UTF_8);
+			long lastModified = file.lastModified();
+
+			NanoHTTPD nh = new NanoHTTPD(0);
+			nh.setFileCacheSize(1024 * 1024);
+			nh.setFileCacheCheckInterval(60_000);
+			try {
+				Response r = nh.serveFile("cached.txt", null, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_OK, r.status);
+				assertEquals(NanoHTTPD.MIME_PLAINTEXT, r.mimeType);
+				assertEquals("0123456789", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+				String etag = r.header.getProperty("ETag");
+
+				// the file is served from memory, changes are only seen after the check-interval
+				FileUtils.writeStringToFile(file, "abcdefghij", StandardCharsets.UTF_8);
+				assertTrue(file.setLastModified(lastModified + 10_000));
+				r = nh.serveFile("cached.txt", null, tempDir, false);
+				assertEquals("0123456789", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+				assertEquals(etag, r.header.getProperty("ETag"));
+				assertEquals("10", r.header.getProperty("Content-length"));
+				assertEquals("bytes", r.header.getProperty("Accept-Ranges"));
+
+				// ranges and conditional requests work on the cached content as well
+				Properties header = new Properties();
+				header.setProperty("range", "bytes=1-2,-2");
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_PARTIAL_CONTENT, r.status);
+				TestHelpers.assertContains(IOUtils.toString(r.data, StandardCharsets.UTF_8),
+						"Content-Range: bytes 1-2/10\r\n\r\n12\r\n", "Content-Range: bytes 8-9/10\r\n\r\n89\r\n");
+
+				header = new Properties();
+				header.setProperty("if-none-match", etag);
+				assertEquals(NanoHTTPD.HTTP_NOT_MODIFIED, nh.serveFile("cached.txt", header, tempDir, false).status);
+
+				// after the check-interval the changed file is read again
+				nh.setFileCacheCheckInterval(0);
+				r = nh.serveFile("cached.txt", header, tempDir, false);
+				assertEquals(NanoHTTPD.HTTP_OK, r.status);
+				assertEquals("abcdefghij", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+
+				// removed files are not served any more
+				assertTrue(file.delete());
+				assertEquals(NanoHTTPD.HTTP_NOTFOUND, nh.serveFile("cached.txt", null, tempDir, false).status);
+
+				// compressed versions are kept in memory as well
+				String content = "<html>some html</html>".repeat(100);
+				FileUtils.writeStringToFile(new File(tempDir, "index.html"), content, StandardCharsets.UTF_8);
+				nh.setCompression(true);
+				header = new Properties();
+				header.setProperty("accept-encoding", "gzip");
+				for (int i = 0; i < 2; i++) {
+					r = nh.serveFile("/", header, tempDir, false);
+					assertEquals(NanoHTTPD.MIME_HTML, r.mimeType);
+					assertEquals("gzip", r.header.getProperty("Content-Encoding"));
+					assertEquals(content, IOUtils.toString(new GZIPInputStream(r.data), StandardCharsets.UTF_8));
+				}
+
+				nh.setFileCacheSize(0);
+				assertEquals(NanoHTTPD.HTTP_OK, nh.serveFile("/", header, tempDir, false).status);
+
+				assertThrows(IllegalArgumentException.class, () -> nh.setFileCacheSize(-1));
+				assertThrows(IllegalArgumentException.class, () -> nh.setFileCacheCheckInterval(-1));
+			} finally {
+				nh.stop();
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testServeFileViaSocket() throws Exception {
+		File tempDir = Files.createTempDirectory("nanohttpd-test").toFile();
+		try {
+			byte[] content = new byte[3_000_000];
+			for (int i = 0; i < content.length; i++) {
+				content[i] = (byte) i;
+			}
+			FileUtils.writeByteArrayToFile(new File(tempDir, "large.bin"), content);
+
+			for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+				int port = SocketUtils.getNextFreePort(9000, 9010);
+				NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+					@Override
+					public Response serve(String uri, String method, Properties header, Properties parms) {
+						return serveFile(uri, header, tempDir, false);
+					}
+				};
+				httpd.setKeepAlive(true);
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					OutputStream out = socket.getOutputStream();
+					InputStream in = new BufferedInputStream(socket.getInputStream());
+
+					out.write("GET /large.bin HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					TestHelpers.assertContains(readHeaders(in), "200 OK", "Content-length: 3000000");
+					assertArrayEquals(content, in.readNBytes(content.length), "Engine " + engine);
+
+					out.write("GET /large.bin HTTP/1.1\r\nRange: bytes=1000-1999\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					TestHelpers.assertContains(readHeaders(in), "206 Partial Content", "Content-length: 1000",
+							"Content-range: bytes 1000-1999/3000000");
+					assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), in.readNBytes(1000), "Engine " + engine);
+				} finally {
+					httpd.stop();
+				}
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+	}
+
+	@Test
+	void testStreamingRequestBody() throws Exception {
+		byte[] content = new byte[3_000_000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		long expected = 0;
+		for (byte b : content) {
+			expected += b & 0xff;
+		}
+
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+				@Override
+				public Response serve(String uri, String method, Properties header, Properties parms, InputStream body) throws IOException {
+					if (uri.equals("/form")) {
+						return super.serve(uri, method, header, parms, body);
+					}
+
+					// consume the body in small steps without keeping it
+					byte[] buf = new byte[4096];
+					long sum = 0;
+					int read;
+					while ((read = body.read(buf)) != -1) {
+						for (int i = 0; i < read; i++) {
+							sum += buf[i] & 0xff;
+						}
+					}
+					return new Response(HTTP_OK, MIME_PLAINTEXT, method + " " + sum);
+				}
+
+				@Override
+				public Response serve(String uri, String method, Properties header, Properties parms) {
+					return new Response(HTTP_OK, MIME_PLAINTEXT, "form " + parms.getProperty("a"));
+				}
+			};
+			httpd.setKeepAlive(true);
+			try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+				OutputStream out = socket.getOutputStream();
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+
+				out.write(("POST /upload HTTP/1.1\r\nContent-Length: " + content.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+				out.write(content);
+				assertTrue(readResponse(in).endsWith("POST " + expected), "Engine " + engine);
+
+				out.write("PUT /upload HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				for (int pos = 0; pos < content.length; pos += 100_000) {
+					out.write((Integer.toHexString(100_000) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+					out.write(content, pos, 100_000);
+					out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+				}
+				out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+				assertTrue(readResponse(in).endsWith("PUT " + expected), "Engine " + engine);
+
+				// url-encoded parameters are still decoded by default
+				out.write("POST /form HTTP/1.1\r\nContent-Length: 3\r\n\r\na=1".getBytes(StandardCharsets.US_ASCII));
+				assertTrue(readResponse(in).endsWith("form 1"), "Engine " + engine);
+			} finally {
+				httpd.stop();
+			}
+		}
+	}
+
+	@Test
+	void testUnreadRequestBodyIsSkipped() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = new NanoHTTPD(port) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms, InputStream body) {
+				return new Response(HTTP_OK, MIME_PLAINTEXT, method + " " + uri);
+			}
+		};
+		httpd.setKeepAlive(true);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			OutputStream out = socket.getOutputStream();
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+
+			// PUT bodies were not read before, now they are skipped if serve() does not read them
+			out.write(("PUT /first HTTP/1.1\r\nContent-Length: 5\r\n\r\n12345" +
+					"GET /second HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			assertTrue(readResponse(in).endsWith("PUT /first"));
+			assertTrue(readResponse(in).endsWith("GET /second"));
+		} finally {
+			httpd.stop();
+		}
+	}
+
+	@Test
+	void testRequestBodyTooLarge() throws Exception {
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+				@Override
+				public Response serve(String uri, String method, Properties header, Properties parms, InputStream body) throws IOException {
+					return new Response(HTTP_OK, MIME_PLAINTEXT, "read " + body.readAllBytes().length);
+				}
+			};
+			assertThrows(IllegalArgumentException.class, () -> httpd.setMaxRequestBodySize(-1));
+			httpd.setMaxRequestBodySize(10);
+			try {
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					socket.getOutputStream().write("POST / HTTP/1.1\r\nContent-Length: 11\r\n\r\n01234567890".getBytes(StandardCharsets.US_ASCII));
+					String response = IOUtils.toString(socket.getInputStream(), StandardCharsets.US_ASCII);
+					TestHelpers.assertContains(response, "413 Request Entity Too Large", "10 bytes");
+				}
+
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					socket.getOutputStream().write("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n8\r\n01234567\r\n8\r\n01234567\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+					String response = IOUtils.toString(socket.getInputStream(), StandardCharsets.US_ASCII);
+					TestHelpers.assertContains(response, "413 Request Entity Too Large");
+				}
+
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					socket.getOutputStream().write("POST / HTTP/1.0\r\nContent-Length: 10\r\n\r\n0123456789".getBytes(StandardCharsets.US_ASCII));
+					String response = IOUtils.toString(socket.getInputStream(), StandardCharsets.US_ASCII);
+					assertTrue(response.endsWith("read 10"), "Engine " + engine + ", had: " + response);
+				}
+			} finally {
+				httpd.stop();
+			}
+		}
+	}
+
+	@Test
+	void testMultipartUpload() throws Exception {
+		File uploadDir = Files.createTempDirectory("nanohttpd-upload").toFile();
+		try {
+			for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+				int port = SocketUtils.getNextFreePort(9000, 9010);
+				AtomicReference<String> uploaded = new AtomicReference<>();
+				NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+					@Override
+					public Response serve(String uri, String method, Properties header, Properties parms) {
+						try {
+							File file = new File(parms.getProperty("file"));
+							assertEquals(uploadDir, file.getParentFile());
+							uploaded.set(FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+						} catch (IOException e) {
+							throw new IllegalStateException(e);
+						}
+						return new Response(HTTP_OK, MIME_PLAINTEXT, parms.getProperty("field") + " " + parms.getProperty("file.filename"));
+					}
+				};
+				httpd.setUploadDirectory(uploadDir);
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+					String data = "x".repeat(100_000);
+					String body = "--b0undary\r\n" +
+							"Content-Disposition: form-data; name=\"field\"\r\n\r\n" +
+							"v\u00e4lue\r\n" +
+							"--b0undary\r\n" +
+							"Content-Disposition: form-data; name=\"file\"; filename=\"data.txt\"\r\n" +
+							"Content-Type: text/plain\r\n\r\n" +
+							data + "\r\n" +
+							"--b0undary--\r\n";
+					byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+					socket.getOutputStream().write(("POST /upload HTTP/1.0\r\nContent-Type: multipart/form-data; boundary=b0undary\r\n" +
+							"Content-Length: " + bytes.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+					socket.getOutputStream().write(bytes);
+
+					String response = IOUtils.toString(socket.getInputStream(), StandardCharsets.UTF_8);
+					assertTrue(response.endsWith("v\u00e4lue data.txt"), "Engine " + engine + ", had: " + response);
+					assertEquals(data, uploaded.get());
+				} finally {
+					httpd.stop();
+				}
+
+				// the temporary file is removed after the response was sent
+				String[] files = uploadDir.list();
+				assertNotNull(files);
+				assertEquals(0, files.length, "Engine " + engine + ", had: " + Arrays.toString(files));
+			}
+		} finally {
+			deleteRecursively(uploadDir);
+		}
+	}
+
+	@Test
+	void testRouter() throws Exception {
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+				@Override
+				public Response serve(String uri, String method, Properties header, Properties parms) {
+					return new Response(HTTP_OK, MIME_PLAINTEXT, "default " + uri);
+				}
+			};
+			Router router = new Router();
+			router.add("GET", "/users/{id}", (uri, method, header, parms, body) ->
+					new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, "user " + parms.getProperty("id") + " " + parms.getProperty("a")));
+			router.add("POST", "/users", (uri, method, header, parms, body) ->
+					new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, "created " + new String(body.readAllBytes(), StandardCharsets.UTF_8)));
+			httpd.setRouter(router);
+			try {
+				assertEquals("user 12 b", UrlUtils.retrieveData("http://localhost:" + port + "/users/12?a=b", 10_000));
+				assertEquals("default /other", UrlUtils.retrieveData("http://localhost:" + port + "/other", 10_000));
+
+				String response = sendRequest(port, "POST /users HTTP/1.0\r\nContent-Length: 4\r\n\r\nname");
+				assertTrue(response.endsWith("created name"), "Engine " + engine + ", had: " + response);
+
+				response = sendRequest(port, "DELETE /users/12 HTTP/1.0\r\n\r\n");
+				TestHelpers.assertContains(response, "405 Method Not Allowed", "Allow: GET");
+
+				httpd.setRouter(null);
+				assertEquals("default /users/12", UrlUtils.retrieveData("http://localhost:" + port + "/users/12", 10_000));
+			} finally {
+				httpd.stop();
+			}
+		}
+	}
+
+	@Test
+	void testRepeatedHeaders() throws Exception {
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+				@Override
+				public Response serve(String uri, String method, HttpHeaders headers, Properties parms, InputStream body) {
+					Response r = new Response(HTTP_OK, MIME_PLAINTEXT, headers.getAll("cookie") + " " + headers.get("X-TEST"));
+					r.addHeader("Cache-Control", "no-store");
+					r.appendHeader("Set-Cookie", "a=1");
+					r.appendHeader("Set-Cookie", "b=2");
+					return r;
+				}
+			};
+			try {
+				String response = sendRequest(port, "GET / HTTP/1.0\r\nCookie: a=1\r\nX-Test: value\r\nCookie: b=2\r\n\r\n");
+				TestHelpers.assertContains(response, "Cache-Control: no-store\r\n", "Set-Cookie: a=1\r\nSet-Cookie: b=2\r\n");
+				assertTrue(response.endsWith("[a=1, b=2] value"), "Engine " + engine + ", had: " + response);
+			} finally {
+				httpd.stop();
+			}
+		}
+	}
+
+	@Test
+	void testRequestHeaderTooLarge() throws Exception {
+		for (NanoHTTPD.Engine engine : NanoHTTPD.Engine.values()) {
+			int port = SocketUtils.getNextFreePort(9000, 9010);
+			NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, engine) {
+				@Override
+				public Response serve(String uri, String method, Properties header, Properties parms) {
+					return new Response(HTTP_OK, MIME_PLAINTEXT, "ok");
+				}
+			};
+			try {
+				String response = sendRequest(port, "GET / HTTP/1.0\r\nX-Large: " +
+						"a".repeat(HttpRequestParser.MAX_HEADER_SIZE) + "\r\n\r\n");
+				TestHelpers.assertContains(response, "400 Bad Request", "too large");
+
+				response = sendRequest(port, "GET / HTTP/1.0\r\nX-Large: " +
+						"a".repeat(HttpRequestParser.MAX_HEADER_SIZE / 2) + "\r\n\r\n");
+				assertTrue(response.endsWith("ok"), "Engine " + engine + ", had: " + response);
+			} finally {
+				httpd.stop();
+			}
+		}
+	}
+
+	private static String sendRequest(int port, String request) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+			return IOUtils.toString(socket.getInputStream(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Reads the status-line and headers of one response.
+	 */
+	private static String readHeaders(InputStream in) throws IOException {
+		StringBuilder headers = new StringBuilder();
+		while (true) {
+			String line = readLine(in);
+			if (line.isEmpty()) {
+				return headers.toString();
+			}
+			headers.append(line).append("\n");
+		}
+	}
+
+	/**
+	 * Reads one response with "Content-Length" or chunked encoding and returns headers and body.
+	 */
+	private static String readResponse(InputStream in) throws IOException {
+		String headers = readHeaders(in);
+		StringBuilder response = new StringBuilder(headers).append("\n");
+		if (headers.contains("Transfer-Encoding: chunked")) {
+			while (true) {
+				int size = Integer.parseInt(readLine(in), 16);
+				if (size == 0) {
+					assertEquals("", readLine(in));
+					break;
+				}
+				response.append(new String(in.readNBytes(size), StandardCharsets.UTF_8));
+				assertEquals("", readLine(in));
+			}
+		} else {
+			String length = StringUtils.substringBetween(headers.toLowerCase(), "content-length: ", "\n");
+			assertNotNull(length, "Had: " + headers);
+			response.append(new String(in.readNBytes(Integer.parseInt(length)), StandardCharsets.UTF_8));
+		}
+		return response.toString();
+	}
+
+	private static byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		while (true) {
+			int size = Integer.parseInt(readLine(in), 16);
+			if (size == 0) {
+				assertEquals("", readLine(in));
+				return data.toByteArray();
+			}
+			data.write(in.readNBytes(size));
+			assertEquals("", readLine(in));
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			assertNotEquals(-1, c, "Unexpected end of stream after " + line);
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
 }
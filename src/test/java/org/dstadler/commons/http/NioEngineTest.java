@@ -0,0 +1,414 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.http.NanoHTTPD.Response;
+import org.dstadler.commons.net.SocketUtils;
+import org.dstadler.commons.net.UrlUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.dstadler.commons.testing.ThreadTestHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class NioEngineTest {
+	private static final byte[] LARGE = new byte[1_000_000];
+	static {
+		for (int i = 0; i < LARGE.length; i++) {
+			LARGE[i] = (byte) ('a' + i % 26);
+		}
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		ThreadTestHelper.waitForThreadToFinishSubstring("NanoHTTP", 10_000);
+
+		ThreadTestHelper.assertNoThreadLeft("NanoHTTP still had threads running", "NanoHTTP");
+	}
+
+	private static NanoHTTPD startServer(int port, int sessionTimeout) throws IOException {
+		return new NanoHTTPD(port, null, sessionTimeout, null, NanoHTTPD.Engine.NIO) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				if (uri.equals("/large")) {
+					// not a ByteArrayInputStream, so the length is not known
+					return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_DEFAULT_BINARY,
+							new BufferedInputStream(new ByteArrayInputStream(LARGE)));
+				}
+				if (uri.equals("/exception")) {
+					throw new IllegalStateException("testexception");
+				}
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT,
+						method + " " + uri + " " + parms.getProperty("a", "") + parms.getProperty("b", ""));
+			}
+		};
+	}
+
+	@Test
+	public void testServe() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = startServer(port, 0);
+		try {
+			assertTrue(Utils.getURL("http://localhost:" + port, new AtomicInteger(1), 1));
+
+			assertEquals("GET /test 1", UrlUtils.retrieveData("http://localhost:" + port + "/test?a=1", 10_000));
+
+			// same response format as the blocking engine
+			String response = request(port, "GET /some%20file HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			assertTrue(response.startsWith("HTTP/1.0 200 OK \r\nContent-Type: text/plain\r\nDate: "), "Had: " + response);
+			assertTrue(response.endsWith("\r\n\r\nGET /some file "), "Had: " + response);
+
+			response = request(port, "POST /post HTTP/1.0\r\nContent-Length: 7\r\n\r\nb=value");
+			assertTrue(response.endsWith("POST /post value"), "Had: " + response);
+
+			assertArrayEquals(LARGE, IOUtils.toByteArray(new URI("http://localhost:" + port + "/large").toURL()));
+
+			response = request(port, "GET /exception HTTP/1.0\r\n\r\n");
+			TestHelpers.assertContains(response, "500 Internal Server Error", "testexception");
+
+			response = request(port, "GET /a%zz HTTP/1.0\r\n\r\n");
+			TestHelpers.assertContains(response, "400 Bad Request", "Bad percent-encoding");
+
+			response = request(port, "GET\r\n");
+			TestHelpers.assertContains(response, "400 Bad Request", "Missing URI");
+		} finally {
+			httpd.stop();
+		}
+
+		assertEquals(0, httpd.getActiveSessions());
+		assertTrue(httpd.getCompletedSessions() >= 7, "Had: " + httpd.getCompletedSessions());
+	}
+
+	@Test
+	public void testKeepAlive() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = startServer(port, 0);
+		httpd.setKeepAlive(true);
+		httpd.setMaxKeepAliveRequests(5);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			OutputStream out = socket.getOutputStream();
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+
+			// pipelined requests in one write
+			out.write(("GET /first HTTP/1.1\r\n\r\n" +
+					"POST /second HTTP/1.1\r\nContent-Length: 3\r\n\r\na=1" +
+					"GET /large HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+
+			TestHelpers.assertContains(readHeaders(in), "HTTP/1.1 200 OK", "Content-Length: 11");
+			assertEquals("GET /first ", new String(in.readNBytes(11), StandardCharsets.US_ASCII));
+			TestHelpers.assertContains(readHeaders(in), "Content-Length: 14");
+			assertEquals("POST /second 1", new String(in.readNBytes(14), StandardCharsets.US_ASCII));
+
+			TestHelpers.assertContains(readHeaders(in), "Transfer-Encoding: chunked");
+			assertArrayEquals(LARGE, readChunked(in));
+
+			// the request is split up in several writes
+			out.write("GET /fourth HT".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+			Thread.sleep(50);
+			out.write("TP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			TestHelpers.assertContains(readHeaders(in), "Content-Length: 12");
+			assertEquals("GET /fourth ", new String(in.readNBytes(12), StandardCharsets.US_ASCII));
+
+			// the connection is closed after the maximum number of requests
+			out.write("HEAD /fifth HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			TestHelpers.assertContains(readHeaders(in), "Connection: close");
+			assertEquals("HEAD /fifth ", new String(in.readAllBytes(), StandardCharsets.US_ASCII));
+		} finally {
+			httpd.stop();
+		}
+	}
+
+	@Test
+	public void testManyIdleConnections() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = startServer(port, 0);
+		httpd.setKeepAlive(true);
+
+		List<Socket> sockets = new ArrayList<>();
+		try {
+			for (int i = 0; i < 500; i++) {
+				sockets.add(new Socket(InetAddress.getLoopbackAddress(), port));
+			}
+			for (int i = 0; i < 100 && httpd.getActiveSessions() < 500; i++) {
+				Thread.sleep(50);
+			}
+			assertEquals(500, httpd.getActiveSessions());
+
+			// a request on the last connection is still answered
+			Socket socket = sockets.get(499);
+			socket.getOutputStream().write("GET /last HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			TestHelpers.assertContains(IOUtils.toString(socket.getInputStream(), StandardCharsets.US_ASCII), "GET /last");
+
+			// stopping closes all connections
+			httpd.stop();
+			assertEquals(0, httpd.getActiveSessions());
+			assertEquals(-1, sockets.get(0).getInputStream().read());
+		} finally {
+			httpd.stop();
+			for (Socket socket : sockets) {
+				socket.close();
+			}
+		}
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = startServer(port, 500);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			// the request is never completed
+			socket.getOutputStream().write("GET /index.html HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+
+			String response = IOUtils.toString(socket.getInputStream(), StandardCharsets.UTF_8);
+			assertTrue(response.startsWith("HTTP/1.0 500 Internal Server Error"), "Had: " + response);
+		} finally {
+			httpd.stop();
+		}
+	}
+
+	@Test
+	public void testHeaderTimeout() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		NanoHTTPD httpd = startServer(port, 10_000);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			// each byte arrives within the session timeout, but the header takes too long
+			OutputStream out = socket.getOutputStream();
+			InputStream in = socket.getInputStream();
+			out.write("GET /index.html HTTP/1.1\r\nX-Slow: ".getBytes(StandardCharsets.UTF_8));
+			long start = System.currentTimeMillis();
+			try {
+				while (in.available() == 0 && System.currentTimeMillis() - start < 10_000) {
+					out.write('a');
+					out.flush();
+					Thread.sleep(100);
+				}
+			} catch (IOException e) {
+				// the server closed the connection
+			}
+
+			String response = IOUtils.toString(in, StandardCharsets.UTF_8);
+			TestHelpers.assertContains(response, "500 Internal Server Error", "Timeout while reading the header");
+			assertTrue(System.currentTimeMillis() - start < 8_000, "Took too long");
+		} finally {
+			httpd.stop();
+		}
+	}
+
+	@Test
+	public void testRejected() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 0, NanoHTTPD.newBoundedSessionExecutor(1, 1), NanoHTTPD.Engine.NIO) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				started.countDown();
+				try {
+					assertTrue(release.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, uri);
+			}
+		};
+
+		try (Socket active = new Socket(InetAddress.getLoopbackAddress(), port);
+			 Socket queued = new Socket(InetAddress.getLoopbackAddress(), port);
+			 Socket rejected = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			active.getOutputStream().write("GET /active HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			queued.getOutputStream().write("GET /queued HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			Thread.sleep(100);
+			rejected.getOutputStream().write("GET /rejected HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+
+			TestHelpers.assertContains(IOUtils.toString(rejected.getInputStream(), StandardCharsets.US_ASCII),
+					NanoHTTPD.HTTP_SERVICE_UNAVAILABLE);
+			assertEquals(1, httpd.getRejectedSessions());
+
+			release.countDown();
+			TestHelpers.assertContains(IOUtils.toString(active.getInputStream(), StandardCharsets.US_ASCII), "/active");
+			TestHelpers.assertContains(IOUtils.toString(queued.getInputStream(), StandardCharsets.US_ASCII), "/queued");
+		} finally {
+			release.countDown();
+			httpd.stop();
+		}
+	}
+
+	@Test
+	public void testFailingResponseReleasesResources() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		File uploadDir = Files.createTempDirectory("nanohttpd-upload").toFile();
+		AtomicBoolean closed = new AtomicBoolean();
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, NanoHTTPD.Engine.NIO) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				assertTrue(new File(parms.getProperty("file")).exists());
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_DEFAULT_BINARY, new FailingInputStream(closed));
+			}
+		};
+		httpd.setUploadDirectory(uploadDir);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			String body = "--b0undary\r\n" +
+					"Content-Disposition: form-data; name=\"file\"; filename=\"data.txt\"\r\n\r\n" +
+					"data\r\n" +
+					"--b0undary--\r\n";
+			socket.getOutputStream().write(("POST /upload HTTP/1.0\r\nContent-Type: multipart/form-data; boundary=b0undary\r\n" +
+					"Content-Length: " + body.length() + "\r\n\r\n" + body).getBytes(StandardCharsets.US_ASCII));
+
+			// the connection is closed after the first part of the data
+			String response = IOUtils.toString(socket.getInputStream(), StandardCharsets.US_ASCII);
+			assertTrue(response.endsWith("\r\n\r\nfirst"), "Had: " + response);
+
+			assertTrue(closed.get(), "The data of the response should be closed");
+			String[] files = uploadDir.list();
+			assertNotNull(files);
+			assertEquals(0, files.length, "Had: " + Arrays.toString(files));
+		} finally {
+			httpd.stop();
+			FileUtils.deleteDirectory(uploadDir);
+		}
+	}
+
+	@Test
+	public void testResponseAfterStopReleasesResources() throws Exception {
+		int port = SocketUtils.getNextFreePort(9000, 9010);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean closed = new AtomicBoolean();
+		NanoHTTPD httpd = new NanoHTTPD(port, null, 10_000, null, NanoHTTPD.Engine.NIO) {
+			@Override
+			public Response serve(String uri, String method, Properties header, Properties parms) {
+				started.countDown();
+				try {
+					assertTrue(release.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_DEFAULT_BINARY, new FailingInputStream(closed));
+			}
+		};
+
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.getOutputStream().write("GET /slow HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			// the response is only created after the I/O threads are stopped
+			Thread thread = new Thread(() -> {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				release.countDown();
+			}, "Release");
+			thread.start();
+			httpd.stop();
+			thread.join();
+		} finally {
+			release.countDown();
+		}
+
+		assertTrue(closed.get(), "The data of the response should be closed");
+		assertEquals(0, httpd.getActiveSessions());
+	}
+
+	/**
+	 * Returns some data and fails on the next read, records when it is closed.
+	 */
+	private static class FailingInputStream extends InputStream {
+		private final AtomicBoolean closed;
+		private boolean failing = false;
+
+		private FailingInputStream(AtomicBoolean closed) {
+			this.closed = closed;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0];
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (failing) {
+				throw new IOException("testexception");
+			}
+			failing = true;
+			byte[] data = "first".getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(data, 0, b, off, data.length);
+			return data.length;
+		}
+
+		@Override
+		public void close() {
+			closed.set(true);
+		}
+	}
+
+	private static String request(int port, String request) throws IOException {
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket.getOutputStream().write(request.getBytes(StandardCharsets.US_ASCII));
+			return IOUtils.toString(socket.getInputStream(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static String readHeaders(InputStream in) throws IOException {
+		StringBuilder headers = new StringBuilder();
+		while (true) {
+			String line = readLine(in);
+			if (line.isEmpty()) {
+				return headers.toString();
+			}
+			headers.append(line).append("\n");
+		}
+	}
+
+	private static byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		while (true) {
+			int size = Integer.parseInt(readLine(in), 16);
+			if (size == 0) {
+				assertEquals("", readLine(in));
+				return data.toByteArray();
+			}
+			data.write(in.readNBytes(size));
+			assertEquals("", readLine(in));
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\n') {
+			assertNotEquals(-1, c, "Unexpected end of stream after " + line);
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+}
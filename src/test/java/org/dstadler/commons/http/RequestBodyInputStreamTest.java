@@ -0,0 +1,132 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.Test;
+
+public class RequestBodyInputStreamTest {
+	private static InputStream stream(String data) {
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static String read(InputStream in) throws IOException {
+		return IOUtils.toString(in, StandardCharsets.ISO_8859_1);
+	}
+
+	@Test
+	public void testContentLength() throws IOException {
+		InputStream in = stream("a=1&b=2GET / HTTP/1.1");
+		try (RequestBodyInputStream body = new RequestBodyInputStream(in, 7, false, 100)) {
+			assertEquals("a=1&b=2", read(body));
+			assertEquals(-1, body.read());
+			assertEquals(7, body.getBytesRead());
+		}
+
+		// the following request is not consumed
+		assertEquals("GET / HTTP/1.1", read(in));
+	}
+
+	@Test
+	public void testEmpty() throws IOException {
+		InputStream in = stream("GET / HTTP/1.1");
+		try (RequestBodyInputStream body = new RequestBodyInputStream(in, 0, false, 100)) {
+			assertEquals(-1, body.read());
+			assertTrue(body.skipRemaining());
+		}
+		assertEquals("GET / HTTP/1.1", read(in));
+
+		try (RequestBodyInputStream body = new RequestBodyInputStream(new byte[0])) {
+			assertEquals(-1, body.read());
+		}
+	}
+
+	@Test
+	public void testUntilEnd() throws IOException {
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("some data"), -1, false, 100)) {
+			assertEquals("some data", read(body));
+		}
+	}
+
+	@Test
+	public void testChunked() throws IOException {
+		InputStream in = stream("3\r\nabc\r\n5;ext=1\r\ndefgh\r\n0\r\nTrailer: 1\r\n\r\nGET / HTTP/1.1");
+		try (RequestBodyInputStream body = new RequestBodyInputStream(in, 1000, true, 100)) {
+			assertEquals("abcdefgh", read(body));
+			assertEquals(8, body.getBytesRead());
+		}
+		assertEquals("GET / HTTP/1.1", read(in));
+
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("x\r\n"), -1, true, 100)) {
+			TestHelpers.assertContains(assertThrows(ProtocolException.class, () -> read(body)), "chunk size");
+		}
+	}
+
+	@Test
+	public void testSingleBytes() throws IOException {
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("2\r\nÿb\r\n0\r\n\r\n"), -1, true, 100)) {
+			assertEquals(0xff, body.read());
+			assertEquals('b', body.read());
+			assertEquals(-1, body.read());
+		}
+	}
+
+	@Test
+	public void testTooLarge() throws IOException {
+		// known in advance
+		assertThrows(RequestBodyInputStream.TooLargeException.class,
+				() -> new RequestBodyInputStream(stream("12345"), 5, false, 4));
+
+		// detected while reading
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("12345"), -1, false, 4)) {
+			TestHelpers.assertContains(assertThrows(RequestBodyInputStream.TooLargeException.class, () -> read(body)),
+					"TOO LARGE", "4 bytes");
+		}
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("3\r\nabc\r\n3\r\ndef\r\n0\r\n\r\n"), -1, true, 4)) {
+			assertThrows(RequestBodyInputStream.TooLargeException.class, () -> read(body));
+		}
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("12345"), -1, false, 4)) {
+			assertFalse(body.skipRemaining());
+		}
+	}
+
+	@Test
+	public void testTruncated() throws IOException {
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("abc"), 5, false, 100)) {
+			assertThrows(EOFException.class, () -> read(body));
+		}
+		try (RequestBodyInputStream body = new RequestBodyInputStream(stream("3\r\nabc\r\n"), -1, true, 100)) {
+			assertThrows(EOFException.class, () -> read(body));
+		}
+	}
+
+	@Test
+	public void testSkipRemaining() throws IOException {
+		InputStream in = stream("a=1&b=2GET / HTTP/1.1");
+		try (RequestBodyInputStream body = new RequestBodyInputStream(in, 7, false, 100)) {
+			assertEquals('a', body.read());
+			assertTrue(body.skipRemaining());
+			assertEquals(7, body.getBytesRead());
+		}
+		assertEquals("GET / HTTP/1.1", read(in));
+	}
+
+	@Test
+	public void testTempFiles() throws IOException {
+		File file;
+		try (RequestBodyInputStream body = new RequestBodyInputStream(new byte[0])) {
+			file = body.createTempFile(null);
+			assertTrue(file.exists());
+		}
+		assertFalse(file.exists());
+	}
+}
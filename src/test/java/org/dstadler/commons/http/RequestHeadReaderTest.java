@@ -0,0 +1,151 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.Test;
+
+public class RequestHeadReaderTest {
+	private static RequestHeadReader reader(String data) {
+		return new RequestHeadReader(new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1)), null);
+	}
+
+	@Test
+	public void testRequests() throws IOException {
+		RequestHeadReader reader = reader("GET /test?a=1 HTTP/1.1\r\nHost: localhost\r\nX-Test:  value \r\nCookie: a=1\r\ncookie: b=2\r\n\r\n" +
+				"POST\t/post  HTTP/1.0\nContent-Length: 0\n\n");
+
+		assertTrue(reader.readRequestLine());
+		assertEquals("GET", reader.getMethod());
+		assertEquals("/test?a=1", reader.getUri());
+		assertEquals("HTTP/1.1", reader.getVersion());
+
+		HttpHeaders headers = new HttpHeaders();
+		reader.readHeaders(headers, 0);
+		assertEquals(4, headers.size());
+		assertEquals("localhost", headers.get("host"));
+		assertEquals("value", headers.get("X-Test"));
+		assertEquals("[a=1, b=2]", headers.getAll("Cookie").toString());
+
+		// the buffer is reused for the next request
+		assertTrue(reader.readRequestLine());
+		assertEquals("POST", reader.getMethod());
+		assertEquals("/post", reader.getUri());
+		assertEquals("HTTP/1.0", reader.getVersion());
+		headers = new HttpHeaders();
+		reader.readHeaders(headers, 0);
+		assertEquals("0", headers.get("content-length"));
+
+		assertFalse(reader.readRequestLine());
+		assertNull(reader.getMethod());
+	}
+
+	@Test
+	public void testIncomplete() throws IOException {
+		RequestHeadReader reader = reader("GET /\r\n");
+		assertTrue(reader.readRequestLine());
+		assertEquals("/", reader.getUri());
+		assertNull(reader.getVersion());
+
+		reader = reader("  \r\n");
+		assertTrue(reader.readRequestLine());
+		assertNull(reader.getMethod());
+
+		reader = reader("GET");
+		assertTrue(reader.readRequestLine());
+		assertEquals("GET", reader.getMethod());
+		assertNull(reader.getUri());
+
+		// headers end with the stream
+		reader = reader("GET / HTTP/1.1\r\nHost: localhost\r\ninvalid\r\nAccept: */*");
+		assertTrue(reader.readRequestLine());
+		HttpHeaders headers = new HttpHeaders();
+		reader.readHeaders(headers, 0);
+		assertEquals(2, headers.size());
+		assertEquals("*/*", headers.get("accept"));
+	}
+
+	@Test
+	public void testParseRequestLine() {
+		byte[] line = " GET  /a b HTTP/1.1 more".getBytes(StandardCharsets.ISO_8859_1);
+		assertArrayEquals(new String[] { "GET", "/a", "b" }, RequestHeadReader.parseRequestLine(line, line.length));
+		assertArrayEquals(new String[] { "GET", "/a", null }, RequestHeadReader.parseRequestLine(line, 9));
+		assertArrayEquals(new String[] { null, null, null }, RequestHeadReader.parseRequestLine(line, 1));
+	}
+
+	@Test
+	public void testTooLarge() throws IOException {
+		String large = "a".repeat(HttpRequestParser.MAX_HEADER_SIZE / 2);
+		RequestHeadReader reader = reader("GET / HTTP/1.1\r\nX-1: " + large + "\r\nX-2: " + large + "\r\n\r\n");
+		assertTrue(reader.readRequestLine());
+		TestHelpers.assertContains(assertThrows(ProtocolException.class, () -> reader.readHeaders(new HttpHeaders(), 0)),
+				"too large");
+
+		// the limit applies to each request
+		String request = "GET / HTTP/1.1\r\nX-1: " + large + "\r\n\r\n";
+		RequestHeadReader next = reader(request + request);
+		for (int i = 0; i < 2; i++) {
+			assertTrue(next.readRequestLine());
+			next.readHeaders(new HttpHeaders(), 0);
+		}
+
+		TestHelpers.assertContains(assertThrows(ProtocolException.class,
+				() -> reader("GET /" + "a".repeat(HttpRequestParser.MAX_HEADER_SIZE)).readRequestLine()), "too large");
+	}
+
+	@Test
+	public void testTimeout() throws IOException, InterruptedException {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+			 Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			 Socket socket = server.accept()) {
+			socket.setSoTimeout(10_000);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = client.getOutputStream();
+			out.write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\nGET /slow HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII));
+			out.flush();
+
+			RequestHeadReader reader = new RequestHeadReader(in, socket);
+			assertTrue(reader.readRequestLine());
+			HttpHeaders headers = new HttpHeaders();
+			reader.readHeaders(headers, 1_000);
+			assertEquals("localhost", headers.get("host"));
+			assertEquals(10_000, socket.getSoTimeout());
+
+			// the client sends the headers slower than allowed, each byte would be within the timeout of the socket
+			assertTrue(reader.readRequestLine());
+			Thread sender = new Thread(() -> {
+				try {
+					for (int i = 0; i < 20; i++) {
+						out.write('a');
+						out.flush();
+						Thread.sleep(50);
+					}
+				} catch (IOException | InterruptedException e) {
+					// the test is finished
+				}
+			}, "RequestHeadReaderTest-sender");
+			sender.start();
+			try {
+				long start = System.currentTimeMillis();
+				assertThrows(SocketTimeoutException.class, () -> reader.readHeaders(new HttpHeaders(), 300));
+				long duration = System.currentTimeMillis() - start;
+				assertTrue(duration < 900, "Had: " + duration);
+				assertEquals(10_000, socket.getSoTimeout());
+			} finally {
+				sender.join(10_000);
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package org.dstadler.commons.http;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.http.NanoHTTPD.Response;
+import org.dstadler.commons.testing.TestHelpers;
+import org.dstadler.commons.util.ExecutorUtil;
+import org.junit.jupiter.api.Test;
+
+public class RouterTest {
+	private static Router.Handler handler(String name) {
+		return (uri, method, header, parms, body) -> {
+			StringBuilder text = new StringBuilder(name);
+			for (String key : new TreeSet<>(parms.stringPropertyNames())) {
+				text.append(' ').append(key).append('=').append(parms.getProperty(key));
+			}
+			return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, text.toString());
+		};
+	}
+
+	private static String route(Router router, String method, String uri) throws IOException {
+		Response r = router.route(uri, method, new Properties(), new Properties(), new ByteArrayInputStream(new byte[0]));
+		if (r == null) {
+			return null;
+		}
+		if (!NanoHTTPD.HTTP_OK.equals(r.status)) {
+			return r.status;
+		}
+		return IOUtils.toString(r.data, StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testRoutes() throws IOException {
+		Router router = new Router();
+		router.add("GET", "/", handler("root"));
+		router.add("GET", "/users", handler("users"));
+		router.add("GET", "/users/", handler("users-slash"));
+		router.add("GET", "/users/{id}", handler("user"));
+		router.add("GET", "/users/me", handler("me"));
+		router.add("GET", "/users/{id}/orders/{order}", handler("order"));
+		router.add("GET", "/static/*", handler("static"));
+		router.add("GET", "/*", handler("fallback"));
+
+		assertEquals("root", route(router, "GET", "/"));
+		assertEquals("users", route(router, "GET", "/users"));
+		assertEquals("users-slash", route(router, "GET", "/users/"));
+		assertEquals("user id=123", route(router, "GET", "/users/123"));
+		assertEquals("me", route(router, "GET", "/users/me"));
+		assertEquals("order id=me order=7", route(router, "GET", "/users/me/orders/7"));
+		assertEquals("static *=css/site.css", route(router, "GET", "/static/css/site.css"));
+		assertEquals("fallback *=users/123/other", route(router, "GET", "/users/123/other"));
+		assertEquals("fallback *=other", route(router, "GET", "/other"));
+
+		// the URI is used as passed to serve()
+		assertEquals("user id=a b", route(router, "GET", "/users/a b"));
+		assertEquals("users", route(router, "GET", "users"));
+	}
+
+	@Test
+	public void testNoMatch() throws IOException {
+		Router router = new Router();
+		router.add("GET", "/users/{id}", handler("user"));
+		router.add("GET", "/static/*", handler("static"));
+
+		assertNull(route(router, "GET", "/"));
+		assertNull(route(router, "GET", "/users"));
+		assertNull(route(router, "GET", "/users/"));
+		assertNull(route(router, "GET", "/users/1/2"));
+		assertNull(route(router, "GET", "/static"));
+		assertEquals("static *=", route(router, "GET", "/static/"));
+	}
+
+	@Test
+	public void testMethods() throws IOException {
+		Router router = new Router();
+		router.add("GET", "/item", handler("get"));
+		router.add("put", "/item", handler("put"));
+		router.add(null, "/any", handler("any"));
+		router.add("POST", "/any", handler("post"));
+
+		assertEquals("get", route(router, "GET", "/item"));
+		assertEquals("get", route(router, "HEAD", "/item"));
+		assertEquals("put", route(router, "PUT", "/item"));
+		assertEquals("put", route(router, "put", "/item"));
+		assertEquals("any", route(router, "DELETE", "/any"));
+		assertEquals("post", route(router, "POST", "/any"));
+
+		Response r = router.route("/item", "DELETE", new Properties(), new Properties(), new ByteArrayInputStream(new byte[0]));
+		assertNotNull(r);
+		assertEquals(NanoHTTPD.HTTP_METHOD_NOT_ALLOWED, r.status);
+		assertEquals("GET, PUT", r.header.getProperty("Allow"));
+	}
+
+	@Test
+	public void testInvalid() {
+		Router router = new Router();
+		router.add("GET", "/users/{id}", handler("user"));
+
+		assertThrows(IllegalArgumentException.class, () -> router.add("GET", "users", handler("x")));
+		assertThrows(IllegalArgumentException.class, () -> router.add("GET", null, handler("x")));
+		assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/x", null));
+		assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/*/x", handler("x")));
+		assertThrows(IllegalArgumentException.class, () -> router.add("GET", "/{}", handler("x")));
+		TestHelpers.assertContains(assertThrows(IllegalArgumentException.class,
+				() -> router.add("GET", "/users/{name}/x", handler("x"))), "conflicts");
+		TestHelpers.assertContains(assertThrows(IllegalArgumentException.class,
+				() -> router.add("get", "/users/{id}", handler("x"))), "registered already");
+	}
+
+	@Test
+	public void testExecutor() throws Exception {
+		// one thread without queue
+		ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<>(),
+				ExecutorUtil.createThreadFactory("RouterTest-slow-%d"));
+		ExecutorService failing = Executors.newSingleThreadExecutor(ExecutorUtil.createThreadFactory("RouterTest-failing"));
+		ExecutorService clients = Executors.newCachedThreadPool(ExecutorUtil.createThreadFactory("RouterTest-%d"));
+		try {
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			Router router = new Router();
+			router.add("GET", "/slow", (uri, method, header, parms, body) -> {
+				started.countDown();
+				try {
+					assertTrue(release.await(10, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, Thread.currentThread().getName());
+			}, executor);
+			router.add("GET", "/fast", handler("fast"));
+			router.add("GET", "/failing", (uri, method, header, parms, body) -> {
+				throw new IOException("failed");
+			}, failing);
+
+			Future<String> slow = clients.submit(() -> route(router, "GET", "/slow"));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			// the executor of the slow route is busy, other routes are not affected
+			assertEquals(NanoHTTPD.HTTP_SERVICE_UNAVAILABLE, route(router, "GET", "/slow"));
+			assertEquals("fast", route(router, "GET", "/fast"));
+
+			release.countDown();
+			TestHelpers.assertContains(slow.get(10, TimeUnit.SECONDS), "RouterTest-slow");
+
+			TestHelpers.assertContains(assertThrows(IOException.class, () -> route(router, "GET", "/failing")), "failed");
+		} finally {
+			ExecutorUtil.shutdownAndAwaitTermination(executor, 10_000);
+			ExecutorUtil.shutdownAndAwaitTermination(failing, 10_000);
+			ExecutorUtil.shutdownAndAwaitTermination(clients, 10_000);
+		}
+	}
+
+	@Test
+	public void testBody() throws IOException {
+		Router router = new Router();
+		router.add("POST", "/echo", (uri, method, header, parms, body) ->
+				new Response(NanoHTTPD.HTTP_OK, NanoHTTPD.MIME_PLAINTEXT, new String(body.readAllBytes(), StandardCharsets.UTF_8)));
+
+		InputStream body = new ByteArrayInputStream("data".getBytes(StandardCharsets.UTF_8));
+		Response r = router.route("/echo", "POST", new Properties(), new Properties(), body);
+		assertNotNull(r);
+		assertEquals("data", IOUtils.toString(r.data, StandardCharsets.UTF_8));
+	}
+}
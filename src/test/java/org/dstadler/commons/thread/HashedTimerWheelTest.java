@@ -0,0 +1,142 @@
+package org.dstadler.commons.thread;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.dstadler.commons.testing.ThreadTestHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HashedTimerWheelTest {
+    @AfterEach
+    public void tearDown() {
+        ThreadTestHelper.assertNoThreadLeft("Timer thread still running", "HashedTimerWheelTest");
+    }
+
+    @Test
+    public void testSchedule() throws InterruptedException {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        try (HashedTimerWheel timer = new HashedTimerWheel("HashedTimerWheelTest")) {
+            long start = System.nanoTime();
+            HashedTimerWheel.Timeout third = timer.schedule(() -> {
+                order.add(3);
+                done.countDown();
+            }, 150, TimeUnit.MILLISECONDS);
+            timer.schedule(() -> {
+                order.add(1);
+                done.countDown();
+            }, -1, TimeUnit.MILLISECONDS);
+            timer.schedule(() -> {
+                order.add(2);
+                done.countDown();
+            }, 50, TimeUnit.MILLISECONDS);
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150),
+                    "Should not run before the delay");
+            assertEquals(List.of(1, 2, 3), order);
+
+            assertTrue(third.isExpired());
+            assertFalse(third.isCancelled());
+            assertFalse(third.cancel());
+            assertEquals(0, timer.getPending());
+        }
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        try (HashedTimerWheel timer = new HashedTimerWheel("HashedTimerWheelTest")) {
+            HashedTimerWheel.Timeout cancelled = timer.schedule(() -> {
+                throw new IllegalStateException("Should not run");
+            }, 50, TimeUnit.MILLISECONDS);
+            HashedTimerWheel.Timeout other = timer.schedule(() -> {
+                throw new IllegalStateException("Should not run");
+            }, 0, TimeUnit.MILLISECONDS);
+            assertTrue(other.cancel());
+            assertEquals(1, timer.getPending());
+
+            // give the timer time to move it into the wheel
+            Thread.sleep(20);
+            assertTrue(cancelled.cancel());
+            assertFalse(cancelled.cancel());
+            assertTrue(cancelled.isCancelled());
+            assertEquals(0, timer.getPending());
+
+            timer.schedule(done::countDown, 100, TimeUnit.MILLISECONDS);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertFalse(cancelled.isExpired());
+            assertFalse(other.isExpired());
+        }
+    }
+
+    @Test
+    public void testRounds() throws InterruptedException {
+        // the delays are longer than one round of the small wheel
+        CountDownLatch done = new CountDownLatch(20);
+        List<Long> late = new CopyOnWriteArrayList<>();
+        try (HashedTimerWheel timer = new HashedTimerWheel("HashedTimerWheelTest", 1, TimeUnit.MILLISECONDS, 3)) {
+            for (int i = 0; i < 20; i++) {
+                long delay = 5 + i * 7;
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                timer.schedule(() -> {
+                    if (System.nanoTime() < deadline) {
+                        late.add(delay);
+                    }
+                    done.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(List.of(), late, "Tasks ran too early");
+        }
+    }
+
+    @Test
+    public void testFailingTask() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        try (HashedTimerWheel timer = new HashedTimerWheel("HashedTimerWheelTest")) {
+            timer.schedule(() -> {
+                throw new IllegalStateException("Expected in test");
+            }, 0, TimeUnit.MILLISECONDS);
+            timer.schedule(done::countDown, 20, TimeUnit.MILLISECONDS);
+            assertTrue(done.await(10, TimeUnit.SECONDS), "The timer should continue after a failing task");
+        }
+    }
+
+    @Test
+    public void testClose() throws InterruptedException {
+        HashedTimerWheel timer = new HashedTimerWheel("HashedTimerWheelTest");
+        HashedTimerWheel.Timeout timeout = timer.schedule(() -> {
+            throw new IllegalStateException("Should not run");
+        }, 1, TimeUnit.HOURS);
+        timer.close();
+        timer.close();
+
+        assertFalse(timeout.isExpired());
+        assertThrows(RejectedExecutionException.class, () -> timer.schedule(() -> {}, 1, TimeUnit.SECONDS));
+
+        // closing from a task does not wait for itself
+        HashedTimerWheel closing = new HashedTimerWheel("HashedTimerWheelTest");
+        closing.schedule(closing::close, 0, TimeUnit.MILLISECONDS);
+        ThreadTestHelper.waitForThreadToFinishSubstring("HashedTimerWheelTest", 10_000);
+    }
+
+    @Test
+    public void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimerWheel("HashedTimerWheelTest", 0, TimeUnit.MILLISECONDS, 10));
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimerWheel("HashedTimerWheelTest", 1, TimeUnit.MILLISECONDS, 0));
+        try (HashedTimerWheel timer = new HashedTimerWheel("HashedTimerWheelTest")) {
+            assertThrows(IllegalArgumentException.class, () -> timer.schedule(null, 1, TimeUnit.SECONDS));
+        }
+    }
+}
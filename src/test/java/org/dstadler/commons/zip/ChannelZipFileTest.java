@@ -0,0 +1,157 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.Test;
+
+public class ChannelZipFileTest {
+	@Test
+	public void testReadFromBytes() throws IOException {
+		byte[] zip = createZip(false, "file1.txt", "somedata", "dir/file2.txt", "otherdata");
+
+		try (ChannelZipFile zipFile = new ChannelZipFile("test.zip", zip)) {
+			assertEquals("test.zip", zipFile.getName());
+			assertEquals(2, zipFile.size());
+
+			List<ZipEntry> entries = zipFile.entries();
+			assertEquals("file1.txt", entries.get(0).getName());
+			assertEquals("dir/file2.txt", entries.get(1).getName());
+			assertEquals(8, entries.get(0).getSize());
+			assertEquals(ZipEntry.DEFLATED, entries.get(0).getMethod());
+
+			CRC32 crc = new CRC32();
+			crc.update("somedata".getBytes(StandardCharsets.UTF_8));
+			assertEquals(crc.getValue(), entries.get(0).getCrc());
+
+			try (InputStream stream = zipFile.getInputStream(zipFile.getEntry("dir/file2.txt"))) {
+				assertEquals("otherdata", IOUtils.toString(stream, StandardCharsets.UTF_8));
+			}
+			assertEquals("somedata", new String(zipFile.readFully(entries.get(0)), StandardCharsets.UTF_8));
+
+			assertNull(zipFile.getEntry("notexisting"));
+			ZipException e = assertThrows(ZipException.class,
+					() -> zipFile.getInputStream(new ZipEntry("notexisting")));
+			TestHelpers.assertContains(e, "notexisting", "test.zip");
+
+			TestHelpers.assertContains(zipFile.toString(), "test.zip");
+		}
+	}
+
+	@Test
+	public void testReadStoredFromFile() throws IOException {
+		File file = File.createTempFile("ChannelZipFileTest", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(file, createZip(true, "file1.txt", "somedata", "empty", ""));
+
+			try (ChannelZipFile zipFile = new ChannelZipFile(file)) {
+				assertEquals(2, zipFile.size());
+				assertEquals(ZipEntry.STORED, zipFile.getEntry("file1.txt").getMethod());
+
+				try (InputStream stream = zipFile.getInputStream(zipFile.getEntry("file1.txt"))) {
+					assertEquals("somedata", IOUtils.toString(stream, StandardCharsets.UTF_8));
+				}
+				try (InputStream stream = zipFile.getInputStream(zipFile.getEntry("empty"))) {
+					assertEquals("", IOUtils.toString(stream, StandardCharsets.UTF_8));
+				}
+			}
+		} finally {
+			assertTrue(file.delete());
+		}
+	}
+
+	@Test
+	public void testOpenNested() throws IOException {
+		byte[] inner = createZip(false, "inner.txt", "innerdata");
+
+		for (boolean stored : new boolean[] { true, false }) {
+			byte[] outer = createZip(stored, "nested.zip", inner);
+
+			try (ChannelZipFile zipFile = new ChannelZipFile("outer.zip", outer)) {
+				try (ChannelZipFile nested = zipFile.openNested(zipFile.getEntry("nested.zip"))) {
+					assertEquals("outer.zip!nested.zip", nested.getName());
+					assertEquals(1, nested.size());
+					try (InputStream stream = nested.getInputStream(nested.getEntry("inner.txt"))) {
+						assertEquals("innerdata", IOUtils.toString(stream, StandardCharsets.UTF_8));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidData() {
+		ZipException e = assertThrows(ZipException.class,
+				() -> new ChannelZipFile("invalid.zip", new byte[] { 1, 2, 3 }));
+		TestHelpers.assertContains(e, "invalid.zip");
+
+		e = assertThrows(ZipException.class,
+				() -> new ChannelZipFile("invalid.zip", new byte[1000]));
+		TestHelpers.assertContains(e, "END header", "invalid.zip");
+	}
+
+	@Test
+	public void testNotExistingFile() {
+		assertThrows(IOException.class,
+				() -> new ChannelZipFile(new File("notexisting.zip")));
+	}
+
+	@Test
+	public void testNestedNotAZip() throws IOException {
+		byte[] outer = createZip(true, "nested.zip", "not a zip");
+
+		try (ChannelZipFile zipFile = new ChannelZipFile("outer.zip", outer)) {
+			ZipException e = assertThrows(ZipException.class,
+					() -> zipFile.openNested(zipFile.getEntry("nested.zip")));
+			TestHelpers.assertContains(e, "outer.zip!nested.zip");
+		}
+	}
+
+	@Test
+	public void testClosed() throws IOException {
+		ChannelZipFile zipFile = new ChannelZipFile("test.zip", createZip(true, "file1.txt", "somedata"));
+		zipFile.close();
+
+		assertThrows(IOException.class,
+				() -> zipFile.readFully(zipFile.getEntry("file1.txt")));
+	}
+
+	static byte[] createZip(boolean stored, Object... nameAndContent) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ZipOutputStream zipout = new ZipOutputStream(bytes)) {
+			for (int i = 0; i < nameAndContent.length; i += 2) {
+				byte[] data = nameAndContent[i + 1] instanceof String ?
+						((String) nameAndContent[i + 1]).getBytes(StandardCharsets.UTF_8) :
+						(byte[]) nameAndContent[i + 1];
+
+				ZipEntry entry = new ZipEntry((String) nameAndContent[i]);
+				if (stored) {
+					CRC32 crc = new CRC32();
+					crc.update(data);
+
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(data.length);
+					entry.setCrc(crc.getValue());
+				}
+
+				zipout.putNextEntry(entry);
+				zipout.write(data);
+				zipout.closeEntry();
+			}
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,150 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class MappedZipFileTest {
+	private File zipFile;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		zipFile = File.createTempFile("MappedZipFileTest", ".zip");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		FileUtils.forceDelete(zipFile);
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		byte[] large = new byte[200_000];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) (i % 13);
+		}
+
+		for (boolean stored : new boolean[] { true, false }) {
+			FileUtils.writeByteArrayToFile(zipFile, ChannelZipFileTest.createZip(stored,
+					"file1.txt", "hello world", "dir/", "", "dir/large.bin", large, "empty.txt", "",
+					"dir/ümläut.txt", "umlaut"));
+
+			try (MappedZipFile zip = new MappedZipFile(zipFile)) {
+				assertEquals(5, zip.size());
+				assertEquals(zipFile.getPath(), zip.getName());
+				assertTrue(zip.contains("dir/large.bin"));
+				assertFalse(zip.contains("dir/large"));
+				assertNull(zip.getEntry("notexisting"));
+				assertNull(zip.getData("notexisting"));
+				assertNull(zip.getInputStream("notexisting"));
+
+				assertEquals("hello world", StandardCharsets.UTF_8.decode(zip.getData("file1.txt")).toString());
+				assertEquals("umlaut", StandardCharsets.UTF_8.decode(zip.getData("dir/ümläut.txt")).toString());
+				assertEquals(0, zip.getData("empty.txt").remaining());
+
+				ByteBuffer data = zip.getData("dir/large.bin");
+				assertEquals(large.length, data.remaining());
+				byte[] bytes = new byte[data.remaining()];
+				data.get(bytes);
+				assertArrayEquals(large, bytes);
+
+				try (InputStream stream = zip.getInputStream("dir/large.bin")) {
+					assertArrayEquals(large, IOUtils.toByteArray(stream));
+				}
+				try (InputStream stream = zip.getInputStream("empty.txt")) {
+					assertEquals(-1, stream.read());
+				}
+
+				// same information as in ZipFile
+				try (ZipFile expected = new ZipFile(zipFile)) {
+					ZipEntry expectedEntry = expected.getEntry("dir/large.bin");
+					ZipEntry entry = zip.getEntry("dir/large.bin");
+					assertEquals(expectedEntry.getName(), entry.getName());
+					assertEquals(expectedEntry.getSize(), entry.getSize());
+					assertEquals(expectedEntry.getCompressedSize(), entry.getCompressedSize());
+					assertEquals(expectedEntry.getCrc(), entry.getCrc());
+					assertEquals(expectedEntry.getMethod(), entry.getMethod());
+					assertEquals(expectedEntry.getTime(), entry.getTime());
+				}
+
+				TestHelpers.assertContains(zip.toString(), zipFile.getPath(), "entries: 5");
+			}
+		}
+	}
+
+	@Test
+	public void testStoredIsReadOnlySlice() throws IOException {
+		FileUtils.writeByteArrayToFile(zipFile, ChannelZipFileTest.createZip(true, "file1.txt", "hello world"));
+
+		try (MappedZipFile zip = new MappedZipFile(zipFile)) {
+			ByteBuffer data = zip.getData("file1.txt");
+			assertTrue(data.isReadOnly());
+			assertTrue(data.isDirect());
+			assertEquals(11, data.remaining());
+
+			// each call provides an independent buffer
+			data.get();
+			assertEquals(11, zip.getData("file1.txt").remaining());
+		}
+	}
+
+	@Test
+	public void testManyEntries() throws IOException {
+		List<Object> entries = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			entries.add("dir" + (i % 10) + "/file" + i + ".txt");
+			entries.add("content " + i);
+		}
+		FileUtils.writeByteArrayToFile(zipFile, ChannelZipFileTest.createZip(false, entries.toArray()));
+
+		try (MappedZipFile zip = new MappedZipFile(zipFile)) {
+			assertEquals(5000, zip.size());
+			for (int i = 0; i < 5000; i++) {
+				assertEquals("content " + i,
+						StandardCharsets.UTF_8.decode(zip.getData("dir" + (i % 10) + "/file" + i + ".txt")).toString());
+			}
+			assertFalse(zip.contains("dir0/file1.txt"));
+		}
+	}
+
+	@Test
+	public void testClosed() throws IOException {
+		FileUtils.writeByteArrayToFile(zipFile, ChannelZipFileTest.createZip(false, "file1.txt", "hello world"));
+
+		MappedZipFile zip = new MappedZipFile(zipFile);
+		InputStream stream = zip.getInputStream("file1.txt");
+		zip.close();
+
+		// streams which are open already can still be read
+		assertEquals("hello world", IOUtils.toString(stream, StandardCharsets.UTF_8));
+		stream.close();
+
+		IOException e = assertThrows(IOException.class, () -> zip.getData("file1.txt"));
+		TestHelpers.assertContains(e, "closed");
+		assertTrue(zip.contains("file1.txt"));
+	}
+
+	@Test
+	public void testInvalidFile() throws IOException {
+		FileUtils.writeStringToFile(zipFile, "not a zip file", "UTF-8");
+		assertThrows(ZipException.class, () -> new MappedZipFile(zipFile));
+
+		assertThrows(IOException.class, () -> new MappedZipFile(new File("notexisting.zip")));
+	}
+}
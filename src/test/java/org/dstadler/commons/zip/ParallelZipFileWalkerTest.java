@@ -0,0 +1,200 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.Test;
+
+public class ParallelZipFileWalkerTest {
+	@Test
+	public void testWalk() throws Exception {
+		File nestedZip = ZipFileWalkerTest.createNestedZip();
+		try {
+			ParallelZipFileWalker walker = new ParallelZipFileWalker(nestedZip);
+
+			// the handler is not thread-safe on purpose, calls are serialized by the walker
+			final List<String> files = new ArrayList<>();
+			final AtomicInteger logs = new AtomicInteger();
+			assertFalse(walker.walk((file, content) -> {
+				files.add(file.getPath());
+				if (file.getName().endsWith(".log")) {
+					TestHelpers.assertContains(IOUtils.toString(content, StandardCharsets.UTF_8), "Native watchdog feature turned off");
+					logs.incrementAndGet();
+				}
+				return false;
+			}));
+
+			assertEquals(8, files.size(), "Had: " + files);
+			assertEquals(2, logs.get());
+			assertTrue(files.contains(new File(nestedZip, "nested.zip/nested.zip/filename.log").getPath()),
+					"Had: " + files);
+		} finally {
+			assertTrue(nestedZip.delete());
+		}
+	}
+
+	@Test
+	public void testWalkMultipleFiles() throws Exception {
+		File nestedZip1 = ZipFileWalkerTest.createNestedZip();
+		File nestedZip2 = ZipFileWalkerTest.createNestedZip();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ParallelZipFileWalker walker = new ParallelZipFileWalker(pool, nestedZip1, nestedZip2);
+
+			final AtomicInteger count = new AtomicInteger();
+			assertFalse(walker.walk((file, content) -> {
+				count.incrementAndGet();
+				return false;
+			}));
+			assertEquals(16, count.get());
+		} finally {
+			pool.shutdown();
+			assertTrue(nestedZip1.delete());
+			assertTrue(nestedZip2.delete());
+		}
+	}
+
+	@Test
+	public void testWalkManyEntries() throws Exception {
+		Object[] nameAndContent = new Object[1000];
+		for (int i = 0; i < nameAndContent.length; i += 2) {
+			nameAndContent[i] = "file" + i;
+			nameAndContent[i + 1] = "content" + i;
+		}
+
+		File zip = File.createTempFile("ParallelZipFileWalkerTest", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(false, "nested.zip",
+					ChannelZipFileTest.createZip(true, nameAndContent)));
+
+			final AtomicInteger count = new AtomicInteger();
+			assertFalse(new ParallelZipFileWalker(zip).walk((file, content) -> {
+				count.incrementAndGet();
+				return false;
+			}));
+			assertEquals(501, count.get());
+
+			// stops as soon as the file is found
+			count.set(0);
+			assertTrue(new ParallelZipFileWalker(zip).walk((file, content) -> {
+				count.incrementAndGet();
+				return file.getName().equals("file200");
+			}));
+			assertTrue(count.get() < 501, "Had: " + count.get());
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testStopWalk() throws Exception {
+		File nestedZip = ZipFileWalkerTest.createNestedZip();
+		try {
+			ParallelZipFileWalker walker = new ParallelZipFileWalker(nestedZip);
+
+			final AtomicInteger count = new AtomicInteger();
+			assertTrue(walker.walk((file, content) -> {
+				count.incrementAndGet();
+				return true;
+			}));
+			assertEquals(1, count.get());
+		} finally {
+			assertTrue(nestedZip.delete());
+		}
+	}
+
+	@Test
+	public void testWalkException() throws Exception {
+		File nestedZip = ZipFileWalkerTest.createNestedZip();
+		try {
+			ParallelZipFileWalker walker = new ParallelZipFileWalker(nestedZip);
+
+			IOException e = assertThrows(IOException.class,
+					() -> walker.walk((file, content) -> {
+						throw new IOException("testexception");
+					}));
+			TestHelpers.assertContains(e, "testexception");
+		} finally {
+			assertTrue(nestedZip.delete());
+		}
+	}
+
+	@Test
+	public void testWalkRuntimeException() throws Exception {
+		Object[] nameAndContent = new Object[1000];
+		for (int i = 0; i < nameAndContent.length; i += 2) {
+			nameAndContent[i] = "file" + i;
+			nameAndContent[i + 1] = "content" + i;
+		}
+
+		File zip = File.createTempFile("ParallelZipFileWalkerTest", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(true, nameAndContent));
+
+			// the first failure stops the walk
+			final AtomicInteger count = new AtomicInteger();
+			IllegalStateException e = assertThrows(IllegalStateException.class,
+					() -> new ParallelZipFileWalker(zip).walk((file, content) -> {
+						count.incrementAndGet();
+						throw new IllegalStateException("testexception");
+					}));
+			TestHelpers.assertContains(e, "testexception");
+			assertTrue(count.get() < 500, "Had: " + count.get());
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testWalkLargeEntry() throws Exception {
+		byte[] large = new byte[(int) ParallelZipFileWalker.MAX_BUFFERED_SIZE + 1];
+		File zip = File.createTempFile("ParallelZipFileWalkerTest", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(false, "large", large, "small", "content"));
+
+			final List<String> contents = new ArrayList<>();
+			assertFalse(new ParallelZipFileWalker(zip).walk((file, content) -> {
+				contents.add(file.getName() + ":" + IOUtils.toByteArray(content).length);
+				return false;
+			}));
+			contents.sort(null);
+			assertEquals("[large:" + large.length + ", small:7]", contents.toString());
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testWalkInvalidNestedZip() throws Exception {
+		File zip = File.createTempFile("ParallelZipFileWalkerTest", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(false, "nested.zip", "not a zip"));
+
+			IOException e = assertThrows(IOException.class,
+					() -> new ParallelZipFileWalker(zip).walk((file, content) -> false));
+			TestHelpers.assertContains(e, "While handling file", "nested.zip");
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testWalkNotexisting() {
+		ParallelZipFileWalker walker = new ParallelZipFileWalker(new File("notexisting"));
+		IOException e = assertThrows(IOException.class, () -> walker.walk((OutputHandler) null));
+		assertTrue(e instanceof FileNotFoundException || e instanceof NoSuchFileException,
+				"Had: " + e.getClass());
+	}
+}
@@ -0,0 +1,172 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.dstadler.commons.util.ExecutorUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ParallelZipWriterTest {
+	private File zipFile;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		zipFile = File.createTempFile("ParallelZipWriterTest", ".zip");
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		FileUtils.forceDelete(zipFile);
+	}
+
+	@Test
+	public void testWrite() throws IOException {
+		byte[] large = createData(ParallelZipWriter.CHUNK_SIZE * 5 + 123);
+
+		File file = File.createTempFile("ParallelZipWriterTest", ".bin");
+		try {
+			FileUtils.writeByteArrayToFile(file, large);
+			File empty = File.createTempFile("ParallelZipWriterTest", ".txt");
+			try {
+				try (ParallelZipWriter writer = new ParallelZipWriter(zipFile, 3)) {
+					writer.addEntry("file1.txt", "some text".getBytes(StandardCharsets.UTF_8));
+					writer.addDirectory("dir");
+					writer.addFile("dir/large.bin", file);
+					writer.addFile("empty.txt", empty);
+					writer.addEntry("last.bin", large);
+				}
+			} finally {
+				FileUtils.forceDelete(empty);
+			}
+
+			try (ZipFile zip = new ZipFile(zipFile)) {
+				assertEquals(5, zip.size());
+				assertEquals("some text", read(zip, "file1.txt"));
+				assertTrue(zip.getEntry("dir/").isDirectory());
+				assertEquals("", read(zip, "empty.txt"));
+
+				ZipEntry entry = zip.getEntry("dir/large.bin");
+				assertEquals(large.length, entry.getSize());
+				assertEquals(crc(large), entry.getCrc());
+				assertEquals(file.lastModified() / 2000, entry.getTime() / 2000);
+				try (InputStream stream = zip.getInputStream(entry)) {
+					assertArrayEquals(large, IOUtils.toByteArray(stream));
+				}
+				try (InputStream stream = zip.getInputStream(zip.getEntry("last.bin"))) {
+					assertArrayEquals(large, IOUtils.toByteArray(stream));
+				}
+			}
+		} finally {
+			FileUtils.forceDelete(file);
+		}
+
+		// streaming access needs the data descriptors
+		try (ZipInputStream stream = new ZipInputStream(FileUtils.openInputStream(zipFile))) {
+			int count = 0;
+			while (stream.getNextEntry() != null) {
+				IOUtils.toByteArray(stream);
+				count++;
+			}
+			assertEquals(5, count);
+		}
+	}
+
+	@Test
+	public void testManyEntries() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(2, ExecutorUtil.createThreadFactory("ParallelZipWriterTest-%d"));
+		try {
+			try (ParallelZipWriter writer = new ParallelZipWriter(zipFile, executor, Deflater.BEST_SPEED)) {
+				for (int i = 0; i < 200; i++) {
+					writer.addEntry("file" + i + ".txt", ("content of file " + i).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			assertFalse(executor.isShutdown(), "Executor is not owned by the writer");
+		} finally {
+			ExecutorUtil.shutdownAndAwaitTermination(executor, 10_000);
+		}
+
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			assertEquals(200, zip.size());
+			assertEquals("content of file 0", read(zip, "file0.txt"));
+			assertEquals("content of file 199", read(zip, "file199.txt"));
+		}
+	}
+
+	@Test
+	public void testInvalid() throws IOException {
+		try (ParallelZipWriter writer = new ParallelZipWriter(zipFile, 1)) {
+			writer.addEntry("file1.txt", new byte[10]);
+
+			ZipException e = assertThrows(ZipException.class, () -> writer.addEntry("file1.txt", new byte[10]));
+			TestHelpers.assertContains(e, "duplicate entry", "file1.txt");
+
+			assertThrows(IOException.class, () -> writer.addFile("file2.txt", new File("notexisting.txt")));
+		}
+
+		// the writer is still usable after the errors above
+		try (ZipFile zip = new ZipFile(zipFile)) {
+			assertEquals(1, zip.size());
+		}
+
+		ParallelZipWriter writer = new ParallelZipWriter(zipFile, 1);
+		writer.close();
+		writer.close();
+		assertThrows(IOException.class, () -> writer.addEntry("file1.txt", new byte[10]));
+
+		assertThrows(IllegalArgumentException.class, () -> new ParallelZipWriter(zipFile, null, 10));
+	}
+
+	@Test
+	public void testCrc32Combine() {
+		byte[] data = createData(100_000);
+		for (int split : new int[] { 0, 1, 17, 50_000, 99_999, 100_000 }) {
+			CRC32 first = new CRC32();
+			first.update(data, 0, split);
+			CRC32 second = new CRC32();
+			second.update(data, split, data.length - split);
+
+			assertEquals(crc(data), ParallelZipWriter.crc32Combine(first.getValue(), second.getValue(), data.length - split),
+					"Failed for split at " + split);
+		}
+	}
+
+	private static byte[] createData(int length) {
+		// compressible, but not trivially
+		Random random = new Random(42);
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+	private static long crc(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	private static String read(ZipFile zip, String name) throws IOException {
+		try (InputStream stream = zip.getInputStream(zip.getEntry(name))) {
+			return IOUtils.toString(stream, StandardCharsets.UTF_8);
+		}
+	}
+}
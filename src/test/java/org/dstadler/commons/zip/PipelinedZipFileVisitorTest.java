@@ -0,0 +1,151 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+
+import org.dstadler.commons.testing.TestHelpers;
+import org.dstadler.commons.util.ExecutorUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class PipelinedZipFileVisitorTest {
+	private ExecutorService executor;
+
+	@BeforeEach
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4, ExecutorUtil.createThreadFactory("PipelinedZipFileVisitorTest-%d"));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		ExecutorUtil.shutdownAndAwaitTermination(executor, 10_000);
+	}
+
+	@Test
+	public void testVisit() throws IOException {
+		for (boolean stored : new boolean[] { true, false }) {
+			List<Object> entries = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				entries.add("file" + i + ".txt");
+				entries.add("content of file " + i);
+			}
+			entries.add("dir/");
+			entries.add("");
+			byte[] zip = ChannelZipFileTest.createZip(stored, entries.toArray());
+
+			Map<String, String> found = new ConcurrentHashMap<>();
+			new PipelinedZipFileVisitor(executor, 3, 1024) {
+				@Override
+				public void visit(ZipEntry entry, ByteBuffer data) {
+					found.put(entry.getName(), StandardCharsets.UTF_8.decode(data).toString());
+				}
+			}.walk(new ByteArrayInputStream(zip));
+
+			assertEquals(101, found.size());
+			assertEquals("content of file 0", found.get("file0.txt"));
+			assertEquals("content of file 99", found.get("file99.txt"));
+			assertEquals("", found.get("dir/"));
+		}
+	}
+
+	@Test
+	public void testLargeEntries() throws IOException {
+		byte[] large = new byte[300_000];
+		for (int i = 0; i < large.length; i++) {
+			large[i] = (byte) i;
+		}
+
+		// stored entries have the size available up-front, deflated ones are detected while reading
+		for (boolean stored : new boolean[] { true, false }) {
+			byte[] zip = ChannelZipFileTest.createZip(stored, "small.txt", "small", "large.bin", large, "after.txt", "after");
+
+			Map<String, Integer> sizes = new ConcurrentHashMap<>();
+			Map<String, byte[]> streamed = new ConcurrentHashMap<>();
+			Thread caller = Thread.currentThread();
+			new PipelinedZipFileVisitor(executor, 2, 100_000) {
+				@Override
+				public void visit(ZipEntry entry, ByteBuffer data) {
+					sizes.put(entry.getName(), data.remaining());
+				}
+
+				@Override
+				protected void visitLarge(ZipEntry entry, InputStream data) throws IOException {
+					assertSame(caller, Thread.currentThread());
+					streamed.put(entry.getName(), data.readAllBytes());
+				}
+			}.walk(new ByteArrayInputStream(zip));
+
+			assertEquals(2, sizes.size());
+			assertEquals(5, sizes.get("after.txt").intValue());
+			assertEquals(1, streamed.size());
+			assertArrayEquals(large, streamed.get("large.bin"));
+
+			// by default large entries are passed to visit() as well
+			sizes.clear();
+			new PipelinedZipFileVisitor(executor, 2, 100_000) {
+				@Override
+				public void visit(ZipEntry entry, ByteBuffer data) {
+					sizes.put(entry.getName(), data.remaining());
+				}
+			}.walk(new ByteArrayInputStream(zip));
+
+			assertEquals(3, sizes.size());
+			assertEquals(large.length, sizes.get("large.bin").intValue());
+		}
+	}
+
+	@Test
+	public void testVisitFails() throws IOException {
+		List<Object> entries = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			entries.add("file" + i + ".txt");
+			entries.add("content of file " + i);
+		}
+		byte[] zip = ChannelZipFileTest.createZip(false, entries.toArray());
+
+		AtomicInteger count = new AtomicInteger();
+		PipelinedZipFileVisitor visitor = new PipelinedZipFileVisitor(executor, 2, 1024) {
+			@Override
+			public void visit(ZipEntry entry, ByteBuffer data) throws IOException {
+				count.incrementAndGet();
+				if (entry.getName().equals("file10.txt")) {
+					throw new IOException("testexception");
+				}
+			}
+		};
+
+		IOException e = assertThrows(IOException.class, () -> visitor.walk(new ByteArrayInputStream(zip)));
+		TestHelpers.assertContains(e, "testexception");
+
+		// stops shortly after the failure
+		assertTrue(count.get() < 20, "Had: " + count.get());
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new PipelinedZipFileVisitor(executor, 0, 1024) {
+			@Override
+			public void visit(ZipEntry entry, ByteBuffer data) {
+			}
+		});
+		assertThrows(IllegalArgumentException.class, () -> new PipelinedZipFileVisitor(executor, 1, 0) {
+			@Override
+			public void visit(ZipEntry entry, ByteBuffer data) {
+			}
+		});
+	}
+}
@@ -0,0 +1,169 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.dstadler.commons.util.ExecutorUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+public class ZipExtractorTest {
+	private File toDir;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		toDir = File.createTempFile("ZipExtractorTest", "");
+		assertTrue(toDir.delete());
+		assertTrue(toDir.mkdir());
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		FileUtils.deleteDirectory(toDir);
+	}
+
+	@Test
+	public void testExtractStream() throws IOException {
+		byte[] large = createData(1_000_000);
+		for (boolean stored : new boolean[] { true, false }) {
+			byte[] zip = ChannelZipFileTest.createZip(stored,
+					"file1.txt", "some text", "dir/", "", "dir/sub/large.bin", large, "other/empty.txt", "");
+
+			// the buffers are reused for the second extraction
+			ZipExtractor extractor = new ZipExtractor().setBufferSize(4096);
+			for (int i = 0; i < 2; i++) {
+				FileUtils.cleanDirectory(toDir);
+
+				extractor.extract(new ByteArrayInputStream(zip), toDir);
+
+				assertEquals("some text", FileUtils.readFileToString(new File(toDir, "file1.txt"), "UTF-8"));
+				assertTrue(new File(toDir, "dir").isDirectory());
+				assertArrayEquals(large, FileUtils.readFileToByteArray(new File(toDir, "dir/sub/large.bin")));
+				assertEquals(0, new File(toDir, "other/empty.txt").length());
+			}
+		}
+	}
+
+	@Test
+	public void testExtractFile() throws IOException {
+		byte[] large = createData(300_000);
+		File zipFile = File.createTempFile("ZipExtractorTest", ".zip");
+		ExecutorService executor = Executors.newFixedThreadPool(4, ExecutorUtil.createThreadFactory("ZipExtractorTest-%d"));
+		try {
+			FileUtils.writeByteArrayToFile(zipFile, ChannelZipFileTest.createZip(false,
+					"a/b/c/file1.txt", "some text", "a/b/d/", "", "a/e/large.bin", large, "f/", ""));
+
+			for (ExecutorService directoryExecutor : new ExecutorService[] { null, executor }) {
+				FileUtils.cleanDirectory(toDir);
+
+				new ZipExtractor().setDirectoryExecutor(directoryExecutor).extract(zipFile, toDir);
+
+				assertEquals("some text", FileUtils.readFileToString(new File(toDir, "a/b/c/file1.txt"), "UTF-8"));
+				assertTrue(new File(toDir, "a/b/d").isDirectory());
+				assertTrue(new File(toDir, "f").isDirectory());
+				assertArrayEquals(large, FileUtils.readFileToByteArray(new File(toDir, "a/e/large.bin")));
+			}
+		} finally {
+			ExecutorUtil.shutdownAndAwaitTermination(executor, 10_000);
+			FileUtils.forceDelete(zipFile);
+		}
+	}
+
+	@Test
+	public void testOverwrite() throws IOException {
+		// an existing larger file is truncated
+		FileUtils.writeStringToFile(new File(toDir, "file1.txt"), "some longer existing text", "UTF-8");
+
+		new ZipExtractor().extract(new ByteArrayInputStream(ChannelZipFileTest.createZip(false, "file1.txt", "text")), toDir);
+
+		assertEquals("text", FileUtils.readFileToString(new File(toDir, "file1.txt"), "UTF-8"));
+	}
+
+	@Test
+	public void testInvalid() throws IOException {
+		File notExisting = new File(toDir, "notexisting");
+		IOException e = assertThrows(IOException.class,
+				() -> new ZipExtractor().extract(new ByteArrayInputStream(new byte[0]), notExisting));
+		TestHelpers.assertContains(e, "notexisting", "does not exist");
+
+		byte[] zip = ChannelZipFileTest.createZip(false, "../outside.txt", "text");
+		e = assertThrows(IOException.class,
+				() -> new ZipExtractor().extract(new ByteArrayInputStream(zip), toDir));
+		TestHelpers.assertContains(e, "../outside.txt", "outside of");
+		assertFalse(new File(toDir.getParentFile(), "outside.txt").exists());
+
+		assertThrows(IllegalArgumentException.class, () -> new ZipExtractor().setBufferSize(0));
+	}
+
+	@Disabled("for local micro-benchmarking only")
+	@Test
+	void microBenchmarkExtract() throws IOException {
+		File many = File.createTempFile("ZipExtractorTest", ".zip");
+		File huge = File.createTempFile("ZipExtractorTest", ".zip");
+		try {
+			byte[] small = createData(2_000);
+			writeZip(many, 20_000, small);
+			byte[] large = createData(100_000_000);
+			writeZip(huge, 3, large);
+
+			for (int run = 0; run < 5; run++) {
+				for (File zip : new File[] { many, huge }) {
+					FileUtils.cleanDirectory(toDir);
+					long start = System.currentTimeMillis();
+					try (InputStream stream = FileUtils.openInputStream(zip)) {
+						ZipUtils.extractZip(stream, toDir);
+					}
+					System.out.println(zip.getName() + ": default: " + (System.currentTimeMillis() - start) + "ms");
+
+					for (int bufferSize : new int[] { 8192, 64 * 1024, 1024 * 1024 }) {
+						ZipExtractor extractor = new ZipExtractor().setBufferSize(bufferSize);
+
+						FileUtils.cleanDirectory(toDir);
+						start = System.currentTimeMillis();
+						extractor.extract(zip, toDir);
+						System.out.println(zip.getName() + ": buffer: " + bufferSize +
+								": " + (System.currentTimeMillis() - start) + "ms");
+					}
+				}
+			}
+		} finally {
+			FileUtils.forceDelete(many);
+			FileUtils.forceDelete(huge);
+		}
+	}
+
+	private static void writeZip(File file, int count, byte[] data) throws IOException {
+		try (OutputStream out = new FileOutputStream(file);
+			 ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int i = 0; i < count; i++) {
+				zip.putNextEntry(new ZipEntry("dir" + (i % 100) + "/file" + i + ".bin"));
+				zip.write(data);
+				zip.closeEntry();
+			}
+		}
+	}
+
+	private static byte[] createData(int length) {
+		Random random = new Random(42);
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(16));
+		}
+		return data;
+	}
+}
@@ -0,0 +1,179 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.Test;
+
+public class ZipFileCacheTest {
+	@Test
+	public void testCachedAccess() throws IOException {
+		File zip = createZip("filename", "somedata");
+		try (ZipFileCache cache = new ZipFileCache(10)) {
+			assertEquals(0, cache.size());
+
+			for (int i = 0; i < 5; i++) {
+				assertEquals("somedata", cache.getZipStringContentsRecursive(zip.getAbsolutePath() + "!filename"));
+			}
+
+			assertEquals(1, cache.size());
+			assertEquals(1, cache.getMissCount());
+			assertEquals(4, cache.getHitCount());
+			TestHelpers.assertContains(cache.toString(), "archives: 1", "hits: 4");
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testNested() throws IOException {
+		File zip = File.createTempFile("ZipFileCacheTest", ".zip");
+		try (ZipFileCache cache = new ZipFileCache(10)) {
+			byte[] inner = ChannelZipFileTest.createZip(false, "filename", "somedata");
+			byte[] middle = ChannelZipFileTest.createZip(false, "inner.jar", inner);
+			FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(false, "middle.zip", middle));
+
+			String name = zip.getAbsolutePath() + "!middle.zip!inner.jar!filename";
+			try (InputStream stream = cache.getZipContentsRecursive(name)) {
+				assertEquals("somedata", IOUtils.toString(stream, StandardCharsets.UTF_8));
+			}
+			assertEquals(3, cache.size());
+			assertEquals(3, cache.getMissCount());
+
+			assertEquals("somedata", cache.getZipStringContentsRecursive(name));
+			assertEquals(3, cache.getMissCount());
+			assertEquals(3, cache.getHitCount());
+
+			IOException e = assertThrows(IOException.class,
+					() -> cache.getZipContentsRecursive(zip.getAbsolutePath() + "!middle.zip!other.jar!filename"));
+			TestHelpers.assertContains(e, "other.jar");
+
+			e = assertThrows(IOException.class,
+					() -> cache.getZipContentsRecursive(zip.getAbsolutePath() + "!middle.zip!inner.jar!notexisting"));
+			TestHelpers.assertContains(e, "notexisting");
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testEvictionWhileInUse() throws IOException {
+		File zip1 = createZip("filename", "somedata1");
+		File zip2 = createZip("filename", "somedata2");
+		try (ZipFileCache cache = new ZipFileCache(1)) {
+			try (InputStream stream = cache.getZipContentsRecursive(zip1.getAbsolutePath() + "!filename")) {
+				// evicts the first archive while the stream is still open
+				assertEquals("somedata2", cache.getZipStringContentsRecursive(zip2.getAbsolutePath() + "!filename"));
+				assertEquals(1, cache.size());
+
+				assertEquals("somedata1", IOUtils.toString(stream, StandardCharsets.UTF_8));
+			}
+
+			assertEquals("somedata1", cache.getZipStringContentsRecursive(zip1.getAbsolutePath() + "!filename"));
+			assertEquals(3, cache.getMissCount());
+		} finally {
+			assertTrue(zip1.delete());
+			assertTrue(zip2.delete());
+		}
+	}
+
+	@Test
+	public void testCloseTwice() throws IOException {
+		File zip1 = createZip("filename", "somedata1");
+		File zip2 = createZip("filename", "somedata2");
+		try (ZipFileCache cache = new ZipFileCache(1)) {
+			InputStream first = cache.getZipContentsRecursive(zip1.getAbsolutePath() + "!filename");
+			try (InputStream second = cache.getZipContentsRecursive(zip1.getAbsolutePath() + "!filename")) {
+				// evicts the first archive while both streams are open
+				assertEquals("somedata2", cache.getZipStringContentsRecursive(zip2.getAbsolutePath() + "!filename"));
+
+				assertEquals("somedata1", IOUtils.toString(first, StandardCharsets.UTF_8));
+				first.close();
+				first.close();
+
+				// the archive is still open for the second stream
+				assertEquals("somedata1", IOUtils.toString(second, StandardCharsets.UTF_8));
+			}
+		} finally {
+			assertTrue(zip1.delete());
+			assertTrue(zip2.delete());
+		}
+	}
+
+	@Test
+	public void testNestedMemoryLimit() throws IOException {
+		File zip = File.createTempFile("ZipFileCacheTest", ".zip");
+		try (ZipFileCache cache = new ZipFileCache(10, 0)) {
+			byte[] inner = ChannelZipFileTest.createZip(false, "filename", "somedata");
+			FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(false, "inner.jar", inner));
+
+			assertEquals("somedata", cache.getZipStringContentsRecursive(zip.getAbsolutePath() + "!inner.jar!filename"));
+
+			// nested archive is not kept because of the limit
+			assertEquals(1, cache.size());
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testChangedFile() throws IOException {
+		File zip = createZip("filename", "somedata");
+		try (ZipFileCache cache = new ZipFileCache(10)) {
+			assertEquals("somedata", cache.getZipStringContentsRecursive(zip.getAbsolutePath() + "!filename"));
+
+			FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(false, "filename", "some other data"));
+
+			assertEquals("some other data", cache.getZipStringContentsRecursive(zip.getAbsolutePath() + "!filename"));
+			assertEquals(2, cache.getMissCount());
+			assertEquals(1, cache.size());
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	@Test
+	public void testErrors() throws IOException {
+		assertThrows(IllegalArgumentException.class, () -> new ZipFileCache(0));
+		assertThrows(IllegalArgumentException.class, () -> new ZipFileCache(1, -1));
+
+		File zip = createZip("filename", "somedata");
+		try {
+			ZipFileCache cache = new ZipFileCache(10);
+
+			IOException e = assertThrows(IOException.class,
+					() -> cache.getZipContentsRecursive("notexisting.zip!filename"));
+			TestHelpers.assertContains(e, "notexisting.zip");
+
+			e = assertThrows(IOException.class,
+					() -> cache.getZipContentsRecursive(zip.getAbsolutePath() + "!notexisting"));
+			TestHelpers.assertContains(e, "notexisting");
+
+			// plain files are supported as well
+			try (InputStream stream = cache.getZipContentsRecursive(zip.getAbsolutePath())) {
+				assertEquals(zip.length(), IOUtils.toByteArray(stream).length);
+			}
+
+			cache.close();
+
+			e = assertThrows(IOException.class,
+					() -> cache.getZipContentsRecursive(zip.getAbsolutePath() + "!filename"));
+			TestHelpers.assertContains(e, "closed");
+		} finally {
+			assertTrue(zip.delete());
+		}
+	}
+
+	private static File createZip(String name, String content) throws IOException {
+		File zip = File.createTempFile("ZipFileCacheTest", ".zip");
+		FileUtils.writeByteArrayToFile(zip, ChannelZipFileTest.createZip(false, name, content));
+		return zip;
+	}
+}
@@ -2,12 +2,14 @@ package org.dstadler.commons.zip;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
@@ -159,4 +161,15 @@ public class ZipFileCloseInputStreamTest {
 					() -> new ZipFileCloseInputStream(null, prepareZip));
 		}
 	}
+
+	@Test
+	public void testCloseTwice() throws IOException {
+		AtomicInteger closed = new AtomicInteger();
+		ZipFileCloseInputStream stream = new ZipFileCloseInputStream(
+				new ByteArrayInputStream(new byte[10]), closed::incrementAndGet);
+		stream.close();
+		stream.close();
+
+		assertEquals(1, closed.get());
+	}
 }
@@ -0,0 +1,179 @@
+package org.dstadler.commons.zip;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.dstadler.commons.testing.TestHelpers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ZipIndexTest {
+	private File indexFile;
+	private File zip1;
+	private File zip2;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+		indexFile = File.createTempFile("ZipIndexTest", ".idx");
+		assertTrue(indexFile.delete());
+
+		zip1 = File.createTempFile("ZipIndexTest", ".zip");
+		byte[] inner = ChannelZipFileTest.createZip(false, "inner.txt", "some text in a nested file", "binary.bin", new byte[] { 'a', 'b', 'c', 0, 1 });
+		FileUtils.writeByteArrayToFile(zip1, ChannelZipFileTest.createZip(false,
+				"file1.txt", "hello world", "dir/", "", "nested.jar", inner));
+
+		zip2 = File.createTempFile("ZipIndexTest", ".zip");
+		FileUtils.writeByteArrayToFile(zip2, ChannelZipFileTest.createZip(true, "file2.txt", "goodbye world"));
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException {
+		FileUtils.forceDelete(zip1);
+		FileUtils.forceDelete(zip2);
+		if (indexFile.exists()) {
+			FileUtils.forceDelete(indexFile);
+		}
+	}
+
+	@Test
+	public void testNames() throws IOException {
+		try (ZipIndex index = ZipIndex.update(indexFile, Arrays.asList(zip1, zip2), false)) {
+			assertEquals(Arrays.asList(zip1.getAbsolutePath(), zip2.getAbsolutePath()), index.getArchives());
+			assertEquals(6, index.size());
+			assertFalse(index.isContentIndexed());
+
+			List<ZipEntryInfo> entries = index.find(FileFilterUtils.suffixFileFilter(".txt"));
+			assertEquals(Arrays.asList(
+					zip1.getAbsolutePath() + "!file1.txt",
+					zip1.getAbsolutePath() + "!nested.jar!inner.txt",
+					zip2.getAbsolutePath() + "!file2.txt"), paths(entries));
+
+			// information is the same as when listing the archive directly
+			List<ZipEntryInfo> listed = ZipUtils.listZipRecursive(zip1.getAbsoluteFile());
+			ZipEntryInfo expected = listed.stream().filter(e -> e.getName().equals("inner.txt")).findFirst().orElseThrow();
+			ZipEntryInfo actual = entries.get(1);
+			assertEquals("inner.txt", actual.getName());
+			assertEquals(expected.getSize(), actual.getSize());
+			assertEquals(expected.getCompressedSize(), actual.getCompressedSize());
+			assertEquals(expected.getCrc(), actual.getCrc());
+			assertEquals(expected.getMethod(), actual.getMethod());
+			assertEquals(expected.getTime(), actual.getTime());
+
+			assertThrows(IllegalStateException.class, () -> index.findContentCandidates("world"));
+			TestHelpers.assertContains(index.toString(), "archives: 2", "entries: 6");
+		}
+
+		// can be opened again
+		try (ZipIndex index = ZipIndex.open(indexFile)) {
+			assertEquals(6, index.size());
+		}
+	}
+
+	@Test
+	public void testNameWithDelimiter() throws IOException {
+		FileUtils.writeByteArrayToFile(zip2, ChannelZipFileTest.createZip(false, "dir/file!1.txt", "text"));
+
+		try (ZipIndex index = ZipIndex.update(indexFile, Collections.singletonList(zip2), false)) {
+			List<ZipEntryInfo> entries = index.find(FileFilterUtils.nameFileFilter("file!1.txt"));
+			assertEquals(1, entries.size());
+			assertEquals("dir/file!1.txt", entries.get(0).getName());
+			assertEquals(zip2.getAbsolutePath() + "!dir/file!1.txt", entries.get(0).getPath());
+		}
+	}
+
+	@Test
+	public void testUpdateWhileOpen() throws IOException {
+		try (ZipIndex index = ZipIndex.update(indexFile, Collections.singletonList(zip1), false)) {
+			// the open index keeps the previous state
+			try (ZipIndex updated = ZipIndex.update(indexFile, Arrays.asList(zip1, zip2), false)) {
+				assertEquals(6, updated.size());
+			}
+			assertEquals(5, index.size());
+		}
+	}
+
+	@Test
+	public void testContent() throws IOException {
+		try (ZipIndex index = ZipIndex.update(indexFile, Arrays.asList(zip1, zip2), true)) {
+			assertTrue(index.isContentIndexed());
+
+			assertEquals(Arrays.asList(
+					zip1.getAbsolutePath() + "!file1.txt",
+					zip2.getAbsolutePath() + "!file2.txt"), paths(index.findContentCandidates("world")));
+			assertEquals(Collections.singletonList(zip1.getAbsolutePath() + "!nested.jar!inner.txt"),
+					paths(index.findContentCandidates("nested file")));
+			assertEquals(0, index.findContentCandidates("notfound").size());
+
+			// binary files are not indexed
+			assertEquals(0, index.findContentCandidates("abc").size());
+
+			// short texts match all text files
+			assertEquals(3, index.findContentCandidates("w").size());
+		}
+	}
+
+	@Test
+	public void testIncrementalUpdate() throws IOException {
+		try (ZipIndex index = ZipIndex.update(indexFile, Collections.singletonList(zip1), true)) {
+			assertEquals(1, index.findContentCandidates("hello").size());
+		}
+
+		// make the unchanged archive unreadable as zip while keeping size and time to verify that it is not read again
+		long lastModified = zip1.lastModified();
+		byte[] data = FileUtils.readFileToByteArray(zip1);
+		FileUtils.writeByteArrayToFile(zip1, new byte[data.length]);
+		assertTrue(zip1.setLastModified(lastModified));
+
+		try (ZipIndex index = ZipIndex.update(indexFile, Arrays.asList(zip1, zip2), true)) {
+			assertEquals(2, index.getArchives().size());
+			assertEquals(1, index.findContentCandidates("hello").size());
+			assertEquals(1, index.findContentCandidates("nested file").size());
+			assertEquals(1, index.findContentCandidates("goodbye").size());
+		}
+
+		// a changed archive is read again
+		FileUtils.writeByteArrayToFile(zip2, ChannelZipFileTest.createZip(true, "file3.txt", "some other content"));
+		try (ZipIndex index = ZipIndex.update(indexFile, Collections.singletonList(zip2), true)) {
+			assertEquals(1, index.getArchives().size());
+			assertEquals(0, index.findContentCandidates("goodbye").size());
+			assertEquals(1, index.findContentCandidates("other content").size());
+		}
+	}
+
+	@Test
+	public void testInvalidIndex() throws IOException {
+		FileUtils.writeStringToFile(indexFile, "not an index", "UTF-8");
+
+		IOException e = assertThrows(IOException.class, () -> ZipIndex.open(indexFile));
+		TestHelpers.assertContains(e, "not a valid index");
+
+		// is rebuilt
+		try (ZipIndex index = ZipIndex.update(indexFile, Collections.singletonList(zip2), false)) {
+			assertEquals(1, index.size());
+		}
+	}
+
+	@Test
+	public void testNotExistingArchive() {
+		assertThrows(IOException.class,
+				() -> ZipIndex.update(indexFile, Collections.singletonList(new File("notexisting.zip")), false));
+		assertFalse(indexFile.exists());
+	}
+
+	private static List<String> paths(List<ZipEntryInfo> entries) {
+		List<String> paths = new ArrayList<>();
+		for (ZipEntryInfo entry : entries) {
+			paths.add(entry.getPath());
+		}
+		return paths;
+	}
+}
@@ -2,6 +2,7 @@ package org.dstadler.commons.zip;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -11,16 +12,24 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.FileFilterUtils;
+import org.apache.commons.io.function.IOSupplier;
 import org.dstadler.commons.testing.PrivateConstructorCoverage;
 import org.dstadler.commons.testing.TestHelpers;
 import org.dstadler.commons.zip.ZipUtils.ZipFileVisitor;
@@ -158,6 +167,72 @@ public class ZipUtilsTest {
 		TestHelpers.assertContains(e, "zipfileNotExist.zip");
 	}
 
+	@Test
+	public void testGetZipContentsRecursiveInMemory() throws Exception {
+		File zipfile2 = createNestedZip();
+
+		try {
+			try (InputStream zipContents = ZipUtils.getZipContentsRecursiveInMemory(zipfile2.getAbsolutePath() + "!nested.zip!filename")) {
+				assertEquals("somedata",
+						IOUtils.toString(zipContents, StandardCharsets.UTF_8));
+			}
+
+			try (InputStream zipContents = ZipUtils.getZipContentsRecursiveInMemory(zipfile2.getAbsolutePath() + "!dir/file2")) {
+				assertEquals("testcontent",
+						IOUtils.toString(zipContents, StandardCharsets.UTF_8));
+			}
+
+			assertEquals("somedata",
+					ZipUtils.getZipStringContentsRecursiveInMemory(zipfile2.getAbsolutePath() + "!nested.zip!filename"));
+
+			IOException e = assertThrows(IOException.class,
+					() -> ZipUtils.getZipContentsRecursiveInMemory(zipfile2.getAbsolutePath() + "!zipfileDiff.zip!filename"));
+			TestHelpers.assertContains(e, "zipfileDiff.zip");
+
+			e = assertThrows(IOException.class,
+					() -> ZipUtils.getZipContentsRecursiveInMemory(zipfile2.getAbsolutePath() + "!nested.zip!notexisting"));
+			TestHelpers.assertContains(e, "notexisting", "nested.zip");
+		} finally {
+			assertTrue(zipfile2.exists());
+			assertTrue(zipfile2.delete());
+		}
+	}
+
+	@Test
+	public void testGetZipContentsRecursiveInMemoryStored() throws Exception {
+		File zipfile = File.createTempFile("zipfile", ".zip");
+		try {
+			byte[] inner = ChannelZipFileTest.createZip(false, "filename", "somedata");
+			byte[] middle = ChannelZipFileTest.createZip(true, "inner.jar", inner);
+			FileUtils.writeByteArrayToFile(zipfile, ChannelZipFileTest.createZip(true, "middle.zip", middle));
+
+			try (InputStream zipContents = ZipUtils.getZipContentsRecursiveInMemory(zipfile.getAbsolutePath() + "!middle.zip!inner.jar!filename")) {
+				assertEquals("somedata", IOUtils.toString(zipContents, StandardCharsets.UTF_8));
+			}
+		} finally {
+			assertTrue(zipfile.delete());
+		}
+	}
+
+	@Test
+	public void testGetZipContentsRecursiveInMemoryNoZip() throws Exception {
+		File file = File.createTempFile("somefile", ".txt");
+		try {
+			FileUtils.writeStringToFile(file, "somedata", "UTF-8");
+
+			try (InputStream zipContents = ZipUtils.getZipContentsRecursiveInMemory(file.getAbsolutePath())) {
+				assertEquals("somedata", IOUtils.toString(zipContents, StandardCharsets.UTF_8));
+			}
+			assertEquals("somedata", ZipUtils.getZipStringContentsRecursiveInMemory(file.getAbsolutePath()));
+		} finally {
+			assertTrue(file.delete());
+		}
+
+		IOException e = assertThrows(IOException.class,
+				() -> ZipUtils.getZipContentsRecursiveInMemory("zipfileNotExist.zip!filename"));
+		TestHelpers.assertContains(e, "zipfileNotExist.zip");
+	}
+
 	@Test
 	public void testIsZip() {
 		assertTrue(ZipUtils.isZip("file.zip"));
@@ -222,6 +297,86 @@ public class ZipUtilsTest {
 		}
 	}
 
+	@Test
+	public void testFindZipParallel() throws Exception {
+		File zipfile = createNestedZip();
+
+		try {
+			List<String> expected = new ArrayList<>();
+			try (InputStream zipInput = new FileInputStream(zipfile)) {
+				ZipUtils.findZip(zipfile.getPath(), zipInput, FileFilterUtils.trueFileFilter(), expected);
+			}
+
+			List<String> results = ZipUtils.findZip(zipfile, FileFilterUtils.trueFileFilter(), ForkJoinPool.commonPool());
+			assertEquals(6, results.size(), "Had: " + results);
+
+			// order is not defined for the parallel search
+			Collections.sort(expected);
+			Collections.sort(results);
+			assertEquals(expected, results);
+
+			assertEquals(0, ZipUtils.findZip(zipfile, FileFilterUtils.falseFileFilter(), ForkJoinPool.commonPool()).size());
+
+			assertThrows(IOException.class,
+					() -> ZipUtils.findZip(new File("notexisting.zip"), FileFilterUtils.trueFileFilter(), ForkJoinPool.commonPool()));
+		} finally {
+			assertTrue(zipfile.delete());
+		}
+	}
+
+	@Test
+	public void testListZipRecursive() throws Exception {
+		File zipfile = createNestedZip();
+
+		try {
+			List<String> expected = new ArrayList<>();
+			try (InputStream zipInput = new FileInputStream(zipfile)) {
+				ZipUtils.findZip(zipfile.getPath(), zipInput, FileFilterUtils.trueFileFilter(), expected);
+			}
+
+			List<ZipEntryInfo> entries = ZipUtils.listZipRecursive(zipfile);
+			assertEquals(expected.size(), entries.size());
+			for (int i = 0; i < entries.size(); i++) {
+				assertEquals(expected.get(i), entries.get(i).getPath());
+			}
+
+			ZipEntryInfo info = entries.stream().filter(e -> e.getName().equals("filename")).findFirst().orElseThrow();
+			assertEquals(zipfile.getPath() + "!nested.zip!filename", info.getPath());
+			assertEquals(8, info.getSize());
+			assertEquals(ZipEntry.DEFLATED, info.getMethod());
+			assertFalse(info.isDirectory());
+
+			CRC32 crc = new CRC32();
+			crc.update("somedata".getBytes(StandardCharsets.UTF_8));
+			assertEquals(crc.getValue(), info.getCrc());
+			TestHelpers.assertContains(info.toString(), "filename", "8 bytes");
+		} finally {
+			assertTrue(zipfile.delete());
+		}
+	}
+
+	@Test
+	public void testListZipRecursiveInMemory() throws Exception {
+		byte[] inner = ChannelZipFileTest.createZip(true, "dir/", "", "dir/file.txt", "somedata");
+		byte[] outer = ChannelZipFileTest.createZip(true, "inner.jar", inner, "other.txt", "otherdata");
+
+		List<ZipEntryInfo> entries = ZipUtils.listZipRecursive("outer.zip", outer);
+		assertEquals(4, entries.size());
+		assertEquals("outer.zip!inner.jar", entries.get(0).getPath());
+		assertEquals("outer.zip!inner.jar!dir/", entries.get(1).getPath());
+		assertTrue(entries.get(1).isDirectory());
+		assertEquals("outer.zip!inner.jar!dir/file.txt", entries.get(2).getPath());
+		assertEquals(8, entries.get(2).getSize());
+		assertEquals(8, entries.get(2).getCompressedSize());
+		assertEquals("outer.zip!other.txt", entries.get(3).getPath());
+
+		IOException e = assertThrows(IOException.class,
+				() -> ZipUtils.listZipRecursive("outer.zip", ChannelZipFileTest.createZip(true, "inner.jar", "not a zip")));
+		TestHelpers.assertContains(e, "outer.zip!inner.jar");
+
+		assertThrows(IOException.class, () -> ZipUtils.listZipRecursive(new File("notexisting.zip")));
+	}
+
 	private File createNestedZip() throws IOException {
 		File zipfile = File.createTempFile("zipfile", ".zip");
 
@@ -610,6 +765,162 @@ public class ZipUtilsTest {
 		}
 	}
 
+	@Test
+	public void testReplaceInZipMultiple() throws IOException {
+		File zipfile = File.createTempFile("ZipUtils", ".zip");
+		try {
+			byte[] nested = ChannelZipFileTest.createZip(false, "inner.txt", "innerdata");
+			FileUtils.writeByteArrayToFile(zipfile, ChannelZipFileTest.createZip(false,
+					"file1.txt", "somedata1", "dir/", "", "nested.zip", nested, "file2.txt", "somedata2"));
+
+			List<ZipEntryInfo> before = ZipUtils.listZipRecursive(zipfile);
+
+			Map<String, String> data = new LinkedHashMap<>();
+			data.put("file2.txt", "newdata2");
+			data.put("file3.txt", "newdata3");
+			data.put("file1.txt", "newdata1");
+			ZipUtils.replaceInZip(zipfile, data, "UTF-8");
+
+			try (ZipFile checkZip = new ZipFile(zipfile)) {
+				List<String> names = new ArrayList<>();
+				checkZip.stream().forEach(entry -> names.add(entry.getName()));
+				assertEquals(Arrays.asList("file1.txt", "dir/", "nested.zip", "file2.txt", "file3.txt"), names);
+
+				for (int i = 1; i <= 3; i++) {
+					try (InputStream stream = checkZip.getInputStream(checkZip.getEntry("file" + i + ".txt"))) {
+						assertEquals("newdata" + i, IOUtils.toString(stream, StandardCharsets.UTF_8));
+					}
+				}
+			}
+
+			// unchanged entries are copied as-is
+			List<ZipEntryInfo> after = ZipUtils.listZipRecursive(zipfile);
+			for (int i : new int[] { 1, 2, 3 }) {
+				assertEquals(before.get(i).getName(), after.get(i).getName());
+				assertEquals(before.get(i).getCompressedSize(), after.get(i).getCompressedSize());
+				assertEquals(before.get(i).getCrc(), after.get(i).getCrc());
+				assertEquals(before.get(i).getTime(), after.get(i).getTime());
+			}
+			assertEquals("innerdata", ZipUtils.getZipStringContentsRecursive(zipfile.getAbsolutePath() + "!nested.zip!inner.txt"));
+		} finally {
+			assertTrue(zipfile.delete());
+		}
+	}
+
+	@Test
+	public void testReplaceInZipMultipleStreams() throws IOException {
+		File zipfile = File.createTempFile("ZipUtils", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(zipfile, ChannelZipFileTest.createZip(true, "file1.txt", "somedata1"));
+
+			byte[] large = new byte[300_000];
+			for (int i = 0; i < large.length; i++) {
+				large[i] = (byte) (i % 13);
+			}
+
+			Map<String, IOSupplier<InputStream>> replacements = new LinkedHashMap<>();
+			replacements.put("large.bin", () -> new ByteArrayInputStream(large));
+			ZipUtils.replaceInZip(zipfile, replacements);
+
+			try (ZipFile checkZip = new ZipFile(zipfile)) {
+				assertEquals(2, checkZip.size());
+				assertEquals(ZipEntry.STORED, checkZip.getEntry("file1.txt").getMethod());
+				try (InputStream stream = checkZip.getInputStream(checkZip.getEntry("large.bin"))) {
+					assertArrayEquals(large, IOUtils.toByteArray(stream));
+				}
+			}
+
+			// also readable when streaming
+			try (ZipInputStream stream = new ZipInputStream(new FileInputStream(zipfile))) {
+				assertEquals("file1.txt", stream.getNextEntry().getName());
+				assertEquals("somedata1", IOUtils.toString(stream, StandardCharsets.UTF_8));
+				assertEquals("large.bin", stream.getNextEntry().getName());
+				assertArrayEquals(large, IOUtils.toByteArray(stream));
+				assertNull(stream.getNextEntry());
+			}
+
+			// a failing supplier leaves the original file untouched
+			long length = zipfile.length();
+			replacements.put("file1.txt", () -> {
+				throw new IOException("testexception");
+			});
+			IOException e = assertThrows(IOException.class, () -> ZipUtils.replaceInZip(zipfile, replacements));
+			TestHelpers.assertContains(e, "testexception");
+			assertEquals(length, zipfile.length());
+		} finally {
+			assertTrue(zipfile.delete());
+		}
+	}
+
+	@Test
+	public void testFilterZip() throws IOException {
+		File zipfile = File.createTempFile("ZipUtils", ".zip");
+		File filtered = File.createTempFile("ZipUtils", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(zipfile, ChannelZipFileTest.createZip(false,
+					"file1.txt", "somedata1", "dir/", "", "file2.log", "somedata2", "file3.txt", "somedata3"));
+
+			// copying all entries verbatim results in the same file
+			ZipUtils.filterZip(zipfile, filtered, FileFilterUtils.trueFileFilter());
+			assertArrayEquals(FileUtils.readFileToByteArray(zipfile), FileUtils.readFileToByteArray(filtered));
+
+			ZipUtils.filterZip(zipfile, filtered, FileFilterUtils.suffixFileFilter(".txt"));
+			try (ZipFile checkZip = new ZipFile(filtered)) {
+				List<String> names = new ArrayList<>();
+				checkZip.stream().forEach(entry -> names.add(entry.getName()));
+				assertEquals(Arrays.asList("file1.txt", "file3.txt"), names);
+			}
+			assertEquals("somedata3", ZipUtils.getZipStringContentsRecursive(filtered.getAbsolutePath() + "!file3.txt"));
+
+			// filter in place
+			ZipUtils.filterZip(zipfile, zipfile, FileFilterUtils.suffixFileFilter(".log"));
+			try (ZipFile checkZip = new ZipFile(zipfile)) {
+				assertEquals(1, checkZip.size());
+			}
+			assertEquals("somedata2", ZipUtils.getZipStringContentsRecursive(zipfile.getAbsolutePath() + "!file2.log"));
+		} finally {
+			assertTrue(zipfile.delete());
+			assertTrue(filtered.delete());
+		}
+	}
+
+	@Test
+	public void testMergeZips() throws IOException {
+		File zipfile1 = File.createTempFile("ZipUtils", ".zip");
+		File zipfile2 = File.createTempFile("ZipUtils", ".zip");
+		File merged = File.createTempFile("ZipUtils", ".zip");
+		try {
+			FileUtils.writeByteArrayToFile(zipfile1, ChannelZipFileTest.createZip(false,
+					"file1.txt", "somedata1", "common.txt", "first"));
+			FileUtils.writeByteArrayToFile(zipfile2, ChannelZipFileTest.createZip(true,
+					"common.txt", "second", "file2.txt", "somedata2"));
+
+			ZipUtils.mergeZips(merged, Arrays.asList(zipfile1, zipfile2));
+
+			try (ZipFile checkZip = new ZipFile(merged)) {
+				List<String> names = new ArrayList<>();
+				checkZip.stream().forEach(entry -> names.add(entry.getName()));
+				assertEquals(Arrays.asList("file1.txt", "common.txt", "file2.txt"), names);
+				assertEquals(ZipEntry.STORED, checkZip.getEntry("file2.txt").getMethod());
+			}
+			assertEquals("first", ZipUtils.getZipStringContentsRecursive(merged.getAbsolutePath() + "!common.txt"));
+			assertEquals("somedata2", ZipUtils.getZipStringContentsRecursive(merged.getAbsolutePath() + "!file2.txt"));
+
+			// merging into one of the sources
+			ZipUtils.mergeZips(zipfile2, Arrays.asList(zipfile2, zipfile1));
+			assertEquals("second", ZipUtils.getZipStringContentsRecursive(zipfile2.getAbsolutePath() + "!common.txt"));
+			assertEquals("somedata1", ZipUtils.getZipStringContentsRecursive(zipfile2.getAbsolutePath() + "!file1.txt"));
+
+			assertThrows(IOException.class,
+					() -> ZipUtils.mergeZips(merged, Arrays.asList(zipfile1, new File("notexisting.zip"))));
+			assertEquals("first", ZipUtils.getZipStringContentsRecursive(merged.getAbsolutePath() + "!common.txt"));
+		} finally {
+			assertTrue(zipfile1.delete());
+			assertTrue(zipfile2.delete());
+			assertTrue(merged.delete());
+		}
+	}
+
 	@SuppressWarnings("UnnecessaryUnicodeEscape")
 	@Test
 	public void testReplaceInZipReplaceEncoding() throws IOException {